@@ -0,0 +1,88 @@
+package com.chaotic_loom.video_renderer.core;
+
+import com.chaotic_loom.video_renderer.Constants;
+import com.chaotic_loom.video_renderer.platform.Services;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Debug guard for the per-frame paths, which should not allocate once playback is warmed up.
+ * Measures the heap bytes the current thread allocates between {@link #begin()} and {@link #end()} and warns once
+ * when a frame after the warmup allocates anything.
+ * <p>
+ * Enabled in development environments or with -Dvideo_renderer.trackAllocations=true, otherwise every call is a no-op.
+ * Each instance belongs to a single thread. The JIT can allocate on the thread too (C2 interns the string constants of a
+ * class before compiling one of its methods), so an odd allocating frame can be a false alarm, a steady count of them is not.
+ */
+public class AllocationTracker {
+    public static final boolean ENABLED = Boolean.getBoolean("video_renderer.trackAllocations") || Services.PLATFORM.isDevelopmentEnvironment();
+
+    // Buffers grow, textures get created and the JIT settles during the first frames
+    public static final int WARMUP_FRAMES = 120;
+
+    // Only HotSpot-like VMs can tell the allocated bytes of a thread
+    private static final com.sun.management.ThreadMXBean THREADS = threadBean();
+
+    private final String name;
+    private long frames = 0;
+    private long startBytes = -1;
+    private long allocatingFrames = 0;
+    private long allocatedBytes = 0;
+    private boolean warned = false;
+
+    /**
+     * @param name What is measured, shown in the warning.
+     */
+    public AllocationTracker(String name) {
+        this.name = name;
+    }
+
+    public void begin() {
+        if (THREADS == null) return;
+        startBytes = THREADS.getCurrentThreadAllocatedBytes();
+    }
+
+    public void end() {
+        if (THREADS == null || startBytes < 0) return;
+
+        long allocated = THREADS.getCurrentThreadAllocatedBytes() - startBytes;
+        startBytes = -1;
+        if (++frames <= WARMUP_FRAMES || allocated <= 0) return;
+
+        allocatingFrames++;
+        allocatedBytes += allocated;
+        if (!warned) {
+            warned = true;
+            Constants.LOG.warn("{} allocated {} bytes in a steady-state frame (frame {}), the per-frame path should not allocate", name, allocated, frames);
+        }
+    }
+
+    /**
+     * Frames after the warmup that allocated something.
+     */
+    public long getAllocatingFrames() {
+        return allocatingFrames;
+    }
+
+    /**
+     * Bytes allocated by all frames after the warmup.
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    private static com.sun.management.ThreadMXBean threadBean() {
+        if (!ENABLED) return null;
+
+        try {
+            if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean bean && bean.isThreadAllocatedMemorySupported()) {
+                bean.setThreadAllocatedMemoryEnabled(true);
+                return bean;
+            }
+        } catch (Exception | LinkageError e) {
+            Constants.LOG.debug("Thread allocation counters unavailable", e);
+        }
+        Constants.LOG.info("Allocation tracking requested but this JVM cannot measure per-thread allocations");
+        return null;
+    }
+}
@@ -0,0 +1,221 @@
+package com.chaotic_loom.video_renderer.core;
+
+import com.mojang.blaze3d.platform.NativeImage;
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Base for animated image formats (GIF, APNG), where each frame is drawn over a canvas and has its own delay.
+ * <p>
+ * Playback needs a constant frame rate, so frames are shown on a fixed tick (the greatest common divisor of the delays)
+ * and repeated for as many ticks as their delay covers. Repeats only copy the canvas.
+ * No audio, and the output size is always the canvas size.
+ */
+public abstract class AnimatedImageSource implements VideoSource {
+    private static final int MIN_TICK_MILLIS = 10; // 100 fps, browsers clamp GIF delays way above that anyway
+
+    protected final int width;
+    protected final int height;
+    protected final ByteBuffer canvas; // RGBA, written with putInt(ABGR)
+
+    private final int tickMillis;
+    private final int[] frameTicks;
+    private final long lengthMicros;
+
+    private int nextFrame = 0;
+    private int repeatsLeft = 0;
+
+    // Disposal of the previous frame, applied right before the next one is drawn
+    private Disposal pendingDisposal = Disposal.NONE;
+    private int disposeX, disposeY, disposeWidth, disposeHeight;
+    private int[] savedArea = new int[0];
+
+    protected AnimatedImageSource(int width, int height, int[] delaysMillis) {
+        this.width = width;
+        this.height = height;
+
+        int tick = 0;
+        for (int delay : delaysMillis) {
+            tick = gcd(tick, Math.max(delay, MIN_TICK_MILLIS));
+        }
+        this.tickMillis = Math.max(tick, MIN_TICK_MILLIS);
+
+        this.frameTicks = new int[delaysMillis.length];
+        long totalTicks = 0;
+        for (int i = 0; i < delaysMillis.length; i++) {
+            frameTicks[i] = Math.max(1, Math.round((float) delaysMillis[i] / tickMillis));
+            totalTicks += frameTicks[i];
+        }
+        this.lengthMicros = totalTicks * tickMillis * 1000L;
+
+        int bytes = width * height * 4;
+        this.canvas = MemoryUtil.memCalloc(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        NativeResourceTracker.track(this, NativeResourceTracker.Kind.MEMORY, MemoryUtil.memAddress(canvas), bytes);
+    }
+
+    /**
+     * Draws frame {@code index} over the canvas, frames are always decoded in order. Starts with {@link #beginFrame}.
+     */
+    protected abstract void decodeFrame(int index) throws Exception;
+
+    /**
+     * Applies the disposal of the previous frame and remembers the one of this frame.
+     * The area is the part of the canvas the frame covers.
+     */
+    protected void beginFrame(int x, int y, int frameWidth, int frameHeight, Disposal disposal) {
+        // Clip to the canvas, broken files like to draw outside of it
+        int left = Math.max(0, Math.min(x, width));
+        int top = Math.max(0, Math.min(y, height));
+        int right = Math.max(left, Math.min(x + frameWidth, width));
+        int bottom = Math.max(top, Math.min(y + frameHeight, height));
+
+        switch (pendingDisposal) {
+            case BACKGROUND -> {
+                for (int row = disposeY; row < disposeY + disposeHeight; row++) {
+                    MemoryUtil.memSet(MemoryUtil.memAddress(canvas) + (row * (long) width + disposeX) * 4L, 0, disposeWidth * 4L);
+                }
+            }
+            case PREVIOUS -> {
+                for (int row = 0; row < disposeHeight; row++) {
+                    int offset = ((disposeY + row) * width + disposeX) * 4;
+                    for (int col = 0; col < disposeWidth; col++) {
+                        canvas.putInt(offset + col * 4, savedArea[row * disposeWidth + col]);
+                    }
+                }
+            }
+            default -> {}
+        }
+
+        pendingDisposal = disposal;
+        disposeX = left;
+        disposeY = top;
+        disposeWidth = right - left;
+        disposeHeight = bottom - top;
+
+        if (disposal == Disposal.PREVIOUS) {
+            int area = disposeWidth * disposeHeight;
+            if (savedArea.length < area) {
+                savedArea = new int[area];
+            }
+            for (int row = 0; row < disposeHeight; row++) {
+                int offset = ((disposeY + row) * width + disposeX) * 4;
+                for (int col = 0; col < disposeWidth; col++) {
+                    savedArea[row * disposeWidth + col] = canvas.getInt(offset + col * 4);
+                }
+            }
+        }
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public double getFrameRate() {
+        return 1000.0 / tickMillis;
+    }
+
+    @Override
+    public long getLengthInTime() {
+        return lengthMicros;
+    }
+
+    @Override
+    public long getNativeBytes() {
+        return canvas.capacity();
+    }
+
+    @Override
+    public long estimateAudioBytes() {
+        return 0;
+    }
+
+    @Override
+    public AudioPlayer openAudio(LoadProgressListener progressListener) {
+        return null;
+    }
+
+    @Override
+    public boolean readFrame(NativeImage target) throws Exception {
+        if (target.pixels == 0) throw new IllegalStateException("Target image is not allocated");
+
+        if (repeatsLeft > 0) {
+            repeatsLeft--;
+        } else {
+            if (nextFrame >= frameTicks.length) return false;
+            decodeFrame(nextFrame);
+            repeatsLeft = frameTicks[nextFrame] - 1;
+            nextFrame++;
+        }
+
+        MemoryUtil.memCopy(MemoryUtil.memAddress(canvas), target.pixels, canvas.capacity());
+        return true;
+    }
+
+    /**
+     * Repeats are free, frames still have to be drawn since each one builds on the previous canvas.
+     */
+    @Override
+    public int skipFrames(int count, NativeImage scratch) throws Exception {
+        int skipped = 0;
+        while (skipped < count) {
+            if (repeatsLeft > 0) {
+                int repeats = Math.min(repeatsLeft, count - skipped);
+                repeatsLeft -= repeats;
+                skipped += repeats;
+                continue;
+            }
+            if (nextFrame >= frameTicks.length) break;
+
+            decodeFrame(nextFrame);
+            repeatsLeft = frameTicks[nextFrame] - 1;
+            nextFrame++;
+            skipped++;
+        }
+        return skipped == 0 && count > 0 ? -1 : skipped;
+    }
+
+    @Override
+    public void rewind() {
+        nextFrame = 0;
+        repeatsLeft = 0;
+        pendingDisposal = Disposal.NONE;
+        MemoryUtil.memSet(MemoryUtil.memAddress(canvas), 0, canvas.capacity());
+    }
+
+    @Override
+    public void close() {
+        NativeResourceTracker.untrack(NativeResourceTracker.Kind.MEMORY, MemoryUtil.memAddress(canvas));
+        MemoryUtil.memFree(canvas);
+        NativeResourceTracker.reportLeaks(this);
+    }
+
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            int t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+
+    /**
+     * What happens to the area of a frame before the next one is drawn.
+     */
+    protected enum Disposal {
+        /** Left as is. */
+        NONE,
+        /** Cleared to transparent. */
+        BACKGROUND,
+        /** Restored to what it was before the frame. */
+        PREVIOUS
+    }
+}
@@ -0,0 +1,397 @@
+package com.chaotic_loom.video_renderer.core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Animated PNG decoder in plain Java, a plain PNG plays as a single frame.
+ * The chunks are indexed once when opened, then each frame is inflated row by row and drawn straight onto the canvas.
+ * <p>
+ * Interlaced files are left to FFmpeg.
+ */
+public class ApngVideoSource extends AnimatedImageSource {
+    private static final int IHDR = chunkType("IHDR");
+    private static final int PLTE = chunkType("PLTE");
+    private static final int TRNS = chunkType("tRNS");
+    private static final int FCTL = chunkType("fcTL");
+    private static final int IDAT = chunkType("IDAT");
+    private static final int FDAT = chunkType("fdAT");
+    private static final int IEND = chunkType("IEND");
+
+    private final byte[] data;
+    private final Frame[] frames;
+    private final int colorType;
+    private final int bitDepth;
+    private final int bitsPerPixel;
+    private final int[] palette; // ABGR, with the tRNS alpha
+    private final int transparentKey; // Gray or RGB sample that is fully transparent, -1 if none
+
+    private final Inflater inflater = new Inflater();
+    private byte[] currentRow = new byte[0];
+    private byte[] previousRow = new byte[0];
+
+    private ApngVideoSource(byte[] data, int width, int height, int colorType, int bitDepth, int[] palette,
+                            int transparentKey, Frame[] frames) {
+        super(width, height, delays(frames));
+        this.data = data;
+        this.frames = frames;
+        this.colorType = colorType;
+        this.bitDepth = bitDepth;
+        this.bitsPerPixel = channels(colorType) * bitDepth;
+        this.palette = palette;
+        this.transparentKey = transparentKey;
+    }
+
+    public static ApngVideoSource open(Path file) throws IOException {
+        byte[] data = Files.readAllBytes(file);
+        if (data.length < 8 || u32(data, 0) != 0x89504E47 || u32(data, 4) != 0x0D0A1A0A) {
+            throw new IOException("Not a PNG file: " + file);
+        }
+
+        int width = 0, height = 0, bitDepth = 0, colorType = 0;
+        int[] palette = new int[256];
+        int transparentKey = -1;
+
+        List<Frame> frames = new ArrayList<>();
+        FrameBuilder current = null;
+        FrameBuilder defaultImage = new FrameBuilder(); // IDAT, only shown when there is no animation
+
+        int pos = 8;
+        while (pos + 8 <= data.length) {
+            int length = u32(data, pos);
+            int type = u32(data, pos + 4);
+            int body = pos + 8;
+            if (length < 0 || body + length > data.length) break; // Truncated, keep what we have
+
+            if (type == IHDR) {
+                width = u32(data, body);
+                height = u32(data, body + 4);
+                bitDepth = data[body + 8] & 0xFF;
+                colorType = data[body + 9] & 0xFF;
+                if (data[body + 12] != 0) throw new IOException("Interlaced PNG: " + file);
+                if (!isSupported(colorType, bitDepth)) {
+                    throw new IOException("Unsupported PNG format (color type " + colorType + ", " + bitDepth + " bits): " + file);
+                }
+            } else if (type == PLTE) {
+                for (int i = 0; i < Math.min(256, length / 3); i++) {
+                    int r = data[body + i * 3] & 0xFF;
+                    int g = data[body + i * 3 + 1] & 0xFF;
+                    int b = data[body + i * 3 + 2] & 0xFF;
+                    palette[i] = 0xFF000000 | (b << 16) | (g << 8) | r;
+                }
+            } else if (type == TRNS) {
+                if (colorType == 3) {
+                    for (int i = 0; i < Math.min(256, length); i++) {
+                        palette[i] = (palette[i] & 0x00FFFFFF) | (data[body + i] & 0xFF) << 24;
+                    }
+                } else if (colorType == 0 && length >= 2) {
+                    transparentKey = u16(data, body);
+                } else if (colorType == 2 && length >= 6) {
+                    // Only 8 bit keys fit in an int next to each other, 16 bit ones compare the high bytes
+                    int shift = bitDepth == 16 ? 8 : 0;
+                    transparentKey = (u16(data, body) >> shift) << 16 | (u16(data, body + 2) >> shift) << 8 | (u16(data, body + 4) >> shift);
+                }
+            } else if (type == FCTL && length >= 26) {
+                if (current != null) frames.add(current.build());
+                current = new FrameBuilder();
+                current.width = u32(data, body + 4);
+                current.height = u32(data, body + 8);
+                current.x = u32(data, body + 12);
+                current.y = u32(data, body + 16);
+                int delayNum = u16(data, body + 20);
+                int delayDen = u16(data, body + 22);
+                current.delayMillis = delayNum * 1000 / (delayDen == 0 ? 100 : delayDen);
+                current.disposal = switch (data[body + 24]) {
+                    case 1 -> Disposal.BACKGROUND;
+                    case 2 -> frames.isEmpty() ? Disposal.BACKGROUND : Disposal.PREVIOUS; // Nothing to go back to yet
+                    default -> Disposal.NONE;
+                };
+                current.blendOver = data[body + 25] == 1;
+            } else if (type == IDAT) {
+                // With a fcTL before it, the default image is the first frame
+                (current != null ? current : defaultImage).addSegment(body, length);
+            } else if (type == FDAT && current != null && length > 4) {
+                current.addSegment(body + 4, length - 4); // After the sequence number
+            } else if (type == IEND) {
+                break;
+            }
+
+            pos = body + length + 4; // Skip the CRC
+        }
+
+        if (current != null) {
+            frames.add(current.build());
+        } else if (defaultImage.segmentCount > 0) {
+            defaultImage.width = width;
+            defaultImage.height = height;
+            defaultImage.delayMillis = 1000;
+            frames.add(defaultImage.build());
+        }
+
+        if (width <= 0 || height <= 0) throw new IOException("PNG has no size: " + file);
+        if (frames.isEmpty()) throw new IOException("PNG has no image data: " + file);
+        return new ApngVideoSource(data, width, height, colorType, bitDepth, palette, transparentKey, frames.toArray(new Frame[0]));
+    }
+
+    @Override
+    protected void decodeFrame(int index) throws IOException {
+        Frame frame = frames[index];
+        beginFrame(frame.x(), frame.y(), frame.width(), frame.height(), frame.disposal());
+
+        int rowBytes = (frame.width() * bitsPerPixel + 7) / 8;
+        int filterStride = Math.max(1, bitsPerPixel / 8);
+        if (currentRow.length < rowBytes + 1) {
+            currentRow = new byte[rowBytes + 1];
+            previousRow = new byte[rowBytes + 1];
+        }
+        Arrays.fill(previousRow, 0, rowBytes + 1, (byte) 0);
+
+        inflater.reset();
+        int segment = 0;
+
+        for (int row = 0; row < frame.height(); row++) {
+            // Filter type byte, then the row
+            segment = inflate(frame, segment, currentRow, rowBytes + 1);
+            unfilter(currentRow[0], currentRow, previousRow, rowBytes, filterStride);
+
+            int y = frame.y() + row;
+            if (y < height) {
+                drawRow(currentRow, frame, y);
+            }
+
+            byte[] swap = previousRow;
+            previousRow = currentRow;
+            currentRow = swap;
+        }
+    }
+
+    /**
+     * Inflates exactly {@code length} bytes, feeding the frame's chunks as the inflater asks for them.
+     * @return the next segment to feed.
+     */
+    private int inflate(Frame frame, int segment, byte[] out, int length) throws IOException {
+        int done = 0;
+        try {
+            while (done < length) {
+                int inflated = inflater.inflate(out, done, length - done);
+                done += inflated;
+                if (inflated > 0) continue;
+
+                if (inflater.needsInput() && segment < frame.segmentOffsets().length) {
+                    inflater.setInput(data, frame.segmentOffsets()[segment], frame.segmentLengths()[segment]);
+                    segment++;
+                } else {
+                    throw new IOException("Truncated PNG image data");
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt PNG image data", e);
+        }
+        return segment;
+    }
+
+    private static void unfilter(int filter, byte[] row, byte[] previous, int rowBytes, int stride) throws IOException {
+        switch (filter) {
+            case 0 -> {}
+            case 1 -> {
+                for (int i = 1 + stride; i <= rowBytes; i++) {
+                    row[i] += row[i - stride];
+                }
+            }
+            case 2 -> {
+                for (int i = 1; i <= rowBytes; i++) {
+                    row[i] += previous[i];
+                }
+            }
+            case 3 -> {
+                for (int i = 1; i <= rowBytes; i++) {
+                    int left = i > stride ? row[i - stride] & 0xFF : 0;
+                    row[i] += (byte) ((left + (previous[i] & 0xFF)) >>> 1);
+                }
+            }
+            case 4 -> {
+                for (int i = 1; i <= rowBytes; i++) {
+                    int a = i > stride ? row[i - stride] & 0xFF : 0;
+                    int b = previous[i] & 0xFF;
+                    int c = i > stride ? previous[i - stride] & 0xFF : 0;
+                    int p = a + b - c;
+                    int pa = Math.abs(p - a), pb = Math.abs(p - b), pc = Math.abs(p - c);
+                    row[i] += (byte) (pa <= pb && pa <= pc ? a : pb <= pc ? b : c);
+                }
+            }
+            default -> throw new IOException("Unknown PNG filter " + filter);
+        }
+    }
+
+    private void drawRow(byte[] row, Frame frame, int y) {
+        int columns = Math.min(frame.width(), width - frame.x());
+        int target = (y * width + frame.x()) * 4;
+
+        for (int col = 0; col < columns; col++) {
+            int color = pixel(row, col);
+            int offset = target + col * 4;
+
+            if (!frame.blendOver() || color >>> 24 == 0xFF) {
+                canvas.putInt(offset, color);
+            } else if (color >>> 24 != 0) {
+                canvas.putInt(offset, blend(canvas.getInt(offset), color));
+            }
+        }
+    }
+
+    /**
+     * @return the pixel as ABGR.
+     */
+    private int pixel(byte[] row, int x) {
+        int i = 1 + x * bitsPerPixel / 8; // Only whole bytes get here for the multi-byte formats
+        return switch (colorType) {
+            case 6 -> bitDepth == 8
+                    ? (row[i + 3] & 0xFF) << 24 | (row[i + 2] & 0xFF) << 16 | (row[i + 1] & 0xFF) << 8 | (row[i] & 0xFF)
+                    : (row[i + 6] & 0xFF) << 24 | (row[i + 4] & 0xFF) << 16 | (row[i + 2] & 0xFF) << 8 | (row[i] & 0xFF);
+            case 2 -> {
+                int step = bitDepth / 8;
+                int r = row[i] & 0xFF, g = row[i + step] & 0xFF, b = row[i + step * 2] & 0xFF;
+                int alpha = (r << 16 | g << 8 | b) == transparentKey ? 0 : 0xFF;
+                yield alpha << 24 | b << 16 | g << 8 | r;
+            }
+            case 4 -> {
+                int step = bitDepth / 8;
+                int gray = row[i] & 0xFF;
+                yield (row[i + step] & 0xFF) << 24 | gray << 16 | gray << 8 | gray;
+            }
+            case 3 -> palette[sample(row, x)];
+            default -> {
+                // Gray, scaled up to 8 bits
+                int value = bitDepth == 16 ? (row[i] & 0xFF) << 8 | (row[i + 1] & 0xFF) : sample(row, x);
+                int gray = bitDepth == 16 ? value >> 8 : value * 255 / ((1 << bitDepth) - 1);
+                int alpha = value == transparentKey ? 0 : 0xFF;
+                yield alpha << 24 | gray << 16 | gray << 8 | gray;
+            }
+        };
+    }
+
+    /**
+     * Reads a sample of 8 bits or less.
+     */
+    private int sample(byte[] row, int x) {
+        if (bitDepth == 8) return row[1 + x] & 0xFF;
+
+        int bit = x * bitDepth;
+        int shift = 8 - bitDepth - (bit & 7);
+        return (row[1 + (bit >> 3)] >> shift) & ((1 << bitDepth) - 1);
+    }
+
+    /**
+     * Source over destination, both ABGR with straight alpha.
+     */
+    private static int blend(int dst, int src) {
+        int srcAlpha = src >>> 24;
+        int dstAlpha = dst >>> 24;
+        int outAlpha = srcAlpha + dstAlpha * (255 - srcAlpha) / 255;
+        if (outAlpha == 0) return 0;
+
+        int result = outAlpha << 24;
+        for (int shift = 0; shift < 24; shift += 8) {
+            int s = (src >> shift) & 0xFF;
+            int d = (dst >> shift) & 0xFF;
+            int c = (s * srcAlpha + d * dstAlpha * (255 - srcAlpha) / 255) / outAlpha;
+            result |= Math.min(c, 255) << shift;
+        }
+        return result;
+    }
+
+    @Override
+    public void close() {
+        inflater.end();
+        super.close();
+    }
+
+    private static boolean isSupported(int colorType, int bitDepth) {
+        return switch (colorType) {
+            case 0 -> bitDepth == 1 || bitDepth == 2 || bitDepth == 4 || bitDepth == 8 || bitDepth == 16;
+            case 3 -> bitDepth == 1 || bitDepth == 2 || bitDepth == 4 || bitDepth == 8;
+            case 2, 4, 6 -> bitDepth == 8 || bitDepth == 16;
+            default -> false;
+        };
+    }
+
+    private static int channels(int colorType) {
+        return switch (colorType) {
+            case 2 -> 3;
+            case 4 -> 2;
+            case 6 -> 4;
+            default -> 1;
+        };
+    }
+
+    private static int chunkType(String name) {
+        return name.charAt(0) << 24 | name.charAt(1) << 16 | name.charAt(2) << 8 | name.charAt(3);
+    }
+
+    private static int u32(byte[] data, int pos) {
+        return (data[pos] & 0xFF) << 24 | (data[pos + 1] & 0xFF) << 16 | (data[pos + 2] & 0xFF) << 8 | (data[pos + 3] & 0xFF);
+    }
+
+    private static int u16(byte[] data, int pos) {
+        return (data[pos] & 0xFF) << 8 | (data[pos + 1] & 0xFF);
+    }
+
+    private static int[] delays(Frame[] frames) {
+        int[] delays = new int[frames.length];
+        for (int i = 0; i < frames.length; i++) {
+            delays[i] = frames[i].delayMillis();
+        }
+        return delays;
+    }
+
+    private record Frame(int x, int y, int width, int height, int delayMillis, Disposal disposal, boolean blendOver,
+                         int[] segmentOffsets, int[] segmentLengths) {}
+
+    private static class FrameBuilder {
+        private int x, y, width, height, delayMillis;
+        private Disposal disposal = Disposal.NONE;
+        private boolean blendOver;
+        private int[] offsets = new int[4];
+        private int[] lengths = new int[4];
+        private int segmentCount;
+
+        private void addSegment(int offset, int length) {
+            if (segmentCount == offsets.length) {
+                offsets = Arrays.copyOf(offsets, segmentCount * 2);
+                lengths = Arrays.copyOf(lengths, segmentCount * 2);
+            }
+            offsets[segmentCount] = offset;
+            lengths[segmentCount] = length;
+            segmentCount++;
+        }
+
+        private Frame build() {
+            return new Frame(x, y, width, height, delayMillis, disposal, blendOver,
+                    Arrays.copyOf(offsets, segmentCount), Arrays.copyOf(lengths, segmentCount));
+        }
+    }
+
+    public static class Provider implements VideoSourceProvider {
+        @Override
+        public String getName() {
+            return "APNG";
+        }
+
+        @Override
+        public boolean accepts(String fileName, ByteBuffer header) {
+            return header.remaining() >= 8 && header.getLong(header.position()) == 0x89504E470D0A1A0AL;
+        }
+
+        @Override
+        public VideoSource open(Path file) throws Exception {
+            return ApngVideoSource.open(file);
+        }
+    }
+}
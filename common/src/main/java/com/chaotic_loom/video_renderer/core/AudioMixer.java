@@ -0,0 +1,332 @@
+package com.chaotic_loom.video_renderer.core;
+
+import com.chaotic_loom.video_renderer.Constants;
+import org.lwjgl.openal.AL10;
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Mixes the soundtracks of all videos into a single streaming OpenAL source, so many videos do not take sources away
+ * from Minecraft's sound engine. Enabled with {@link VideoPlayerController#setAudioMixing(boolean)}.
+ * <p>
+ * Each {@link AudioPlayer} becomes a {@link Voice} reading its own PCM, with its gain, pitch and an optional position for
+ * distance attenuation. A mixer thread keeps a few small buffers queued on the source, mixing each one into a float
+ * accumulator with flat loops over arrays that the JIT can vectorize. Nothing is allocated once it runs.
+ */
+public class AudioMixer {
+    public static final int SAMPLE_RATE = 44100;
+
+    private static final int CHUNK_FRAMES = 1024; // About 23 ms
+    private static final int BUFFER_COUNT = 4;
+    private static final long CHUNK_NANOS = CHUNK_FRAMES * 1_000_000_000L / SAMPLE_RATE;
+
+    private final List<Voice> voices = new CopyOnWriteArrayList<>();
+
+    // Mixer thread only
+    private final float[] mix = new float[CHUNK_FRAMES * 2];
+    private final short[] samples = new short[(CHUNK_FRAMES + 2) * 2];
+    private final ByteBuffer output;
+    private final ShortBuffer outputSamples;
+
+    private final int sourceId;
+    private final int[] bufferIds = new int[BUFFER_COUNT];
+    private final Thread thread;
+    private volatile boolean running = true;
+    private volatile boolean closeWhenIdle = false;
+
+    // Listener for the distance attenuation, written by the render thread
+    private volatile double listenerX;
+    private volatile double listenerY;
+    private volatile double listenerZ;
+
+    /**
+     * Creates the OpenAL source and starts mixing. Must be called on the render thread.
+     */
+    public AudioMixer() {
+        output = MemoryUtil.memAlloc(CHUNK_FRAMES * 2 * 2).order(ByteOrder.nativeOrder());
+        outputSamples = output.asShortBuffer();
+        NativeResourceTracker.track(this, NativeResourceTracker.Kind.MEMORY, MemoryUtil.memAddress(output), output.capacity());
+
+        sourceId = AL10.alGenSources();
+        NativeResourceTracker.track(this, NativeResourceTracker.Kind.AL_SOURCE, sourceId, 0);
+        AL10.alGenBuffers(bufferIds);
+        for (int buffer : bufferIds) {
+            NativeResourceTracker.track(this, NativeResourceTracker.Kind.AL_BUFFER, buffer, output.capacity());
+            fill(buffer);
+            AL10.alSourceQueueBuffers(sourceId, buffer);
+        }
+        AL10.alSourcePlay(sourceId);
+
+        thread = new Thread(this::mixLoop, "Video-Mixer-Thread");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Starts mixing the PCM, paused. The PCM stays owned by the caller and must outlive the voice.
+     * @param pcm Interleaved 16 bit samples in native order, mono or stereo.
+     */
+    public Voice add(ByteBuffer pcm, int channels, int sampleRate) {
+        Voice voice = new Voice(this, pcm.asShortBuffer(), channels, sampleRate);
+        voices.add(voice);
+        return voice;
+    }
+
+    /**
+     * Stops mixing the voice. Once this returns the mixer no longer reads its PCM.
+     */
+    public void remove(Voice voice) {
+        synchronized (this) {
+            voices.remove(voice);
+        }
+    }
+
+    /**
+     * Where the player hears from, usually the camera. Called by the controller every frame.
+     */
+    public void setListener(double x, double y, double z) {
+        listenerX = x;
+        listenerY = y;
+        listenerZ = z;
+    }
+
+    public int getVoiceCount() {
+        return voices.size();
+    }
+
+    /**
+     * Stops the mixer once its last voice is removed, videos still playing keep their sound.
+     */
+    public void closeWhenIdle() {
+        closeWhenIdle = true;
+        LockSupport.unpark(thread);
+    }
+
+    private void mixLoop() {
+        try {
+            while (running) {
+                if (closeWhenIdle && voices.isEmpty()) break;
+
+                int processed = AL10.alGetSourcei(sourceId, AL10.AL_BUFFERS_PROCESSED);
+                while (processed-- > 0) {
+                    int buffer = AL10.alSourceUnqueueBuffers(sourceId);
+                    fill(buffer);
+                    AL10.alSourceQueueBuffers(sourceId, buffer);
+                }
+
+                // Ran dry (the game hitched), start again from what is queued
+                if (AL10.alGetSourcei(sourceId, AL10.AL_SOURCE_STATE) != AL10.AL_PLAYING) {
+                    AL10.alSourcePlay(sourceId);
+                }
+
+                LockSupport.parkNanos(CHUNK_NANOS / 2);
+            }
+        } catch (Exception e) {
+            Constants.LOG.error("Exception in audio mixer", e);
+        }
+
+        release();
+    }
+
+    /**
+     * Mixes the next chunk of every voice into the buffer.
+     */
+    private synchronized void fill(int buffer) {
+        Arrays.fill(mix, 0);
+
+        for (int v = 0; v < voices.size(); v++) {
+            Voice voice = voices.get(v);
+            if (!voice.playing) continue;
+
+            // Stop and setOffset land here, between chunks
+            double seek = voice.pendingSeek;
+            if (seek >= 0) {
+                voice.pendingSeek = -1;
+                voice.position = seek;
+            }
+
+            float gain = voice.gain * attenuation(voice);
+            double step = voice.pitch * voice.sampleRate / SAMPLE_RATE;
+            if (step == 1.0 && voice.channels == 2) {
+                mixStereo(voice, gain);
+            } else {
+                mixResampled(voice, gain, step);
+            }
+        }
+
+        // Back to 16 bit, clamped
+        int count = CHUNK_FRAMES * 2;
+        for (int i = 0; i < count; i++) {
+            samples[i] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, (int) mix[i]));
+        }
+        outputSamples.put(0, samples, 0, count);
+        AL10.alBufferData(buffer, AL10.AL_FORMAT_STEREO16, output, SAMPLE_RATE);
+    }
+
+    /**
+     * Same rate and layout as the output: a bulk copy and a multiply-add, the common case.
+     */
+    private void mixStereo(Voice voice, float gain) {
+        int start = (int) voice.position;
+        int frames = Math.min(CHUNK_FRAMES, voice.frames - start);
+        if (frames <= 0) {
+            voice.playing = false;
+            return;
+        }
+
+        int count = frames * 2;
+        voice.pcm.get(start * 2, samples, 0, count);
+        for (int i = 0; i < count; i++) {
+            mix[i] += samples[i] * gain;
+        }
+        advance(voice, frames);
+    }
+
+    /**
+     * Other rates, other pitches and mono, with linear interpolation.
+     */
+    private void mixResampled(Voice voice, float gain, double step) {
+        double position = voice.position;
+        int channels = voice.channels;
+
+        // The source frames this chunk spans, plus one to interpolate against
+        int start = (int) position;
+        int span = (int) Math.min((long) Math.ceil(CHUNK_FRAMES * step) + 1, voice.frames - start);
+        if (span <= 1) {
+            voice.playing = false;
+            return;
+        }
+        span = Math.min(span, samples.length / channels);
+        voice.pcm.get(start * channels, samples, 0, span * channels);
+
+        int mixed = 0;
+        for (; mixed < CHUNK_FRAMES; mixed++) {
+            double offset = position - start + mixed * step;
+            int index = (int) offset;
+            if (index + 1 >= span) break;
+
+            float t = (float) (offset - index);
+            int a = index * channels;
+            int b = a + channels;
+            float left = samples[a] + (samples[b] - samples[a]) * t;
+            float right = channels == 2 ? samples[a + 1] + (samples[b + 1] - samples[a + 1]) * t : left;
+            mix[mixed * 2] += left * gain;
+            mix[mixed * 2 + 1] += right * gain;
+        }
+        advance(voice, mixed * step);
+    }
+
+    private static void advance(Voice voice, double frames) {
+        voice.position += frames;
+        if (voice.position >= voice.frames - 1) {
+            voice.playing = false; // Like a source reaching the end of its buffer
+        }
+    }
+
+    /**
+     * Linear falloff to silence at the voice's max distance, 1 for voices without a position.
+     */
+    private float attenuation(Voice voice) {
+        if (voice.maxDistance <= 0) return 1.0f;
+
+        double dx = voice.x - listenerX;
+        double dy = voice.y - listenerY;
+        double dz = voice.z - listenerZ;
+        double distance = Math.sqrt(dx * dx + dy * dy + dz * dz);
+        return (float) Math.max(0, 1 - distance / voice.maxDistance);
+    }
+
+    private void release() {
+        running = false;
+        AL10.alSourceStop(sourceId);
+        AL10.alDeleteSources(sourceId);
+        AL10.alDeleteBuffers(bufferIds);
+        NativeResourceTracker.untrack(NativeResourceTracker.Kind.AL_SOURCE, sourceId);
+        for (int buffer : bufferIds) {
+            NativeResourceTracker.untrack(NativeResourceTracker.Kind.AL_BUFFER, buffer);
+        }
+
+        NativeResourceTracker.untrack(NativeResourceTracker.Kind.MEMORY, MemoryUtil.memAddress(output));
+        MemoryUtil.memFree(output);
+        NativeResourceTracker.reportLeaks(this);
+        Constants.LOG.info("Audio mixer stopped");
+    }
+
+    /**
+     * One soundtrack in the mix. Controlled from the render thread, read by the mixer thread.
+     */
+    public static class Voice {
+        private final AudioMixer mixer;
+        private final ShortBuffer pcm;
+        private final int channels;
+        private final int sampleRate;
+        private final int frames;
+
+        private volatile boolean playing = false;
+        private volatile float gain = 1.0f;
+        private volatile float pitch = 1.0f;
+        private volatile double pendingSeek = -1;
+        private double position = 0; // Source frames, mixer thread only
+
+        private volatile double x, y, z;
+        private volatile float maxDistance = 0;
+
+        private Voice(AudioMixer mixer, ShortBuffer pcm, int channels, int sampleRate) {
+            this.mixer = mixer;
+            this.pcm = pcm;
+            this.channels = Math.max(1, Math.min(2, channels));
+            this.sampleRate = sampleRate;
+            this.frames = pcm.remaining() / this.channels;
+        }
+
+        public void play() {
+            playing = true;
+        }
+
+        public void pause() {
+            playing = false;
+        }
+
+        /**
+         * Pauses and goes back to the start.
+         */
+        public void stop() {
+            playing = false;
+            pendingSeek = 0;
+        }
+
+        public void setGain(float gain) {
+            this.gain = gain;
+        }
+
+        public void setPitch(float pitch) {
+            this.pitch = pitch;
+        }
+
+        public void setOffsetSeconds(float seconds) {
+            pendingSeek = Math.max(0, seconds * (double) sampleRate);
+        }
+
+        /**
+         * Fades the voice out linearly with the distance to the listener, silent at {@code maxDistance}.
+         * A max distance of 0 or less turns the attenuation off.
+         */
+        public void setPosition(double x, double y, double z, float maxDistance) {
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.maxDistance = maxDistance;
+        }
+
+        public void remove() {
+            mixer.remove(this);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.chaotic_loom.video_renderer.core;
 
+import com.chaotic_loom.video_renderer.Constants;
 import org.bytedeco.ffmpeg.global.avcodec;
 import org.bytedeco.ffmpeg.global.avutil;
 import org.bytedeco.javacv.FFmpegFrameGrabber;
@@ -7,12 +8,14 @@ import org.bytedeco.javacv.FFmpegFrameRecorder;
 import org.bytedeco.javacv.Frame;
 import org.lwjgl.BufferUtils;
 import org.lwjgl.openal.AL10;
+import org.lwjgl.openal.AL11;
 import org.lwjgl.stb.STBVorbis;
 import org.lwjgl.system.MemoryStack;
 import org.lwjgl.system.MemoryUtil;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.*;
 import java.nio.file.Files;
 import java.util.UUID;
@@ -21,9 +24,11 @@ import java.util.UUID;
  * Simple AudioPlayer that:
  * - Uses bundled JavaCV (ffmpeg) to extract audio from an .mp4 to a temporary .ogg
  * - Decodes the .ogg via STBVorbis to PCM
- * - Uploads PCM to an OpenAL buffer and plays it from a source
+ * - Uploads PCM to an OpenAL buffer and plays it from a source, or hands it to the {@link AudioMixer} when mixing is on
  *
- * This loads the whole PCM into memory. For long files implement streaming.
+ * The constructor does all the decoding and can run on any thread, {@link #upload()} does the OpenAL work.
+ * This loads the whole PCM into memory, streams that are still downloading are decoded while they play instead
+ * (see {@link StreamingAudio}).
  */
 public class AudioPlayer {
     // Static block to silence FFmpeg logging
@@ -31,79 +36,180 @@ public class AudioPlayer {
         avutil.av_log_set_level(avutil.AV_LOG_QUIET);
     }*/
 
-    private final int bufferId;
-    private final int sourceId;
-    private final File tempOgg;
+    private int bufferId;
+    private int sourceId;
     private float volume = 1.0f;
+    private float pitch = 1.0f;
     private boolean prepared = false;
+    private AudioMixer.Voice voice; // Set when mixed, then there is no source of our own
+    private StreamingAudio stream; // Set when decoded while playing, it has its own source
+
+    // Decoded PCM, waiting for upload(). A mixed voice reads it until cleanup()
+    private ByteBuffer pcmData;
+    private int channels;
+    private int sampleRate;
 
     /**
      * @param filePath path to an .mp4 (or .ogg) file
-     * @throws RuntimeException on failure (ffmpeg missing, decode error, OpenAL error)
+     * @throws RuntimeException on failure (ffmpeg missing, decode error)
      */
     public AudioPlayer(String filePath) {
+        this(filePath, LoadProgressListener.NONE);
+    }
+
+    /**
+     * @param filePath path to an .mp4 (or .ogg) file
+     * @param progressListener notified while the audio is extracted and decoded
+     * @throws RuntimeException on failure (ffmpeg missing, decode error)
+     */
+    public AudioPlayer(String filePath, LoadProgressListener progressListener) {
+        File tempOgg = null;
+
         try {
             File input = new File(filePath);
             if (!input.exists()) throw new IllegalArgumentException("file not found: " + filePath);
 
             // If it's already an OGG file, use it. Otherwise, run ffmpeg to extract audio to a temp .ogg
+            File ogg;
             if (filePath.toLowerCase().endsWith(".ogg")) {
-                tempOgg = input;
+                ogg = input;
             } else {
                 tempOgg = File.createTempFile("clm_audio_" + UUID.randomUUID(), ".ogg");
-                tempOgg.deleteOnExit(); // best-effort
-                runFfmpegExtractAudio(input, tempOgg);
+                NativeResourceTracker.track(this, NativeResourceTracker.Kind.TEMP_FILE, tempOgg.toPath(), 0);
+                runFfmpegExtractAudio(input, tempOgg, progressListener);
+                ogg = tempOgg;
             }
 
             // Decode OGG -> raw PCM (ShortBuffer)
-            ByteBuffer oggData = ioReadFileToByteBuffer(tempOgg);
-            IntBuffer channelsBuf = BufferUtils.createIntBuffer(1);
-            IntBuffer sampleRateBuf = BufferUtils.createIntBuffer(1);
-
-            ShortBuffer pcm = STBVorbis.stb_vorbis_decode_memory(oggData, channelsBuf, sampleRateBuf);
-            if (pcm == null) throw new RuntimeException("Failed to decode OGG data with STBVorbis.");
-
-            int channels = channelsBuf.get(0);
-            int sampleRate = sampleRateBuf.get(0);
-
-            // Convert ShortBuffer -> ByteBuffer (little-endian) for OpenAL
-            pcm.rewind();
-            ByteBuffer pcmBytes = MemoryUtil.memAlloc(pcm.remaining() * 2);
-            pcmBytes.order(ByteOrder.nativeOrder());
-            while (pcm.hasRemaining()) pcmBytes.putShort(pcm.get());
-            pcmBytes.flip();
-
-            // Create OpenAL buffer & fill it
-            bufferId = AL10.alGenBuffers();
-            int format = (channels == 1) ? AL10.AL_FORMAT_MONO16 : AL10.AL_FORMAT_STEREO16;
-            AL10.alBufferData(bufferId, format, pcmBytes, sampleRate);
-
-            // Create source and attach buffer
-            sourceId = AL10.alGenSources();
-            AL10.alSourcei(sourceId, AL10.AL_BUFFER, bufferId);
-            AL10.alSourcef(sourceId, AL10.AL_GAIN, volume);
+            progressListener.onProgress(LoadProgressListener.Stage.DECODING_AUDIO, 0.0f);
+            ByteBuffer oggData = ioReadFileToByteBuffer(ogg);
+            NativeResourceTracker.track(this, NativeResourceTracker.Kind.MEMORY, MemoryUtil.memAddress(oggData), oggData.capacity());
 
-            // Free native memory we allocated
-            MemoryUtil.memFree(pcmBytes);
-            // Note: STBVorbis's returned ShortBuffer is allocated by the native lib; free it:
-            MemoryUtil.memFree(pcm);
+            // The temp file is not needed once it is in memory
+            deleteTempOgg(tempOgg);
+            tempOgg = null;
 
-            // we can free the ByteBuffer holding the ogg file bytes
-            MemoryUtil.memFree(oggData);
+            try {
+                IntBuffer channelsBuf = BufferUtils.createIntBuffer(1);
+                IntBuffer sampleRateBuf = BufferUtils.createIntBuffer(1);
+
+                ShortBuffer pcm = STBVorbis.stb_vorbis_decode_memory(oggData, channelsBuf, sampleRateBuf);
+                if (pcm == null) throw new RuntimeException("Failed to decode OGG data with STBVorbis.");
+
+                channels = channelsBuf.get(0);
+                sampleRate = sampleRateBuf.get(0);
+
+                // Convert ShortBuffer -> ByteBuffer (little-endian) for OpenAL, kept until upload()
+                pcm.rewind();
+                pcmData = MemoryUtil.memAlloc(pcm.remaining() * 2);
+                NativeResourceTracker.track(this, NativeResourceTracker.Kind.MEMORY, MemoryUtil.memAddress(pcmData), pcmData.capacity());
+                pcmData.order(ByteOrder.nativeOrder());
+                while (pcm.hasRemaining()) pcmData.putShort(pcm.get());
+                pcmData.flip();
+
+                // Note: STBVorbis's returned ShortBuffer is allocated by the native lib; free it:
+                MemoryUtil.memFree(pcm);
+            } finally {
+                // we can free the ByteBuffer holding the ogg file bytes
+                NativeResourceTracker.untrack(NativeResourceTracker.Kind.MEMORY, MemoryUtil.memAddress(oggData));
+                MemoryUtil.memFree(oggData);
+            }
 
-            prepared = true;
+            progressListener.onProgress(LoadProgressListener.Stage.DECODING_AUDIO, 1.0f);
         } catch (IOException e) {
+            deleteTempOgg(tempOgg);
+            freePcmData();
             throw new RuntimeException("IO error preparing audio: " + e.getMessage(), e);
         } catch (Exception e) {
+            deleteTempOgg(tempOgg);
+            freePcmData();
             throw new RuntimeException("Failed to prepare AudioPlayer: " + e.getMessage(), e);
         }
     }
 
+    /**
+     * Wraps PCM that is already decoded (interleaved, 16 bit, native order). The data is copied.
+     * @param pcm the samples, from position to limit
+     */
+    public AudioPlayer(ByteBuffer pcm, int channels, int sampleRate) {
+        this.channels = channels;
+        this.sampleRate = sampleRate;
+
+        pcmData = MemoryUtil.memAlloc(pcm.remaining());
+        NativeResourceTracker.track(this, NativeResourceTracker.Kind.MEMORY, MemoryUtil.memAddress(pcmData), pcmData.capacity());
+        MemoryUtil.memCopy(MemoryUtil.memAddress(pcm), MemoryUtil.memAddress(pcmData), pcm.remaining());
+    }
+
+    /**
+     * Decodes the soundtrack of a stream while it plays, nothing is decoded up front.
+     * @param in A stream of its own, closed with the player.
+     * @param name Only used to identify the stream.
+     * @throws RuntimeException if FFmpeg can not open it.
+     */
+    public AudioPlayer(InputStream in, String name) {
+        try {
+            stream = new StreamingAudio(in, name);
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to open audio stream " + name + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Creates the OpenAL buffer and source from the decoded PCM, or joins the mixer when audio mixing is on.
+     * Must be called on the render thread.
+     */
+    public void upload() {
+        if (prepared) return;
+
+        if (stream != null) {
+            stream.upload(volume, pitch);
+            prepared = true;
+            return;
+        }
+        if (pcmData == null) return;
+
+        // Mixed, the PCM stays here instead of being copied into OpenAL
+        AudioMixer mixer = VideoPlayerController.getAudioMixer();
+        if (mixer != null) {
+            voice = mixer.add(pcmData, channels, sampleRate);
+            voice.setGain(volume);
+            voice.setPitch(pitch);
+            prepared = true;
+            return;
+        }
+
+        // Create OpenAL buffer & fill it
+        bufferId = AL10.alGenBuffers();
+        int format = (channels == 1) ? AL10.AL_FORMAT_MONO16 : AL10.AL_FORMAT_STEREO16;
+        AL10.alBufferData(bufferId, format, pcmData, sampleRate);
+        NativeResourceTracker.track(this, NativeResourceTracker.Kind.AL_BUFFER, bufferId, pcmData.remaining());
+
+        // Create source and attach buffer
+        sourceId = AL10.alGenSources();
+        AL10.alSourcei(sourceId, AL10.AL_BUFFER, bufferId);
+        AL10.alSourcef(sourceId, AL10.AL_GAIN, volume);
+        AL10.alSourcef(sourceId, AL10.AL_PITCH, pitch);
+        NativeResourceTracker.track(this, NativeResourceTracker.Kind.AL_SOURCE, sourceId, 0);
+
+        // OpenAL keeps its own copy, free native memory we allocated
+        freePcmData();
+
+        prepared = true;
+    }
+
     /**
      * Play or resume playback.
      */
     public void play() {
         if (!prepared) return;
+        if (voice != null) {
+            voice.play();
+            return;
+        }
+        if (stream != null) {
+            stream.play();
+            return;
+        }
         AL10.alSourcePlay(sourceId);
     }
 
@@ -112,6 +218,14 @@ public class AudioPlayer {
      */
     public void pause() {
         if (!prepared) return;
+        if (voice != null) {
+            voice.pause();
+            return;
+        }
+        if (stream != null) {
+            stream.pause();
+            return;
+        }
         AL10.alSourcePause(sourceId);
     }
 
@@ -120,6 +234,14 @@ public class AudioPlayer {
      */
     public void stop() {
         if (!prepared) return;
+        if (voice != null) {
+            voice.stop();
+            return;
+        }
+        if (stream != null) {
+            stream.stop();
+            return;
+        }
         AL10.alSourceStop(sourceId);
         // reset position to start
         AL10.alSourceRewind(sourceId);
@@ -130,7 +252,13 @@ public class AudioPlayer {
      */
     public void setVolume(float volume) {
         this.volume = volume;
-        if (prepared) AL10.alSourcef(sourceId, AL10.AL_GAIN, volume);
+        if (voice != null) {
+            voice.setGain(volume);
+        } else if (stream != null) {
+            stream.setGain(volume);
+        } else if (prepared) {
+            AL10.alSourcef(sourceId, AL10.AL_GAIN, volume);
+        }
     }
 
     public float getVolume() {
@@ -138,31 +266,99 @@ public class AudioPlayer {
     }
 
     /**
-     * Free resources (stops playback, deletes OpenAL objects, removes temp file).
+     * Playback speed, OpenAL resamples so the pitch changes with it.
+     */
+    public void setPitch(float pitch) {
+        this.pitch = pitch;
+        if (voice != null) {
+            voice.setPitch(pitch);
+        } else if (stream != null) {
+            stream.setPitch(pitch);
+        } else if (prepared) {
+            AL10.alSourcef(sourceId, AL10.AL_PITCH, pitch);
+        }
+    }
+
+    /**
+     * Moves the playback position, used to resync with the video.
+     */
+    public void setOffsetSeconds(float seconds) {
+        if (!prepared) return;
+        if (voice != null) {
+            voice.setOffsetSeconds(seconds);
+            return;
+        }
+        if (stream != null) {
+            stream.setOffsetSeconds(seconds);
+            return;
+        }
+        AL10.alSourcef(sourceId, AL11.AL_SEC_OFFSET, seconds);
+    }
+
+    /**
+     * Fades the audio out with the distance to the camera, silent at {@code maxDistance}. Only when mixed,
+     * OpenAL does not position stereo sources (streamed soundtracks are never mixed). A max distance of 0 or less turns it off.
+     */
+    public void setPosition(double x, double y, double z, float maxDistance) {
+        if (voice != null) voice.setPosition(x, y, z, maxDistance);
+    }
+
+    public boolean isMixed() {
+        return voice != null;
+    }
+
+    /**
+     * Free resources (stops playback, deletes OpenAL objects, frees PCM that was never uploaded).
+     * The temp file is already gone once the constructor returns.
      */
     public void cleanup() {
-        if (prepared) {
+        if (stream != null) {
+            stream.cleanup();
+            stream = null;
+        } else if (voice != null) {
+            // Blocks until the mixer is done with the PCM, freed below
+            voice.remove();
+            voice = null;
+        } else if (prepared) {
             AL10.alSourceStop(sourceId);
             AL10.alDeleteSources(sourceId);
             AL10.alDeleteBuffers(bufferId);
+            NativeResourceTracker.untrack(NativeResourceTracker.Kind.AL_SOURCE, sourceId);
+            NativeResourceTracker.untrack(NativeResourceTracker.Kind.AL_BUFFER, bufferId);
         }
 
-        // remove temp file if we created one
-        try {
-            if (tempOgg != null && tempOgg.exists() && tempOgg.getName().startsWith("clm_audio_")) {
-                tempOgg.delete();
-            }
-        } catch (Exception ignored) {}
+        // Never uploaded, or mixed
+        freePcmData();
 
         prepared = false;
+        NativeResourceTracker.reportLeaks(this);
     }
 
     // ----------------- Helpers -----------------
 
+    private void freePcmData() {
+        if (pcmData == null) return;
+
+        NativeResourceTracker.untrack(NativeResourceTracker.Kind.MEMORY, MemoryUtil.memAddress(pcmData));
+        MemoryUtil.memFree(pcmData);
+        pcmData = null;
+    }
+
+    private void deleteTempOgg(File tempOgg) {
+        if (tempOgg == null) return;
+
+        try {
+            Files.deleteIfExists(tempOgg.toPath());
+            NativeResourceTracker.untrack(NativeResourceTracker.Kind.TEMP_FILE, tempOgg.toPath());
+        } catch (IOException e) {
+            Constants.LOG.warn("Failed to delete temp audio file {}", tempOgg, e);
+        }
+    }
+
     /**
      * Extracts audio from inputMp4 and saves it as OGG Vorbis using bundled JavaCV/FFmpeg.
      */
-    private static void runFfmpegExtractAudio(File inputMp4, File outOgg) throws IOException {
+    private static void runFfmpegExtractAudio(File inputMp4, File outOgg, LoadProgressListener progressListener) throws IOException {
         // Setup Grabber, Reader
         FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(inputMp4);
         try {
@@ -192,12 +388,27 @@ public class AudioPlayer {
 
         // Processing Loop
         try {
+            long length = grabber.getLengthInTime();
+            float reported = 0.0f;
+            progressListener.onProgress(LoadProgressListener.Stage.EXTRACTING_AUDIO, 0.0f);
+
             Frame frame;
             // Iterate through frames
             // grabSamples() fetches audio frames only (skips video processing)
             while ((frame = grabber.grabSamples()) != null) {
                 recorder.record(frame);
+
+                // Report every percent
+                if (length > 0) {
+                    float progress = Math.min(1.0f, (float) grabber.getTimestamp() / length);
+                    if (progress - reported >= 0.01f) {
+                        reported = progress;
+                        progressListener.onProgress(LoadProgressListener.Stage.EXTRACTING_AUDIO, progress);
+                    }
+                }
             }
+
+            progressListener.onProgress(LoadProgressListener.Stage.EXTRACTING_AUDIO, 1.0f);
         } catch (Exception e) {
             throw new IOException("Error during audio transcoding: " + e.getMessage(), e);
         } finally {
@@ -0,0 +1,333 @@
+package com.chaotic_loom.video_renderer.core;
+
+import com.chaotic_loom.video_renderer.Constants;
+import org.bytedeco.ffmpeg.global.avcodec;
+import org.bytedeco.ffmpeg.global.avutil;
+import org.bytedeco.javacv.FFmpegFrameRecorder;
+import org.bytedeco.javacv.Frame;
+import org.lwjgl.system.MemoryUtil;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Encodes RGBA frames (top row first) to a video file with FFmpeg, on a pool of encoder threads shared by every capture.
+ * <p>
+ * Frames go through a bounded queue of pooled native buffers: {@link #acquire()} hands out a free one, or null when all
+ * of them are waiting to be encoded, and that frame is dropped. Producers never wait on the encoder.
+ * The recorder is opened on an encoder thread as well, frames are dropped until it is ready.
+ * Nothing here touches GL or the game, so it runs headless with synthetic frames through {@link #offer(ByteBuffer, long)}.
+ * {@link VideoCapture} feeds it from the GPU.
+ */
+public class CaptureEncoder implements AutoCloseable {
+    public static final int DEFAULT_QUEUE_FRAMES = 8;
+
+    // Each capture is encoded by one task at a time, the pool lets several captures encode in parallel
+    private static final ExecutorService ENCODERS = Executors.newFixedThreadPool(Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2)), runnable -> {
+        Thread thread = new Thread(runnable, "Video-Encoder-Thread");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Path output;
+    private final int width;
+    private final int height;
+    private final double frameRate;
+    private final NativeMemoryBudget budget;
+    private FFmpegFrameRecorder recorder; // Encoder task only, null until started
+
+    private final ArrayBlockingQueue<CapturedFrame> free;
+    private final ArrayBlockingQueue<CapturedFrame> queued;
+    private final AtomicBoolean draining = new AtomicBoolean(false);
+    private final Runnable drainTask = this::drain;
+    private volatile boolean ready = false;
+    private volatile boolean closed = false;
+    private boolean stopped = false; // Encoder task only
+    private boolean released = false; // Encoder task only
+    private final AtomicInteger outstanding = new AtomicInteger(); // Acquired and not submitted yet
+    private volatile Exception failure;
+    private final CompletableFuture<Path> finished = new CompletableFuture<>();
+
+    // Metrics
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong encoded = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * Starts an H.264 file, the container is picked from the file extension. Returns right away, the file is opened
+     * on an encoder thread, see {@link #isReady()}. If that fails {@link #getFinished()} completes exceptionally.
+     * @param queueFrames Frames that can wait for the encoder, each one is width x height x 4 bytes of native memory.
+     * @throws NativeMemoryBudget.BudgetExceededException if the queue does not fit in the budget.
+     */
+    public CaptureEncoder(Path output, int width, int height, double frameRate, int queueFrames, NativeMemoryBudget budget) {
+        this.output = output;
+        this.width = width;
+        this.height = height;
+        this.frameRate = frameRate;
+        this.budget = budget;
+
+        long frameBytes = (long) width * height * 4L;
+        if (!budget.tryReserve(this, frameBytes * queueFrames)) {
+            throw new NativeMemoryBudget.BudgetExceededException(String.format(
+                    "Capture queue of %d frames at %dx%d does not fit in the native memory budget: %d of %d bytes in use",
+                    queueFrames, width, height, budget.getUsedBytes(), budget.getLimitBytes()
+            ));
+        }
+
+        free = new ArrayBlockingQueue<>(queueFrames);
+        queued = new ArrayBlockingQueue<>(queueFrames);
+        for (int i = 0; i < queueFrames; i++) {
+            ByteBuffer pixels = MemoryUtil.memAlloc((int) frameBytes);
+            NativeResourceTracker.track(this, NativeResourceTracker.Kind.MEMORY, MemoryUtil.memAddress(pixels), frameBytes);
+            free.add(new CapturedFrame(pixels));
+        }
+
+        // The first drain opens the file, it waits for the natives and FFmpeg writes the header
+        schedule();
+    }
+
+    /**
+     * A free buffer to write the next frame into, null when every buffer is queued or the file is not open yet
+     * (the frame is dropped). Hand it back with {@link #submit(CapturedFrame, long)}.
+     */
+    public CapturedFrame acquire() {
+        if (closed) return null;
+
+        // Counted before the poll, so a finish in between waits for this frame
+        outstanding.incrementAndGet();
+        CapturedFrame frame = ready ? free.poll() : null;
+        if (frame == null) {
+            dropped.incrementAndGet();
+            if (outstanding.decrementAndGet() == 0 && closed) {
+                schedule(); // A finish may have waited for this one
+            }
+        }
+        return frame;
+    }
+
+    /**
+     * Queues a frame filled after {@link #acquire()}.
+     * @param timestampMicros Time since the start of the capture, increasing.
+     */
+    public void submit(CapturedFrame frame, long timestampMicros) {
+        frame.timestampMicros = timestampMicros;
+        queued.add(frame); // Never full, there are as many frames as queue slots
+        outstanding.decrementAndGet();
+        submitted.incrementAndGet();
+        schedule();
+    }
+
+    /**
+     * Copies the frame into the queue, for frames that are already in memory (synthetic ones, tests).
+     * @param pixels width x height RGBA pixels, top row first, from position to limit.
+     * @return false if the frame was dropped.
+     */
+    public boolean offer(ByteBuffer pixels, long timestampMicros) {
+        CapturedFrame frame = acquire();
+        if (frame == null) return false;
+
+        MemoryUtil.memCopy(MemoryUtil.memAddress(pixels), frame.address, Math.min(pixels.remaining(), frame.pixels.capacity()));
+        submit(frame, timestampMicros);
+        return true;
+    }
+
+    /**
+     * Encodes what is queued and finishes the file. Frames offered afterwards are dropped.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        schedule();
+    }
+
+    /**
+     * Completes with the file once it is written, or exceptionally if encoding failed.
+     */
+    public CompletableFuture<Path> getFinished() {
+        return finished;
+    }
+
+    /**
+     * True once the file is open and frames are taken.
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public long getSubmittedFrames() {
+        return submitted.get();
+    }
+
+    public long getEncodedFrames() {
+        return encoded.get();
+    }
+
+    /**
+     * Frames dropped because the encoder was behind, or had not opened the file yet.
+     */
+    public long getDroppedFrames() {
+        return dropped.get();
+    }
+
+    private void schedule() {
+        if (draining.compareAndSet(false, true)) {
+            ENCODERS.execute(drainTask);
+        }
+    }
+
+    /**
+     * Encodes everything queued, on an encoder thread. Never runs twice at once for the same capture.
+     */
+    private void drain() {
+        try {
+            if (recorder == null && failure == null) {
+                start();
+            }
+
+            CapturedFrame frame;
+            while ((frame = queued.poll()) != null) {
+                if (stopped) {
+                    // Acquired before the close, the file is already finished
+                    freeFrame(frame);
+                    continue;
+                }
+
+                try {
+                    if (failure == null) {
+                        encode(frame);
+                    }
+                } catch (Exception e) {
+                    failure = e;
+                    closed = true;
+                    Constants.LOG.error("Failed to encode capture {}", output, e);
+                } finally {
+                    free.add(frame);
+                }
+            }
+
+            if (closed && !stopped && queued.isEmpty()) {
+                stopped = true;
+                finish();
+            } else if (stopped) {
+                releaseIfIdle();
+            }
+        } finally {
+            draining.set(false);
+        }
+
+        // Frames queued or a close between the last poll and the flag reset
+        if (!queued.isEmpty() || (closed && !stopped)) {
+            schedule();
+        }
+    }
+
+    private void start() {
+        try {
+            NativeLibraries.awaitReady();
+            recorder = new FFmpegFrameRecorder(output.toFile(), width, height);
+            recorder.setVideoCodec(avcodec.AV_CODEC_ID_H264);
+            recorder.setPixelFormat(avutil.AV_PIX_FMT_YUV420P);
+            recorder.setFrameRate(frameRate);
+            recorder.setVideoOption("preset", "veryfast"); // Keeps up with the game on most machines
+            recorder.start();
+        } catch (Exception e) {
+            failure = new IOException("Failed to start FFmpeg recorder: " + e.getMessage(), e);
+            closed = true;
+            Constants.LOG.error("Failed to start capture {}", output, e);
+            return;
+        }
+
+        ready = true;
+        Constants.LOG.info("Capturing {}x{} at {} fps to {}", width, height, frameRate, output);
+    }
+
+    private void encode(CapturedFrame frame) throws Exception {
+        // Capture times keep the real pace, the recorder fills gaps by repeating frames
+        if (frame.timestampMicros > recorder.getTimestamp()) {
+            recorder.setTimestamp(frame.timestampMicros);
+        }
+        recorder.recordImage(width, height, Frame.DEPTH_UBYTE, 4, width * 4, avutil.AV_PIX_FMT_RGBA, frame.pixels);
+        encoded.incrementAndGet();
+    }
+
+    private void finish() {
+        if (recorder != null) {
+            try {
+                recorder.stop();
+                recorder.release();
+            } catch (Exception e) {
+                if (failure == null) failure = e;
+                Constants.LOG.error("Failed to finish capture {}", output, e);
+            }
+        }
+
+        // Frames still held by a producer are freed when they are submitted
+        CapturedFrame frame;
+        while ((frame = free.poll()) != null) {
+            freeFrame(frame);
+        }
+        releaseIfIdle();
+
+        if (failure != null) {
+            finished.completeExceptionally(failure);
+        } else {
+            Constants.LOG.info("Capture {} finished: {} frames encoded, {} dropped", output, encoded.get(), dropped.get());
+            finished.complete(output);
+        }
+    }
+
+    /**
+     * Gives the budget back and checks for leaks once no producer holds a frame any more, otherwise the submit of the
+     * last one does it.
+     */
+    private void releaseIfIdle() {
+        if (released || outstanding.get() != 0) return;
+
+        released = true;
+        budget.releaseAll(this);
+        NativeResourceTracker.reportLeaks(this);
+    }
+
+    private static void freeFrame(CapturedFrame frame) {
+        NativeResourceTracker.untrack(NativeResourceTracker.Kind.MEMORY, frame.address);
+        MemoryUtil.memFree(frame.pixels);
+    }
+
+    /**
+     * A pooled frame buffer, width x height RGBA pixels with the top row first.
+     */
+    public static final class CapturedFrame {
+        private final ByteBuffer pixels;
+        private final long address;
+        private long timestampMicros;
+
+        private CapturedFrame(ByteBuffer pixels) {
+            this.pixels = pixels;
+            this.address = MemoryUtil.memAddress(pixels);
+        }
+
+        public ByteBuffer getPixels() {
+            return pixels;
+        }
+
+        public long getAddress() {
+            return address;
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package com.chaotic_loom.video_renderer.core;
+
+import com.chaotic_loom.video_renderer.Constants;
+import org.lwjgl.system.MemoryUtil;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps short clips (button animations, hit effects...) decoded in memory, so replaying them does no I/O and no decoding.
+ * A clip is converted once into an in-memory {@link VrfFormat} image: LZ4-compressed frames, the PCM and the index.
+ * <p>
+ * Entries are evicted least recently used first once the cache is over its size. An entry that is still playing
+ * is only freed when its last {@link VrfVideoSource} closes. Cached bytes are also reserved in the native memory budget,
+ * while the clip is converted, so a clip that does not fit is abandoned before it is fully decoded.
+ */
+public class ClipCache {
+    public static final long DEFAULT_MAX_BYTES = 256L * 1024L * 1024L; // 256 MiB
+    public static final double DEFAULT_MAX_CLIP_SECONDS = 10.0;
+    private static final int MAX_REJECTED = 256;
+
+    // Guarded by this, in access order for LRU eviction
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    // Clips too long or too large for the current limits, least recently opened forgotten first.
+    // Cleared when the limits change, refusals of the memory budget are never remembered
+    private final Set<String> rejected = Collections.newSetFromMap(new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > MAX_REJECTED;
+        }
+    });
+    private long maxBytes;
+    private double maxClipSeconds;
+    private long usedBytes = 0;
+    private long hits = 0;
+    private long misses = 0;
+
+    public ClipCache(long maxBytes, double maxClipSeconds) {
+        setMaxBytes(maxBytes);
+        this.maxClipSeconds = maxClipSeconds;
+    }
+
+    /**
+     * Opens a clip from the cache, converting it on a miss. Blocks on a miss, run it on the loader thread.
+     * @param key Identifies the clip, for example its ResourceLocation.
+     * @return a source playing the cached clip, or null if the clip is too long or too large to be cached.
+     */
+    public VrfVideoSource open(String key, StreamOpener opener) throws Exception {
+        long limit;
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                hits++;
+                return acquire(entry);
+            }
+            misses++;
+
+            // Already known not to fit, do not convert it again
+            if (rejected.contains(key)) return null;
+            limit = maxBytes;
+        }
+
+        NativeMemoryBudget budget = VideoPlayerController.getMemoryBudget();
+        ByteBuffer data;
+        try (InputStream stream = opener.open()) {
+            data = VrfConverter.convertToMemory(stream, (long) (maxClipSeconds * 1_000_000.0), limit, budget, this);
+        } catch (NativeMemoryBudget.BudgetExceededException e) {
+            // The budget may free up later, try again next time
+            Constants.LOG.debug("Clip {} does not fit in the memory budget, playing it uncached", key);
+            return null;
+        }
+
+        synchronized (this) {
+            if (data == null) {
+                Constants.LOG.debug("Clip {} is too long or too large for the cache, playing it uncached", key);
+                rejected.add(key);
+                return null;
+            }
+
+            // Another thread converted it at the same time, keep theirs
+            Entry existing = entries.get(key);
+            if (existing != null) {
+                budget.release(this, data.capacity());
+                MemoryUtil.memFree(data);
+                return acquire(existing);
+            }
+
+            Entry entry = new Entry(data);
+            NativeResourceTracker.track(this, NativeResourceTracker.Kind.MEMORY, MemoryUtil.memAddress(data), data.capacity());
+
+            entries.put(key, entry);
+            usedBytes += data.capacity();
+            evict();
+            return acquire(entry);
+        }
+    }
+
+    private VrfVideoSource acquire(Entry entry) throws IOException {
+        entry.references++;
+        try {
+            return VrfVideoSource.wrap(entry.data.duplicate(), () -> release(entry));
+        } catch (IOException e) {
+            release(entry);
+            throw e;
+        }
+    }
+
+    private synchronized void release(Entry entry) {
+        entry.references--;
+        freeIfUnused(entry);
+    }
+
+    /**
+     * Drops least recently used entries until the cache fits. Entries in use stay allocated until released.
+     */
+    private void evict() {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (usedBytes > maxBytes && iterator.hasNext()) {
+            Entry entry = iterator.next();
+            iterator.remove();
+            usedBytes -= entry.data.capacity();
+            entry.evicted = true;
+            freeIfUnused(entry);
+        }
+    }
+
+    private void freeIfUnused(Entry entry) {
+        if (!entry.evicted || entry.references > 0 || entry.freed) return;
+
+        entry.freed = true;
+        VideoPlayerController.getMemoryBudget().release(this, entry.data.capacity());
+        NativeResourceTracker.untrack(NativeResourceTracker.Kind.MEMORY, MemoryUtil.memAddress(entry.data));
+        MemoryUtil.memFree(entry.data);
+    }
+
+    public synchronized void setMaxBytes(long maxBytes) {
+        if (maxBytes < 0) throw new IllegalArgumentException("Negative cache size: " + maxBytes);
+        this.maxBytes = maxBytes;
+        rejected.clear();
+        evict();
+    }
+
+    /**
+     * Clips longer than this are played normally, without caching.
+     */
+    public synchronized void setMaxClipSeconds(double seconds) {
+        this.maxClipSeconds = seconds;
+        rejected.clear();
+    }
+
+    /**
+     * Evicts everything, clips that are playing are freed once they close.
+     */
+    public synchronized void clear() {
+        long max = maxBytes;
+        maxBytes = 0;
+        evict();
+        maxBytes = max;
+        rejected.clear();
+    }
+
+    public synchronized long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    @FunctionalInterface
+    public interface StreamOpener {
+        InputStream open() throws IOException;
+    }
+
+    private static class Entry {
+        private final ByteBuffer data;
+        private int references = 0;
+        private boolean evicted = false;
+        private boolean freed = false;
+
+        private Entry(ByteBuffer data) {
+            this.data = data;
+        }
+    }
+}
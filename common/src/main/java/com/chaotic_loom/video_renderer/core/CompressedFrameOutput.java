@@ -0,0 +1,117 @@
+package com.chaotic_loom.video_renderer.core;
+
+import com.chaotic_loom.video_renderer.Constants;
+import com.mojang.blaze3d.platform.NativeImage;
+import net.minecraft.client.Minecraft;
+import net.minecraft.resources.ResourceLocation;
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Block compressed output of a {@link VideoRenderer}.
+ * Each decode buffer gets a compressed twin, the decoder thread fills it right after decoding
+ * and the render thread uploads it instead of the RGBA pixels (4x or 8x less data per frame).
+ */
+public class CompressedFrameOutput {
+    private static int textureCounter = 0;
+
+    private final Object owner;
+    private final BlockCompressor compressor;
+    private final int width;
+    private final int height;
+
+    private final NativeImage imageA;
+    private final NativeImage imageB;
+    private final ByteBuffer pixelsA; // Views of the decode buffers, made once so encoding allocates nothing
+    private final ByteBuffer pixelsB;
+    private ByteBuffer blocksA;
+    private ByteBuffer blocksB;
+
+    private CompressedVideoTexture texture;
+    private ResourceLocation textureIdentifier;
+
+    /**
+     * Must be called on the render thread.
+     * @param imageA First decode buffer, its blocks are kept apart from the ones of imageB.
+     */
+    public CompressedFrameOutput(Object owner, BlockCompressor.Format format, NativeImage imageA, NativeImage imageB) {
+        this.owner = owner;
+        this.compressor = new BlockCompressor(format, VideoPlayerController.getCompressorExecutor());
+        this.width = imageA.getWidth();
+        this.height = imageA.getHeight();
+        this.imageA = imageA;
+        this.imageB = imageB;
+        this.pixelsA = MemoryUtil.memByteBuffer(imageA.pixels, width * height * 4).order(ByteOrder.LITTLE_ENDIAN);
+        this.pixelsB = MemoryUtil.memByteBuffer(imageB.pixels, width * height * 4).order(ByteOrder.LITTLE_ENDIAN);
+
+        int size = format.compressedSize(width, height);
+        blocksA = MemoryUtil.memAlloc(size);
+        NativeResourceTracker.track(owner, NativeResourceTracker.Kind.MEMORY, MemoryUtil.memAddress(blocksA), size);
+        blocksB = MemoryUtil.memAlloc(size);
+        NativeResourceTracker.track(owner, NativeResourceTracker.Kind.MEMORY, MemoryUtil.memAddress(blocksB), size);
+
+        texture = new CompressedVideoTexture(format, width, height);
+        textureIdentifier = new ResourceLocation(Constants.MOD_ID, "video_frame_compressed_" + textureCounter++);
+        Minecraft.getInstance().getTextureManager().register(textureIdentifier, texture);
+    }
+
+    /**
+     * Bytes allocated by an output of this size, for the memory budget.
+     */
+    public static long nativeBytes(BlockCompressor.Format format, int width, int height) {
+        return 2L * format.compressedSize(width, height);
+    }
+
+    /**
+     * Runs on the decoder thread, before the frame is handed to the render thread.
+     */
+    public void encode(NativeImage decoded) {
+        compressor.compress(decoded == imageA ? pixelsA : pixelsB, width, height, blocksFor(decoded));
+    }
+
+    /**
+     * Runs on the render thread.
+     */
+    public void upload(NativeImage decoded) {
+        texture.upload(blocksFor(decoded));
+    }
+
+    public ResourceLocation getTexture() {
+        return textureIdentifier;
+    }
+
+    private ByteBuffer blocksFor(NativeImage image) {
+        return image == imageA ? blocksA : blocksB;
+    }
+
+    /**
+     * Must be called on the render thread, after the decoder thread stopped.
+     */
+    public void close() {
+        try {
+            if (textureIdentifier != null) {
+                Minecraft.getInstance().getTextureManager().release(textureIdentifier);
+                textureIdentifier = null;
+            }
+            if (texture != null) {
+                texture.close();
+                texture = null;
+            }
+        } catch (Exception e) {
+            Constants.LOG.error("Error while closing compressed video texture", e);
+        }
+
+        blocksA = free(blocksA);
+        blocksB = free(blocksB);
+    }
+
+    private ByteBuffer free(ByteBuffer buffer) {
+        if (buffer != null) {
+            NativeResourceTracker.untrack(NativeResourceTracker.Kind.MEMORY, MemoryUtil.memAddress(buffer));
+            MemoryUtil.memFree(buffer);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,66 @@
+package com.chaotic_loom.video_renderer.core;
+
+import com.mojang.blaze3d.platform.GlStateManager;
+import com.mojang.blaze3d.systems.RenderSystem;
+import net.minecraft.client.renderer.texture.AbstractTexture;
+import net.minecraft.server.packs.resources.ResourceManager;
+import org.lwjgl.opengl.EXTTextureCompressionS3TC;
+import org.lwjgl.opengl.GL;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL13;
+
+import java.nio.ByteBuffer;
+
+/**
+ * GPU texture that receives BC1 / BC3 blocks from {@link BlockCompressor} instead of RGBA pixels.
+ */
+public class CompressedVideoTexture extends AbstractTexture {
+    private final BlockCompressor.Format format;
+    private final int width;
+    private final int height;
+    private boolean allocated = false;
+
+    public CompressedVideoTexture(BlockCompressor.Format format, int width, int height) {
+        this.format = format;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * S3TC is available on practically every desktop GPU, but it is still an extension.
+     */
+    public static boolean isSupported() {
+        return GL.getCapabilities().GL_EXT_texture_compression_s3tc;
+    }
+
+    /**
+     * Uploads a whole frame of blocks. Must be called on the render thread.
+     */
+    public void upload(ByteBuffer blocks) {
+        RenderSystem.assertOnRenderThread();
+        bind();
+
+        // Minecraft leaves its own unpack state behind after NativeImage uploads
+        GlStateManager._pixelStore(GL11.GL_UNPACK_ROW_LENGTH, 0);
+        GlStateManager._pixelStore(GL11.GL_UNPACK_SKIP_PIXELS, 0);
+        GlStateManager._pixelStore(GL11.GL_UNPACK_SKIP_ROWS, 0);
+
+        int glFormat = format == BlockCompressor.Format.BC3
+                ? EXTTextureCompressionS3TC.GL_COMPRESSED_RGBA_S3TC_DXT5_EXT
+                : EXTTextureCompressionS3TC.GL_COMPRESSED_RGB_S3TC_DXT1_EXT;
+
+        if (!allocated) {
+            GL13.glCompressedTexImage2D(GL11.GL_TEXTURE_2D, 0, glFormat, width, height, 0, blocks);
+            GlStateManager._texParameter(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MIN_FILTER, GL11.GL_LINEAR);
+            GlStateManager._texParameter(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MAG_FILTER, GL11.GL_LINEAR);
+            allocated = true;
+        } else {
+            GL13.glCompressedTexSubImage2D(GL11.GL_TEXTURE_2D, 0, 0, 0, width, height, glFormat, blocks);
+        }
+    }
+
+    @Override
+    public void load(ResourceManager resourceManager) {
+        // Filled by upload()
+    }
+}
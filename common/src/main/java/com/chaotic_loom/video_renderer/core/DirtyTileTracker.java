@@ -0,0 +1,195 @@
+package com.chaotic_loom.video_renderer.core;
+
+import com.mojang.blaze3d.platform.NativeImage;
+import org.lwjgl.system.MemoryUtil;
+
+import java.util.BitSet;
+
+/**
+ * Finds the tiles that changed between two decoded frames, so only those are uploaded.
+ * Meant for mostly static content (UI recordings, slideshows, talking heads).
+ * <p>
+ * The decoder thread calls {@link #diff} before publishing a frame and {@link #commit} after it,
+ * the render thread calls {@link #takeDirtyTiles} before reading the latest frame. With that order, taken tiles always
+ * belong to a frame the render thread can already see, and tiles accumulate until taken, so skipped frames are not lost.
+ * When most of a frame changes, diffing is skipped for a while and the whole frame is uploaded.
+ */
+public class DirtyTileTracker {
+    public static final int TILE_SIZE = 64;
+
+    private static final float FULL_FRAME_RATIO = 0.75f; // Above this, diffing is not worth it
+    private static final int SKIP_FRAMES = 30; // Frames to upload fully after a mostly changed frame
+
+    private final int width;
+    private final int height;
+    private final int tilesX;
+    private final int tilesY;
+
+    // Decoder thread only
+    private final BitSet frameTiles;
+    private boolean frameFull = false;
+    private int skipFrames = 0;
+
+    // Guarded by this
+    private final BitSet pendingTiles;
+    private boolean pendingFull = true; // The texture starts empty
+
+    // Metrics, written on the render thread
+    private volatile long framesUploaded = 0;
+    private volatile long fullUploads = 0;
+    private volatile long bytesUploaded = 0;
+    private volatile long bytesSaved = 0;
+
+    public DirtyTileTracker(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.tilesX = (width + TILE_SIZE - 1) / TILE_SIZE;
+        this.tilesY = (height + TILE_SIZE - 1) / TILE_SIZE;
+        this.frameTiles = new BitSet(tilesX * tilesY);
+        this.pendingTiles = new BitSet(tilesX * tilesY);
+    }
+
+    /**
+     * Decoder thread. Compares a new frame with the previous one, before the new one is handed to the render thread.
+     * @param previous The frame decoded right before, null if there is none (first frame, after a seek).
+     */
+    public void diff(NativeImage frame, NativeImage previous) {
+        frameTiles.clear();
+        frameFull = false;
+
+        if (previous == null || skipFrames > 0) {
+            if (skipFrames > 0) skipFrames--;
+            frameFull = true;
+            return;
+        }
+
+        int maxDirty = (int) (tilesX * tilesY * FULL_FRAME_RATIO);
+        int dirty = 0;
+
+        for (int tileY = 0; tileY < tilesY; tileY++) {
+            for (int tileX = 0; tileX < tilesX; tileX++) {
+                if (tileChanged(frame.pixels, previous.pixels, tileX, tileY)) {
+                    frameTiles.set(tileY * tilesX + tileX);
+
+                    // Most of the frame changes, stop comparing and upload everything
+                    if (++dirty > maxDirty) {
+                        skipFrames = SKIP_FRAMES;
+                        frameFull = true;
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Decoder thread. Adds the tiles of the last {@link #diff} to the pending ones, once its frame is published.
+     */
+    public synchronized void commit() {
+        if (frameFull) {
+            pendingFull = true;
+        } else {
+            pendingTiles.or(frameTiles);
+        }
+    }
+
+    private boolean tileChanged(long frame, long previous, int tileX, int tileY) {
+        int x = tileX * TILE_SIZE;
+        int rowBytes = Math.min(TILE_SIZE, width - x) * 4;
+        int endY = Math.min(tileY * TILE_SIZE + TILE_SIZE, height);
+
+        for (int y = tileY * TILE_SIZE; y < endY; y++) {
+            long offset = ((long) y * width + x) * 4L;
+            int i = 0;
+            for (; i + 8 <= rowBytes; i += 8) {
+                if (MemoryUtil.memGetLong(frame + offset + i) != MemoryUtil.memGetLong(previous + offset + i)) return true;
+            }
+            for (; i < rowBytes; i += 4) {
+                if (MemoryUtil.memGetInt(frame + offset + i) != MemoryUtil.memGetInt(previous + offset + i)) return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Forces the next upload to be a full one, for example after the texture was reused.
+     */
+    public synchronized void invalidate() {
+        pendingFull = true;
+    }
+
+    /**
+     * Render thread. Moves the accumulated dirty tiles into the given set and clears them.
+     * Must be called before reading the frame to upload.
+     * @return true if the whole frame must be uploaded, the set is left empty in that case.
+     */
+    public synchronized boolean takeDirtyTiles(BitSet out) {
+        out.clear();
+        boolean full = pendingFull;
+        if (!full) {
+            out.or(pendingTiles);
+        }
+        pendingTiles.clear();
+        pendingFull = false;
+        return full;
+    }
+
+    /**
+     * Render thread. Uploads the dirty tiles of the frame to the bound texture, merging neighbouring tiles of a row.
+     */
+    public void uploadTiles(NativeImage frame, BitSet tiles) {
+        long uploaded = 0;
+
+        for (int tileY = 0; tileY < tilesY; tileY++) {
+            int y = tileY * TILE_SIZE;
+            int tileHeight = Math.min(TILE_SIZE, height - y);
+
+            int tileX = tiles.nextSetBit(tileY * tilesX) - tileY * tilesX;
+            while (tileX >= 0 && tileX < tilesX) {
+                int runEnd = tiles.nextClearBit(tileY * tilesX + tileX) - tileY * tilesX;
+                runEnd = Math.min(runEnd, tilesX);
+
+                int x = tileX * TILE_SIZE;
+                int runWidth = Math.min(runEnd * TILE_SIZE, width) - x;
+                frame.upload(0, x, y, x, y, runWidth, tileHeight, false, false);
+                uploaded += (long) runWidth * tileHeight * 4L;
+
+                int nextSet = tiles.nextSetBit(tileY * tilesX + runEnd);
+                tileX = nextSet < 0 ? -1 : nextSet - tileY * tilesX;
+            }
+        }
+
+        recordUpload(uploaded);
+    }
+
+    /**
+     * Render thread. Records an upload of the given size, for the metrics.
+     */
+    public void recordUpload(long bytes) {
+        long frameBytes = (long) width * height * 4L;
+
+        framesUploaded++;
+        if (bytes >= frameBytes) fullUploads++;
+        bytesUploaded += bytes;
+        bytesSaved += Math.max(0, frameBytes - bytes);
+    }
+
+    public long getFramesUploaded() {
+        return framesUploaded;
+    }
+
+    public long getFullUploads() {
+        return fullUploads;
+    }
+
+    public long getBytesUploaded() {
+        return bytesUploaded;
+    }
+
+    /**
+     * Bytes that full frame uploads would have sent on top of {@link #getBytesUploaded()}.
+     */
+    public long getBytesSaved() {
+        return bytesSaved;
+    }
+}
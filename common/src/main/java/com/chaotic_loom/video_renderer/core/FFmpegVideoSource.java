@@ -0,0 +1,305 @@
+package com.chaotic_loom.video_renderer.core;
+
+import com.mojang.blaze3d.platform.NativeImage;
+import org.bytedeco.ffmpeg.global.avutil;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.Frame;
+import org.lwjgl.system.MemoryUtil;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
+/**
+ * Default source, decodes any container FFmpeg understands.
+ */
+public class FFmpegVideoSource implements VideoSource {
+    private final String filePath;
+    private final FFmpegFrameGrabber grabber;
+    private int width;
+    private int height;
+
+    // Measured while decoding, lets skipFrames() jump straight to the next keyframe
+    private int framesSinceKeyFrame = 0;
+    private int keyFrameInterval = 0;
+    private boolean deferredSkips = false;
+    private int owedFrames = 0; // Skipped as far as the caller knows, not decoded yet
+    private long decodedFrames = 0;
+
+    private FFmpegVideoSource(String filePath, FFmpegFrameGrabber grabber) {
+        this.filePath = filePath;
+        this.grabber = grabber;
+        this.width = grabber.getImageWidth();
+        this.height = grabber.getImageHeight();
+    }
+
+    /**
+     * Starts a grabber on the file, this probes the container.
+     * Waits for {@link NativeLibraries} if the natives are still loading.
+     */
+    public static FFmpegVideoSource open(String filePath) throws Exception {
+        NativeLibraries.awaitReady();
+        return start(new FFmpegFrameGrabber(filePath), filePath);
+    }
+
+    /**
+     * Starts a grabber that reads from a stream, see {@link StreamingVideoSource}.
+     * The stream must support mark/reset for rewinding.
+     * @param name Only used to identify the source.
+     */
+    public static FFmpegVideoSource open(InputStream stream, String name) throws Exception {
+        NativeLibraries.awaitReady();
+        return start(new FFmpegFrameGrabber(stream), name);
+    }
+
+    private static FFmpegVideoSource start(FFmpegFrameGrabber grabber, String filePath) throws Exception {
+        grabber.setPixelFormat(avutil.AV_PIX_FMT_RGBA);
+
+        try {
+            grabber.start();
+        } catch (Exception e) {
+            grabber.release();
+            throw e;
+        }
+
+        FFmpegVideoSource source = new FFmpegVideoSource(filePath, grabber);
+        NativeResourceTracker.track(source, NativeResourceTracker.Kind.GRABBER, grabber, 0);
+        return source;
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public double getFrameRate() {
+        return grabber.getFrameRate();
+    }
+
+    @Override
+    public long getLengthInTime() {
+        return grabber.getLengthInTime();
+    }
+
+    @Override
+    public boolean setOutputSize(int width, int height) {
+        // FFmpeg rescales every frame to the requested size
+        grabber.setImageWidth(width);
+        grabber.setImageHeight(height);
+        this.width = width;
+        this.height = height;
+        return true;
+    }
+
+    /**
+     * The grabber's RGBA output frame.
+     */
+    @Override
+    public long getNativeBytes() {
+        return (long) width * height * 4L;
+    }
+
+    /**
+     * AudioPlayer always transcodes to 16 bit stereo at 44100 Hz.
+     */
+    @Override
+    public long estimateAudioBytes() {
+        if (grabber.getAudioChannels() <= 0 || grabber.getLengthInTime() <= 0) return 0;
+
+        double seconds = grabber.getLengthInTime() / 1_000_000.0;
+        return (long) Math.ceil(seconds * 44100) * 2L * 2L;
+    }
+
+    public boolean hasAudio() {
+        return grabber.getAudioChannels() > 0;
+    }
+
+    @Override
+    public AudioPlayer openAudio(LoadProgressListener progressListener) {
+        if (grabber.getAudioChannels() <= 0) return null;
+        return new AudioPlayer(filePath, progressListener);
+    }
+
+    @Override
+    public boolean readFrame(NativeImage target) throws Exception {
+        Frame frame;
+        do {
+            // Only grab video frames
+            frame = grabber.grabFrame(false, true, true, false);
+            if (frame == null) return false;
+        } while (frame.image == null);
+        decodedFrames++;
+        countKeyFrames(frame);
+
+        // Decode directly into the target (no allocation)
+        convertFrameToNativeImage(frame, target);
+        return true;
+    }
+
+    /**
+     * Skipped frames are decoded but never converted to RGBA. When the frames to skip reach the next keyframe,
+     * packets up to it are dropped without decoding them at all.
+     * With deferred skips the frames are owed across calls until they reach the next keyframe: fast-forwarding asks
+     * for a few frames at a time, which alone would never get there.
+     */
+    @Override
+    public int skipFrames(int count, NativeImage scratch) throws Exception {
+        int owed = owedFrames + count;
+        owedFrames = 0;
+        int skipped = 0;
+
+        // Up to the keyframe costs a single decode
+        while (keyFrameInterval > 0 && owed - skipped > keyFrameInterval - framesSinceKeyFrame) {
+            long before = grabber.getTimestamp();
+
+            Frame keyFrame = grabber.grabFrame(false, true, false, true);
+            if (keyFrame == null) return skipped == 0 && count > 0 ? -1 : Math.max(0, count - owed + skipped);
+            decodedFrames++;
+            countKeyFrames(keyFrame);
+
+            long skippedMicros = grabber.getTimestamp() - before;
+            skipped += (int) Math.max(1, Math.round(skippedMicros / 1_000_000.0 * getFrameRate()));
+        }
+
+        if (deferredSkips && keyFrameInterval > 0) {
+            owedFrames = Math.max(0, owed - skipped);
+            return count + Math.max(0, skipped - owed);
+        }
+
+        while (skipped < owed) {
+            Frame frame = grabber.grabFrame(false, true, false, false);
+            if (frame == null) return skipped == 0 && count > 0 ? -1 : Math.max(0, count - owed + skipped);
+            decodedFrames++;
+            countKeyFrames(frame);
+            skipped++;
+        }
+        return count + skipped - owed;
+    }
+
+    @Override
+    public void setDeferredSkips(boolean deferred) {
+        deferredSkips = deferred;
+    }
+
+    /**
+     * Video frames decoded so far, skipped ones included.
+     */
+    public long getDecodedFrames() {
+        return decodedFrames;
+    }
+
+    /**
+     * FFmpeg seeks to the keyframe before the frame and decodes from there without converting anything.
+     */
+    @Override
+    public long seek(long frame) throws Exception {
+        grabber.setVideoTimestamp(Math.round(frame * 1_000_000.0 / getFrameRate()));
+        framesSinceKeyFrame = 0;
+        owedFrames = 0;
+        return Math.round(grabber.getTimestamp() / 1_000_000.0 * getFrameRate());
+    }
+
+    private void countKeyFrames(Frame frame) {
+        if (frame.keyFrame) {
+            if (framesSinceKeyFrame > 0) {
+                keyFrameInterval = framesSinceKeyFrame;
+            }
+            framesSinceKeyFrame = 0;
+        }
+        framesSinceKeyFrame++;
+    }
+
+    @Override
+    public void rewind() throws Exception {
+        grabber.setVideoTimestamp(0);
+        framesSinceKeyFrame = 0;
+        owedFrames = 0;
+    }
+
+    @Override
+    public void close() {
+        try {
+            grabber.close();
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to close FFmpeg grabber: " + e.getMessage(), e);
+        } finally {
+            NativeResourceTracker.untrack(NativeResourceTracker.Kind.GRABBER, grabber);
+            NativeResourceTracker.reportLeaks(this);
+        }
+    }
+
+    private void convertFrameToNativeImage(Frame frame, NativeImage image) {
+        ByteBuffer sourceBuffer = (ByteBuffer) frame.image[0];
+
+        // Get direct access to NativeImage's internal buffer
+        long imagePointer = image.pixels;
+
+        if (imagePointer != 0) {
+            // Direct memory copy
+            int totalBytes = width * height * 4;
+
+            // Ensure buffer is positioned at the start
+            sourceBuffer.position(0);
+
+            // Use unsafe memory copy or NIO bulk operations
+            MemoryUtil.memCopy(
+                    MemoryUtil.memAddress(sourceBuffer),
+                    imagePointer,
+                    totalBytes
+            );
+        } else {
+            // Fallback
+            bulkConvertFallback(sourceBuffer, image);
+        }
+    }
+
+    private void bulkConvertFallback(ByteBuffer sourceBuffer, NativeImage image) {
+        sourceBuffer.position(0);
+        int totalPixels = width * height;
+
+        // Process in batches to reduce method call overheadc
+        for (int i = 0; i < totalPixels; i++) {
+            int r = sourceBuffer.get() & 0xFF;
+            int g = sourceBuffer.get() & 0xFF;
+            int b = sourceBuffer.get() & 0xFF;
+            int a = sourceBuffer.get() & 0xFF;
+
+            int abgrColor = (a << 24) | (b << 16) | (g << 8) | r;
+
+            int x = i % width;
+            int y = i / width;
+            image.setPixelRGBA(x, y, abgrColor);
+        }
+    }
+
+    /**
+     * Takes anything, FFmpeg probes the container itself.
+     */
+    public static class Provider implements VideoSourceProvider {
+        @Override
+        public String getName() {
+            return "FFmpeg";
+        }
+
+        @Override
+        public int getPriority() {
+            return PRIORITY_FALLBACK;
+        }
+
+        @Override
+        public boolean accepts(String fileName, ByteBuffer header) {
+            return true;
+        }
+
+        @Override
+        public VideoSource open(Path file) throws Exception {
+            return FFmpegVideoSource.open(file.toAbsolutePath().toString());
+        }
+    }
+}
@@ -0,0 +1,332 @@
+package com.chaotic_loom.video_renderer.core;
+
+import com.chaotic_loom.video_renderer.Constants;
+import com.mojang.blaze3d.platform.NativeImage;
+import com.mojang.blaze3d.systems.RenderSystem;
+import net.minecraft.client.Minecraft;
+import net.minecraft.client.renderer.texture.DynamicTexture;
+import net.minecraft.resources.ResourceLocation;
+import org.lwjgl.system.MemoryUtil;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Keeps the frame images and textures of closed videos, bucketed by size, so the next video of the same size takes them
+ * instead of allocating. Clips played back to back then allocate no native memory and no GPU textures at all.
+ * <p>
+ * Pooled bytes stay reserved in the {@link NativeMemoryBudget} under the pool, a video that does not fit trims the pool
+ * first. Entries idle for longer than the idle time are freed by {@link #evictIdle()}, the oldest ones go first when
+ * the pool is full.
+ */
+public class FramePool {
+    public static final long DEFAULT_MAX_BYTES = 256L * 1024L * 1024L; // 256 MiB
+    public static final long DEFAULT_IDLE_NANOS = 10_000_000_000L; // 10 seconds
+
+    private final NativeMemoryBudget budget;
+    private final List<Bucket> buckets = new ArrayList<>();
+    private long maxBytes;
+    private long idleNanos;
+    private long pooledBytes = 0;
+    private boolean trimTextures = false; // Set off the render thread, textures are freed on the next evictIdle()
+
+    // Metrics
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    public FramePool(NativeMemoryBudget budget, long maxBytes, long idleNanos) {
+        this.budget = budget;
+        this.maxBytes = maxBytes;
+        this.idleNanos = idleNanos;
+    }
+
+    /**
+     * A decode buffer of the given size, pooled or newly allocated. Its content is undefined.
+     */
+    public synchronized NativeImage takeImage(int width, int height) {
+        Bucket bucket = find(width, height);
+        if (bucket != null && bucket.imageCount > 0) {
+            NativeImage image = bucket.images[--bucket.imageCount];
+            bucket.images[bucket.imageCount] = null;
+            unpool(image, bucket.bytes);
+            hits++;
+            return image;
+        }
+
+        misses++;
+        return new NativeImage(width, height, true);
+    }
+
+    /**
+     * Pools the decode buffer, or frees it if the pool is full. The caller must have stopped using it.
+     * @param owner Whose budget reservation covered the image, it moves to the pool.
+     */
+    public synchronized void giveImage(Object owner, NativeImage image) {
+        Bucket bucket = bucket(image.getWidth(), image.getHeight());
+        if (!makeRoom(owner, bucket.bytes)) {
+            image.close();
+            return;
+        }
+
+        if (bucket.imageCount == bucket.images.length) {
+            bucket.images = Arrays.copyOf(bucket.images, bucket.imageCount * 2);
+            bucket.imageIdleSince = Arrays.copyOf(bucket.imageIdleSince, bucket.imageCount * 2);
+        }
+        bucket.images[bucket.imageCount] = image;
+        bucket.imageIdleSince[bucket.imageCount] = System.nanoTime();
+        bucket.imageCount++;
+        NativeResourceTracker.track(this, NativeResourceTracker.Kind.NATIVE_IMAGE, image, bucket.bytes);
+    }
+
+    /**
+     * A registered texture of the given size, pooled or newly created, cleared to transparent black.
+     * Render thread only, get the texture itself from the texture manager.
+     */
+    public synchronized ResourceLocation takeTexture(int width, int height) {
+        RenderSystem.assertOnRenderThread();
+
+        Bucket bucket = find(width, height);
+        if (bucket != null && bucket.textureCount > 0) {
+            int last = --bucket.textureCount;
+            DynamicTexture texture = bucket.textures[last];
+            ResourceLocation id = bucket.textureIds[last];
+            bucket.textures[last] = null;
+            bucket.textureIds[last] = null;
+            unpool(texture.getPixels(), bucket.bytes);
+
+            // Never flash the last frame of the previous video
+            MemoryUtil.memSet(texture.getPixels().pixels, 0, bucket.bytes);
+            texture.upload();
+            hits++;
+            return id;
+        }
+
+        misses++;
+        return Minecraft.getInstance().getTextureManager().register("video_frame", new DynamicTexture(new NativeImage(width, height, true)));
+    }
+
+    /**
+     * Pools the texture, or releases it if the pool is full. Render thread only.
+     * @param owner Whose budget reservation covered the texture image, it moves to the pool.
+     */
+    public synchronized void giveTexture(Object owner, ResourceLocation id, DynamicTexture texture) {
+        NativeImage pixels = texture.getPixels();
+        Bucket bucket = bucket(pixels.getWidth(), pixels.getHeight());
+        if (!makeRoom(owner, bucket.bytes)) {
+            releaseTexture(id, texture);
+            return;
+        }
+
+        if (bucket.textureCount == bucket.textures.length) {
+            bucket.textures = Arrays.copyOf(bucket.textures, bucket.textureCount * 2);
+            bucket.textureIds = Arrays.copyOf(bucket.textureIds, bucket.textureCount * 2);
+            bucket.textureIdleSince = Arrays.copyOf(bucket.textureIdleSince, bucket.textureCount * 2);
+        }
+        bucket.textures[bucket.textureCount] = texture;
+        bucket.textureIds[bucket.textureCount] = id;
+        bucket.textureIdleSince[bucket.textureCount] = System.nanoTime();
+        bucket.textureCount++;
+        NativeResourceTracker.track(this, NativeResourceTracker.Kind.NATIVE_IMAGE, pixels, bucket.bytes);
+    }
+
+    /**
+     * Frees what has been idle for too long. Called by the controller on the render thread, once per frame.
+     */
+    public synchronized void evictIdle() {
+        if (pooledBytes == 0) return;
+
+        boolean all = trimTextures;
+        trimTextures = false;
+        long oldest = all ? Long.MAX_VALUE : System.nanoTime() - idleNanos;
+        for (int i = 0; i < buckets.size(); i++) {
+            Bucket bucket = buckets.get(i);
+            evictImages(bucket, oldest);
+            evictTextures(bucket, oldest);
+        }
+    }
+
+    /**
+     * Frees everything pooled, for when the memory budget is tight. Textures are only freed on the render thread,
+     * called from another thread they go on the next {@link #evictIdle()}.
+     * @return the bytes freed right away.
+     */
+    public synchronized long trim() {
+        long before = pooledBytes;
+        boolean renderThread = RenderSystem.isOnRenderThread();
+        for (int i = 0; i < buckets.size(); i++) {
+            Bucket bucket = buckets.get(i);
+            evictImages(bucket, Long.MAX_VALUE);
+            if (renderThread) {
+                evictTextures(bucket, Long.MAX_VALUE);
+            }
+        }
+        trimTextures = !renderThread;
+        return before - pooledBytes;
+    }
+
+    public synchronized void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public synchronized void setIdleNanos(long idleNanos) {
+        this.idleNanos = idleNanos;
+    }
+
+    public synchronized long getPooledBytes() {
+        return pooledBytes;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Moves the reservation of an entry from its owner to the pool, evicting the oldest entries if it does not fit.
+     * @return false if it can not be pooled.
+     */
+    private boolean makeRoom(Object owner, long bytes) {
+        if (bytes > maxBytes) return false;
+
+        while (pooledBytes + bytes > maxBytes) {
+            if (!evictOldest()) return false;
+        }
+        budget.transfer(owner, this, bytes);
+        pooledBytes += bytes;
+        return true;
+    }
+
+    private void unpool(NativeImage image, long bytes) {
+        NativeResourceTracker.untrack(NativeResourceTracker.Kind.NATIVE_IMAGE, image);
+        budget.release(this, bytes);
+        pooledBytes -= bytes;
+    }
+
+    private boolean evictOldest() {
+        Bucket oldestBucket = null;
+        boolean oldestIsTexture = false;
+        long oldest = Long.MAX_VALUE;
+        for (int i = 0; i < buckets.size(); i++) {
+            Bucket bucket = buckets.get(i);
+            // Entries are pushed in order, the first one of each stack is its oldest
+            if (bucket.imageCount > 0 && bucket.imageIdleSince[0] < oldest) {
+                oldest = bucket.imageIdleSince[0];
+                oldestBucket = bucket;
+                oldestIsTexture = false;
+            }
+            if (bucket.textureCount > 0 && bucket.textureIdleSince[0] < oldest && RenderSystem.isOnRenderThread()) {
+                oldest = bucket.textureIdleSince[0];
+                oldestBucket = bucket;
+                oldestIsTexture = true;
+            }
+        }
+        if (oldestBucket == null) return false;
+
+        if (oldestIsTexture) {
+            evictTextures(oldestBucket, oldest + 1);
+        } else {
+            evictImages(oldestBucket, oldest + 1);
+        }
+        return true;
+    }
+
+    /**
+     * Frees the images pooled before the given time, they are the bottom of the stack.
+     */
+    private void evictImages(Bucket bucket, long before) {
+        int evicted = 0;
+        while (evicted < bucket.imageCount && bucket.imageIdleSince[evicted] < before) {
+            NativeImage image = bucket.images[evicted];
+            unpool(image, bucket.bytes);
+            image.close();
+            evicted++;
+        }
+        if (evicted == 0) return;
+
+        int left = bucket.imageCount - evicted;
+        System.arraycopy(bucket.images, evicted, bucket.images, 0, left);
+        System.arraycopy(bucket.imageIdleSince, evicted, bucket.imageIdleSince, 0, left);
+        Arrays.fill(bucket.images, left, bucket.imageCount, null);
+        bucket.imageCount = left;
+        evictions += evicted;
+    }
+
+    private void evictTextures(Bucket bucket, long before) {
+        int evicted = 0;
+        while (evicted < bucket.textureCount && bucket.textureIdleSince[evicted] < before) {
+            DynamicTexture texture = bucket.textures[evicted];
+            unpool(texture.getPixels(), bucket.bytes);
+            releaseTexture(bucket.textureIds[evicted], texture);
+            evicted++;
+        }
+        if (evicted == 0) return;
+
+        int left = bucket.textureCount - evicted;
+        System.arraycopy(bucket.textures, evicted, bucket.textures, 0, left);
+        System.arraycopy(bucket.textureIds, evicted, bucket.textureIds, 0, left);
+        System.arraycopy(bucket.textureIdleSince, evicted, bucket.textureIdleSince, 0, left);
+        Arrays.fill(bucket.textures, left, bucket.textureCount, null);
+        Arrays.fill(bucket.textureIds, left, bucket.textureCount, null);
+        bucket.textureCount = left;
+        evictions += evicted;
+    }
+
+    private static void releaseTexture(ResourceLocation id, DynamicTexture texture) {
+        try {
+            Minecraft.getInstance().getTextureManager().release(id);
+            texture.close();
+        } catch (Exception e) {
+            Constants.LOG.error("Error while closing pooled video texture", e);
+        }
+    }
+
+    private Bucket find(int width, int height) {
+        for (int i = 0; i < buckets.size(); i++) {
+            Bucket bucket = buckets.get(i);
+            if (bucket.width == width && bucket.height == height) return bucket;
+        }
+        return null;
+    }
+
+    private Bucket bucket(int width, int height) {
+        Bucket bucket = find(width, height);
+        if (bucket == null) {
+            bucket = new Bucket(width, height);
+            buckets.add(bucket);
+        }
+        return bucket;
+    }
+
+    /**
+     * Everything pooled of one size, as stacks so the most recently used entries are reused first.
+     */
+    private static class Bucket {
+        private final int width;
+        private final int height;
+        private final long bytes;
+
+        private NativeImage[] images = new NativeImage[4];
+        private long[] imageIdleSince = new long[4];
+        private int imageCount = 0;
+
+        private DynamicTexture[] textures = new DynamicTexture[2];
+        private ResourceLocation[] textureIds = new ResourceLocation[2];
+        private long[] textureIdleSince = new long[2];
+        private int textureCount = 0;
+
+        private Bucket(int width, int height) {
+            this.width = width;
+            this.height = height;
+            this.bytes = (long) width * height * 4L;
+        }
+    }
+}
@@ -0,0 +1,320 @@
+package com.chaotic_loom.video_renderer.core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Animated GIF decoder in plain Java. The file is indexed once when opened, then each frame is LZW-decoded
+ * and drawn straight onto the canvas.
+ */
+public class GifVideoSource extends AnimatedImageSource {
+    private static final int MAX_CODES = 4096;
+
+    private final byte[] data;
+    private final Frame[] frames;
+    private final int[] globalPalette;
+
+    // Decoding scratch, reused by every frame
+    private final int[] localPalette = new int[256];
+    private final short[] prefix = new short[MAX_CODES];
+    private final byte[] suffix = new byte[MAX_CODES];
+    private final byte[] stack = new byte[MAX_CODES + 1];
+    private byte[] indices = new byte[0];
+
+    private GifVideoSource(byte[] data, int width, int height, int[] globalPalette, Frame[] frames) {
+        super(width, height, delays(frames));
+        this.data = data;
+        this.frames = frames;
+        this.globalPalette = globalPalette;
+    }
+
+    public static GifVideoSource open(Path file) throws IOException {
+        byte[] data = Files.readAllBytes(file);
+        if (data.length < 13 || data[0] != 'G' || data[1] != 'I' || data[2] != 'F') {
+            throw new IOException("Not a GIF file: " + file);
+        }
+
+        int width = u16(data, 6);
+        int height = u16(data, 8);
+        if (width == 0 || height == 0) throw new IOException("GIF has no size: " + file);
+
+        int flags = data[10] & 0xFF;
+        int pos = 13;
+        int[] globalPalette = null;
+        if ((flags & 0x80) != 0) {
+            int size = 2 << (flags & 7);
+            if (pos + size * 3 > data.length) throw new IOException("Truncated GIF: " + file);
+            globalPalette = readPalette(data, pos, size, new int[256]);
+            pos += size * 3;
+        }
+
+        // Index the frames, the graphic control extension applies to the next image
+        List<Frame> frames = new ArrayList<>();
+        int delay = 0;
+        int transparentIndex = -1;
+        Disposal disposal = Disposal.NONE;
+
+        while (pos < data.length) {
+            int block = data[pos++] & 0xFF;
+            if (block == 0x21) {
+                if (pos >= data.length) break;
+                int label = data[pos++] & 0xFF;
+                if (label == 0xF9 && pos + 5 <= data.length) {
+                    int packed = data[pos + 1] & 0xFF;
+                    delay = u16(data, pos + 2) * 10;
+                    transparentIndex = (packed & 1) != 0 ? data[pos + 4] & 0xFF : -1;
+                    disposal = switch ((packed >> 2) & 7) {
+                        case 2 -> Disposal.BACKGROUND;
+                        case 3 -> Disposal.PREVIOUS;
+                        default -> Disposal.NONE;
+                    };
+                }
+                pos = skipSubBlocks(data, pos);
+            } else if (block == 0x2C) {
+                if (pos + 10 > data.length) break;
+
+                // Like browsers, tiny delays mean "unset" and play at 10 fps
+                frames.add(new Frame(pos, delay < 20 ? 100 : delay, transparentIndex, disposal));
+
+                int packed = data[pos + 8] & 0xFF;
+                pos += 9;
+                if ((packed & 0x80) != 0) {
+                    pos += (2 << (packed & 7)) * 3;
+                }
+                pos = skipSubBlocks(data, pos + 1); // After the LZW minimum code size
+
+                delay = 0;
+                transparentIndex = -1;
+                disposal = Disposal.NONE;
+            } else {
+                break; // Trailer, or garbage after the last frame
+            }
+        }
+
+        if (frames.isEmpty()) throw new IOException("GIF has no frames: " + file);
+        return new GifVideoSource(data, width, height, globalPalette, frames.toArray(new Frame[0]));
+    }
+
+    @Override
+    protected void decodeFrame(int index) {
+        Frame frame = frames[index];
+        int pos = frame.offset();
+
+        int left = u16(data, pos);
+        int top = u16(data, pos + 2);
+        int frameWidth = u16(data, pos + 4);
+        int frameHeight = u16(data, pos + 6);
+        int packed = data[pos + 8] & 0xFF;
+        pos += 9;
+
+        int[] palette = globalPalette;
+        if ((packed & 0x80) != 0) {
+            int size = 2 << (packed & 7);
+            palette = readPalette(data, pos, size, localPalette);
+            pos += size * 3;
+        }
+
+        int pixelCount = frameWidth * frameHeight;
+        if (indices.length < pixelCount) {
+            indices = new byte[pixelCount];
+        }
+        decodeLzw(pos, pixelCount);
+
+        beginFrame(left, top, frameWidth, frameHeight, frame.disposal());
+        if (palette == null) return; // No colors to draw with
+
+        boolean interlaced = (packed & 0x40) != 0;
+        int transparentIndex = frame.transparentIndex();
+        for (int row = 0; row < frameHeight; row++) {
+            int y = top + (interlaced ? interlacedRow(row, frameHeight) : row);
+            if (y >= height) continue;
+
+            int source = row * frameWidth;
+            int target = y * width;
+            int columns = Math.min(frameWidth, width - left);
+            for (int col = 0; col < columns; col++) {
+                int colorIndex = indices[source + col] & 0xFF;
+                if (colorIndex == transparentIndex) continue;
+                canvas.putInt((target + left + col) * 4, palette[colorIndex]);
+            }
+        }
+    }
+
+    /**
+     * Decodes the image data at {@code pos} (minimum code size, then sub-blocks) into {@link #indices}.
+     * Corrupt or short data leaves the rest of the frame at index 0.
+     */
+    private void decodeLzw(int pos, int pixelCount) {
+        int minCodeSize = pos < data.length ? data[pos++] & 0xFF : 8;
+        if (minCodeSize < 1 || minCodeSize > 11) minCodeSize = 8;
+
+        int clear = 1 << minCodeSize;
+        int end = clear + 1;
+        for (int i = 0; i < clear; i++) {
+            prefix[i] = 0;
+            suffix[i] = (byte) i;
+        }
+
+        int codeSize = minCodeSize + 1;
+        int codeMask = (1 << codeSize) - 1;
+        int available = clear + 2;
+        int oldCode = -1;
+        int first = 0;
+
+        int datum = 0;
+        int bits = 0;
+        int blockLeft = 0;
+        int top = 0;
+        int out = 0;
+
+        decode:
+        while (out < pixelCount) {
+            // Read the next code across sub-block boundaries
+            while (bits < codeSize) {
+                if (blockLeft == 0) {
+                    if (pos >= data.length) break decode;
+                    blockLeft = data[pos++] & 0xFF;
+                    if (blockLeft == 0) break decode;
+                }
+                if (pos >= data.length) break decode;
+                datum |= (data[pos++] & 0xFF) << bits;
+                bits += 8;
+                blockLeft--;
+            }
+
+            int code = datum & codeMask;
+            datum >>>= codeSize;
+            bits -= codeSize;
+
+            if (code == clear) {
+                codeSize = minCodeSize + 1;
+                codeMask = (1 << codeSize) - 1;
+                available = clear + 2;
+                oldCode = -1;
+                continue;
+            }
+            if (code == end) break;
+
+            if (oldCode == -1) {
+                if (code >= clear) break; // Must start with a root code
+                indices[out++] = suffix[code];
+                oldCode = code;
+                first = code;
+                continue;
+            }
+
+            int inCode = code;
+            if (code > available) break;
+            if (code == available) {
+                stack[top++] = (byte) first;
+                code = oldCode;
+            }
+            while (code >= clear) {
+                stack[top++] = suffix[code];
+                code = prefix[code];
+            }
+            first = suffix[code] & 0xFF;
+            stack[top++] = (byte) first;
+
+            if (available < MAX_CODES) {
+                prefix[available] = (short) oldCode;
+                suffix[available] = (byte) first;
+                available++;
+                if ((available & codeMask) == 0 && available < MAX_CODES) {
+                    codeSize++;
+                    codeMask += available;
+                }
+            }
+            oldCode = inCode;
+
+            while (top > 0 && out < pixelCount) {
+                indices[out++] = stack[--top];
+            }
+            top = 0;
+        }
+
+        for (int i = out; i < pixelCount; i++) {
+            indices[i] = 0;
+        }
+    }
+
+    /**
+     * Interlaced images store rows 0, 8, 16.. then 4, 12.. then 2, 6.. then 1, 3..
+     */
+    private static int interlacedRow(int row, int height) {
+        int pass1 = (height + 7) / 8;
+        if (row < pass1) return row * 8;
+        row -= pass1;
+
+        int pass2 = (height + 3) / 8;
+        if (row < pass2) return row * 8 + 4;
+        row -= pass2;
+
+        int pass3 = (height + 1) / 4;
+        if (row < pass3) return row * 4 + 2;
+        row -= pass3;
+
+        return row * 2 + 1;
+    }
+
+    private static int[] readPalette(byte[] data, int pos, int size, int[] palette) {
+        for (int i = 0; i < 256; i++) {
+            if (i < size && pos + i * 3 + 2 < data.length) {
+                int r = data[pos + i * 3] & 0xFF;
+                int g = data[pos + i * 3 + 1] & 0xFF;
+                int b = data[pos + i * 3 + 2] & 0xFF;
+                palette[i] = 0xFF000000 | (b << 16) | (g << 8) | r;
+            } else {
+                palette[i] = 0xFF000000;
+            }
+        }
+        return palette;
+    }
+
+    private static int skipSubBlocks(byte[] data, int pos) {
+        while (pos < data.length) {
+            int length = data[pos++] & 0xFF;
+            if (length == 0) break;
+            pos += length;
+        }
+        return pos;
+    }
+
+    private static int u16(byte[] data, int pos) {
+        return (data[pos] & 0xFF) | (data[pos + 1] & 0xFF) << 8;
+    }
+
+    private static int[] delays(Frame[] frames) {
+        int[] delays = new int[frames.length];
+        for (int i = 0; i < frames.length; i++) {
+            delays[i] = frames[i].delayMillis();
+        }
+        return delays;
+    }
+
+    /**
+     * @param offset Position of the image descriptor, right after its 0x2C.
+     */
+    private record Frame(int offset, int delayMillis, int transparentIndex, Disposal disposal) {}
+
+    public static class Provider implements VideoSourceProvider {
+        @Override
+        public String getName() {
+            return "GIF";
+        }
+
+        @Override
+        public boolean accepts(String fileName, ByteBuffer header) {
+            return VideoSources.startsWith(header, "GIF87a") || VideoSources.startsWith(header, "GIF89a");
+        }
+
+        @Override
+        public VideoSource open(Path file) throws Exception {
+            return GifVideoSource.open(file);
+        }
+    }
+}
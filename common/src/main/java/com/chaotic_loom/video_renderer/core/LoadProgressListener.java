@@ -0,0 +1,25 @@
+package com.chaotic_loom.video_renderer.core;
+
+/**
+ * Receives progress updates while a video is prepared.
+ * Called on the loader thread, implementations must be thread-safe.
+ */
+@FunctionalInterface
+public interface LoadProgressListener {
+    LoadProgressListener NONE = (stage, progress) -> {};
+
+    /**
+     * @param stage The preparation step currently running.
+     * @param progress Progress of that step, from 0.0 to 1.0.
+     */
+    void onProgress(Stage stage, float progress);
+
+    enum Stage {
+        COPYING_RESOURCE,
+        PROBING,
+        BUFFERING,
+        EXTRACTING_AUDIO,
+        DECODING_AUDIO,
+        DONE
+    }
+}
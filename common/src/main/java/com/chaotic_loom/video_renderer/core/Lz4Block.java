@@ -0,0 +1,171 @@
+package com.chaotic_loom.video_renderer.core;
+
+import org.lwjgl.system.MemoryUtil;
+
+/**
+ * Minimal LZ4 block codec (https://github.com/lz4/lz4/blob/dev/doc/lz4_Block_format.md).
+ * Compression is offline (converter) and works on arrays, decompression runs per frame and works on native addresses.
+ */
+public class Lz4Block {
+    private static final int MIN_MATCH = 4;
+    private static final int LAST_LITERALS = 5;
+    private static final int MF_LIMIT = 12; // A match can not start in the last 12 bytes
+    private static final int MAX_OFFSET = 65535;
+    private static final int HASH_LOG = 16;
+
+    public static int maxCompressedLength(int length) {
+        return length + length / 255 + 16;
+    }
+
+    /**
+     * @param dst must hold at least {@link #maxCompressedLength(int)} bytes.
+     * @return the compressed length.
+     */
+    public static int compress(byte[] src, int length, byte[] dst) {
+        int[] table = new int[1 << HASH_LOG]; // Positions + 1, 0 means empty
+        int anchor = 0;
+        int dp = 0;
+
+        if (length > MF_LIMIT) {
+            int sp = 0;
+            int limit = length - MF_LIMIT;
+            int matchEnd = length - LAST_LITERALS;
+
+            while (sp < limit) {
+                int sequence = readInt(src, sp);
+                int hash = (sequence * -1640531535) >>> (32 - HASH_LOG);
+                int ref = table[hash] - 1;
+                table[hash] = sp + 1;
+
+                if (ref < 0 || sp - ref > MAX_OFFSET || readInt(src, ref) != sequence) {
+                    // Skip faster over data that does not compress
+                    sp += 1 + ((sp - anchor) >>> 6);
+                    continue;
+                }
+
+                // Extend backwards into the pending literals
+                while (sp > anchor && ref > 0 && src[sp - 1] == src[ref - 1]) {
+                    sp--;
+                    ref--;
+                }
+
+                int matchLength = MIN_MATCH;
+                while (sp + matchLength < matchEnd && src[sp + matchLength] == src[ref + matchLength]) {
+                    matchLength++;
+                }
+
+                dp = writeSequence(src, anchor, sp - anchor, sp - ref, matchLength, dst, dp);
+                sp += matchLength;
+                anchor = sp;
+            }
+        }
+
+        // Last sequence is literals only
+        return writeSequence(src, anchor, length - anchor, 0, 0, dst, dp);
+    }
+
+    private static int writeSequence(byte[] src, int literalStart, int literalLength, int offset, int matchLength, byte[] dst, int dp) {
+        int tokenPos = dp++;
+        int token = Math.min(literalLength, 15) << 4;
+        if (literalLength >= 15) {
+            dp = writeLength(literalLength - 15, dst, dp);
+        }
+
+        System.arraycopy(src, literalStart, dst, dp, literalLength);
+        dp += literalLength;
+
+        if (matchLength > 0) {
+            dst[dp++] = (byte) offset;
+            dst[dp++] = (byte) (offset >>> 8);
+
+            int extra = matchLength - MIN_MATCH;
+            token |= Math.min(extra, 15);
+            if (extra >= 15) {
+                dp = writeLength(extra - 15, dst, dp);
+            }
+        }
+
+        dst[tokenPos] = (byte) token;
+        return dp;
+    }
+
+    private static int writeLength(int length, byte[] dst, int dp) {
+        while (length >= 255) {
+            dst[dp++] = (byte) 255;
+            length -= 255;
+        }
+        dst[dp++] = (byte) length;
+        return dp;
+    }
+
+    private static int readInt(byte[] src, int pos) {
+        return (src[pos] & 0xFF) | (src[pos + 1] & 0xFF) << 8 | (src[pos + 2] & 0xFF) << 16 | (src[pos + 3] & 0xFF) << 24;
+    }
+
+    /**
+     * Decompresses a block between native addresses. Bounds are checked, so corrupt data throws instead of writing out of range.
+     * @throws IllegalStateException if the block is malformed or does not decompress to exactly dstLength bytes.
+     */
+    public static void decompress(long src, int srcLength, long dst, int dstLength) {
+        long sp = src;
+        long srcEnd = src + srcLength;
+        long dp = dst;
+        long dstEnd = dst + dstLength;
+
+        while (sp < srcEnd) {
+            int token = MemoryUtil.memGetByte(sp++) & 0xFF;
+
+            // Literals
+            long literalLength = token >>> 4;
+            if (literalLength == 15) {
+                int b;
+                do {
+                    if (sp >= srcEnd) throw malformed();
+                    b = MemoryUtil.memGetByte(sp++) & 0xFF;
+                    literalLength += b;
+                } while (b == 255);
+            }
+            if (sp + literalLength > srcEnd || dp + literalLength > dstEnd) throw malformed();
+
+            MemoryUtil.memCopy(sp, dp, literalLength);
+            sp += literalLength;
+            dp += literalLength;
+
+            if (sp == srcEnd) break; // Last sequence has no match
+
+            // Match
+            if (sp + 2 > srcEnd) throw malformed();
+            int offset = (MemoryUtil.memGetByte(sp) & 0xFF) | (MemoryUtil.memGetByte(sp + 1) & 0xFF) << 8;
+            sp += 2;
+
+            long matchLength = token & 0x0F;
+            if (matchLength == 15) {
+                int b;
+                do {
+                    if (sp >= srcEnd) throw malformed();
+                    b = MemoryUtil.memGetByte(sp++) & 0xFF;
+                    matchLength += b;
+                } while (b == 255);
+            }
+            matchLength += MIN_MATCH;
+
+            long ref = dp - offset;
+            if (offset == 0 || ref < dst || dp + matchLength > dstEnd) throw malformed();
+
+            // Overlapping matches repeat a pattern of 'offset' bytes, copy it in growing chunks that never overlap
+            long copied = 0;
+            while (copied < matchLength) {
+                long chunk = Math.min(matchLength - copied, copied + offset);
+                MemoryUtil.memCopy(ref, dp + copied, chunk);
+                copied += chunk;
+            }
+            dp += matchLength;
+        }
+
+        if (dp != dstEnd) throw malformed();
+    }
+
+    private static IllegalStateException malformed() {
+        return new IllegalStateException("Malformed LZ4 block");
+    }
+}
@@ -0,0 +1,405 @@
+package com.chaotic_loom.video_renderer.core;
+
+import com.mojang.blaze3d.platform.NativeImage;
+import org.lwjgl.BufferUtils;
+import org.lwjgl.stb.STBImage;
+import org.lwjgl.system.MemoryUtil;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Motion JPEG inside an AVI container, without audio. Every frame is a plain JPEG, decoded by the stb_image
+ * that already ships with LWJGL, so it needs no FFmpeg and skipping frames is free.
+ * <p>
+ * The file is memory-mapped and indexed once when opened.
+ */
+public class MjpegVideoSource implements VideoSource {
+    private static final int RIFF = fourCC("RIFF");
+    private static final int LIST = fourCC("LIST");
+    private static final int AVI = fourCC("AVI ");
+    private static final int AVIX = fourCC("AVIX");
+    private static final int HDRL = fourCC("hdrl");
+    private static final int STRL = fourCC("strl");
+    private static final int MOVI = fourCC("movi");
+    private static final int REC = fourCC("rec ");
+    private static final int AVIH = fourCC("avih");
+    private static final int STRH = fourCC("strh");
+    private static final int STRF = fourCC("strf");
+    private static final int VIDS = fourCC("vids");
+    private static final int AUDS = fourCC("auds");
+
+    private final ByteBuffer data;
+    private final long dataAddress; // Valid as long as data is reachable
+    private final int width;
+    private final int height;
+    private final double frameRate;
+    private final int[] frameOffsets;
+    private final int[] frameLengths; // 0 repeats the previous frame
+
+    // Passed to stb by address, so decoding a frame creates no buffer objects
+    private final IntBuffer decodedWidth = BufferUtils.createIntBuffer(1);
+    private final IntBuffer decodedHeight = BufferUtils.createIntBuffer(1);
+    private final IntBuffer decodedChannels = BufferUtils.createIntBuffer(1);
+    private final long decodedWidthAddress = MemoryUtil.memAddress(decodedWidth);
+    private final long decodedHeightAddress = MemoryUtil.memAddress(decodedHeight);
+    private final long decodedChannelsAddress = MemoryUtil.memAddress(decodedChannels);
+    private ByteBuffer patched; // Frames without Huffman tables get the default ones inserted here
+
+    private int nextFrame = 0;
+
+    private MjpegVideoSource(ByteBuffer data, Index index) {
+        this.data = data;
+        this.dataAddress = MemoryUtil.memAddress(data);
+        this.width = index.width;
+        this.height = index.height;
+        this.frameRate = index.frameRate;
+        this.frameOffsets = Arrays.copyOf(index.offsets, index.count);
+        this.frameLengths = Arrays.copyOf(index.lengths, index.count);
+    }
+
+    public static MjpegVideoSource open(Path file) throws IOException {
+        ByteBuffer data;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        if (data.limit() < 12 || data.getInt(0) != RIFF || data.getInt(8) != AVI) {
+            throw new IOException("Not an AVI file: " + file);
+        }
+
+        // The first RIFF holds the headers, OpenDML files continue the movi list in AVIX ones
+        Index index = new Index();
+        int pos = 0;
+        while (pos + 12 <= data.limit() && data.getInt(pos) == RIFF) {
+            int size = data.getInt(pos + 4);
+            int end = (int) Math.min((long) pos + 8 + (size & 0xFFFFFFFFL), data.limit());
+            int type = data.getInt(pos + 8);
+            if (type != AVI && type != AVIX) break;
+
+            index.walk(data, pos + 12, end, false);
+            pos = end + (end & 1);
+        }
+
+        if (index.hasAudio) throw new IOException("AVI has audio, leaving it to FFmpeg: " + file);
+        if (!index.isMjpeg) throw new IOException("AVI video is not MJPEG: " + file);
+        if (index.width <= 0 || index.height <= 0 || index.count == 0) throw new IOException("AVI has no video frames: " + file);
+
+        return new MjpegVideoSource(data, index);
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public double getFrameRate() {
+        return frameRate;
+    }
+
+    @Override
+    public long getLengthInTime() {
+        return (long) (frameOffsets.length * 1_000_000L / frameRate);
+    }
+
+    @Override
+    public long getNativeBytes() {
+        return patched != null ? patched.capacity() : 0;
+    }
+
+    @Override
+    public long estimateAudioBytes() {
+        return 0;
+    }
+
+    @Override
+    public AudioPlayer openAudio(LoadProgressListener progressListener) {
+        return null;
+    }
+
+    @Override
+    public boolean readFrame(NativeImage target) throws Exception {
+        if (nextFrame >= frameOffsets.length) return false;
+        if (target.pixels == 0) throw new IllegalStateException("Target image is not allocated");
+
+        // Dropped frames are empty chunks, show the last real one again
+        int frame = nextFrame++;
+        while (frame > 0 && frameLengths[frame] == 0) frame--;
+        if (frameLengths[frame] == 0) return true;
+
+        long jpeg = dataAddress + frameOffsets[frame];
+        int length = frameLengths[frame];
+        if (!hasHuffmanTables(jpeg, length)) {
+            jpeg = withDefaultHuffmanTables(jpeg, length);
+            length += DEFAULT_HUFFMAN_TABLES.length;
+        }
+
+        long rgba = STBImage.nstbi_load_from_memory(jpeg, length, decodedWidthAddress, decodedHeightAddress, decodedChannelsAddress, 4);
+        if (rgba == 0) {
+            throw new IOException("Failed to decode MJPEG frame " + frame + ": " + STBImage.stbi_failure_reason());
+        }
+
+        try {
+            if (decodedWidth.get(0) != width || decodedHeight.get(0) != height) {
+                throw new IOException("MJPEG frame " + frame + " is " + decodedWidth.get(0) + "x" + decodedHeight.get(0)
+                        + ", expected " + width + "x" + height);
+            }
+            MemoryUtil.memCopy(rgba, target.pixels, (long) width * height * 4L);
+        } finally {
+            STBImage.nstbi_image_free(rgba);
+        }
+        return true;
+    }
+
+    /**
+     * Every frame is independent, skipping is free.
+     */
+    @Override
+    public int skipFrames(int count, NativeImage scratch) {
+        if (nextFrame >= frameOffsets.length) return -1;
+
+        int skipped = Math.min(count, frameOffsets.length - nextFrame);
+        nextFrame += skipped;
+        return skipped;
+    }
+
+    @Override
+    public void rewind() {
+        nextFrame = 0;
+    }
+
+    @Override
+    public void close() {
+        // The mapped file is unmapped by the GC
+        if (patched != null) {
+            NativeResourceTracker.untrack(NativeResourceTracker.Kind.MEMORY, MemoryUtil.memAddress(patched));
+            MemoryUtil.memFree(patched);
+            patched = null;
+            NativeResourceTracker.reportLeaks(this);
+        }
+    }
+
+    /**
+     * Many MJPEG encoders leave out the Huffman tables (AVI1), decoders are expected to use the standard ones.
+     */
+    private static boolean hasHuffmanTables(long jpeg, int length) {
+        int pos = 2; // After SOI
+        while (pos + 4 <= length) {
+            if ((MemoryUtil.memGetByte(jpeg + pos) & 0xFF) != 0xFF) return false;
+
+            int marker = MemoryUtil.memGetByte(jpeg + pos + 1) & 0xFF;
+            if (marker == 0xC4) return true;
+            if (marker == 0xDA) return false; // Start of scan, no tables before it
+            if (marker == 0xFF) {
+                pos++; // Fill byte
+                continue;
+            }
+            pos += 2 + ((MemoryUtil.memGetByte(jpeg + pos + 2) & 0xFF) << 8 | (MemoryUtil.memGetByte(jpeg + pos + 3) & 0xFF));
+        }
+        return false;
+    }
+
+    /**
+     * @return the address of the patched copy, {@code length + DEFAULT_HUFFMAN_TABLES.length} bytes long.
+     */
+    private long withDefaultHuffmanTables(long jpeg, int length) {
+        int size = length + DEFAULT_HUFFMAN_TABLES.length;
+        if (patched == null || patched.capacity() < size) {
+            if (patched != null) {
+                NativeResourceTracker.untrack(NativeResourceTracker.Kind.MEMORY, MemoryUtil.memAddress(patched));
+            }
+            patched = MemoryUtil.memRealloc(patched, size);
+            NativeResourceTracker.track(this, NativeResourceTracker.Kind.MEMORY, MemoryUtil.memAddress(patched), size);
+        }
+
+        long address = MemoryUtil.memAddress(patched);
+        MemoryUtil.memCopy(jpeg, address, 2); // SOI
+        patched.put(2, DEFAULT_HUFFMAN_TABLES);
+        MemoryUtil.memCopy(jpeg + 2, address + 2 + DEFAULT_HUFFMAN_TABLES.length, length - 2);
+        return address;
+    }
+
+    private static int fourCC(String name) {
+        return name.charAt(0) | name.charAt(1) << 8 | name.charAt(2) << 16 | name.charAt(3) << 24;
+    }
+
+    /**
+     * Collects the stream headers and the offsets of the video chunks while walking the RIFF tree.
+     */
+    private static class Index {
+        private int width, height;
+        private double frameRate = 30;
+        private int videoStream = -1;
+        private int streamCount = 0;
+        private boolean isMjpeg, hasAudio;
+
+        private int[] offsets = new int[1024];
+        private int[] lengths = new int[1024];
+        private int count = 0;
+
+        private void walk(ByteBuffer data, int pos, int end, boolean inMovi) {
+            while (pos + 8 <= end) {
+                int id = data.getInt(pos);
+                long size = data.getInt(pos + 4) & 0xFFFFFFFFL;
+                int body = pos + 8;
+                if (body + size > end) size = end - body; // Truncated, keep what we have
+
+                if (id == LIST && size >= 4) {
+                    int type = data.getInt(body);
+                    if (type == HDRL || type == STRL || type == MOVI || type == REC) {
+                        walk(data, body + 4, (int) (body + size), inMovi || type == MOVI);
+                    }
+                } else if (inMovi) {
+                    if (isVideoChunk(id)) addFrame(body, (int) size);
+                } else if (id == AVIH && size >= 40) {
+                    width = data.getInt(body + 32);
+                    height = data.getInt(body + 36);
+                    int microsPerFrame = data.getInt(body);
+                    if (microsPerFrame > 0) frameRate = 1_000_000.0 / microsPerFrame;
+                } else if (id == STRH && size >= 28) {
+                    int type = data.getInt(body);
+                    if (type == VIDS && videoStream < 0) {
+                        videoStream = streamCount;
+                        int scale = data.getInt(body + 20);
+                        int rate = data.getInt(body + 24);
+                        if (scale > 0 && rate > 0) frameRate = (double) rate / scale;
+                    } else if (type == AUDS) {
+                        hasAudio = true;
+                    }
+                    streamCount++;
+                } else if (id == STRF && size >= 20 && videoStream == streamCount - 1) {
+                    width = data.getInt(body + 4);
+                    height = Math.abs(data.getInt(body + 8));
+                    int compression = data.getInt(body + 16);
+                    isMjpeg = compression == fourCC("MJPG") || compression == fourCC("mjpg");
+                }
+
+                pos = (int) (body + size + (size & 1));
+            }
+        }
+
+        /**
+         * Video chunks are named after their stream: 00dc, 01db...
+         */
+        private boolean isVideoChunk(int id) {
+            if (videoStream < 0) return false;
+
+            int tens = '0' + videoStream / 10;
+            int ones = '0' + videoStream % 10;
+            int suffix = id >>> 16;
+            return (id & 0xFF) == tens && ((id >> 8) & 0xFF) == ones && (suffix == ('d' | 'c' << 8) || suffix == ('d' | 'b' << 8));
+        }
+
+        private void addFrame(int offset, int length) {
+            if (count == offsets.length) {
+                offsets = Arrays.copyOf(offsets, count * 2);
+                lengths = Arrays.copyOf(lengths, count * 2);
+            }
+            offsets[count] = offset;
+            lengths[count] = length;
+            count++;
+        }
+    }
+
+    /**
+     * The standard tables from the JPEG spec (K.3) as a DHT segment: luma DC, chroma DC, luma AC, chroma AC.
+     */
+    private static final byte[] DEFAULT_HUFFMAN_TABLES = buildHuffmanSegment(
+            0x00, new int[]{0, 1, 5, 1, 1, 1, 1, 1, 1, 0, 0, 0, 0, 0, 0, 0},
+            new int[]{0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11},
+            0x01, new int[]{0, 3, 1, 1, 1, 1, 1, 1, 1, 1, 1, 0, 0, 0, 0, 0},
+            new int[]{0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11},
+            0x10, new int[]{0, 2, 1, 3, 3, 2, 4, 3, 5, 5, 4, 4, 0, 0, 1, 0x7d},
+            new int[]{
+                    0x01, 0x02, 0x03, 0x00, 0x04, 0x11, 0x05, 0x12, 0x21, 0x31, 0x41, 0x06, 0x13, 0x51, 0x61, 0x07,
+                    0x22, 0x71, 0x14, 0x32, 0x81, 0x91, 0xa1, 0x08, 0x23, 0x42, 0xb1, 0xc1, 0x15, 0x52, 0xd1, 0xf0,
+                    0x24, 0x33, 0x62, 0x72, 0x82, 0x09, 0x0a, 0x16, 0x17, 0x18, 0x19, 0x1a, 0x25, 0x26, 0x27, 0x28,
+                    0x29, 0x2a, 0x34, 0x35, 0x36, 0x37, 0x38, 0x39, 0x3a, 0x43, 0x44, 0x45, 0x46, 0x47, 0x48, 0x49,
+                    0x4a, 0x53, 0x54, 0x55, 0x56, 0x57, 0x58, 0x59, 0x5a, 0x63, 0x64, 0x65, 0x66, 0x67, 0x68, 0x69,
+                    0x6a, 0x73, 0x74, 0x75, 0x76, 0x77, 0x78, 0x79, 0x7a, 0x83, 0x84, 0x85, 0x86, 0x87, 0x88, 0x89,
+                    0x8a, 0x92, 0x93, 0x94, 0x95, 0x96, 0x97, 0x98, 0x99, 0x9a, 0xa2, 0xa3, 0xa4, 0xa5, 0xa6, 0xa7,
+                    0xa8, 0xa9, 0xaa, 0xb2, 0xb3, 0xb4, 0xb5, 0xb6, 0xb7, 0xb8, 0xb9, 0xba, 0xc2, 0xc3, 0xc4, 0xc5,
+                    0xc6, 0xc7, 0xc8, 0xc9, 0xca, 0xd2, 0xd3, 0xd4, 0xd5, 0xd6, 0xd7, 0xd8, 0xd9, 0xda, 0xe1, 0xe2,
+                    0xe3, 0xe4, 0xe5, 0xe6, 0xe7, 0xe8, 0xe9, 0xea, 0xf1, 0xf2, 0xf3, 0xf4, 0xf5, 0xf6, 0xf7, 0xf8,
+                    0xf9, 0xfa},
+            0x11, new int[]{0, 2, 1, 2, 4, 4, 3, 4, 7, 5, 4, 4, 0, 1, 2, 0x77},
+            new int[]{
+                    0x00, 0x01, 0x02, 0x03, 0x11, 0x04, 0x05, 0x21, 0x31, 0x06, 0x12, 0x41, 0x51, 0x07, 0x61, 0x71,
+                    0x13, 0x22, 0x32, 0x81, 0x08, 0x14, 0x42, 0x91, 0xa1, 0xb1, 0xc1, 0x09, 0x23, 0x33, 0x52, 0xf0,
+                    0x15, 0x62, 0x72, 0xd1, 0x0a, 0x16, 0x24, 0x34, 0xe1, 0x25, 0xf1, 0x17, 0x18, 0x19, 0x1a, 0x26,
+                    0x27, 0x28, 0x29, 0x2a, 0x35, 0x36, 0x37, 0x38, 0x39, 0x3a, 0x43, 0x44, 0x45, 0x46, 0x47, 0x48,
+                    0x49, 0x4a, 0x53, 0x54, 0x55, 0x56, 0x57, 0x58, 0x59, 0x5a, 0x63, 0x64, 0x65, 0x66, 0x67, 0x68,
+                    0x69, 0x6a, 0x73, 0x74, 0x75, 0x76, 0x77, 0x78, 0x79, 0x7a, 0x82, 0x83, 0x84, 0x85, 0x86, 0x87,
+                    0x88, 0x89, 0x8a, 0x92, 0x93, 0x94, 0x95, 0x96, 0x97, 0x98, 0x99, 0x9a, 0xa2, 0xa3, 0xa4, 0xa5,
+                    0xa6, 0xa7, 0xa8, 0xa9, 0xaa, 0xb2, 0xb3, 0xb4, 0xb5, 0xb6, 0xb7, 0xb8, 0xb9, 0xba, 0xc2, 0xc3,
+                    0xc4, 0xc5, 0xc6, 0xc7, 0xc8, 0xc9, 0xca, 0xd2, 0xd3, 0xd4, 0xd5, 0xd6, 0xd7, 0xd8, 0xd9, 0xda,
+                    0xe2, 0xe3, 0xe4, 0xe5, 0xe6, 0xe7, 0xe8, 0xe9, 0xea, 0xf2, 0xf3, 0xf4, 0xf5, 0xf6, 0xf7, 0xf8,
+                    0xf9, 0xfa});
+
+    /**
+     * @param tables Repeated (class and id, 16 code counts, values).
+     */
+    private static byte[] buildHuffmanSegment(Object... tables) {
+        int length = 2;
+        for (int i = 0; i < tables.length; i += 3) {
+            length += 1 + 16 + ((int[]) tables[i + 2]).length;
+        }
+
+        ByteBuffer segment = ByteBuffer.allocate(2 + length);
+        segment.put((byte) 0xFF).put((byte) 0xC4).putShort((short) length);
+        for (int i = 0; i < tables.length; i += 3) {
+            segment.put((byte) (int) (Integer) tables[i]);
+            for (int count : (int[]) tables[i + 1]) segment.put((byte) count);
+            for (int value : (int[]) tables[i + 2]) segment.put((byte) value);
+        }
+        return segment.array();
+    }
+
+    public static class Provider implements VideoSourceProvider {
+        private static final byte[] MJPG = {'M', 'J', 'P', 'G'};
+        private static final byte[] AUDS_TAG = {'a', 'u', 'd', 's'};
+
+        @Override
+        public String getName() {
+            return "MJPEG";
+        }
+
+        /**
+         * Looks for the codec and audio tags in the headers, which sit at the start of the file.
+         */
+        @Override
+        public boolean accepts(String fileName, ByteBuffer header) {
+            if (!VideoSources.startsWith(header, "RIFF") || header.remaining() < 12) return false;
+            if (header.getInt(header.position() + 8) != Integer.reverseBytes(AVI)) return false;
+
+            return contains(header, MJPG) && !contains(header, AUDS_TAG);
+        }
+
+        @Override
+        public VideoSource open(Path file) throws Exception {
+            return MjpegVideoSource.open(file);
+        }
+
+        private static boolean contains(ByteBuffer header, byte[] tag) {
+            outer:
+            for (int i = header.position(); i + tag.length <= header.limit(); i++) {
+                for (int j = 0; j < tag.length; j++) {
+                    if ((header.get(i + j) & 0xDF) != (tag[j] & 0xDF)) continue outer;
+                }
+                return true;
+            }
+            return false;
+        }
+    }
+}
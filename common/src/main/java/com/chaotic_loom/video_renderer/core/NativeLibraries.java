@@ -0,0 +1,68 @@
+package com.chaotic_loom.video_renderer.core;
+
+import com.chaotic_loom.video_renderer.Constants;
+import com.chaotic_loom.video_renderer.platform.Services;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Loads the FFmpeg natives in the background at mod init, so the first video does not pay for it on the render thread.
+ * JavaCPP extracts the libraries for the current platform into a cache inside the game directory,
+ * so later launches only have to load them.
+ */
+public class NativeLibraries {
+    private static final String CACHE_DIR_PROPERTY = "org.bytedeco.javacpp.cachedir";
+
+    private static CompletableFuture<Void> ready;
+
+    /**
+     * Starts loading the natives on a background thread. Calling it again returns the same future.
+     * @return a future that completes once FFmpeg can be used, or exceptionally if the natives could not be loaded.
+     */
+    public static synchronized CompletableFuture<Void> warmUp() {
+        if (ready == null) {
+            ready = CompletableFuture.runAsync(NativeLibraries::load, runnable -> {
+                Thread thread = new Thread(runnable, "Video-Native-Warmup-Thread");
+                thread.setDaemon(true);
+                thread.start();
+            });
+        }
+        return ready;
+    }
+
+    /**
+     * Blocks until the natives are loaded, starting the warm-up if nobody did yet.
+     * A failed warm-up is not rethrown, opening the video will report the real error.
+     */
+    public static void awaitReady() {
+        try {
+            warmUp().join();
+        } catch (CompletionException ignored) {
+            // Already logged by load()
+        }
+    }
+
+    public static synchronized boolean isReady() {
+        return ready != null && ready.isDone() && !ready.isCompletedExceptionally();
+    }
+
+    private static void load() {
+        // Keep the extracted libraries between launches, unless the user chose a location
+        if (System.getProperty(CACHE_DIR_PROPERTY) == null) {
+            Path cacheDir = Services.PLATFORM.getGameDirectory().resolve(Constants.MOD_ID).resolve("natives");
+            System.setProperty(CACHE_DIR_PROPERTY, cacheDir.toAbsolutePath().toString());
+        }
+
+        long start = System.nanoTime();
+        try {
+            FFmpegFrameGrabber.tryLoad();
+            Constants.LOG.info("FFmpeg natives loaded in {} ms", (System.nanoTime() - start) / 1_000_000);
+        } catch (Exception e) {
+            Constants.LOG.error("Failed to load FFmpeg natives", e);
+            throw new CompletionException(e);
+        }
+    }
+}
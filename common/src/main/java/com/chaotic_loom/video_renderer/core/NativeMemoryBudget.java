@@ -0,0 +1,104 @@
+package com.chaotic_loom.video_renderer.core;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Keeps track of the off-heap memory used by all videos (frame buffers and PCM) and enforces a global cap.
+ * Reservations are made before allocating, so a video that does not fit never allocates anything.
+ */
+public class NativeMemoryBudget {
+    public static final long DEFAULT_LIMIT_BYTES = 1024L * 1024L * 1024L; // 1 GiB
+
+    private final Map<Object, Long> reservations = new IdentityHashMap<>();
+    private long limitBytes;
+    private long usedBytes = 0;
+
+    public NativeMemoryBudget(long limitBytes) {
+        setLimitBytes(limitBytes);
+    }
+
+    /**
+     * Reserves bytes for the owner if they fit in the remaining budget.
+     * @return false if the cap would be exceeded, nothing is reserved in that case.
+     */
+    public synchronized boolean tryReserve(Object owner, long bytes) {
+        if (bytes < 0) throw new IllegalArgumentException("Negative reservation: " + bytes);
+        if (usedBytes + bytes > limitBytes) return false;
+
+        reservations.merge(owner, bytes, Long::sum);
+        usedBytes += bytes;
+        return true;
+    }
+
+    /**
+     * Gives back part of the owner's reservation, for example a temporary buffer that was freed.
+     */
+    public synchronized void release(Object owner, long bytes) {
+        Long reserved = reservations.get(owner);
+        if (reserved == null) return;
+
+        long released = Math.min(reserved, bytes);
+        usedBytes -= released;
+
+        if (reserved - released <= 0) {
+            reservations.remove(owner);
+        } else {
+            reservations.put(owner, reserved - released);
+        }
+    }
+
+    /**
+     * Moves part of a reservation to another owner, the total does not change.
+     * @return the bytes moved, at most what the first owner had reserved.
+     */
+    public synchronized long transfer(Object from, Object to, long bytes) {
+        Long reserved = reservations.get(from);
+        if (reserved == null) return 0;
+
+        long moved = Math.min(reserved, bytes);
+        release(from, moved);
+        reservations.merge(to, moved, Long::sum);
+        usedBytes += moved;
+        return moved;
+    }
+
+    /**
+     * Gives back everything the owner reserved.
+     */
+    public synchronized void releaseAll(Object owner) {
+        Long reserved = reservations.remove(owner);
+        if (reserved != null) {
+            usedBytes -= reserved;
+        }
+    }
+
+    public synchronized long getReservedBytes(Object owner) {
+        return reservations.getOrDefault(owner, 0L);
+    }
+
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    public synchronized long getLimitBytes() {
+        return limitBytes;
+    }
+
+    /**
+     * Changes the cap. Existing reservations are kept even if they no longer fit, only new ones are refused.
+     */
+    public synchronized void setLimitBytes(long limitBytes) {
+        if (limitBytes <= 0) throw new IllegalArgumentException("Limit must be positive: " + limitBytes);
+        this.limitBytes = limitBytes;
+    }
+
+    /**
+     * Thrown when a video cannot fit in the budget, even after downscaling.
+     */
+    public static class BudgetExceededException extends RuntimeException {
+        public BudgetExceededException(String message) {
+            super(message);
+        }
+    }
+}
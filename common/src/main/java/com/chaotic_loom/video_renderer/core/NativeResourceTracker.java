@@ -0,0 +1,92 @@
+package com.chaotic_loom.video_renderer.core;
+
+import com.chaotic_loom.video_renderer.Constants;
+import com.chaotic_loom.video_renderer.platform.Services;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Debug helper that remembers every native handle the library allocates, who owns it and where it was allocated.
+ * Enabled in development environments or with -Dvideo_renderer.trackNativeResources=true, otherwise every call is a no-op.
+ */
+public class NativeResourceTracker {
+    public static final boolean ENABLED = Boolean.getBoolean("video_renderer.trackNativeResources") || Services.PLATFORM.isDevelopmentEnvironment();
+
+    private static final Map<Key, Allocation> live = new ConcurrentHashMap<>();
+
+    /**
+     * @param owner The object responsible for freeing the handle.
+     * @param kind What type of handle it is.
+     * @param handle Identifies the handle within its kind: an address, an OpenAL id, a Path or the object itself.
+     * @param bytes Native bytes held by the handle, 0 if unknown.
+     */
+    public static void track(Object owner, Kind kind, Object handle, long bytes) {
+        if (!ENABLED || handle == null) return;
+
+        Key key = new Key(kind, handle);
+        Allocation previous = live.put(key, new Allocation(owner, kind, handle, bytes, new Throwable("Allocated here")));
+        if (previous != null) {
+            Constants.LOG.warn("Native handle {} tracked twice, first allocated by {}", key, previous.owner(), previous.site());
+        }
+    }
+
+    public static void untrack(Kind kind, Object handle) {
+        if (!ENABLED || handle == null) return;
+
+        if (live.remove(new Key(kind, handle)) == null) {
+            Constants.LOG.warn("Freed native handle {} {} that was never tracked (double free?)", kind, handle);
+        }
+    }
+
+    public static List<Allocation> getLiveAllocations(Object owner) {
+        List<Allocation> result = new ArrayList<>();
+        for (Allocation allocation : live.values()) {
+            if (allocation.owner() == owner) {
+                result.add(allocation);
+            }
+        }
+        return result;
+    }
+
+    public static int getLiveCount() {
+        return live.size();
+    }
+
+    public static long getLiveBytes() {
+        long total = 0;
+        for (Allocation allocation : live.values()) {
+            total += allocation.bytes();
+        }
+        return total;
+    }
+
+    /**
+     * Logs every handle the owner still holds, with its allocation site. Called when an owner is closed.
+     * @return the amount of leaked handles.
+     */
+    public static int reportLeaks(Object owner) {
+        if (!ENABLED) return 0;
+
+        List<Allocation> leaked = getLiveAllocations(owner);
+        for (Allocation allocation : leaked) {
+            Constants.LOG.warn("Leaked native {} {} ({} bytes) owned by {}", allocation.kind(), allocation.handle(), allocation.bytes(), owner, allocation.site());
+        }
+        return leaked.size();
+    }
+
+    public enum Kind {
+        MEMORY,
+        NATIVE_IMAGE,
+        AL_SOURCE,
+        AL_BUFFER,
+        GRABBER,
+        TEMP_FILE
+    }
+
+    public record Allocation(Object owner, Kind kind, Object handle, long bytes, Throwable site) {}
+
+    private record Key(Kind kind, Object handle) {}
+}
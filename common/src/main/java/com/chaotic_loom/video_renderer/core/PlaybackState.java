@@ -0,0 +1,29 @@
+package com.chaotic_loom.video_renderer.core;
+
+/**
+ * Lifecycle of a single VideoRenderer.
+ * Transitions only happen on the render thread, while the queued commands are processed.
+ */
+public enum PlaybackState {
+    LOADING,
+    READY,
+    PLAYING,
+    PAUSED,
+    ENDED,
+    CLOSED;
+
+    public boolean canTransitionTo(PlaybackState next) {
+        if (next == CLOSED) {
+            return this != CLOSED;
+        }
+
+        return switch (this) {
+            case LOADING -> next == READY;
+            case READY -> next == PLAYING;
+            case PLAYING -> next == PAUSED || next == ENDED || next == READY;
+            case PAUSED -> next == PLAYING || next == READY;
+            case ENDED -> next == PLAYING || next == READY;
+            case CLOSED -> false;
+        };
+    }
+}
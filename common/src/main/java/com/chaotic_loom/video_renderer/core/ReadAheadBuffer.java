@@ -0,0 +1,452 @@
+package com.chaotic_loom.video_renderer.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Disk-backed buffer between a download thread and FFmpeg.
+ * Bytes are stored at their offset in the stream, so the file may have holes. The writer downloads one segment at a
+ * time and blocks once it is capacity bytes ahead of the readers, the readers block until the bytes they want are written.
+ * Everything stays on disk, so readers can seek back (loops) without downloading again.
+ * <p>
+ * A reader that wants bytes the writer will not reach (an index at the end of an MP4) asks it to restart there, when the
+ * server supports ranges (see {@link #setSeekable(boolean)}). Otherwise the writer never waits on a reader that is ahead
+ * of it, and downloads through to the wanted bytes.
+ */
+public class ReadAheadBuffer implements AutoCloseable {
+    // A restarted segment writes at least this much before the next restart, two readers far apart can not stall it
+    private static final long MIN_SEGMENT_BYTES = 256 * 1024;
+
+    private final long capacityBytes;
+    private final Path file;
+    private final FileChannel channel;
+
+    // Guarded by this
+    private final TreeMap<Long, Long> ranges = new TreeMap<>(); // Downloaded bytes, start to end, never touching
+    private final List<BufferStream> streams = new ArrayList<>();
+    private long segmentStart = 0;
+    private long written = 0; // Where the writer appends
+    private boolean writing = true; // False between segments
+    private long restartPosition = -1; // Asked by a reader
+    private long totalBytes = -1; // From Content-Length, -1 if unknown
+    private boolean seekable = false;
+    private boolean complete = false;
+    private boolean closed = false;
+    private IOException failure;
+
+    public ReadAheadBuffer(long capacityBytes) throws IOException {
+        if (capacityBytes <= 0) throw new IllegalArgumentException("Capacity must be positive: " + capacityBytes);
+        this.capacityBytes = capacityBytes;
+
+        this.file = Files.createTempFile("clm_stream_", ".bin");
+        NativeResourceTracker.track(this, NativeResourceTracker.Kind.TEMP_FILE, file, 0);
+        try {
+            this.channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        } catch (IOException e) {
+            deleteFile();
+            throw e;
+        }
+    }
+
+    // ----------------- Writer (download thread) -----------------
+
+    public synchronized void setTotalBytes(long totalBytes) {
+        this.totalBytes = totalBytes;
+    }
+
+    /**
+     * The writer can start a segment anywhere ({@link #startSegment(long)}), readers may ask it to.
+     * Needs the total size.
+     */
+    public synchronized void setSeekable(boolean seekable) {
+        this.seekable = seekable && totalBytes > 0;
+    }
+
+    /**
+     * The next bytes written go at that offset.
+     */
+    public synchronized void startSegment(long position) {
+        segmentStart = position;
+        written = position;
+        writing = true;
+        notifyAll();
+    }
+
+    /**
+     * Appends bytes to the segment, blocking while the buffer is full.
+     * @return false if a reader wants the writer somewhere else, nothing was written then. Continue at {@link #nextSegment()}.
+     * @throws InterruptedIOException if the buffer was closed or the thread interrupted while waiting.
+     */
+    public boolean write(byte[] bytes, int offset, int length) throws IOException {
+        long position;
+        synchronized (this) {
+            while (!closed && !restartDue() && isFull()) {
+                waitForChange();
+            }
+            if (closed) throw new InterruptedIOException("Buffer closed");
+            if (restartDue()) return false;
+            position = written;
+        }
+
+        // Only this thread writes, readers never look past the downloaded ranges
+        ByteBuffer src = ByteBuffer.wrap(bytes, offset, length);
+        long end = position;
+        while (src.hasRemaining()) {
+            end += channel.write(src, end);
+        }
+
+        synchronized (this) {
+            addRange(position, end);
+            written = end;
+            notifyAll();
+        }
+        return true;
+    }
+
+    /**
+     * Where the writer continues once a segment ended or was cut by {@link #write(byte[], int, int)}: what a reader asked
+     * for, else the first missing bytes after the readers, else the first missing bytes at all.
+     * @return -1 when everything is downloaded, or always if the stream is not seekable.
+     */
+    public synchronized long nextSegment() {
+        writing = false;
+        notifyAll();
+        if (!seekable || closed) return -1;
+
+        if (restartPosition >= 0) {
+            long position = restartPosition;
+            restartPosition = -1;
+            return position;
+        }
+
+        long position = firstMissing(minStreamPosition());
+        if (position < 0) position = firstMissing(0);
+        return position;
+    }
+
+    /**
+     * The download reached the end of the stream, and everything before it is on disk.
+     */
+    public synchronized void finish() {
+        complete = true;
+        writing = false;
+        if (totalBytes < 0) totalBytes = written;
+        notifyAll();
+    }
+
+    /**
+     * The download failed, readers get the error once they run out of data.
+     */
+    public synchronized void fail(IOException e) {
+        failure = e;
+        writing = false;
+        notifyAll();
+    }
+
+    private boolean restartDue() {
+        return restartPosition >= 0 && written - segmentStart >= MIN_SEGMENT_BYTES;
+    }
+
+    /**
+     * Capacity bytes ahead of the readers, and none of them waits for the writer.
+     * Readers behind the segment read what is already on disk, the segment start counts for them.
+     */
+    private boolean isFull() {
+        long slowest = Long.MAX_VALUE;
+        for (int i = 0; i < streams.size(); i++) {
+            BufferStream stream = streams.get(i);
+            if (stream.waiting) return false;
+            slowest = Math.min(slowest, stream.position);
+        }
+        if (slowest == Long.MAX_VALUE) slowest = 0; // No reader yet, fill the start buffer
+        return written - Math.max(segmentStart, slowest) >= capacityBytes;
+    }
+
+    // ----------------- Ranges -----------------
+
+    private void addRange(long start, long end) {
+        if (end <= start) return;
+
+        // Merge with whatever it touches
+        Map.Entry<Long, Long> before = ranges.floorEntry(start);
+        if (before != null && before.getValue() >= start) {
+            start = before.getKey();
+            end = Math.max(end, before.getValue());
+        }
+        Map.Entry<Long, Long> after;
+        while ((after = ranges.ceilingEntry(start)) != null && after.getKey() <= end) {
+            end = Math.max(end, after.getValue());
+            ranges.remove(after.getKey());
+        }
+        ranges.put(start, end);
+    }
+
+    /**
+     * @return bytes on disk from the position on, without a hole.
+     */
+    private long downloadedFrom(long position) {
+        Map.Entry<Long, Long> range = ranges.floorEntry(position);
+        return range != null && range.getValue() > position ? range.getValue() - position : 0;
+    }
+
+    /**
+     * @return the first offset at or after the position that is not on disk, -1 if there is none before the end.
+     */
+    private long firstMissing(long position) {
+        long missing = position + downloadedFrom(position);
+        return totalBytes >= 0 && missing >= totalBytes ? -1 : missing;
+    }
+
+    private long minStreamPosition() {
+        long slowest = Long.MAX_VALUE;
+        for (int i = 0; i < streams.size(); i++) {
+            slowest = Math.min(slowest, streams.get(i).position);
+        }
+        return slowest == Long.MAX_VALUE ? 0 : slowest;
+    }
+
+    // ----------------- Reader (FFmpeg) -----------------
+
+    /**
+     * @return a stream that reads from the start and supports mark/reset at any distance (the data is on disk).
+     * Several streams can be open at once (video and audio), the writer stays ahead of the slowest one.
+     */
+    public InputStream openStream() {
+        BufferStream stream = new BufferStream();
+        synchronized (this) {
+            streams.add(stream);
+        }
+        return stream;
+    }
+
+    /**
+     * Waits until the byte at the position is on disk, asking the writer to restart there if it would never get to it.
+     * @return bytes that can be read from the position, 0 at the end of the stream.
+     */
+    private synchronized long awaitData(BufferStream stream, long position) throws IOException {
+        stream.position = position;
+        notifyAll(); // The writer may have room again
+
+        try {
+            while (true) {
+                if (closed) throw new InterruptedIOException("Buffer closed");
+
+                long available = downloadedFrom(position);
+                if (available > 0) return available;
+                if (totalBytes >= 0 && position >= totalBytes) return 0;
+                if (complete) return 0;
+                if (failure != null) throw new IOException("Download failed", failure);
+
+                // Outside of what the writer is about to download
+                boolean reached = writing && position >= written && position - written < capacityBytes;
+                if (seekable && !reached && restartPosition < 0) {
+                    restartPosition = position;
+                }
+
+                stream.waiting = true;
+                waitForChange();
+            }
+        } finally {
+            stream.waiting = false;
+        }
+    }
+
+    private synchronized void setReadPosition(BufferStream stream, long position) {
+        stream.position = position;
+        notifyAll();
+    }
+
+    private synchronized void closeStream(BufferStream stream) {
+        streams.remove(stream);
+        notifyAll();
+    }
+
+    /**
+     * @return the size of the stream, -1 while it is not known.
+     */
+    private synchronized long knownSize() {
+        return totalBytes;
+    }
+
+    private void waitForChange() throws InterruptedIOException {
+        try {
+            wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the stream buffer");
+        }
+    }
+
+    // ----------------- Health -----------------
+
+    /**
+     * @return bytes downloaded but not read yet by the slowest reader.
+     */
+    public synchronized long getBufferedBytes() {
+        return downloadedFrom(minStreamPosition());
+    }
+
+    public synchronized long getDownloadedBytes() {
+        long total = 0;
+        for (Map.Entry<Long, Long> range : ranges.entrySet()) {
+            total += range.getValue() - range.getKey();
+        }
+        return total;
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public synchronized boolean isComplete() {
+        return complete;
+    }
+
+    public synchronized boolean hasFailed() {
+        return failure != null;
+    }
+
+    public long getCapacityBytes() {
+        return capacityBytes;
+    }
+
+    /**
+     * The temp file with everything downloaded so far, with holes until the download is complete.
+     */
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Wakes up and fails every blocked reader and writer, then deletes the temp file.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+            notifyAll();
+        }
+
+        try {
+            channel.close();
+        } catch (IOException ignored) {}
+        deleteFile();
+    }
+
+    private void deleteFile() {
+        try {
+            Files.deleteIfExists(file);
+            NativeResourceTracker.untrack(NativeResourceTracker.Kind.TEMP_FILE, file);
+        } catch (IOException e) {
+            file.toFile().deleteOnExit();
+        }
+    }
+
+    private class BufferStream extends InputStream {
+        // Guarded by the buffer, the writer looks at them
+        private long position = 0;
+        private boolean waiting = false;
+
+        private long mark = 0;
+
+        // FFmpeg reads into the same array every time, so its wrapper is kept
+        private final byte[] single = new byte[1];
+        private byte[] wrappedArray;
+        private ByteBuffer wrapper;
+
+        @Override
+        public int read() throws IOException {
+            return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if (length == 0) return 0;
+
+            long start;
+            synchronized (ReadAheadBuffer.this) {
+                start = position;
+            }
+            long available = awaitData(this, start);
+            if (available <= 0) return -1;
+
+            if (bytes != wrappedArray) {
+                wrappedArray = bytes;
+                wrapper = ByteBuffer.wrap(bytes);
+            }
+            wrapper.limit(offset + (int) Math.min(length, available)).position(offset);
+
+            int read = channel.read(wrapper, start);
+            if (read <= 0) return -1;
+
+            setReadPosition(this, start + read);
+            return read;
+        }
+
+        /**
+         * Only moves the position, the next read waits for the data. Clamped to the size of the stream when it is known.
+         * A skip to {@link Long#MAX_VALUE} is how JavaCV looks for the end (SEEK_END, AVSEEK_SIZE): it fails while the
+         * size is unknown, which FFmpeg takes as a stream it can not seek from the end, instead of waiting for a download
+         * that may never end.
+         */
+        @Override
+        public long skip(long n) throws IOException {
+            if (n <= 0) return 0;
+
+            long start;
+            synchronized (ReadAheadBuffer.this) {
+                start = position;
+            }
+
+            long size = knownSize();
+            boolean toEnd = n >= Long.MAX_VALUE - start;
+            if (size < 0 && toEnd) throw new IOException("Stream size is not known yet");
+
+            long target = toEnd ? Long.MAX_VALUE : start + n;
+            if (size >= 0) target = Math.max(start, Math.min(target, size));
+
+            setReadPosition(this, target);
+            return target - start;
+        }
+
+        @Override
+        public int available() {
+            synchronized (ReadAheadBuffer.this) {
+                return (int) Math.min(Integer.MAX_VALUE, downloadedFrom(position));
+            }
+        }
+
+        @Override
+        public boolean markSupported() {
+            return true;
+        }
+
+        @Override
+        public void mark(int readLimit) {
+            synchronized (ReadAheadBuffer.this) {
+                mark = position;
+            }
+        }
+
+        @Override
+        public void reset() {
+            setReadPosition(this, mark);
+        }
+
+        @Override
+        public void close() {
+            closeStream(this);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.chaotic_loom.video_renderer.core;
+
+import com.chaotic_loom.video_renderer.Constants;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import net.minecraft.resources.ResourceLocation;
+import org.bytedeco.ffmpeg.avcodec.AVCodecDescriptor;
+import org.bytedeco.ffmpeg.global.avcodec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Several encodes of the same video, listed in a manifest next to it (videos/intro.mp4 -> videos/intro.renditions.json):
+ * <pre>
+ * {
+ *   "renditions": [
+ *     { "path": "intro_480p.mp4", "width": 854, "height": 480, "bitrate": 1500000, "codec": "h264" },
+ *     { "path": "intro_1080p.mp4", "width": 1920, "height": 1080, "bitrate": 6000000, "codec": "h264" }
+ *   ]
+ * }
+ * </pre>
+ * Paths are relative to the manifest, bitrate (bits per second) and codec (FFmpeg name) are optional. The renditions must
+ * share the frame rate and the soundtrack, only the audio of the first one loaded is played.
+ * <p>
+ * {@link VideoRenderer} loads the cheapest rendition that covers the video on the monitor and fits in the memory
+ * budget, and switches to another one while playing when that changes or the decoder falls behind.
+ */
+public class RenditionManifest {
+    public static final String EXTENSION = ".renditions.json";
+
+    // Whether this FFmpeg build decodes the codec, by name
+    private static final Map<String, Boolean> DECODABLE = new ConcurrentHashMap<>();
+
+    private final List<Rendition> renditions; // Cheapest first
+
+    /**
+     * @param location Where the rendition is, in the resource packs.
+     * @param bitrate Bits per second, 0 if unknown.
+     * @param codec FFmpeg codec name, null if unknown.
+     */
+    public record Rendition(ResourceLocation location, int width, int height, long bitrate, String codec) {
+        public long frameBytes() {
+            return (long) width * height * 4L;
+        }
+    }
+
+    private RenditionManifest(List<Rendition> renditions) {
+        this.renditions = renditions;
+    }
+
+    /**
+     * Where the manifest of a video would be.
+     */
+    public static ResourceLocation locationFor(ResourceLocation video) {
+        return video.withPath(path -> {
+            int dot = path.lastIndexOf('.');
+            return (dot > path.lastIndexOf('/') ? path.substring(0, dot) : path) + EXTENSION;
+        });
+    }
+
+    /**
+     * Reads a manifest, leaving out the renditions this FFmpeg build can not decode.
+     * @throws IOException if it is malformed or has no decodable rendition.
+     */
+    public static RenditionManifest read(ResourceLocation manifestLocation, InputStream in) throws IOException {
+        String path = manifestLocation.getPath();
+        String directory = path.substring(0, path.lastIndexOf('/') + 1);
+
+        List<Rendition> renditions = new ArrayList<>();
+        try (Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+            JsonArray entries = JsonParser.parseReader(reader).getAsJsonObject().getAsJsonArray("renditions");
+            if (entries == null) throw new IOException("No renditions in " + manifestLocation);
+
+            for (JsonElement element : entries) {
+                JsonObject entry = element.getAsJsonObject();
+                Rendition rendition = new Rendition(
+                        manifestLocation.withPath(directory + entry.get("path").getAsString()),
+                        entry.get("width").getAsInt(),
+                        entry.get("height").getAsInt(),
+                        entry.has("bitrate") ? entry.get("bitrate").getAsLong() : 0,
+                        entry.has("codec") ? entry.get("codec").getAsString() : null
+                );
+
+                if (rendition.width() <= 0 || rendition.height() <= 0) {
+                    throw new IOException("Invalid size " + rendition.width() + "x" + rendition.height() + " in " + manifestLocation);
+                }
+                if (!isDecodable(rendition.codec())) {
+                    Constants.LOG.warn("Skipping rendition {}, codec {} can not be decoded", rendition.location(), rendition.codec());
+                    continue;
+                }
+                renditions.add(rendition);
+            }
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Malformed rendition manifest " + manifestLocation + ": " + e.getMessage(), e);
+        }
+
+        if (renditions.isEmpty()) throw new IOException("No decodable rendition in " + manifestLocation);
+
+        renditions.sort(Comparator.comparingLong((Rendition rendition) -> (long) rendition.width() * rendition.height())
+                .thenComparingLong(Rendition::bitrate));
+        return new RenditionManifest(List.copyOf(renditions));
+    }
+
+    public List<Rendition> getRenditions() {
+        return renditions;
+    }
+
+    /**
+     * The cheapest rendition at least as tall as the video is on the monitor, or the tallest one if none is.
+     * Renditions whose frame buffers do not fit in the free memory are left out, the cheapest one is the last resort.
+     * @param displayHeight Height of the video on the monitor, in pixels.
+     * @param freeBytes Memory the frame buffers may take.
+     * @param bufferCount Frame buffers needed per video.
+     */
+    public Rendition select(int displayHeight, long freeBytes, int bufferCount) {
+        Rendition best = renditions.get(0);
+        for (int i = 0; i < renditions.size(); i++) {
+            Rendition rendition = renditions.get(i);
+            if (rendition.frameBytes() * bufferCount > freeBytes) break;
+
+            best = rendition;
+            if (rendition.height() >= displayHeight) break;
+        }
+        return best;
+    }
+
+    /**
+     * The next cheaper rendition, null if it is already the cheapest.
+     */
+    public Rendition below(Rendition rendition) {
+        int index = renditions.indexOf(rendition);
+        return index > 0 ? renditions.get(index - 1) : null;
+    }
+
+    private static boolean isDecodable(String codec) {
+        if (codec == null) return true;
+
+        return DECODABLE.computeIfAbsent(codec, name -> {
+            try {
+                NativeLibraries.awaitReady();
+                AVCodecDescriptor descriptor = avcodec.avcodec_descriptor_get_by_name(name);
+                return descriptor != null && avcodec.avcodec_find_decoder(descriptor.id()) != null;
+            } catch (Throwable t) {
+                // Can not tell, let FFmpeg try
+                return true;
+            }
+        });
+    }
+}
@@ -0,0 +1,239 @@
+package com.chaotic_loom.video_renderer.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Fills a {@link ReadAheadBuffer} from the network. Runs on the download thread of a {@link StreamingVideoSource}.
+ * <ul>
+ *     <li>Progressive HTTP: the body is copied as it arrives. When the server accepts ranges, the download restarts
+ *     wherever the buffer asks for with a Range request, so FFmpeg can jump to an index at the end of the file.</li>
+ *     <li>HLS: the media segments are appended one after another, which gives FFmpeg a single continuous
+ *     MPEG-TS (or fragmented MP4) stream. Master playlists use the variant with the highest bandwidth,
+ *     live playlists are reloaded until they end. Encrypted streams are not supported.</li>
+ * </ul>
+ */
+public class StreamDownloader {
+    private static final HttpClient CLIENT = HttpClient.newBuilder()
+            .followRedirects(HttpClient.Redirect.NORMAL)
+            .connectTimeout(Duration.ofSeconds(10))
+            .build();
+
+    private static final Pattern BANDWIDTH = Pattern.compile("BANDWIDTH=(\\d+)");
+    private static final Pattern QUOTED_URI = Pattern.compile("URI=\"([^\"]+)\"");
+    private static final Pattern METHOD = Pattern.compile("METHOD=([A-Z0-9-]+)");
+
+    private final ReadAheadBuffer buffer;
+
+    // Media time appended so far, lets the source turn buffered bytes into seconds
+    private volatile long downloadedMicros = 0;
+
+    public StreamDownloader(ReadAheadBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    public static boolean isHls(URI uri) {
+        String path = uri.getPath();
+        return path != null && path.toLowerCase().endsWith(".m3u8");
+    }
+
+    /**
+     * Downloads everything into the buffer, then finishes it. Failures are passed to the buffer.
+     */
+    public void run(URI uri) {
+        try {
+            if (isHls(uri)) {
+                downloadHls(uri);
+            } else {
+                downloadProgressive(uri);
+            }
+            buffer.finish();
+        } catch (InterruptedIOException e) {
+            // Closed, nobody is reading anymore
+        } catch (IOException e) {
+            buffer.fail(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return the media time downloaded, only known for HLS (from the segment durations), 0 otherwise.
+     */
+    public long getDownloadedMicros() {
+        return downloadedMicros;
+    }
+
+    private void downloadProgressive(URI uri) throws IOException, InterruptedException {
+        HttpResponse<InputStream> response = send(uri, 0);
+        response.headers().firstValueAsLong("Content-Length").ifPresent(buffer::setTotalBytes);
+        buffer.setSeekable(response.headers().firstValue("Accept-Ranges").map(value -> value.equalsIgnoreCase("bytes")).orElse(false));
+
+        long offset = 0;
+        while (true) {
+            buffer.startSegment(offset);
+            long before = buffer.getDownloadedBytes();
+            try (InputStream body = response.body()) {
+                copy(body);
+            }
+
+            long next = buffer.nextSegment();
+            if (next < 0) return;
+            if (next == offset && buffer.getDownloadedBytes() == before) {
+                throw new IOException("Download of " + uri + " stopped at byte " + offset);
+            }
+
+            offset = next;
+            response = send(uri, offset);
+            if (response.statusCode() != 206) {
+                response.body().close();
+                throw new IOException("Server ignored the range request for " + uri);
+            }
+        }
+    }
+
+    private void downloadHls(URI uri) throws IOException, InterruptedException {
+        URI playlistUri = selectVariant(uri, fetchLines(uri));
+
+        long nextSequence = -1;
+        boolean mapWritten = false;
+
+        while (true) {
+            MediaPlaylist playlist = MediaPlaylist.parse(playlistUri, fetchLines(playlistUri));
+
+            if (!mapWritten && playlist.map != null) {
+                downloadSegment(playlist.map);
+                mapWritten = true;
+            }
+
+            for (int i = 0; i < playlist.segments.size(); i++) {
+                long sequence = playlist.mediaSequence + i;
+                if (sequence < nextSequence) continue;
+
+                Segment segment = playlist.segments.get(i);
+                downloadSegment(segment.uri);
+                downloadedMicros += segment.durationMicros;
+                nextSequence = sequence + 1;
+            }
+
+            if (playlist.ended) return;
+
+            // Live playlist, new segments show up about once per target duration
+            Thread.sleep(Math.max(1000L, playlist.targetDurationMillis / 2));
+        }
+    }
+
+    private void downloadSegment(URI uri) throws IOException, InterruptedException {
+        try (InputStream body = send(uri).body()) {
+            copy(body);
+        }
+    }
+
+    /**
+     * Copies until the body ends or the buffer wants the download somewhere else.
+     */
+    private void copy(InputStream in) throws IOException {
+        byte[] chunk = new byte[64 * 1024];
+        int read;
+        while ((read = in.read(chunk)) >= 0) {
+            if (!buffer.write(chunk, 0, read)) return;
+        }
+    }
+
+    private static URI selectVariant(URI uri, List<String> lines) {
+        URI best = uri;
+        long bestBandwidth = -1;
+
+        for (int i = 0; i < lines.size() - 1; i++) {
+            String line = lines.get(i);
+            if (!line.startsWith("#EXT-X-STREAM-INF")) continue;
+
+            Matcher matcher = BANDWIDTH.matcher(line);
+            long bandwidth = matcher.find() ? Long.parseLong(matcher.group(1)) : 0;
+            if (bandwidth > bestBandwidth) {
+                bestBandwidth = bandwidth;
+                best = uri.resolve(lines.get(i + 1).trim());
+            }
+        }
+        return best;
+    }
+
+    private static List<String> fetchLines(URI uri) throws IOException, InterruptedException {
+        try (InputStream body = send(uri).body()) {
+            return new String(body.readAllBytes(), StandardCharsets.UTF_8).lines().toList();
+        }
+    }
+
+    private static HttpResponse<InputStream> send(URI uri) throws IOException, InterruptedException {
+        return send(uri, 0);
+    }
+
+    /**
+     * @param offset First byte wanted, asked with a Range header when it is not 0.
+     */
+    private static HttpResponse<InputStream> send(URI uri, long offset) throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder(uri).GET();
+        if (offset > 0) request.header("Range", "bytes=" + offset + "-");
+
+        HttpResponse<InputStream> response = CLIENT.send(request.build(), HttpResponse.BodyHandlers.ofInputStream());
+        if (response.statusCode() / 100 != 2) {
+            response.body().close();
+            throw new IOException("HTTP " + response.statusCode() + " for " + uri);
+        }
+        return response;
+    }
+
+    private record Segment(URI uri, long durationMicros) {}
+
+    private record MediaPlaylist(long mediaSequence, long targetDurationMillis, URI map, List<Segment> segments, boolean ended) {
+        static MediaPlaylist parse(URI base, List<String> lines) throws IOException {
+            long mediaSequence = 0;
+            long targetDurationMillis = 0;
+            URI map = null;
+            List<Segment> segments = new ArrayList<>();
+            boolean ended = false;
+            long pendingDuration = 0;
+
+            for (String raw : lines) {
+                String line = raw.trim();
+                if (line.isEmpty()) continue;
+
+                if (line.startsWith("#EXT-X-MEDIA-SEQUENCE:")) {
+                    mediaSequence = Long.parseLong(line.substring(22).trim());
+                } else if (line.startsWith("#EXT-X-TARGETDURATION:")) {
+                    targetDurationMillis = (long) (Double.parseDouble(line.substring(22).trim()) * 1000);
+                } else if (line.startsWith("#EXT-X-MAP:")) {
+                    Matcher matcher = QUOTED_URI.matcher(line);
+                    if (matcher.find()) map = base.resolve(matcher.group(1));
+                } else if (line.startsWith("#EXT-X-KEY:")) {
+                    Matcher matcher = METHOD.matcher(line);
+                    if (matcher.find() && !matcher.group(1).equals("NONE")) {
+                        throw new IOException("Encrypted HLS streams are not supported: " + base);
+                    }
+                } else if (line.startsWith("#EXTINF:")) {
+                    String duration = line.substring(8);
+                    int comma = duration.indexOf(',');
+                    pendingDuration = (long) (Double.parseDouble(comma >= 0 ? duration.substring(0, comma) : duration) * 1_000_000);
+                } else if (line.startsWith("#EXT-X-ENDLIST")) {
+                    ended = true;
+                } else if (!line.startsWith("#")) {
+                    segments.add(new Segment(base.resolve(line), pendingDuration));
+                    pendingDuration = 0;
+                }
+            }
+
+            return new MediaPlaylist(mediaSequence, targetDurationMillis, map, segments, ended);
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package com.chaotic_loom.video_renderer.core;
+
+import com.chaotic_loom.video_renderer.Constants;
+import org.bytedeco.ffmpeg.global.avutil;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.Frame;
+import org.lwjgl.openal.AL10;
+import org.lwjgl.system.MemoryUtil;
+
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Plays a soundtrack while it is decoded, for streams that are still downloading (see {@link StreamingVideoSource}).
+ * A thread decodes 16 bit stereo at 44100 Hz with a grabber of its own and keeps a few small buffers queued on a
+ * streaming OpenAL source, so only those buffers are in memory instead of the whole PCM.
+ * <p>
+ * It always has its own source, the {@link AudioMixer} only mixes soundtracks that are fully decoded.
+ * Controlled through {@link AudioPlayer}.
+ */
+public class StreamingAudio {
+    public static final int SAMPLE_RATE = 44100;
+
+    private static final int CHUNK_FRAMES = 4096; // About 93 ms
+    private static final int BUFFER_COUNT = 4;
+    private static final long CHUNK_NANOS = CHUNK_FRAMES * 1_000_000_000L / SAMPLE_RATE;
+
+    /**
+     * Native memory taken while playing, for the memory budget.
+     */
+    public static final long BUFFERED_BYTES = (long) CHUNK_FRAMES * 2 * 2 * (BUFFER_COUNT + 1);
+
+    private final String name;
+    private final FFmpegFrameGrabber grabber;
+
+    // Decoder thread only
+    private final ByteBuffer staging;
+    private final ShortBuffer stagingSamples;
+    private ShortBuffer pending; // What is left of the last grabbed frame
+    private boolean ended = false;
+    private final int[] free = new int[BUFFER_COUNT]; // Buffers waiting for samples
+    private int freeCount = 0;
+    private int queuedCount = 0;
+
+    // OpenAL calls on the source are guarded by this, the render thread and the decoder thread both make them
+    private int sourceId;
+    private final int[] bufferIds = new int[BUFFER_COUNT];
+    private Thread thread;
+    private volatile boolean running = false;
+    private volatile boolean playing = false;
+    private volatile long pendingSeekMicros = -1;
+
+    /**
+     * Opens the stream and probes it. Blocks until the headers are downloaded, run it on the loader thread.
+     * @param in Its own stream, the grabber closes it when released.
+     * @throws Exception if FFmpeg can not open it.
+     */
+    public StreamingAudio(InputStream in, String name) throws Exception {
+        this.name = name;
+
+        NativeLibraries.awaitReady();
+        grabber = new FFmpegFrameGrabber(in);
+        grabber.setSampleFormat(avutil.AV_SAMPLE_FMT_S16);
+        grabber.setAudioChannels(2);
+        grabber.setSampleRate(SAMPLE_RATE);
+        try {
+            grabber.start();
+        } catch (Exception e) {
+            grabber.release();
+            throw e;
+        }
+
+        staging = MemoryUtil.memAlloc(CHUNK_FRAMES * 2 * 2).order(ByteOrder.nativeOrder());
+        stagingSamples = staging.asShortBuffer();
+        NativeResourceTracker.track(this, NativeResourceTracker.Kind.MEMORY, MemoryUtil.memAddress(staging), staging.capacity());
+    }
+
+    /**
+     * Creates the OpenAL source and starts decoding into it. Must be called on the render thread.
+     */
+    public synchronized void upload(float gain, float pitch) {
+        sourceId = AL10.alGenSources();
+        AL10.alSourcef(sourceId, AL10.AL_GAIN, gain);
+        AL10.alSourcef(sourceId, AL10.AL_PITCH, pitch);
+        NativeResourceTracker.track(this, NativeResourceTracker.Kind.AL_SOURCE, sourceId, 0);
+
+        AL10.alGenBuffers(bufferIds);
+        for (int buffer : bufferIds) {
+            NativeResourceTracker.track(this, NativeResourceTracker.Kind.AL_BUFFER, buffer, staging.capacity());
+            free[freeCount++] = buffer;
+        }
+
+        running = true;
+        thread = new Thread(this::decodeLoop, "Video-Audio-Stream-Thread");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Plays as soon as something is decoded.
+     */
+    public synchronized void play() {
+        playing = true;
+        if (queuedCount > 0) AL10.alSourcePlay(sourceId);
+    }
+
+    public synchronized void pause() {
+        playing = false;
+        if (running) AL10.alSourcePause(sourceId);
+    }
+
+    /**
+     * Pauses and goes back to the start.
+     */
+    public synchronized void stop() {
+        playing = false;
+        if (running) AL10.alSourceStop(sourceId);
+        pendingSeekMicros = 0;
+    }
+
+    public synchronized void setGain(float gain) {
+        if (running) AL10.alSourcef(sourceId, AL10.AL_GAIN, gain);
+    }
+
+    public synchronized void setPitch(float pitch) {
+        if (running) AL10.alSourcef(sourceId, AL10.AL_PITCH, pitch);
+    }
+
+    /**
+     * Seeks the stream, the queued buffers are dropped.
+     */
+    public void setOffsetSeconds(float seconds) {
+        pendingSeekMicros = (long) (Math.max(0, seconds) * 1_000_000L);
+    }
+
+    /**
+     * Stops decoding and frees everything. Must be called on the render thread.
+     */
+    public void cleanup() {
+        running = false;
+        if (thread != null) {
+            // Wakes it up if it waits for the download
+            thread.interrupt();
+            try {
+                thread.join(2000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            thread = null;
+
+            synchronized (this) {
+                AL10.alSourceStop(sourceId);
+                AL10.alDeleteSources(sourceId);
+                AL10.alDeleteBuffers(bufferIds);
+                NativeResourceTracker.untrack(NativeResourceTracker.Kind.AL_SOURCE, sourceId);
+                for (int buffer : bufferIds) {
+                    NativeResourceTracker.untrack(NativeResourceTracker.Kind.AL_BUFFER, buffer);
+                }
+            }
+        }
+
+        try {
+            grabber.stop();
+            grabber.release();
+        } catch (Exception ignored) {}
+
+        NativeResourceTracker.untrack(NativeResourceTracker.Kind.MEMORY, MemoryUtil.memAddress(staging));
+        MemoryUtil.memFree(staging);
+        NativeResourceTracker.reportLeaks(this);
+    }
+
+    private void decodeLoop() {
+        try {
+            while (running) {
+                long seek = pendingSeekMicros;
+                if (seek >= 0) {
+                    pendingSeekMicros = -1;
+                    seek(seek);
+                }
+
+                synchronized (this) {
+                    int processed = AL10.alGetSourcei(sourceId, AL10.AL_BUFFERS_PROCESSED);
+                    while (processed-- > 0) {
+                        free[freeCount++] = AL10.alSourceUnqueueBuffers(sourceId);
+                        queuedCount--;
+                    }
+                }
+
+                // Decoding may wait for the download, outside of the lock
+                while (freeCount > 0 && running && pendingSeekMicros < 0) {
+                    int samples = decodeChunk();
+                    if (samples == 0) break;
+
+                    int buffer = free[--freeCount];
+                    staging.limit(samples * 2).position(0);
+                    synchronized (this) {
+                        AL10.alBufferData(buffer, AL10.AL_FORMAT_STEREO16, staging, SAMPLE_RATE);
+                        AL10.alSourceQueueBuffers(sourceId, buffer);
+                        queuedCount++;
+                    }
+                    staging.clear();
+                }
+
+                // Started before anything was decoded, or ran dry while the download stalled
+                synchronized (this) {
+                    if (playing && queuedCount > 0 && AL10.alGetSourcei(sourceId, AL10.AL_SOURCE_STATE) != AL10.AL_PLAYING) {
+                        AL10.alSourcePlay(sourceId);
+                    }
+                }
+
+                LockSupport.parkNanos(CHUNK_NANOS / 2);
+            }
+        } catch (InterruptedIOException e) {
+            // Closed while waiting for the download
+        } catch (Exception e) {
+            if (running) Constants.LOG.error("Failed to decode the audio of {}", name, e);
+        }
+    }
+
+    /**
+     * Drops everything queued and continues decoding from the time.
+     */
+    private void seek(long micros) throws Exception {
+        synchronized (this) {
+            AL10.alSourceStop(sourceId); // Every queued buffer counts as processed now
+            while (queuedCount > 0) {
+                free[freeCount++] = AL10.alSourceUnqueueBuffers(sourceId);
+                queuedCount--;
+            }
+        }
+
+        grabber.setTimestamp(micros);
+        pending = null;
+        ended = false;
+    }
+
+    /**
+     * Fills the staging buffer from the grabber.
+     * @return the samples written, 0 at the end of the stream.
+     */
+    private int decodeChunk() throws Exception {
+        stagingSamples.clear();
+        while (stagingSamples.hasRemaining()) {
+            if (pending == null || !pending.hasRemaining()) {
+                if (ended) break;
+
+                Frame frame = grabber.grabSamples();
+                if (frame == null) {
+                    ended = true;
+                    break;
+                }
+                if (frame.samples == null) continue;
+                pending = (ShortBuffer) frame.samples[0];
+            }
+
+            // Copies as much as fits, the rest goes in the next chunk
+            int count = Math.min(stagingSamples.remaining(), pending.remaining());
+            int limit = pending.limit();
+            pending.limit(pending.position() + count);
+            stagingSamples.put(pending);
+            pending.limit(limit);
+        }
+        return stagingSamples.position();
+    }
+}
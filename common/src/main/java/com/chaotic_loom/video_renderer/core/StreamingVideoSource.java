@@ -0,0 +1,228 @@
+package com.chaotic_loom.video_renderer.core;
+
+import com.chaotic_loom.video_renderer.Constants;
+import com.mojang.blaze3d.platform.NativeImage;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+
+/**
+ * Plays a progressive HTTP(S) file or an HLS playlist (.m3u8) while it downloads.
+ * A download thread fills a disk-backed {@link ReadAheadBuffer} that FFmpeg reads from,
+ * and opening waits until {@link #setStartBufferSeconds(double)} seconds are buffered.
+ * <p>
+ * The soundtrack is decoded while it plays from a second stream of the same buffer (see {@link StreamingAudio}),
+ * unless the download finished while loading, then it is decoded up front like a file.
+ */
+public class StreamingVideoSource implements VideoSource {
+    private static volatile double startBufferSeconds = 3.0;
+    private static volatile long readAheadBytes = 64L * 1024L * 1024L; // 64 MiB
+    // Start buffer while the bitrate is unknown (no length, no segment durations), a few seconds of a typical stream
+    private static final long UNKNOWN_RATE_START_BYTES = 2L * 1024L * 1024L;
+
+    private final String url;
+    private final ReadAheadBuffer buffer;
+    private final StreamDownloader downloader;
+    private final Thread downloadThread;
+    private volatile FFmpegVideoSource delegate;
+
+    private StreamingVideoSource(String url, ReadAheadBuffer buffer) {
+        this.url = url;
+        this.buffer = buffer;
+        this.downloader = new StreamDownloader(buffer);
+
+        URI uri = URI.create(url);
+        this.downloadThread = new Thread(() -> downloader.run(uri), "Video-Download-Thread");
+        this.downloadThread.setDaemon(true);
+    }
+
+    public static boolean isUrl(String path) {
+        String lower = path.toLowerCase();
+        return lower.startsWith("http://") || lower.startsWith("https://");
+    }
+
+    /**
+     * Starts downloading, probes the stream and waits until enough is buffered to start playing. Blocks, run it on the loader thread.
+     */
+    public static StreamingVideoSource open(String url, LoadProgressListener progressListener) throws Exception {
+        StreamingVideoSource source = new StreamingVideoSource(url, new ReadAheadBuffer(readAheadBytes));
+
+        try {
+            source.downloadThread.start();
+            source.delegate = FFmpegVideoSource.open(source.buffer.openStream(), url);
+            source.awaitStartBuffer(progressListener);
+            return source;
+        } catch (Exception e) {
+            source.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Seconds of media that must be buffered before a stream starts playing.
+     */
+    public static void setStartBufferSeconds(double seconds) {
+        startBufferSeconds = seconds;
+    }
+
+    /**
+     * How far the download may run ahead of playback. Also caps the start buffer.
+     */
+    public static void setReadAheadBytes(long bytes) {
+        if (bytes <= 0) throw new IllegalArgumentException("Read-ahead must be positive: " + bytes);
+        readAheadBytes = bytes;
+    }
+
+    private void awaitStartBuffer(LoadProgressListener progressListener) throws IOException {
+        double target = startBufferSeconds;
+
+        while (true) {
+            BufferHealth health = getBufferHealth();
+            if (health.complete() || health.bufferedBytes() >= buffer.getCapacityBytes()) break;
+            if (buffer.hasFailed()) throw new IOException("Failed to download " + url);
+
+            if (health.bufferedSeconds() >= 0) {
+                if (health.bufferedSeconds() >= target) break;
+                progressListener.onProgress(LoadProgressListener.Stage.BUFFERING, (float) Math.min(1.0, health.bufferedSeconds() / target));
+            } else {
+                // Seconds can not be told yet, settle for a fixed amount instead of filling the whole read-ahead
+                if (health.bufferedBytes() >= UNKNOWN_RATE_START_BYTES) break;
+                progressListener.onProgress(LoadProgressListener.Stage.BUFFERING, (float) health.bufferedBytes() / UNKNOWN_RATE_START_BYTES);
+            }
+
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while buffering " + url);
+            }
+        }
+
+        progressListener.onProgress(LoadProgressListener.Stage.BUFFERING, 1.0f);
+    }
+
+    /**
+     * Snapshot of the read-ahead buffer, safe to call from any thread.
+     */
+    public BufferHealth getBufferHealth() {
+        long buffered = buffer.getBufferedBytes();
+        double bytesPerSecond = estimateBytesPerSecond();
+        double seconds = bytesPerSecond > 0 ? buffered / bytesPerSecond : -1;
+
+        return new BufferHealth(buffered, seconds, buffer.getDownloadedBytes(), buffer.getTotalBytes(), buffer.isComplete(), buffer.hasFailed());
+    }
+
+    /**
+     * From the segment durations for HLS, from the file size and duration for progressive files.
+     */
+    private double estimateBytesPerSecond() {
+        long micros = downloader.getDownloadedMicros();
+        if (micros > 0) {
+            return buffer.getDownloadedBytes() / (micros / 1_000_000.0);
+        }
+
+        FFmpegVideoSource probed = delegate;
+        long total = buffer.getTotalBytes();
+        if (probed != null && total > 0 && probed.getLengthInTime() > 0) {
+            return total / (probed.getLengthInTime() / 1_000_000.0);
+        }
+        return -1;
+    }
+
+    @Override
+    public int getWidth() {
+        return delegate.getWidth();
+    }
+
+    @Override
+    public int getHeight() {
+        return delegate.getHeight();
+    }
+
+    @Override
+    public double getFrameRate() {
+        return delegate.getFrameRate();
+    }
+
+    @Override
+    public long getLengthInTime() {
+        return delegate.getLengthInTime();
+    }
+
+    @Override
+    public boolean setOutputSize(int width, int height) {
+        return delegate.setOutputSize(width, height);
+    }
+
+    @Override
+    public long getNativeBytes() {
+        return delegate.getNativeBytes();
+    }
+
+    @Override
+    public long estimateAudioBytes() {
+        if (buffer.isComplete()) return delegate.estimateAudioBytes();
+        return delegate.hasAudio() ? StreamingAudio.BUFFERED_BYTES : 0;
+    }
+
+    @Override
+    public AudioPlayer openAudio(LoadProgressListener progressListener) {
+        if (!delegate.hasAudio()) return null;
+
+        if (buffer.isComplete()) {
+            return new AudioPlayer(buffer.getFile().toString(), progressListener);
+        }
+
+        Constants.LOG.info("Stream {} is still downloading, decoding its audio while it plays", url);
+        return new AudioPlayer(buffer.openStream(), url);
+    }
+
+    @Override
+    public boolean readFrame(NativeImage target) throws Exception {
+        return delegate.readFrame(target);
+    }
+
+    @Override
+    public int skipFrames(int count, NativeImage scratch) throws Exception {
+        return delegate.skipFrames(count, scratch);
+    }
+
+    @Override
+    public void setDeferredSkips(boolean deferred) {
+        delegate.setDeferredSkips(deferred);
+    }
+
+    /**
+     * The buffer restarts the download with a Range request when the frame is past what was downloaded.
+     */
+    @Override
+    public long seek(long frame) throws Exception {
+        return delegate.seek(frame);
+    }
+
+    @Override
+    public void rewind() throws Exception {
+        delegate.rewind();
+    }
+
+    @Override
+    public void close() {
+        try {
+            if (delegate != null) {
+                delegate.close();
+                delegate = null;
+            }
+        } finally {
+            // Wakes the download thread up if it waits for room
+            buffer.close();
+            downloadThread.interrupt();
+        }
+    }
+
+    /**
+     * @param bufferedSeconds -1 while the bitrate is unknown.
+     * @param totalBytes -1 if the server did not send a length (HLS, chunked responses).
+     */
+    public record BufferHealth(long bufferedBytes, double bufferedSeconds, long downloadedBytes, long totalBytes, boolean complete, boolean failed) {}
+}
@@ -0,0 +1,298 @@
+package com.chaotic_loom.video_renderer.core;
+
+import com.chaotic_loom.video_renderer.Constants;
+import com.mojang.blaze3d.platform.NativeImage;
+import org.bytedeco.ffmpeg.global.avutil;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.Frame;
+import org.lwjgl.system.MemoryUtil;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Extracts downscaled frames (poster frames, scrub thumbnails) without creating a {@link VideoRenderer}.
+ * Each request opens its own grabber on a bounded worker pool, so several clips are processed in parallel.
+ * Results are cached in memory (LRU, bounded in bytes) and on disk, keyed by the file, its size and modification time.
+ */
+public class ThumbnailService {
+    private static final int DISK_MAGIC = 0x314E4854; // "THN1"
+
+    private final ExecutorService workers;
+    private final Path diskCacheDir;
+    private final long memoryCacheBytes;
+
+    // Guarded by itself, in access order for LRU eviction
+    private final LinkedHashMap<String, Thumbnail> memoryCache = new LinkedHashMap<>(16, 0.75f, true);
+    private long memoryCacheUsed = 0;
+
+    /**
+     * @param threads Maximum clips processed at once.
+     * @param memoryCacheBytes Pixels kept in memory, least recently used thumbnails are dropped first.
+     * @param diskCacheDir Where thumbnails are persisted, null to disable the disk cache.
+     */
+    public ThumbnailService(int threads, long memoryCacheBytes, Path diskCacheDir) {
+        this.memoryCacheBytes = memoryCacheBytes;
+        this.diskCacheDir = diskCacheDir;
+        this.workers = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "Video-Thumbnail-Thread");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+    }
+
+    /**
+     * Extracts one frame per timestamp, scaled to fit in maxWidth x maxHeight.
+     * @param filePath Anything FFmpeg can open (absolute path or URL).
+     * @param timestampsMicros Where to take the frames, in microseconds.
+     * @param exact False uses the nearest keyframe at or after each timestamp, which only decodes keyframes and is much faster.
+     *              True decodes up to the exact frame.
+     * @return the thumbnails in the order of the timestamps, completed on a worker thread.
+     * Timestamps past the end are left out.
+     */
+    public CompletableFuture<List<Thumbnail>> extract(String filePath, long[] timestampsMicros, int maxWidth, int maxHeight, boolean exact) {
+        String sourceKey = sourceKey(filePath);
+
+        // Everything in memory, no need to wake a worker up
+        List<Thumbnail> cached = new ArrayList<>();
+        for (long timestamp : timestampsMicros) {
+            Thumbnail thumbnail = getFromMemory(cacheKey(sourceKey, timestamp, maxWidth, maxHeight, exact));
+            if (thumbnail == null) break;
+            cached.add(thumbnail);
+        }
+        if (cached.size() == timestampsMicros.length) {
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        return CompletableFuture.supplyAsync(() -> extractNow(filePath, sourceKey, timestampsMicros, maxWidth, maxHeight, exact), workers);
+    }
+
+    /**
+     * Poster frame: a single keyframe near the start.
+     */
+    public CompletableFuture<Thumbnail> extractPoster(String filePath, int maxWidth, int maxHeight) {
+        return extract(filePath, new long[]{0}, maxWidth, maxHeight, false)
+                .thenApply(list -> list.isEmpty() ? null : list.get(0));
+    }
+
+    private List<Thumbnail> extractNow(String filePath, String sourceKey, long[] timestampsMicros, int maxWidth, int maxHeight, boolean exact) {
+        Thumbnail[] results = new Thumbnail[timestampsMicros.length];
+        boolean missing = false;
+
+        for (int i = 0; i < timestampsMicros.length; i++) {
+            String key = cacheKey(sourceKey, timestampsMicros[i], maxWidth, maxHeight, exact);
+            results[i] = getFromMemory(key);
+            if (results[i] == null) {
+                results[i] = readFromDisk(key);
+                if (results[i] != null) putInMemory(key, results[i]);
+            }
+            missing |= results[i] == null;
+        }
+
+        if (missing) {
+            try {
+                decodeMissing(filePath, sourceKey, timestampsMicros, maxWidth, maxHeight, exact, results);
+            } catch (Exception e) {
+                throw new RuntimeException("Failed to extract thumbnails from " + filePath + ": " + e.getMessage(), e);
+            }
+        }
+
+        List<Thumbnail> list = new ArrayList<>();
+        for (Thumbnail thumbnail : results) {
+            if (thumbnail != null) list.add(thumbnail);
+        }
+        return list;
+    }
+
+    private void decodeMissing(String filePath, String sourceKey, long[] timestampsMicros, int maxWidth, int maxHeight, boolean exact, Thumbnail[] results) throws Exception {
+        NativeLibraries.awaitReady();
+
+        FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(filePath);
+        NativeResourceTracker.track(this, NativeResourceTracker.Kind.GRABBER, grabber, 0);
+        try {
+            grabber.setPixelFormat(avutil.AV_PIX_FMT_RGBA);
+            if (!exact) {
+                // The decoder drops everything but keyframes
+                grabber.setVideoOption("skip_frame", "nokey");
+            }
+            grabber.start();
+
+            // Fit in the box, keeping the aspect ratio
+            double scale = Math.min(1.0, Math.min((double) maxWidth / grabber.getImageWidth(), (double) maxHeight / grabber.getImageHeight()));
+            int width = Math.max(1, (int) (grabber.getImageWidth() * scale));
+            int height = Math.max(1, (int) (grabber.getImageHeight() * scale));
+            grabber.setImageWidth(width);
+            grabber.setImageHeight(height);
+
+            for (int i = 0; i < timestampsMicros.length; i++) {
+                if (results[i] != null) continue;
+
+                grabber.setVideoTimestamp(timestampsMicros[i]);
+                Frame frame = grabber.grabImage();
+                if (frame == null || frame.image == null) continue; // Past the end
+
+                byte[] pixels = new byte[width * height * 4];
+                ByteBuffer source = (ByteBuffer) frame.image[0];
+                int stride = frame.imageStride;
+                for (int y = 0; y < height; y++) {
+                    source.get(y * stride, pixels, y * width * 4, width * 4);
+                }
+
+                Thumbnail thumbnail = new Thumbnail(timestampsMicros[i], frame.timestamp, width, height, pixels);
+                String key = cacheKey(sourceKey, timestampsMicros[i], maxWidth, maxHeight, exact);
+                putInMemory(key, thumbnail);
+                writeToDisk(key, thumbnail);
+                results[i] = thumbnail;
+            }
+        } finally {
+            NativeResourceTracker.untrack(NativeResourceTracker.Kind.GRABBER, grabber);
+            grabber.close();
+        }
+    }
+
+    // ----------------- Cache -----------------
+
+    /**
+     * Local files include their size and modification time, so a replaced file is not served from the cache.
+     */
+    private static String sourceKey(String filePath) {
+        try {
+            Path path = Path.of(filePath);
+            if (Files.isRegularFile(path)) {
+                return path.toAbsolutePath() + "|" + Files.size(path) + "|" + Files.getLastModifiedTime(path).toMillis();
+            }
+        } catch (Exception ignored) {
+            // Not a local path (URL), the string itself is the key
+        }
+        return filePath;
+    }
+
+    private static String cacheKey(String sourceKey, long timestamp, int maxWidth, int maxHeight, boolean exact) {
+        return sourceKey + "|" + timestamp + "|" + maxWidth + "x" + maxHeight + (exact ? "|exact" : "|key");
+    }
+
+    private Thumbnail getFromMemory(String key) {
+        synchronized (memoryCache) {
+            return memoryCache.get(key);
+        }
+    }
+
+    private void putInMemory(String key, Thumbnail thumbnail) {
+        synchronized (memoryCache) {
+            Thumbnail previous = memoryCache.put(key, thumbnail);
+            if (previous != null) memoryCacheUsed -= previous.pixels.length;
+            memoryCacheUsed += thumbnail.pixels.length;
+
+            Iterator<Thumbnail> eldest = memoryCache.values().iterator();
+            while (memoryCacheUsed > memoryCacheBytes && eldest.hasNext()) {
+                memoryCacheUsed -= eldest.next().pixels.length;
+                eldest.remove();
+            }
+        }
+    }
+
+    public void clearMemoryCache() {
+        synchronized (memoryCache) {
+            memoryCache.clear();
+            memoryCacheUsed = 0;
+        }
+    }
+
+    private Path diskPath(String key) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-1").digest(key.getBytes(StandardCharsets.UTF_8));
+            return diskCacheDir.resolve(HexFormat.of().formatHex(hash) + ".thumb");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private Thumbnail readFromDisk(String key) {
+        if (diskCacheDir == null) return null;
+
+        Path path = diskPath(key);
+        if (!Files.isRegularFile(path)) return null;
+
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(path))) {
+            if (in.readInt() != DISK_MAGIC) return null;
+            long requested = in.readLong();
+            long actual = in.readLong();
+            int width = in.readInt();
+            int height = in.readInt();
+            byte[] pixels = new byte[width * height * 4];
+            in.readFully(pixels);
+            return new Thumbnail(requested, actual, width, height, pixels);
+        } catch (IOException e) {
+            Constants.LOG.warn("Ignoring unreadable cached thumbnail {}", path, e);
+            return null;
+        }
+    }
+
+    private void writeToDisk(String key, Thumbnail thumbnail) {
+        if (diskCacheDir == null) return;
+
+        Path path = diskPath(key);
+        try {
+            Files.createDirectories(diskCacheDir);
+
+            // Written aside and moved, so a crash never leaves half a thumbnail behind
+            Path temp = Files.createTempFile(diskCacheDir, "thumb", ".tmp");
+            try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(temp))) {
+                out.writeInt(DISK_MAGIC);
+                out.writeLong(thumbnail.requestedTimestamp());
+                out.writeLong(thumbnail.timestamp());
+                out.writeInt(thumbnail.width());
+                out.writeInt(thumbnail.height());
+                out.write(thumbnail.pixels);
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Constants.LOG.warn("Failed to cache thumbnail {}", path, e);
+        }
+    }
+
+    public void shutdown() {
+        workers.shutdownNow();
+    }
+
+    /**
+     * A decoded frame in RGBA order, kept on the heap.
+     * @param requestedTimestamp The timestamp that was asked for, in microseconds.
+     * @param timestamp The timestamp of the frame that was found (a keyframe can be later), in microseconds.
+     */
+    public record Thumbnail(long requestedTimestamp, long timestamp, int width, int height, byte[] pixels) {
+        /**
+         * @return a read-only view of the RGBA pixels.
+         */
+        public ByteBuffer asBuffer() {
+            return ByteBuffer.wrap(pixels).asReadOnlyBuffer();
+        }
+
+        /**
+         * Copies the pixels into a new image, owned (and closed) by the caller.
+         */
+        public NativeImage toNativeImage() {
+            NativeImage image = new NativeImage(width, height, false);
+            ByteBuffer target = MemoryUtil.memByteBuffer(image.pixels, pixels.length);
+            target.put(pixels);
+            return image;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.chaotic_loom.video_renderer.core;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Spreads the texture uploads of all active videos over render frames, so a single frame never absorbs several
+ * full-frame uploads at once.
+ * <p>
+ * Every frame, videos with a new decoded frame are ranked by how overdue their upload is and how visible they are,
+ * then uploaded in that order until the time budget is spent. Whatever does not fit stays pending and competes again
+ * next frame, a bit more overdue. The most urgent upload always runs, so a budget smaller than a single upload slows
+ * videos down instead of freezing them. Videos with no visibility are never uploaded, the controller counts a video
+ * that is being captured as fully visible so the recording does not freeze.
+ * <p>
+ * Render thread only.
+ */
+public class UploadScheduler {
+    public static final double DEFAULT_BUDGET_MILLIS = 4.0;
+
+    private static final double COST_SMOOTHING = 0.25; // Weight of the newest sample in the upload cost average
+
+    private final List<VideoRenderer> candidates = new ArrayList<>();
+    private final Comparator<VideoRenderer> byPriority =
+            Comparator.comparingDouble(VideoRenderer::getUploadPriority).reversed();
+
+    private volatile long budgetNanos;
+
+    // Metrics
+    private long uploads = 0;
+    private long deferredUploads = 0;
+    private long lastFrameNanos = 0;
+
+    public UploadScheduler(double budgetMillis) {
+        setBudgetMillis(budgetMillis);
+    }
+
+    /**
+     * @param budgetMillis upload time allowed per render frame, zero or less removes the limit.
+     */
+    public void setBudgetMillis(double budgetMillis) {
+        this.budgetNanos = budgetMillis > 0 ? (long) (budgetMillis * 1_000_000L) : Long.MAX_VALUE;
+    }
+
+    public double getBudgetMillis() {
+        return budgetNanos == Long.MAX_VALUE ? 0 : budgetNanos / 1_000_000.0;
+    }
+
+    /**
+     * Uploads the pending frames of the given videos that fit in this frame's budget.
+     */
+    public void run(List<VideoRenderer> videos) {
+        long now = System.nanoTime();
+
+        candidates.clear();
+        for (int i = 0; i < videos.size(); i++) {
+            VideoRenderer video = videos.get(i);
+            if (video.hasPendingUpload(now) && video.getVisibility() > 0) {
+                candidates.add(video);
+            }
+        }
+        if (candidates.isEmpty()) return;
+        if (candidates.size() > 1) {
+            candidates.sort(byPriority);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < candidates.size(); i++) {
+            VideoRenderer video = candidates.get(i);
+
+            // Skip uploads expected to overrun, a cheaper one further down may still fit
+            long spent = System.nanoTime() - start;
+            if (i > 0 && spent + video.getUploadCostNanos() > budgetNanos) {
+                deferredUploads++;
+                continue;
+            }
+
+            long before = System.nanoTime();
+            video.update();
+            long cost = System.nanoTime() - before;
+
+            long previous = video.getUploadCostNanos();
+            video.setUploadCostNanos(previous == 0 ? cost : (long) (previous + (cost - previous) * COST_SMOOTHING));
+            uploads++;
+        }
+        lastFrameNanos = System.nanoTime() - start;
+        candidates.clear();
+    }
+
+    public long getUploads() {
+        return uploads;
+    }
+
+    /** Times an upload was carried over to a later frame. */
+    public long getDeferredUploads() {
+        return deferredUploads;
+    }
+
+    /** Time spent uploading in the last frame that had something to upload. */
+    public double getLastFrameMillis() {
+        return lastFrameNanos / 1_000_000.0;
+    }
+}
@@ -0,0 +1,152 @@
+package com.chaotic_loom.video_renderer.core;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import net.minecraft.resources.ResourceLocation;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Named sub-rectangles of a video that packs many small clips into one frame, so a GUI full of animated elements
+ * decodes a single video into a single texture. Draw a region with {@link VideoPlacement#withRegion(String)}, batched
+ * with everything else, or straight from a widget with {@link VideoRenderer#drawRegion}.
+ * <p>
+ * Regions are kept as fractions of the frame, so they stay right when the video is decoded smaller. Leave a pixel or
+ * two between clips when packing them, downscaled frames blend neighbouring texels.
+ * Videos loaded from a resource pick up an atlas next to them (videos/ui.mp4 -> videos/ui.atlas.json), either a grid:
+ * <pre>
+ * { "grid": { "columns": 4, "rows": 2, "names": ["spinner", "check", "cross"] } }
+ * </pre>
+ * or rectangles in pixels of the packed video:
+ * <pre>
+ * { "width": 512, "height": 256, "regions": { "spinner": [0, 0, 128, 128], "banner": [128, 0, 384, 64] } }
+ * </pre>
+ */
+public class VideoAtlas {
+    public static final String EXTENSION = ".atlas.json";
+
+    private final Map<String, Region> regions;
+
+    /**
+     * A clip of the atlas. UVs go from 0 to 1 over the whole frame, top left origin.
+     */
+    public record Region(String name, float u0, float v0, float u1, float v1) {
+        /**
+         * Width over height of the clip, for a frame of that size.
+         */
+        public float aspect(int frameWidth, int frameHeight) {
+            return (u1 - u0) * frameWidth / ((v1 - v0) * frameHeight);
+        }
+    }
+
+    private VideoAtlas(Map<String, Region> regions) {
+        this.regions = Collections.unmodifiableMap(regions);
+    }
+
+    /**
+     * Rectangles in pixels of the packed video.
+     * @param rectangles Name to {x, y, width, height}, top left origin.
+     */
+    public static VideoAtlas of(int width, int height, Map<String, int[]> rectangles) {
+        if (width <= 0 || height <= 0) throw new IllegalArgumentException("Invalid atlas size " + width + "x" + height);
+
+        Map<String, Region> regions = new LinkedHashMap<>();
+        for (Map.Entry<String, int[]> entry : rectangles.entrySet()) {
+            int[] rectangle = entry.getValue();
+            if (rectangle.length != 4 || rectangle[2] <= 0 || rectangle[3] <= 0) {
+                throw new IllegalArgumentException("Invalid rectangle for region " + entry.getKey());
+            }
+
+            regions.put(entry.getKey(), new Region(entry.getKey(),
+                    (float) rectangle[0] / width, (float) rectangle[1] / height,
+                    (float) (rectangle[0] + rectangle[2]) / width, (float) (rectangle[1] + rectangle[3]) / height));
+        }
+        return new VideoAtlas(regions);
+    }
+
+    /**
+     * Equal cells, named row by row from the top left. Cells without a name are left out.
+     */
+    public static VideoAtlas grid(int columns, int rows, String... names) {
+        if (columns <= 0 || rows <= 0) throw new IllegalArgumentException("Invalid grid " + columns + "x" + rows);
+
+        Map<String, Region> regions = new LinkedHashMap<>();
+        for (int i = 0; i < Math.min(names.length, columns * rows); i++) {
+            if (names[i] == null) continue;
+
+            int column = i % columns;
+            int row = i / columns;
+            regions.put(names[i], new Region(names[i],
+                    (float) column / columns, (float) row / rows,
+                    (float) (column + 1) / columns, (float) (row + 1) / rows));
+        }
+        return new VideoAtlas(regions);
+    }
+
+    /**
+     * Reads an atlas definition, see the class documentation for the format.
+     * @throws IOException if it is malformed.
+     */
+    public static VideoAtlas read(ResourceLocation location, InputStream in) throws IOException {
+        try (Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+            JsonObject root = JsonParser.parseReader(reader).getAsJsonObject();
+
+            if (root.has("grid")) {
+                JsonObject grid = root.getAsJsonObject("grid");
+                int columns = grid.get("columns").getAsInt();
+                int rows = grid.get("rows").getAsInt();
+                JsonArray names = grid.getAsJsonArray("names");
+
+                String[] cellNames = new String[names.size()];
+                for (int i = 0; i < cellNames.length; i++) {
+                    cellNames[i] = names.get(i).isJsonNull() ? null : names.get(i).getAsString();
+                }
+                return grid(columns, rows, cellNames);
+            }
+
+            Map<String, int[]> rectangles = new LinkedHashMap<>();
+            for (Map.Entry<String, JsonElement> entry : root.getAsJsonObject("regions").entrySet()) {
+                JsonArray values = entry.getValue().getAsJsonArray();
+                int[] rectangle = new int[values.size()];
+                for (int i = 0; i < rectangle.length; i++) {
+                    rectangle[i] = values.get(i).getAsInt();
+                }
+                rectangles.put(entry.getKey(), rectangle);
+            }
+            return of(root.get("width").getAsInt(), root.get("height").getAsInt(), rectangles);
+        } catch (Exception e) {
+            throw new IOException("Malformed video atlas " + location + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Where an atlas definition of a video would be.
+     */
+    public static ResourceLocation locationFor(ResourceLocation video) {
+        return video.withPath(path -> {
+            int dot = path.lastIndexOf('.');
+            return (dot > path.lastIndexOf('/') ? path.substring(0, dot) : path) + EXTENSION;
+        });
+    }
+
+    /**
+     * The region, null if there is none with that name.
+     */
+    public Region getRegion(String name) {
+        return regions.get(name);
+    }
+
+    public Collection<Region> getRegions() {
+        return regions.values();
+    }
+}
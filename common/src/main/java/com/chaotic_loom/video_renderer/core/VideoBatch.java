@@ -0,0 +1,299 @@
+package com.chaotic_loom.video_renderer.core;
+
+import com.mojang.blaze3d.systems.RenderSystem;
+import com.mojang.blaze3d.vertex.BufferBuilder;
+import com.mojang.blaze3d.vertex.BufferUploader;
+import com.mojang.blaze3d.vertex.DefaultVertexFormat;
+import com.mojang.blaze3d.vertex.Tesselator;
+import com.mojang.blaze3d.vertex.VertexFormat;
+import net.minecraft.client.gui.GuiGraphics;
+import net.minecraft.client.renderer.GameRenderer;
+import net.minecraft.resources.ResourceLocation;
+import org.joml.Matrix4f;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Lays out the placements of every visible video for one frame, then draws them with as few draw calls as possible.
+ * <p>
+ * Quads are split in layers so that overlapping quads never change order. Inside a layer all background fills go in one
+ * draw call and the videos in one draw call per texture, so a wall repeating the same video is a single draw.
+ * A placement that covers the whole screen with an opaque background drops everything laid out before it.
+ * Placements of {@link VideoAtlas} regions only change the quad's UVs, so every clip of an atlas joins the same draw call.
+ * <p>
+ * Render thread only.
+ */
+public class VideoBatch {
+    private int screenWidth;
+    private int screenHeight;
+
+    // One entry per quad, in draw order
+    private int count = 0;
+    private float[] bounds = new float[16 * 4]; // x0, y0, x1, y1
+    private float[] uvs = new float[16 * 4]; // u0, v0, u1, v1
+    private ResourceLocation[] textures = new ResourceLocation[16]; // Null for a background fill
+    private int[] colors = new int[16];
+    private int[] layers = new int[16];
+    private VideoRenderer[] owners = new VideoRenderer[16];
+
+    private int layer = 0;
+    private int layerStart = 0;
+    private int[] pending = new int[16]; // Textured quads of the layer being drawn, -1 once drawn
+
+    private int drawCalls = 0;
+
+    /**
+     * Starts a new frame, sizes are GUI-scaled.
+     */
+    public void begin(int screenWidth, int screenHeight) {
+        this.screenWidth = screenWidth;
+        this.screenHeight = screenHeight;
+        clear();
+    }
+
+    /**
+     * Lays out every placement of the video, on top of what was added before.
+     */
+    public void add(VideoRenderer video) {
+        ResourceLocation texture = video.getTexture();
+        if (texture == null || video.getWidth() <= 0 || video.getHeight() <= 0) return;
+
+        VideoAtlas atlas = video.getAtlas();
+        List<VideoPlacement> placements = video.getPlacements();
+        for (int p = 0; p < placements.size(); p++) { // Indexed, no iterator per frame
+            VideoPlacement placement = placements.get(p);
+            VideoAtlas.Region region = null;
+            if (placement.region() != null) {
+                region = atlas == null ? null : atlas.getRegion(placement.region());
+                if (region == null) continue;
+            }
+
+            if (placement.coversScreen()) {
+                clear(); // Everything before it is hidden
+            }
+
+            float x0 = placement.x() * screenWidth;
+            float y0 = placement.y() * screenHeight;
+            float x1 = x0 + placement.width() * screenWidth;
+            float y1 = y0 + placement.height() * screenHeight;
+            if (x1 <= x0 || y1 <= y0) continue;
+
+            if (placement.backgroundColor() >>> 24 != 0) {
+                push(x0, y0, x1, y1, null, placement.backgroundColor(), video, null);
+            }
+
+            if (placement.keepAspect()) {
+                // Fit inside the rectangle, centered
+                float videoAspect = region != null
+                        ? region.aspect(video.getWidth(), video.getHeight())
+                        : (float) video.getWidth() / video.getHeight();
+                float width = x1 - x0;
+                float height = y1 - y0;
+                if (videoAspect > width / height) {
+                    float fitted = width / videoAspect;
+                    y0 += (height - fitted) / 2;
+                    y1 = y0 + fitted;
+                } else {
+                    float fitted = height * videoAspect;
+                    x0 += (width - fitted) / 2;
+                    x1 = x0 + fitted;
+                }
+            }
+            push(x0, y0, x1, y1, texture, 0, video, region);
+        }
+    }
+
+    /**
+     * Part of the screen the video's quads cover, from 0 to 1.
+     */
+    public float getVisibleFraction(VideoRenderer video) {
+        float area = 0;
+        for (int i = 0; i < count; i++) {
+            if (owners[i] != video || textures[i] == null) continue;
+
+            float width = Math.min(bounds[i * 4 + 2], screenWidth) - Math.max(bounds[i * 4], 0);
+            float height = Math.min(bounds[i * 4 + 3], screenHeight) - Math.max(bounds[i * 4 + 1], 0);
+            if (width > 0 && height > 0) {
+                area += width * height;
+            }
+        }
+        return Math.min(1.0f, area / Math.max(1, screenWidth * screenHeight));
+    }
+
+    /**
+     * Height the whole video would have at its tallest quad, as a part of the screen height.
+     * A quad showing a region of an atlas stands for the whole frame scaled up.
+     */
+    public float getHeightFraction(VideoRenderer video) {
+        float height = 0;
+        for (int i = 0; i < count; i++) {
+            if (owners[i] != video || textures[i] == null) continue;
+
+            float regionHeight = uvs[i * 4 + 3] - uvs[i * 4 + 1];
+            height = Math.max(height, (bounds[i * 4 + 3] - bounds[i * 4 + 1]) / regionHeight);
+        }
+        return height / Math.max(1, screenHeight);
+    }
+
+    /**
+     * Draws everything laid out since {@link #begin(int, int)}.
+     * @param batched Merge quads into as few draw calls as possible, otherwise a fill and a blit per quad.
+     */
+    public void draw(GuiGraphics graphics, boolean batched) {
+        drawCalls = 0;
+        if (count == 0) return;
+
+        if (!batched) {
+            for (int i = 0; i < count; i++) {
+                int x0 = Math.round(bounds[i * 4]);
+                int y0 = Math.round(bounds[i * 4 + 1]);
+                int x1 = Math.round(bounds[i * 4 + 2]);
+                int y1 = Math.round(bounds[i * 4 + 3]);
+                if (textures[i] == null) {
+                    graphics.fill(x0, y0, x1, y1, colors[i]);
+                } else {
+                    // In texels of the owner's current frame, the region keeps up with downscales
+                    int textureWidth = owners[i].getWidth();
+                    int textureHeight = owners[i].getHeight();
+                    graphics.blit(textures[i], x0, y0, x1 - x0, y1 - y0,
+                            uvs[i * 4] * textureWidth, uvs[i * 4 + 1] * textureHeight,
+                            Math.round((uvs[i * 4 + 2] - uvs[i * 4]) * textureWidth), Math.round((uvs[i * 4 + 3] - uvs[i * 4 + 1]) * textureHeight),
+                            textureWidth, textureHeight);
+                }
+                drawCalls++;
+            }
+            return;
+        }
+
+        // Anything GuiGraphics still holds goes first
+        graphics.flush();
+        Matrix4f matrix = graphics.pose().last().pose();
+
+        int start = 0;
+        while (start < count) {
+            int end = start;
+            while (end < count && layers[end] == layers[start]) end++;
+            drawFills(matrix, start, end);
+            drawVideos(matrix, start, end);
+            start = end;
+        }
+    }
+
+    /**
+     * Draw calls issued by the last {@link #draw(GuiGraphics, boolean)}.
+     */
+    public int getDrawCalls() {
+        return drawCalls;
+    }
+
+    private void drawFills(Matrix4f matrix, int start, int end) {
+        BufferBuilder buffer = null;
+        for (int i = start; i < end; i++) {
+            if (textures[i] != null) continue;
+
+            if (buffer == null) {
+                buffer = Tesselator.getInstance().getBuilder();
+                buffer.begin(VertexFormat.Mode.QUADS, DefaultVertexFormat.POSITION_COLOR);
+            }
+
+            int color = colors[i];
+            int a = color >>> 24, r = (color >> 16) & 0xFF, g = (color >> 8) & 0xFF, b = color & 0xFF;
+            float x0 = bounds[i * 4], y0 = bounds[i * 4 + 1], x1 = bounds[i * 4 + 2], y1 = bounds[i * 4 + 3];
+            buffer.vertex(matrix, x0, y0, 0).color(r, g, b, a).endVertex();
+            buffer.vertex(matrix, x0, y1, 0).color(r, g, b, a).endVertex();
+            buffer.vertex(matrix, x1, y1, 0).color(r, g, b, a).endVertex();
+            buffer.vertex(matrix, x1, y0, 0).color(r, g, b, a).endVertex();
+        }
+        if (buffer == null) return;
+
+        RenderSystem.enableBlend();
+        RenderSystem.defaultBlendFunc();
+        RenderSystem.setShader(GameRenderer::getPositionColorShader);
+        BufferUploader.drawWithShader(buffer.end());
+        RenderSystem.disableBlend();
+        drawCalls++;
+    }
+
+    private void drawVideos(Matrix4f matrix, int start, int end) {
+        int pendingCount = 0;
+        for (int i = start; i < end; i++) {
+            if (textures[i] != null) {
+                pending[pendingCount++] = i;
+            }
+        }
+
+        RenderSystem.setShader(GameRenderer::getPositionTexShader);
+        for (int p = 0; p < pendingCount; p++) {
+            if (pending[p] < 0) continue;
+            ResourceLocation texture = textures[pending[p]];
+
+            // Every quad of the layer with this texture, in order
+            BufferBuilder buffer = Tesselator.getInstance().getBuilder();
+            buffer.begin(VertexFormat.Mode.QUADS, DefaultVertexFormat.POSITION_TEX);
+            for (int q = p; q < pendingCount; q++) {
+                int i = pending[q];
+                if (i < 0 || !textures[i].equals(texture)) continue;
+
+                float x0 = bounds[i * 4], y0 = bounds[i * 4 + 1], x1 = bounds[i * 4 + 2], y1 = bounds[i * 4 + 3];
+                float u0 = uvs[i * 4], v0 = uvs[i * 4 + 1], u1 = uvs[i * 4 + 2], v1 = uvs[i * 4 + 3];
+                buffer.vertex(matrix, x0, y0, 0).uv(u0, v0).endVertex();
+                buffer.vertex(matrix, x0, y1, 0).uv(u0, v1).endVertex();
+                buffer.vertex(matrix, x1, y1, 0).uv(u1, v1).endVertex();
+                buffer.vertex(matrix, x1, y0, 0).uv(u1, v0).endVertex();
+                pending[q] = -1;
+            }
+
+            RenderSystem.setShaderTexture(0, texture);
+            BufferUploader.drawWithShader(buffer.end());
+            drawCalls++;
+        }
+    }
+
+    private void push(float x0, float y0, float x1, float y1, ResourceLocation texture, int color, VideoRenderer owner, VideoAtlas.Region region) {
+        // Overlapping something of another kind starts a new layer, so the overlap keeps its order
+        for (int i = layerStart; i < count; i++) {
+            if (!Objects.equals(textures[i], texture)
+                    && x0 < bounds[i * 4 + 2] && bounds[i * 4] < x1 && y0 < bounds[i * 4 + 3] && bounds[i * 4 + 1] < y1) {
+                layer++;
+                layerStart = count;
+                break;
+            }
+        }
+
+        if (count == textures.length) {
+            int capacity = count * 2;
+            bounds = Arrays.copyOf(bounds, capacity * 4);
+            uvs = Arrays.copyOf(uvs, capacity * 4);
+            textures = Arrays.copyOf(textures, capacity);
+            colors = Arrays.copyOf(colors, capacity);
+            layers = Arrays.copyOf(layers, capacity);
+            owners = Arrays.copyOf(owners, capacity);
+            pending = Arrays.copyOf(pending, capacity);
+        }
+
+        bounds[count * 4] = x0;
+        bounds[count * 4 + 1] = y0;
+        bounds[count * 4 + 2] = x1;
+        bounds[count * 4 + 3] = y1;
+        uvs[count * 4] = region == null ? 0 : region.u0();
+        uvs[count * 4 + 1] = region == null ? 0 : region.v0();
+        uvs[count * 4 + 2] = region == null ? 1 : region.u1();
+        uvs[count * 4 + 3] = region == null ? 1 : region.v1();
+        textures[count] = texture;
+        colors[count] = color;
+        layers[count] = layer;
+        owners[count] = owner;
+        count++;
+    }
+
+    private void clear() {
+        // Drop the references, closed videos should not stay reachable from here
+        Arrays.fill(textures, 0, count, null);
+        Arrays.fill(owners, 0, count, null);
+        count = 0;
+        layer = 0;
+        layerStart = 0;
+    }
+}
@@ -0,0 +1,291 @@
+package com.chaotic_loom.video_renderer.core;
+
+import com.chaotic_loom.video_renderer.Constants;
+import com.mojang.blaze3d.pipeline.RenderTarget;
+import com.mojang.blaze3d.systems.RenderSystem;
+import net.minecraft.client.Minecraft;
+import net.minecraft.client.renderer.texture.AbstractTexture;
+import net.minecraft.resources.ResourceLocation;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL21;
+import org.lwjgl.opengl.GL30;
+import org.lwjgl.opengl.GL32;
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Records the game, or what a {@link VideoRenderer} shows, to a video file. Start one with
+ * {@link VideoPlayerController#startCapture(Path, int, int, double)}.
+ * <p>
+ * Each captured frame is scaled into a framebuffer of the capture size and read into one of a few pixel buffers,
+ * which is only mapped once its fence has passed, a frame or two later. The render thread never waits on the GPU:
+ * a frame whose buffer is still being read, or that finds the encoder queue full, is dropped.
+ * Encoding happens on the {@link CaptureEncoder} threads. Render thread only.
+ */
+public class VideoCapture {
+    private static final int READBACK_BUFFERS = 3;
+
+    private final CaptureEncoder encoder;
+    private final VideoRenderer video; // Null for the game
+    private final int width;
+    private final int height;
+    private final long frameIntervalNanos;
+    private final long startNanos;
+    private long nextCaptureNanos;
+
+    // GL objects, the capture size framebuffer and one to read the source texture through
+    private final int framebuffer;
+    private final int colorTexture;
+    private final int sourceFramebuffer;
+    private int attachedTexture = -1;
+    private boolean attachedComplete = false;
+
+    // Readback ring, a slot is busy while it has a fence
+    private final int[] pixelBuffers = new int[READBACK_BUFFERS];
+    private final long[] fences = new long[READBACK_BUFFERS];
+    private final long[] captureNanos = new long[READBACK_BUFFERS];
+    private int nextSlot = 0;
+
+    private boolean stopping = false;
+    private boolean finished = false;
+
+    // Metrics
+    private long capturedFrames = 0;
+    private long droppedFrames = 0; // Readbacks that were not done in time, the encoder counts its own
+
+    VideoCapture(VideoRenderer video, Path output, int width, int height, double frameRate) {
+        RenderSystem.assertOnRenderThread();
+
+        this.video = video;
+        this.width = Math.max(2, width & ~1); // Even sizes for 4:2:0
+        this.height = Math.max(2, height & ~1);
+        this.frameIntervalNanos = (long) (1_000_000_000.0 / frameRate);
+        this.encoder = new CaptureEncoder(output, this.width, this.height, frameRate, CaptureEncoder.DEFAULT_QUEUE_FRAMES, VideoPlayerController.getMemoryBudget());
+
+        colorTexture = GL11.glGenTextures();
+        GL11.glBindTexture(GL11.GL_TEXTURE_2D, colorTexture);
+        GL11.glTexImage2D(GL11.GL_TEXTURE_2D, 0, GL11.GL_RGBA8, this.width, this.height, 0, GL11.GL_RGBA, GL11.GL_UNSIGNED_BYTE, 0L);
+        GL11.glBindTexture(GL11.GL_TEXTURE_2D, 0);
+
+        int previousRead = GL11.glGetInteger(GL30.GL_READ_FRAMEBUFFER_BINDING);
+        int previousDraw = GL11.glGetInteger(GL30.GL_DRAW_FRAMEBUFFER_BINDING);
+        framebuffer = GL30.glGenFramebuffers();
+        GL30.glBindFramebuffer(GL30.GL_FRAMEBUFFER, framebuffer);
+        GL30.glFramebufferTexture2D(GL30.GL_FRAMEBUFFER, GL30.GL_COLOR_ATTACHMENT0, GL11.GL_TEXTURE_2D, colorTexture, 0);
+        sourceFramebuffer = GL30.glGenFramebuffers();
+        GL30.glBindFramebuffer(GL30.GL_READ_FRAMEBUFFER, previousRead);
+        GL30.glBindFramebuffer(GL30.GL_DRAW_FRAMEBUFFER, previousDraw);
+
+        for (int i = 0; i < READBACK_BUFFERS; i++) {
+            pixelBuffers[i] = GL15.glGenBuffers();
+            GL15.glBindBuffer(GL21.GL_PIXEL_PACK_BUFFER, pixelBuffers[i]);
+            GL15.glBufferData(GL21.GL_PIXEL_PACK_BUFFER, (long) this.width * this.height * 4L, GL15.GL_STREAM_READ);
+        }
+        GL15.glBindBuffer(GL21.GL_PIXEL_PACK_BUFFER, 0);
+
+        startNanos = System.nanoTime();
+        nextCaptureNanos = startNanos;
+    }
+
+    /**
+     * Encodes the frames still being read back and finishes the file.
+     */
+    public void stop() {
+        stopping = true;
+    }
+
+    /**
+     * Completes with the file once it is written, or exceptionally if encoding failed.
+     */
+    public CompletableFuture<Path> getFinished() {
+        return encoder.getFinished();
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * The recorded video, null when recording the game.
+     */
+    public VideoRenderer getVideo() {
+        return video;
+    }
+
+    public long getCapturedFrames() {
+        return capturedFrames;
+    }
+
+    /**
+     * Frames dropped because the GPU or the encoder was behind.
+     */
+    public long getDroppedFrames() {
+        return droppedFrames + encoder.getDroppedFrames();
+    }
+
+    public long getEncodedFrames() {
+        return encoder.getEncodedFrames();
+    }
+
+    /**
+     * Collects finished readbacks and starts the next one when a frame is due. Called by the controller every frame,
+     * after the videos are drawn.
+     */
+    protected void tick() {
+        if (finished) return;
+
+        collect();
+
+        if (stopping || (video != null && video.getState() == PlaybackState.CLOSED)) {
+            if (isIdle()) {
+                release();
+            }
+            return;
+        }
+
+        long now = System.nanoTime();
+        if (now < nextCaptureNanos) return;
+        nextCaptureNanos += frameIntervalNanos;
+        if (nextCaptureNanos < now) {
+            nextCaptureNanos = now + frameIntervalNanos; // Fell behind, no burst of frames to catch up
+        }
+
+        // The oldest readback is still in flight, the GPU is behind
+        if (fences[nextSlot] != 0) {
+            droppedFrames++;
+            return;
+        }
+
+        if (readBack(nextSlot)) {
+            captureNanos[nextSlot] = now;
+            nextSlot = (nextSlot + 1) % READBACK_BUFFERS;
+        }
+    }
+
+    /**
+     * Scales the source into the capture framebuffer and starts reading it into the slot's pixel buffer.
+     * @return false if there was nothing to capture.
+     */
+    private boolean readBack(int slot) {
+        int texture;
+        int sourceWidth;
+        int sourceHeight;
+        boolean flip;
+        if (video == null) {
+            RenderTarget target = Minecraft.getInstance().getMainRenderTarget();
+            texture = target.getColorTextureId();
+            sourceWidth = target.width;
+            sourceHeight = target.height;
+            flip = true; // The bottom row comes first in the framebuffer
+        } else {
+            ResourceLocation location = video.getTexture();
+            AbstractTexture videoTexture = location == null ? null : Minecraft.getInstance().getTextureManager().getTexture(location);
+            if (videoTexture == null || !video.isInitialized()) return false;
+
+            texture = videoTexture.getId();
+            sourceWidth = video.getWidth();
+            sourceHeight = video.getHeight();
+            flip = false; // Frames are uploaded top row first
+        }
+
+        int previousRead = GL11.glGetInteger(GL30.GL_READ_FRAMEBUFFER_BINDING);
+        int previousDraw = GL11.glGetInteger(GL30.GL_DRAW_FRAMEBUFFER_BINDING);
+        GL30.glBindFramebuffer(GL30.GL_READ_FRAMEBUFFER, sourceFramebuffer);
+
+        // Textures change with resizes and renditions, compressed ones can not be read this way
+        if (texture != attachedTexture) {
+            GL30.glFramebufferTexture2D(GL30.GL_READ_FRAMEBUFFER, GL30.GL_COLOR_ATTACHMENT0, GL11.GL_TEXTURE_2D, texture, 0);
+            attachedTexture = texture;
+            attachedComplete = GL30.glCheckFramebufferStatus(GL30.GL_READ_FRAMEBUFFER) == GL30.GL_FRAMEBUFFER_COMPLETE;
+            if (!attachedComplete) {
+                Constants.LOG.warn("Can not capture texture {}, compressed video output is not supported", texture);
+            }
+        }
+
+        boolean started = false;
+        if (attachedComplete) {
+            GL30.glBindFramebuffer(GL30.GL_DRAW_FRAMEBUFFER, framebuffer);
+            GL30.glBlitFramebuffer(0, 0, sourceWidth, sourceHeight, 0, flip ? height : 0, width, flip ? 0 : height, GL11.GL_COLOR_BUFFER_BIT, GL11.GL_LINEAR);
+
+            // Asynchronous into the pixel buffer, the fence tells when it landed
+            GL30.glBindFramebuffer(GL30.GL_READ_FRAMEBUFFER, framebuffer);
+            GL15.glBindBuffer(GL21.GL_PIXEL_PACK_BUFFER, pixelBuffers[slot]);
+            GL11.glReadPixels(0, 0, width, height, GL11.GL_RGBA, GL11.GL_UNSIGNED_BYTE, 0L);
+            GL15.glBindBuffer(GL21.GL_PIXEL_PACK_BUFFER, 0);
+            fences[slot] = GL32.glFenceSync(GL32.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+            started = true;
+        }
+
+        GL30.glBindFramebuffer(GL30.GL_READ_FRAMEBUFFER, previousRead);
+        GL30.glBindFramebuffer(GL30.GL_DRAW_FRAMEBUFFER, previousDraw);
+        return started;
+    }
+
+    /**
+     * Hands the readbacks that are done to the encoder, oldest first, without waiting for the others.
+     */
+    private void collect() {
+        for (int i = 0; i < READBACK_BUFFERS; i++) {
+            int slot = (nextSlot + i) % READBACK_BUFFERS;
+            long fence = fences[slot];
+            if (fence == 0) continue;
+
+            int status = GL32.glClientWaitSync(fence, 0, 0);
+            if (status != GL32.GL_ALREADY_SIGNALED && status != GL32.GL_CONDITION_SATISFIED) {
+                if (status == GL32.GL_WAIT_FAILED) {
+                    Constants.LOG.warn("Capture readback fence failed, dropping the frame");
+                    droppedFrames++;
+                    clearFence(slot);
+                    continue;
+                }
+                return; // Later ones are not done either
+            }
+
+            long bytes = (long) width * height * 4L;
+            GL15.glBindBuffer(GL21.GL_PIXEL_PACK_BUFFER, pixelBuffers[slot]);
+            long mapped = GL30.nglMapBufferRange(GL21.GL_PIXEL_PACK_BUFFER, 0, bytes, GL30.GL_MAP_READ_BIT);
+            if (mapped != 0) {
+                // Null when the encoder queue is full, the encoder counts it as dropped
+                CaptureEncoder.CapturedFrame frame = encoder.acquire();
+                if (frame != null) {
+                    MemoryUtil.memCopy(mapped, frame.getAddress(), bytes);
+                    encoder.submit(frame, (captureNanos[slot] - startNanos) / 1000);
+                    capturedFrames++;
+                }
+                GL15.glUnmapBuffer(GL21.GL_PIXEL_PACK_BUFFER);
+            } else {
+                Constants.LOG.warn("Failed to map capture readback buffer, dropping the frame");
+                droppedFrames++;
+            }
+            GL15.glBindBuffer(GL21.GL_PIXEL_PACK_BUFFER, 0);
+            clearFence(slot);
+        }
+    }
+
+    private void clearFence(int slot) {
+        GL32.glDeleteSync(fences[slot]);
+        fences[slot] = 0;
+    }
+
+    private boolean isIdle() {
+        for (long fence : fences) {
+            if (fence != 0) return false;
+        }
+        return true;
+    }
+
+    private void release() {
+        finished = true;
+        encoder.close();
+
+        for (int buffer : pixelBuffers) {
+            GL15.glDeleteBuffers(buffer);
+        }
+        GL30.glDeleteFramebuffers(framebuffer);
+        GL30.glDeleteFramebuffers(sourceFramebuffer);
+        GL11.glDeleteTextures(colorTexture);
+    }
+}
@@ -0,0 +1,47 @@
+package com.chaotic_loom.video_renderer.core;
+
+/**
+ * Where a video is drawn on the screen. Positions and sizes are fractions of the GUI-scaled screen,
+ * so a layout keeps working when the window is resized.
+ *
+ * @param keepAspect Fit the video inside the rectangle instead of stretching it.
+ * @param backgroundColor ARGB fill behind the video (the letterbox bars), 0 draws nothing.
+ * @param region Name of the {@link VideoAtlas} region to draw, null for the whole frame.
+ */
+public record VideoPlacement(float x, float y, float width, float height, boolean keepAspect, int backgroundColor, String region) {
+    /** The whole screen, letterboxed in black. The default when a video has no placement. */
+    public static final VideoPlacement FULLSCREEN = new VideoPlacement(0, 0, 1, 1, true, 0xFF000000);
+
+    public VideoPlacement(float x, float y, float width, float height, boolean keepAspect, int backgroundColor) {
+        this(x, y, width, height, keepAspect, backgroundColor, null);
+    }
+
+    /**
+     * A rectangle without background that keeps the aspect ratio.
+     */
+    public static VideoPlacement at(float x, float y, float width, float height) {
+        return new VideoPlacement(x, y, width, height, true, 0);
+    }
+
+    public VideoPlacement withBackground(int argb) {
+        return new VideoPlacement(x, y, width, height, keepAspect, argb, region);
+    }
+
+    public VideoPlacement stretched() {
+        return new VideoPlacement(x, y, width, height, false, backgroundColor, region);
+    }
+
+    /**
+     * Draws only a region of the video's atlas. Placements of a region the atlas does not have are skipped.
+     */
+    public VideoPlacement withRegion(String name) {
+        return new VideoPlacement(x, y, width, height, keepAspect, backgroundColor, name);
+    }
+
+    /**
+     * Whether it hides everything drawn before it.
+     */
+    public boolean coversScreen() {
+        return x <= 0 && y <= 0 && x + width >= 1 && y + height >= 1 && backgroundColor >>> 24 == 0xFF;
+    }
+}
@@ -4,25 +4,96 @@ import com.chaotic_loom.video_renderer.Constants;
 import com.chaotic_loom.video_renderer.events.core.EngineEvents;
 import com.chaotic_loom.video_renderer.events.core.VideoEvents;
 import com.chaotic_loom.video_renderer.events.core.RenderEvents;
+import com.chaotic_loom.video_renderer.platform.Services;
+import com.mojang.blaze3d.platform.Window;
 import net.minecraft.client.Minecraft;
 import net.minecraft.client.gui.GuiGraphics;
+import net.minecraft.client.gui.screens.ConnectScreen;
+import net.minecraft.client.gui.screens.GenericDirtMessageScreen;
+import net.minecraft.client.gui.screens.LevelLoadingScreen;
+import net.minecraft.client.gui.screens.ProgressScreen;
+import net.minecraft.client.gui.screens.ReceivingLevelScreen;
+import net.minecraft.client.gui.screens.Screen;
 import net.minecraft.resources.ResourceLocation;
+import org.lwjgl.glfw.GLFW;
 
+import java.nio.file.Path;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Predicate;
 import java.util.function.Supplier;
 
 public class VideoPlayerController {
     private static final List<VideoRenderer> activeVideos = new CopyOnWriteArrayList<>();
+    private static final List<VideoPlaylist> playlists = new CopyOnWriteArrayList<>();
+
+    // Copies, probes and transcodes videos away from the render thread
+    private static final ExecutorService loaderExecutor = Executors.newFixedThreadPool(2, runnable -> {
+        Thread thread = new Thread(runnable, "Video-Loader-Thread");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Compresses the frames of S3TC videos, shared so each video does not start threads of its own
+    private static final ExecutorService compressorExecutor = BlockCompressor.newWorkerPool();
+
+    // Off-heap memory used by all active videos
+    private static final NativeMemoryBudget memoryBudget = new NativeMemoryBudget(NativeMemoryBudget.DEFAULT_LIMIT_BYTES);
+
+    // Frame images and textures of closed videos, reused by the next video of the same size
+    private static final FramePool framePool = new FramePool(memoryBudget, FramePool.DEFAULT_MAX_BYTES, FramePool.DEFAULT_IDLE_NANOS);
+
+    // Short clips kept decoded in memory
+    private static final ClipCache clipCache = new ClipCache(ClipCache.DEFAULT_MAX_BYTES, ClipCache.DEFAULT_MAX_CLIP_SECONDS);
+
+    // Created on first use, most sessions never need thumbnails
+    private static ThumbnailService thumbnailService;
+
+    // Limits the time spent on texture uploads per render frame
+    private static final UploadScheduler uploadScheduler = new UploadScheduler(UploadScheduler.DEFAULT_BUDGET_MILLIS);
 
     private static boolean initialized = false;
     private static boolean soundLoaded = false;
 
-    private static final int backgroundColor = 0xFF000000;
+    // Draws every visible video at the end of the frame
+    private static final VideoBatch batch = new VideoBatch();
+    private static volatile RenderMode renderMode = RenderMode.BATCHED;
+
+    // Screens placed in the world, drawn after the level
+    private static final VideoScreenRenderer screenRenderer = new VideoScreenRenderer();
+
+    // Whether the videos can be seen at all, refreshed every render frame. Without render frames for a while
+    // (some platforms stop rendering minimized windows) they count as hidden too.
+    private static final long RENDER_TIMEOUT_NANOS = 500_000_000L;
+    private static volatile boolean outputVisible = true;
+    private static volatile long lastRenderNanos = 0;
+    private static volatile Predicate<Screen> occludingScreens = VideoPlayerController::isLoadingScreen;
+
+    // Recordings of the game or of videos, ticked once the videos are drawn
+    private static final List<VideoCapture> captures = new CopyOnWriteArrayList<>();
+
+    // Mixes every video's audio into one OpenAL source, off by default
+    private static volatile AudioMixer audioMixer;
+
+    // Dev guard, the render pass should not allocate once videos are playing
+    private static final AllocationTracker renderAllocations = new AllocationTracker("Video render pass");
 
     public static void initialize() {
         if (!initialized) {
             RenderEvents.RENDER.register(VideoPlayerController::render);
+            RenderEvents.RENDER.register((drawContext, tickDelta) -> tickCaptures());
+            RenderEvents.RENDER_LEVEL.register((poseStack, camera, projectionMatrix, tickDelta) -> {
+                screenRenderer.render(poseStack, camera, projectionMatrix);
+
+                AudioMixer mixer = audioMixer;
+                if (mixer != null) {
+                    mixer.setListener(camera.getPosition().x, camera.getPosition().y, camera.getPosition().z);
+                }
+            });
             VideoEvents.FINISHED.register(VideoPlayerController::onVideoFinished);
 
             EngineEvents.SOUND_ENGINE_LOADED.register(() -> {
@@ -35,22 +106,116 @@ public class VideoPlayerController {
         }
     }
 
+    /**
+     * Loads the video on the calling thread, waiting for the FFmpeg natives if they are still warming up.
+     * Prefer {@link #playVideoAsync(String)} on the render thread.
+     */
     public static VideoRenderer playVideo(String absolutePath) {
         return playVideoInternal(() -> new VideoRenderer(absolutePath));
     }
 
+    /**
+     * Loads the video on the calling thread, waiting for the FFmpeg natives if they are still warming up.
+     * Prefer {@link #playVideoAsync(ResourceLocation)} on the render thread.
+     */
     public static VideoRenderer playVideo(ResourceLocation location) {
         return playVideoInternal(() -> new VideoRenderer(location));
     }
 
+    /**
+     * Loads the video on a background thread and plays it once loaded.
+     * Also accepts http(s) URLs of video files and HLS playlists, which start once a few seconds are buffered (see {@link StreamingVideoSource}).
+     * @return a future that completes when only the render thread work is left, or exceptionally if loading failed.
+     */
+    public static CompletableFuture<VideoRenderer> playVideoAsync(String absolutePath) {
+        return playVideoAsync(absolutePath, LoadProgressListener.NONE);
+    }
+
+    public static CompletableFuture<VideoRenderer> playVideoAsync(String absolutePath, LoadProgressListener progressListener) {
+        return playVideoAsyncInternal(VideoRenderer.loadAsync(absolutePath, loaderExecutor, progressListener));
+    }
+
+    /**
+     * Loads the video on a background thread and plays it once loaded.
+     * @return a future that completes when only the render thread work is left, or exceptionally if loading failed.
+     */
+    public static CompletableFuture<VideoRenderer> playVideoAsync(ResourceLocation location) {
+        return playVideoAsync(location, LoadProgressListener.NONE);
+    }
+
+    public static CompletableFuture<VideoRenderer> playVideoAsync(ResourceLocation location, LoadProgressListener progressListener) {
+        return playVideoAsyncInternal(VideoRenderer.loadAsync(location, loaderExecutor, progressListener));
+    }
+
+    /**
+     * Plays a short clip that is replayed often (button animations, hit effects...).
+     * The first play converts it into the {@link ClipCache}, replays do no I/O and no decoding.
+     */
+    public static CompletableFuture<VideoRenderer> playClipAsync(ResourceLocation location) {
+        return playVideoAsyncInternal(VideoRenderer.loadClipAsync(location, clipCache, loaderExecutor, LoadProgressListener.NONE));
+    }
+
+    public static CompletableFuture<VideoRenderer> playClipAsync(String absolutePath) {
+        return playVideoAsyncInternal(VideoRenderer.loadClipAsync(absolutePath, clipCache, loaderExecutor, LoadProgressListener.NONE));
+    }
+
+    /**
+     * Shows the video on a screen in the world, see {@link VideoScreen}. The video itself is played with the methods above,
+     * it is no longer drawn fullscreen unless it is given a placement.
+     */
+    public static VideoScreen addScreen(VideoScreen screen) {
+        screenRenderer.add(screen);
+        return screen;
+    }
+
+    /**
+     * Removes the screen, the video keeps playing. Screens of closed videos are removed on their own.
+     */
+    public static void removeScreen(VideoScreen screen) {
+        screenRenderer.remove(screen);
+    }
+
+    public static List<VideoScreen> getScreens() {
+        return screenRenderer.getScreens();
+    }
+
+    /**
+     * Records the game to a video file (H.264, the container comes from the extension), scaled to width x height.
+     * Render thread only, stop it with {@link VideoCapture#stop()}. The file is opened in the background, frames before
+     * that are dropped, and {@link VideoCapture#getFinished()} completes exceptionally if it can not be opened.
+     * @throws NativeMemoryBudget.BudgetExceededException if the encoder queue does not fit in the budget.
+     */
+    public static VideoCapture startCapture(Path output, int width, int height, double frameRate) {
+        VideoCapture capture = new VideoCapture(null, output, width, height, frameRate);
+        captures.add(capture);
+        return capture;
+    }
+
+    /**
+     * Records what the video shows, at its current decode size. Stops by itself when the video is closed.
+     */
+    public static VideoCapture startCapture(VideoRenderer video, Path output, double frameRate) {
+        VideoCapture capture = new VideoCapture(video, output, video.getWidth(), video.getHeight(), frameRate);
+        captures.add(capture);
+        return capture;
+    }
+
+    public static List<VideoCapture> getCaptures() {
+        return captures;
+    }
+
+    /**
+     * Plays the items of the playlist back to back, see {@link VideoPlaylist}.
+     */
+    public static VideoPlaylist playPlaylist(VideoPlaylist playlist) {
+        playlists.add(playlist);
+        return playlist;
+    }
+
     private static VideoRenderer playVideoInternal(Supplier<VideoRenderer> supplier) {
         try {
             VideoRenderer newVideo = supplier.get();
-            newVideo.setLoop(false);
-
-            activeVideos.add(newVideo);
-
-            Constants.LOG.info("Video loaded, waiting for render thread to initialize texture...");
+            register(newVideo);
             return newVideo;
         } catch (Exception e) {
             Constants.LOG.error("Failed to play video", e);
@@ -59,17 +224,41 @@ public class VideoPlayerController {
         return null;
     }
 
+    private static CompletableFuture<VideoRenderer> playVideoAsyncInternal(CompletableFuture<VideoRenderer> loading) {
+        return loading.whenComplete((video, throwable) -> {
+            if (throwable != null) {
+                Constants.LOG.error("Failed to play video", throwable);
+            } else {
+                register(video);
+            }
+        });
+    }
+
+    protected static void register(VideoRenderer video) {
+        video.setLoop(false);
+        activeVideos.add(video);
+
+        Constants.LOG.info("Video loaded, waiting for render thread to initialize texture...");
+    }
+
+    /**
+     * Closes every active video. The videos are released and removed on the next render frame.
+     */
     public static void stopAllVideos() {
+        for (VideoPlaylist playlist : playlists) {
+            playlist.stop();
+        }
         for (VideoRenderer video : activeVideos) {
             video.close();
         }
-        activeVideos.clear();
     }
 
+    /**
+     * Closes the video. It is released and removed on the next render frame.
+     */
     public static void stopVideo(VideoRenderer video) {
         if (activeVideos.contains(video)) {
             video.close();
-            activeVideos.remove(video);
         }
     }
 
@@ -87,14 +276,196 @@ public class VideoPlayerController {
         return activeVideos;
     }
 
+    public static NativeMemoryBudget getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Sets the cap for the off-heap memory of all videos together.
+     * New videos are downscaled to fit, or refused with a {@link NativeMemoryBudget.BudgetExceededException}.
+     */
+    public static void setNativeMemoryLimit(long bytes) {
+        memoryBudget.setLimitBytes(bytes);
+    }
+
+    /**
+     * Whether the videos can be seen: the window is not minimized or hidden, no occluding screen is open and the game
+     * rendered recently. While hidden, decoders convert and upload nothing and resume on the frame due when visible again.
+     */
+    public static boolean isOutputVisible() {
+        return outputVisible && System.nanoTime() - lastRenderNanos < RENDER_TIMEOUT_NANOS;
+    }
+
+    /**
+     * Sets which screens hide the videos completely. By default only the opaque loading screens do, screens drawn
+     * over the world are see-through.
+     */
+    public static void setOccludingScreens(Predicate<Screen> occluding) {
+        occludingScreens = occluding;
+    }
+
+    /**
+     * Size and hit / miss metrics of the frame pool.
+     */
+    public static FramePool getFramePool() {
+        return framePool;
+    }
+
+    /**
+     * Sets how much memory idle frames and textures may keep, and how long they are kept before being freed.
+     */
+    public static void setFramePoolSize(long bytes, long idleMillis) {
+        framePool.setMaxBytes(bytes);
+        framePool.setIdleNanos(idleMillis * 1_000_000L);
+    }
+
+    /**
+     * Mixes the audio of the videos loaded from now on into a single OpenAL source, instead of one source each.
+     * Worth it with many videos playing at once, Minecraft's own sounds then keep their sources.
+     * Videos already loaded keep how they play, turning it off stops the mixer once they are closed. Render thread only.
+     */
+    public static void setAudioMixing(boolean enabled) {
+        if (enabled && audioMixer == null) {
+            audioMixer = new AudioMixer();
+            Constants.LOG.info("Audio mixing enabled");
+        } else if (!enabled && audioMixer != null) {
+            audioMixer.closeWhenIdle();
+            audioMixer = null;
+        }
+    }
+
+    /**
+     * The audio mixer, null when audio mixing is off.
+     */
+    public static AudioMixer getAudioMixer() {
+        return audioMixer;
+    }
+
+    /**
+     * Loader threads, for I/O and probing off the render thread.
+     */
+    static Executor getLoaderExecutor() {
+        return loaderExecutor;
+    }
+
+    /**
+     * Worker pool of the {@link BlockCompressor}s of every video, null when there are no spare cores.
+     */
+    static Executor getCompressorExecutor() {
+        return compressorExecutor;
+    }
+
+    /**
+     * Size and hit / miss metrics of the clip cache.
+     */
+    public static ClipCache getClipCache() {
+        return clipCache;
+    }
+
+    /**
+     * Sets how much memory the clip cache may use, least recently used clips are evicted to fit.
+     */
+    public static void setClipCacheSize(long bytes) {
+        clipCache.setMaxBytes(bytes);
+    }
+
+    /**
+     * Upload counts and the time spent uploading in the last frame.
+     */
+    public static UploadScheduler getUploadScheduler() {
+        return uploadScheduler;
+    }
+
+    /**
+     * Sets the time all videos together may spend uploading frames in one render frame, zero or less removes the limit.
+     * Uploads that do not fit are carried over to the next frame.
+     */
+    public static void setUploadBudgetMillis(double millis) {
+        uploadScheduler.setBudgetMillis(millis);
+    }
+
+    /**
+     * How videos are drawn, batched by default. Immediate mode draws each placement on its own, like vanilla GUI code.
+     */
+    public static void setRenderMode(RenderMode mode) {
+        renderMode = mode;
+    }
+
+    public static RenderMode getRenderMode() {
+        return renderMode;
+    }
+
+    /**
+     * Shared thumbnail extractor: 2 workers, 64 MiB in memory and a disk cache in the game directory.
+     */
+    public static synchronized ThumbnailService getThumbnailService() {
+        if (thumbnailService == null) {
+            Path diskCache = Services.PLATFORM.getGameDirectory().resolve(Constants.MOD_ID).resolve("thumbnails");
+            thumbnailService = new ThumbnailService(2, 64L * 1024L * 1024L, diskCache);
+        }
+        return thumbnailService;
+    }
+
     private static void onVideoFinished(VideoRenderer videoRenderer) {
         Constants.LOG.info("Video finished!");
+
+        // Lets a playlist hand over before the video is closed
+        for (VideoPlaylist playlist : playlists) {
+            playlist.onVideoFinished(videoRenderer);
+        }
+
         stopVideo(videoRenderer);
     }
 
+    private static void tickCaptures() {
+        for (int i = 0; i < captures.size(); i++) {
+            VideoCapture capture = captures.get(i);
+            capture.tick();
+            if (capture.isFinished()) {
+                captures.remove(i--);
+            }
+        }
+    }
+
+    private static boolean isCaptured(VideoRenderer video) {
+        for (int i = 0; i < captures.size(); i++) {
+            VideoCapture capture = captures.get(i);
+            if (capture.getVideo() == video && !capture.isFinished()) return true;
+        }
+        return false;
+    }
+
     private static void render(GuiGraphics drawContext, float tickDelta) {
+        updateOutputVisible();
         if (!soundLoaded) return;
-        if (activeVideos.isEmpty()) return;
+
+        Window window = Minecraft.getInstance().getWindow();
+        if (prepareFrame(window.getGuiScaledWidth(), window.getGuiScaledHeight(), window.getHeight())) {
+            // Paused videos keep their last frame on screen
+            batch.draw(drawContext, renderMode == RenderMode.BATCHED);
+        }
+    }
+
+    /**
+     * The render pass up to the draw: starts the loaded videos, applies their commands, lays them out and uploads
+     * their new frames. Render thread only.
+     * @param windowHeight In pixels, for picking renditions.
+     * @return whether there is anything to draw.
+     */
+    static boolean prepareFrame(int guiWidth, int guiHeight, int windowHeight) {
+        // Indexed loops everywhere below, a CopyOnWriteArrayList iterator is an allocation per frame
+        for (int i = 0; i < playlists.size(); i++) {
+            VideoPlaylist playlist = playlists.get(i);
+            playlist.tick(loaderExecutor);
+            if (playlist.isFinished()) {
+                playlists.remove(i--);
+            }
+        }
+
+        framePool.evictIdle();
+
+        if (activeVideos.isEmpty()) return false;
+        renderAllocations.begin();
 
         // Iterate through all active videos
         for (int i = 0; i < activeVideos.size(); i++) {
@@ -102,7 +473,7 @@ public class VideoPlayerController {
             if (video == null) continue;
 
             // Initialize texture on first render call
-            if (!video.isInitialized()) {
+            if (video.getState() == PlaybackState.LOADING) {
                 video.initializeTexture();
 
                 // Start playing after texture is initialized
@@ -112,48 +483,91 @@ public class VideoPlayerController {
                 }
             }
 
-            // Update and render if playing
-            if (video.isPlaying()) {
-                video.update();
-                // TODO: More rendering methods
-                renderVideoFullscreen(drawContext, video);
+            // Apply queued lifecycle commands, this is the only place where states change
+            video.processCommands();
+
+            if (video.getState() == PlaybackState.CLOSED) {
+                activeVideos.remove(video);
+                i--;
+                continue;
             }
         }
-    }
-
-    private static void renderVideoFullscreen(GuiGraphics drawContext, VideoRenderer videoRenderer) {
-        Minecraft client = Minecraft.getInstance();
-        if (!videoRenderer.isInitialized()) return;
 
-        int screenWidth = client.getWindow().getGuiScaledWidth();
-        int screenHeight = client.getWindow().getGuiScaledHeight();
+        // Nothing can be seen, the decoders are idle too
+        if (!outputVisible) {
+            renderAllocations.end();
+            return false;
+        }
 
-        // Calculate aspect ratio preserving dimensions
-        float videoAspect = (float) videoRenderer.getWidth() / videoRenderer.getHeight();
-        float screenAspect = (float) screenWidth / screenHeight;
+        // Lay out what is on screen this frame, fullscreen videos hide the ones below them
+        batch.begin(guiWidth, guiHeight);
+        for (int i = 0; i < activeVideos.size(); i++) {
+            VideoRenderer video = activeVideos.get(i);
+            if (isDrawn(video) && video.isInitialized()) {
+                batch.add(video);
+            }
+        }
+        for (int i = 0; i < activeVideos.size(); i++) {
+            VideoRenderer video = activeVideos.get(i);
+            float hudFraction = batch.getVisibleFraction(video);
+            // A recording needs every frame at full size, even when nothing on screen shows the video
+            boolean captured = isCaptured(video);
+            if (video.isInWorld()) {
+                // The level was drawn earlier this frame, so its screens are up to date
+                screenRenderer.applyLevelOfDetail(video, hudFraction > 0 || captured);
+                video.setVisibility(Math.max(hudFraction, screenRenderer.getVisibleFraction(video)));
+            } else {
+                video.setVisibility(hudFraction);
+            }
+            if (captured) {
+                video.setVisibility(1);
+            }
 
-        int width, height;
-        if (videoAspect > screenAspect) {
-            width = screenWidth;
-            height = (int) (screenWidth / videoAspect);
-        } else {
-            height = screenHeight;
-            width = (int) (screenHeight * videoAspect);
+            if (video.hasRenditions()) {
+                float hudHeight = batch.getHeightFraction(video) * windowHeight;
+                float worldHeight = video.isInWorld() ? screenRenderer.getPixelHeight(video) : 0;
+                video.setDisplayHeight((int) Math.ceil(Math.max(hudHeight, worldHeight)));
+            }
         }
 
-        int x = (screenWidth - width) / 2;
-        int y = (screenHeight - height) / 2;
+        // Upload new frames within the frame budget, the rest waits for the next frame
+        uploadScheduler.run(activeVideos);
+
+        // Minecraft's vertex buffers allocate as they please, so drawing is not measured
+        renderAllocations.end();
+        return true;
+    }
+
+    private static void updateOutputVisible() {
+        Minecraft minecraft = Minecraft.getInstance();
+        long window = minecraft.getWindow().getWindow();
+        boolean shown = GLFW.glfwGetWindowAttrib(window, GLFW.GLFW_ICONIFIED) == 0 && GLFW.glfwGetWindowAttrib(window, GLFW.GLFW_VISIBLE) != 0;
+
+        Screen screen = minecraft.screen;
+        setOutputVisible(shown && (screen == null || !occludingScreens.test(screen)));
+    }
+
+    /**
+     * Called every render frame, see {@link #isOutputVisible()}.
+     */
+    static void setOutputVisible(boolean visible) {
+        outputVisible = visible;
+        lastRenderNanos = System.nanoTime();
+    }
+
+    private static boolean isLoadingScreen(Screen screen) {
+        return screen instanceof LevelLoadingScreen || screen instanceof ReceivingLevelScreen || screen instanceof ProgressScreen
+                || screen instanceof ConnectScreen || screen instanceof GenericDirtMessageScreen;
+    }
 
-        // Render black background
-        drawContext.fill(0, 0, screenWidth, screenHeight, backgroundColor);
+    private static boolean isDrawn(VideoRenderer video) {
+        return video.isPlaying() || video.getState() == PlaybackState.PAUSED;
+    }
 
-        // Render the video texture
-        drawContext.blit(
-                videoRenderer.getTexture(),
-                x, y,
-                0, 0,
-                width, height,
-                width, height
-        );
+    public enum RenderMode {
+        /** A fill and a blit per placement. */
+        IMMEDIATE,
+        /** All placements in as few draw calls as possible, see {@link VideoBatch}. */
+        BATCHED
     }
-}
\ No newline at end of file
+}
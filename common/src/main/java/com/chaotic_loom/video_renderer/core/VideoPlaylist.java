@@ -0,0 +1,179 @@
+package com.chaotic_loom.video_renderer.core;
+
+import com.chaotic_loom.video_renderer.Constants;
+import net.minecraft.resources.ResourceLocation;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+
+/**
+ * Plays several videos back to back (intro, logo, cutscene...).
+ * While an item plays, the next one is loaded, gets its buffers and decodes its first frame in the background.
+ * When the current item ends, the next one takes over in the same render frame, reusing the texture if the size matches.
+ * <p>
+ * Start it with {@link VideoPlayerController#playPlaylist(VideoPlaylist)}.
+ */
+public class VideoPlaylist {
+    private final Queue<Function<Executor, CompletableFuture<VideoRenderer>>> pending = new ConcurrentLinkedQueue<>();
+    private volatile boolean stopped = false;
+
+    // Only touched on the render thread
+    private VideoRenderer current;
+    private CompletableFuture<VideoRenderer> nextLoading;
+    private VideoRenderer next;
+    private CompletableFuture<Void> nextPrimed;
+    private boolean finished = false;
+
+    public VideoPlaylist add(String absolutePath) {
+        pending.add(executor -> VideoRenderer.loadAsync(absolutePath, executor, LoadProgressListener.NONE));
+        return this;
+    }
+
+    public VideoPlaylist add(ResourceLocation location) {
+        pending.add(executor -> VideoRenderer.loadAsync(location, executor, LoadProgressListener.NONE));
+        return this;
+    }
+
+    /**
+     * Stops the current item and drops the rest. Can be called from any thread.
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    /**
+     * @return the item on screen, null between items or when the playlist is over.
+     */
+    public VideoRenderer getCurrent() {
+        return current;
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * Called by the controller on the render thread, once per frame.
+     */
+    protected void tick(Executor loaderExecutor) {
+        if (finished) return;
+
+        if (stopped) {
+            tickStopped();
+            return;
+        }
+
+        // Closed without finishing (stopped from outside or failed to start)
+        if (current != null && current.getState() == PlaybackState.CLOSED) {
+            current = null;
+        }
+
+        // Pre-roll: load the next item as soon as the slot is free
+        if (next == null && nextLoading == null) {
+            Function<Executor, CompletableFuture<VideoRenderer>> item = pending.poll();
+            if (item != null) {
+                nextLoading = item.apply(loaderExecutor);
+            }
+        }
+
+        if (nextLoading != null && nextLoading.isDone()) {
+            VideoRenderer loaded = nextLoading.exceptionally(throwable -> null).join();
+            nextLoading = null;
+
+            if (loaded == null) {
+                Constants.LOG.error("Skipping playlist item that failed to load");
+            } else {
+                prepare(loaded, loaderExecutor);
+            }
+        }
+
+        // Nothing on screen: first item, or the previous one ended before this one was ready
+        if (current == null && isNextReady()) {
+            handOver();
+        }
+
+        if (current == null && next == null && nextLoading == null && pending.isEmpty()) {
+            finished = true;
+        }
+    }
+
+    private void prepare(VideoRenderer video, Executor loaderExecutor) {
+        video.initializeTexture(current);
+        if (!video.isInitialized()) {
+            Constants.LOG.error("Skipping playlist item that failed to initialize: {}", video);
+            discard(video);
+            return;
+        }
+
+        next = video;
+        nextPrimed = video.primeFirstFrame(loaderExecutor);
+    }
+
+    private boolean isNextReady() {
+        return next != null && nextPrimed.isDone();
+    }
+
+    /**
+     * Called by the controller on the render thread when any video finishes, before it is closed.
+     */
+    protected void onVideoFinished(VideoRenderer video) {
+        if (video != current || stopped) return;
+
+        if (isNextReady()) {
+            handOver();
+        } else {
+            if (next != null || nextLoading != null) {
+                Constants.LOG.warn("Next playlist item is not ready yet, there will be a gap after {}", video);
+            }
+            current = null;
+        }
+    }
+
+    private void handOver() {
+        VideoRenderer previous = current;
+
+        current = next;
+        next = null;
+        nextPrimed = null;
+
+        current.adoptTexture(previous);
+        VideoPlayerController.register(current);
+        current.play();
+    }
+
+    private void tickStopped() {
+        if (current != null) {
+            VideoPlayerController.stopVideo(current);
+            current = null;
+        }
+
+        // Never close an item while its first frame is being decoded
+        if (next != null && nextPrimed.isDone()) {
+            discard(next);
+            next = null;
+            nextPrimed = null;
+        }
+
+        if (nextLoading != null && nextLoading.isDone()) {
+            VideoRenderer loaded = nextLoading.exceptionally(throwable -> null).join();
+            if (loaded != null) {
+                discard(loaded);
+            }
+            nextLoading = null;
+        }
+
+        pending.clear();
+        finished = next == null && nextLoading == null;
+    }
+
+    /**
+     * Releases an item that never reached the controller.
+     */
+    private static void discard(VideoRenderer video) {
+        video.close();
+        video.processCommands();
+    }
+}
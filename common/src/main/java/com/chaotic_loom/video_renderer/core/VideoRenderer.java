@@ -3,21 +3,28 @@ package com.chaotic_loom.video_renderer.core;
 import com.chaotic_loom.video_renderer.Constants;
 import com.chaotic_loom.video_renderer.events.core.VideoEvents;
 import com.mojang.blaze3d.platform.NativeImage;
+import com.mojang.blaze3d.systems.RenderSystem;
 import net.minecraft.client.Minecraft;
+import net.minecraft.client.gui.GuiGraphics;
 import net.minecraft.client.renderer.texture.DynamicTexture;
 import net.minecraft.resources.ResourceLocation;
 import net.minecraft.server.packs.resources.Resource;
-import org.bytedeco.ffmpeg.global.avutil;
-import org.bytedeco.javacv.FFmpegFrameGrabber;
-import org.bytedeco.javacv.Frame;
-import org.lwjgl.system.MemoryUtil;
+import net.minecraft.world.phys.Vec3;
 
+import java.io.IOException;
 import java.io.InputStream;
-import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
 import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.LockSupport;
@@ -25,16 +32,35 @@ import java.util.concurrent.locks.LockSupport;
 /**
  * Video renderer that decodes frames on a background thread and uploads them as a DynamicTexture.
  * Can load videos from absolute path or with ResourceLocations.
- * Uses FFMPEG.
+ * Frames come from a {@link VideoSource} picked by {@link VideoSources}: FFMPEG by default, Java decoders for GIF, APNG
+ * and MJPEG, or a pre-baked {@link VrfFormat} file when a pack ships one next to the video (videos/intro.mp4 -> videos/intro.vrf).
+ * <p>
+ * Every state change is queued as a command and applied on the render thread by {@link #processCommands()},
+ * so the decoder thread never stops, closes or joins itself.
  */
 public class VideoRenderer {
-    private FFmpegFrameGrabber grabber;
+    private VideoSource source;
     private DynamicTexture texture;
     private ResourceLocation textureIdentifier;
 
-    private final AtomicBoolean playing = new AtomicBoolean(false);
+    // Lifecycle, only written on the render thread
+    private volatile PlaybackState state = PlaybackState.LOADING;
+    private final Queue<Command> commands = new ConcurrentLinkedQueue<>();
+    private boolean closeDeferred = false;
+    private boolean resizeDeferred = false;
+    // Waiting for a decoder thread that did not stop in time, it may still use the source and the buffers
+    private boolean playDeferred = false;
+    private boolean rewindDeferred = false;
+
+    private final AtomicBoolean decoding = new AtomicBoolean(false); // Keeps the decoder thread alive
     private final AtomicBoolean initialized = new AtomicBoolean(false);
-    private boolean loop = false;
+    private volatile boolean loop = false;
+
+    // Playback speed
+    public static final double MIN_PLAYBACK_RATE = 0.25;
+    public static final double MAX_PLAYBACK_RATE = 8.0;
+    private volatile double playbackRate = 1.0;
+    private boolean audioMutedByRate = false; // Render thread only
 
     private int videoWidth;
     private int videoHeight;
@@ -44,10 +70,13 @@ public class VideoRenderer {
     // Threading components
     private Thread decoderThread;
 
-    // Timing and synchronization
+    // Timing and synchronization.
+    // Set before the decoder thread starts and only touched by it afterwards (Thread.start() publishes them).
     private long baseTimeNanos = 0; // Base time for frame scheduling
-    private int framesDecoded = 0; // Frame counter
-    private volatile boolean needsCatchUp = false;
+    private int framesDecoded = 0; // Source frames (shown or skipped) since baseTimeNanos
+    private boolean needsCatchUp = false;
+    private volatile int streamFrame = 0; // Source frames since the start of the stream, for the playback position
+    private int primedFrames = 0; // Frames decoded ahead by primeFirstFrame(), published by its future
 
     private Path tempFile; // temporary file used when loading from a ResourceLocation
 
@@ -57,313 +86,1333 @@ public class VideoRenderer {
     private volatile NativeImage currentDecodeBuffer;
     private final AtomicReference<NativeImage> nextFrameImage = new AtomicReference<>();
 
+    // Optional block compressed output, null uploads plain RGBA
+    private BlockCompressor.Format compressedFormat;
+    private CompressedFrameOutput compressedOutput;
+
+    // Optional partial uploads of the tiles that changed
+    private boolean dirtyTileUploads = false;
+    private DirtyTileTracker dirtyTiles;
+    private final BitSet uploadTiles = new BitSet(); // Render thread only
+
+    // Upload scheduling, see UploadScheduler
+    private volatile long publishedFrames = 0; // Written by whoever publishes frames
+    private long uploadedFrames = 0; // Render thread only, value of publishedFrames at the last upload
+    private long pendingSinceNanos = 0; // When the render thread first saw the pending frame
+    private double uploadPriority = 0;
+    private long uploadCostNanos = 0;
+    private volatile float visibility = 1.0f;
+    private volatile AllocationTracker decoderAllocations; // Of the running or last decoder loop, null unless tracking
+
+    // Where the controller draws the video, empty means fullscreen
+    private volatile List<VideoPlacement> placements = List.of();
+    private volatile VideoAtlas atlas; // Null unless the video packs several clips
+
+    // Level of detail for world screens, see VideoScreenRenderer
+    public static final int MAX_FRAME_STEP = 4;
+    private static final long SUSPENDED_POLL_NANOS = 50_000_000L;
+    private static final long SEEK_BACKLOG_NANOS = 1_000_000_000L; // Shorter backlogs are skipped frame by frame
+    private static final long MIN_RESIZE_INTERVAL_NANOS = 1_000_000_000L; // Resizing restarts the decoder, keep it rare
+    private volatile boolean inWorld = false;
+    private volatile boolean decodeSuspended = false;
+    private volatile int frameStep = 1;
+    private int fullWidth; // Decode size before any level of detail downscale
+    private int fullHeight;
+    private int decodeScale = 1; // Render thread only
+    private int appliedDecodeScale = 1;
+    private long lastResizeNanos = 0;
+
+    // Other encodes of the same video, see RenditionManifest. Null for a single encode
+    private static final long RENDITION_CHECK_INTERVAL_NANOS = 2_000_000_000L;
+    private static final long RENDITION_UPGRADE_DELAY_NANOS = 30_000_000_000L; // After falling behind, before trying a bigger one
+    private RenditionManifest renditions;
+    private RenditionManifest.Rendition rendition;
+    private volatile int displayHeight = 0; // Tallest the video is on the monitor, in pixels
+    private volatile int lateFrames = 0; // Counted by the decoder thread, taken by the render thread
+    private long lastRenditionCheckNanos = 0; // Render thread only
+    private long fellBehindNanos = 0;
+    private CompletableFuture<OpenedRendition> pendingRendition;
+    private boolean seekOnStart = false; // The source was swapped, the decoder starts by seeking to streamFrame
+
     // Audio
     private AudioPlayer audioPlayer;
     private String videoFilePath;
 
+    private Exception loadError;
+
+    // Native memory budget
+    private static final int FRAME_BUFFER_COUNT = 3; // Both decode buffers and the texture image
+    private static final int MAX_DOWNSCALE = 4;
+
+    private static final List<VideoPlacement> FULLSCREEN_PLACEMENT = List.of(VideoPlacement.FULLSCREEN);
+    private long audioReservationBytes = 0;
+    private long sourceReservationBytes = 0; // Frame buffers at full size and the source itself
+
     public VideoRenderer(String filePath) {
-        loadResource(filePath);
-        initializeAudio(filePath);
+        this(filePath, LoadProgressListener.NONE);
+    }
+
+    /**
+     * Does all the I/O and decoding, the render thread only has to call {@link #initializeTexture()} afterwards.
+     * Safe to run on a background thread.
+     */
+    public VideoRenderer(String filePath, LoadProgressListener progressListener) {
+        this.videoFilePath = filePath;
+        loadSource(() -> {
+            if (StreamingVideoSource.isUrl(filePath)) return StreamingVideoSource.open(filePath, progressListener);
+            return VideoSources.open(Path.of(filePath));
+        }, progressListener);
+        initializeAudio(progressListener);
+        progressListener.onProgress(LoadProgressListener.Stage.DONE, 1.0f);
+        discardIfFailed();
     }
 
     public VideoRenderer(ResourceLocation resourceLocation) {
+        this(resourceLocation, LoadProgressListener.NONE);
+    }
+
+    /**
+     * Does all the I/O and decoding, the render thread only has to call {@link #initializeTexture()} afterwards.
+     * Safe to run on a background thread.
+     */
+    public VideoRenderer(ResourceLocation resourceLocation, LoadProgressListener progressListener) {
         try {
             Constants.LOG.info("Loading video resource: {}", resourceLocation);
+            this.videoFilePath = resourceLocation.toString();
 
-            // Obtain resource input stream from Minecraft's resource manager
             Minecraft client = Minecraft.getInstance();
-            Optional<Resource> resource = client.getResourceManager().getResource(resourceLocation);
-            if (resource.isEmpty()) {
-                Constants.LOG.error("Resource not found: {}", resourceLocation);
+
+            // A pre-baked version next to it starts without FFmpeg
+            Optional<Resource> prebaked = client.getResourceManager().getResource(prebakedLocation(resourceLocation));
+            if (prebaked.isPresent()) {
+                readAtlas(resourceLocation);
+
+                Constants.LOG.info("Using pre-baked video for: {}", resourceLocation);
+                loadSource(() -> {
+                    try (InputStream is = prebaked.get().open()) {
+                        return VrfVideoSource.read(is);
+                    }
+                }, progressListener);
+                initializeAudio(progressListener);
+
+                progressListener.onProgress(LoadProgressListener.Stage.DONE, 1.0f);
+                discardIfFailed();
                 return;
             }
 
-            // Copy resource to a temp file (FFmpeg handles file paths reliably)
-            try (InputStream is = resource.get().open()) {
-                tempFile = Files.createTempFile("clm_video_", ".mp4");
-                Files.copy(is, tempFile, StandardCopyOption.REPLACE_EXISTING);
+            // Clips packed in it, for placements of a region
+            readAtlas(resourceLocation);
+
+            // Several encodes of it, the cheapest one that covers the window
+            ResourceLocation location = resourceLocation;
+            readRenditions(resourceLocation);
+            if (renditions != null) {
+                rendition = renditions.select(client.getWindow().getHeight(), freeFrameBytes(), FRAME_BUFFER_COUNT);
+                location = rendition.location();
+                Constants.LOG.info("Using rendition {} ({}x{}) for: {}", location, rendition.width(), rendition.height(), resourceLocation);
             }
 
+            // Copy resource to a temp file (FFmpeg handles file paths reliably), keeping the extension for the providers
+            progressListener.onProgress(LoadProgressListener.Stage.COPYING_RESOURCE, 0.0f);
+            tempFile = copyToTempFile(location);
+            progressListener.onProgress(LoadProgressListener.Stage.COPYING_RESOURCE, 1.0f);
+
             this.videoFilePath = tempFile.toFile().getAbsolutePath();
-            loadResource(videoFilePath);
-            initializeAudio(videoFilePath);
+            loadSource(() -> VideoSources.open(tempFile), progressListener);
+            initializeAudio(progressListener);
         } catch (Exception e) {
             Constants.LOG.error("Failed to initialize video player from ResourceLocation: {}", resourceLocation, e);
+            loadError = e;
         }
+
+        progressListener.onProgress(LoadProgressListener.Stage.DONE, 1.0f);
+        discardIfFailed();
     }
 
     /**
-     * Called internally for constructors
-     * @param filePath The file path to load the video from.
+     * Plays an already opened source, the render thread only has to call {@link #initializeTexture()} afterwards.
+     */
+    private VideoRenderer(String name, VideoSource openedSource, LoadProgressListener progressListener) {
+        this.videoFilePath = name;
+        loadSource(() -> openedSource, progressListener);
+        initializeAudio(progressListener);
+        progressListener.onProgress(LoadProgressListener.Stage.DONE, 1.0f);
+        discardIfFailed();
+    }
+
+    /**
+     * Loads a short clip through the cache on the given executor: a hit does no I/O and no decoding,
+     * a miss converts the whole clip first. Clips too long for the cache are loaded normally.
+     */
+    public static CompletableFuture<VideoRenderer> loadClipAsync(ResourceLocation resourceLocation, ClipCache cache, Executor executor, LoadProgressListener progressListener) {
+        return CompletableFuture.supplyAsync(() -> {
+            VrfVideoSource cached = openCached(cache, resourceLocation.toString(), () -> Minecraft.getInstance().getResourceManager().open(resourceLocation));
+            return checkLoaded(cached != null
+                    ? new VideoRenderer(resourceLocation.toString(), cached, progressListener)
+                    : new VideoRenderer(resourceLocation, progressListener));
+        }, executor);
+    }
+
+    /**
+     * Same as {@link #loadClipAsync(ResourceLocation, ClipCache, Executor, LoadProgressListener)} for a file on disk.
      */
-    private void loadResource(String filePath) {
+    public static CompletableFuture<VideoRenderer> loadClipAsync(String filePath, ClipCache cache, Executor executor, LoadProgressListener progressListener) {
+        return CompletableFuture.supplyAsync(() -> {
+            VrfVideoSource cached = openCached(cache, filePath, () -> Files.newInputStream(Path.of(filePath)));
+            return checkLoaded(cached != null
+                    ? new VideoRenderer(filePath, cached, progressListener)
+                    : new VideoRenderer(filePath, progressListener));
+        }, executor);
+    }
+
+    private static VrfVideoSource openCached(ClipCache cache, String key, ClipCache.StreamOpener opener) {
         try {
-            Constants.LOG.info("Loading video from: {}", filePath);
-            grabber = new FFmpegFrameGrabber(filePath);
-            grabber.setPixelFormat(avutil.AV_PIX_FMT_RGBA);
-            grabber.start();
+            NativeLibraries.awaitReady();
+            return cache.open(key, opener);
+        } catch (Exception e) {
+            Constants.LOG.warn("Failed to cache clip {}, loading it normally", key, e);
+            return null;
+        }
+    }
+
+    /**
+     * Loads a video on the given executor.
+     * The future completes with a video that only needs its GL work (texture and audio source) on the render thread,
+     * or exceptionally if the video could not be opened.
+     */
+    public static CompletableFuture<VideoRenderer> loadAsync(String filePath, Executor executor, LoadProgressListener progressListener) {
+        return CompletableFuture.supplyAsync(() -> checkLoaded(new VideoRenderer(filePath, progressListener)), executor);
+    }
+
+    /**
+     * Loads a video on the given executor.
+     * The future completes with a video that only needs its GL work (texture and audio source) on the render thread,
+     * or exceptionally if the video could not be opened.
+     */
+    public static CompletableFuture<VideoRenderer> loadAsync(ResourceLocation resourceLocation, Executor executor, LoadProgressListener progressListener) {
+        return CompletableFuture.supplyAsync(() -> checkLoaded(new VideoRenderer(resourceLocation, progressListener)), executor);
+    }
+
+    /**
+     * videos/intro.mp4 -> videos/intro.vrf
+     */
+    private static ResourceLocation prebakedLocation(ResourceLocation location) {
+        return location.withPath(path -> {
+            int dot = path.lastIndexOf('.');
+            return (dot > path.lastIndexOf('/') ? path.substring(0, dot) : path) + VrfFormat.EXTENSION;
+        });
+    }
+
+    private void readAtlas(ResourceLocation resourceLocation) {
+        ResourceLocation atlasLocation = VideoAtlas.locationFor(resourceLocation);
+        Optional<Resource> definition = Minecraft.getInstance().getResourceManager().getResource(atlasLocation);
+        if (definition.isEmpty()) return;
+
+        try (InputStream is = definition.get().open()) {
+            atlas = VideoAtlas.read(atlasLocation, is);
+        } catch (IOException e) {
+            Constants.LOG.warn("Ignoring atlas of {}", resourceLocation, e);
+        }
+    }
+
+    private void readRenditions(ResourceLocation resourceLocation) {
+        ResourceLocation manifestLocation = RenditionManifest.locationFor(resourceLocation);
+        Optional<Resource> manifest = Minecraft.getInstance().getResourceManager().getResource(manifestLocation);
+        if (manifest.isEmpty()) return;
+
+        try (InputStream is = manifest.get().open()) {
+            renditions = RenditionManifest.read(manifestLocation, is);
+        } catch (IOException e) {
+            Constants.LOG.warn("Ignoring rendition manifest of {}", resourceLocation, e);
+        }
+    }
+
+    /**
+     * Copies a resource to a temp file (FFmpeg handles file paths reliably), keeping the extension for the providers.
+     */
+    private Path copyToTempFile(ResourceLocation location) throws IOException {
+        Optional<Resource> resource = Minecraft.getInstance().getResourceManager().getResource(location);
+        if (resource.isEmpty()) {
+            throw new IOException("Resource not found: " + location);
+        }
+
+        Path file = Files.createTempFile("clm_video_", extensionOf(location.getPath()));
+        NativeResourceTracker.track(this, NativeResourceTracker.Kind.TEMP_FILE, file, 0);
+        try (InputStream is = resource.get().open()) {
+            Files.copy(is, file, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            deleteTempFile(file);
+            throw e;
+        }
+        return file;
+    }
+
+    /**
+     * Memory frame buffers could take right now, idle pooled frames count as free.
+     */
+    private static long freeFrameBytes() {
+        NativeMemoryBudget budget = VideoPlayerController.getMemoryBudget();
+        return budget.getLimitBytes() - budget.getUsedBytes() + VideoPlayerController.getFramePool().getPooledBytes();
+    }
+
+    private static String extensionOf(String path) {
+        int dot = path.lastIndexOf('.');
+        return dot > path.lastIndexOf('/') ? path.substring(dot) : ".mp4";
+    }
+
+    private static VideoRenderer checkLoaded(VideoRenderer video) {
+        if (video.source == null) {
+            // Nothing on the GPU yet, so it is safe to release from this thread
+            video.releaseResources();
+            throw new CompletionException(new IOException("Failed to load video: " + video, video.loadError));
+        }
+
+        return video;
+    }
 
-            videoWidth = grabber.getImageWidth();
-            videoHeight = grabber.getImageHeight();
+    /**
+     * A video that could not be opened is closed on the next render frame, so the controller drops it.
+     */
+    private void discardIfFailed() {
+        if (source == null) {
+            commands.add(Command.CLOSE);
+        }
+    }
+
+    /**
+     * Called internally for constructors
+     * @param opener Opens the source, this is where the container is probed.
+     */
+    private void loadSource(SourceOpener opener, LoadProgressListener progressListener) {
+        try {
+            Constants.LOG.info("Loading video from: {}", videoFilePath);
+            progressListener.onProgress(LoadProgressListener.Stage.PROBING, 0.0f);
+            source = opener.open();
+            try {
+                reserveNativeMemory();
+            } catch (Exception e) {
+                VideoSource failed = source;
+                source = null;
+                failed.close();
+                throw e;
+            }
 
-            double frameRate = Math.max(grabber.getFrameRate(), 1.0); // Ensure positive frame rate
+            double frameRate = Math.max(source.getFrameRate(), 1.0); // Ensure positive frame rate
             frameTime = 1.0 / frameRate;
             frameTimeNanos = (long) (frameTime * 1_000_000_000.0);
 
+            progressListener.onProgress(LoadProgressListener.Stage.PROBING, 1.0f);
             Constants.LOG.info("Video loaded: {}x{}, FPS: {}, Frame time: {}s", videoWidth, videoHeight, frameRate, frameTime);
         } catch (Exception e) {
-            Constants.LOG.error("Failed to initialize video player from path: {}", filePath, e);
+            Constants.LOG.error("Failed to initialize video player from path: {}", videoFilePath, e);
+            loadError = e;
+        }
+    }
+
+    /**
+     * Reserves the frame buffers and the PCM in the global budget before anything is allocated.
+     * Halves the decode resolution until the video fits, and refuses it if it still does not (or the source can not scale).
+     */
+    private void reserveNativeMemory() {
+        NativeMemoryBudget budget = VideoPlayerController.getMemoryBudget();
+
+        int sourceWidth = source.getWidth();
+        int sourceHeight = source.getHeight();
+
+        // The PCM exists twice while it is decoded (decoder output and our copy), once it is handed to OpenAL
+        audioReservationBytes = source.estimateAudioBytes();
+        long audioBytes = audioReservationBytes * 2;
+
+        int scale = 1;
+        boolean trimmed = false;
+        while (!budget.tryReserve(this, frameBufferBytes(source.getWidth(), source.getHeight()) + source.getNativeBytes() + audioBytes)) {
+            // Idle pooled frames go before any downscale
+            if (!trimmed) {
+                trimmed = true;
+                if (VideoPlayerController.getFramePool().trim() > 0) continue;
+            }
+            scale *= 2;
+            if (scale > MAX_DOWNSCALE || !source.setOutputSize(Math.max(1, sourceWidth / scale), Math.max(1, sourceHeight / scale))) {
+                throw new NativeMemoryBudget.BudgetExceededException(String.format(
+                        "Video %s (%dx%d) does not fit in the native memory budget: %d of %d bytes in use",
+                        videoFilePath, sourceWidth, sourceHeight, budget.getUsedBytes(), budget.getLimitBytes()
+                ));
+            }
+        }
+
+        videoWidth = source.getWidth();
+        videoHeight = source.getHeight();
+        fullWidth = videoWidth;
+        fullHeight = videoHeight;
+        sourceReservationBytes = frameBufferBytes(videoWidth, videoHeight) + source.getNativeBytes();
+
+        if (scale > 1) {
+            Constants.LOG.warn("Native memory budget is tight, decoding {} at {}x{} instead of {}x{}", videoFilePath, videoWidth, videoHeight, sourceWidth, sourceHeight);
         }
     }
 
+    private static long frameBufferBytes(int width, int height) {
+        return (long) FRAME_BUFFER_COUNT * Math.max(1, width) * Math.max(1, height) * 4L;
+    }
+
     /**
      * Must be called on the render thread before calling play().
      */
     protected void initializeTexture() {
-        if (initialized.get() || grabber == null) return;
+        initializeTexture(null);
+    }
+
+    /**
+     * Must be called on the render thread before calling play().
+     * @param textureDonor A video that plays right before this one. If its texture has the same size, no texture is
+     *                     allocated here, it is taken over with {@link #adoptTexture(VideoRenderer)} when the donor ends.
+     */
+    protected void initializeTexture(VideoRenderer textureDonor) {
+        if (initialized.get() || source == null || state != PlaybackState.LOADING) return;
 
         try {
-            Minecraft client = Minecraft.getInstance();
+            // Decode buffers, left over by a closed video of the same size if possible
+            FramePool pool = VideoPlayerController.getFramePool();
+            bufferA = trackImage(pool.takeImage(videoWidth, videoHeight));
+            bufferB = trackImage(pool.takeImage(videoWidth, videoHeight));
+            currentDecodeBuffer = bufferA;
 
-            // Initialize texture
-            NativeImage nativeImage = new NativeImage(videoWidth, videoHeight, true);
-            texture = new DynamicTexture(nativeImage);
-            textureIdentifier = client.getTextureManager().register("video_frame", texture);
+            if (!canAdoptTexture(textureDonor)) {
+                initializeOutputTexture();
+            }
 
-            // Pre-allocate decode buffers
-            bufferA = new NativeImage(videoWidth, videoHeight, true);
-            bufferB = new NativeImage(videoWidth, videoHeight, true);
-            currentDecodeBuffer = bufferA;
+            if (dirtyTileUploads) {
+                if (compressedOutput == null) {
+                    dirtyTiles = new DirtyTileTracker(videoWidth, videoHeight);
+                } else {
+                    Constants.LOG.warn("Dirty tile uploads are not supported with compressed output, ignoring for {}", this);
+                }
+            }
+
+            // OpenAL source and buffer
+            if (audioPlayer != null) {
+                audioPlayer.upload();
+            }
 
             initialized.set(true);
+            transition(PlaybackState.READY);
             Constants.LOG.info("Video texture initialized: {}", textureIdentifier);
         } catch (Exception e) {
             Constants.LOG.error("Failed to initialize video texture", e);
         }
     }
 
+    /**
+     * Creates the texture the frames are uploaded to. Must be called on the render thread.
+     */
+    protected void initializeOutputTexture() {
+        if (useCompressedOutput()) {
+            compressedOutput = new CompressedFrameOutput(this, compressedFormat, bufferA, bufferB);
+            textureIdentifier = compressedOutput.getTexture();
+        } else {
+            textureIdentifier = VideoPlayerController.getFramePool().takeTexture(videoWidth, videoHeight);
+            texture = (DynamicTexture) Minecraft.getInstance().getTextureManager().getTexture(textureIdentifier);
+            trackImage(texture.getPixels());
+        }
+    }
+
+    private boolean canAdoptTexture(VideoRenderer donor) {
+        return donor != null && donor.texture != null && compressedFormat == null
+                && donor.videoWidth == videoWidth && donor.videoHeight == videoHeight;
+    }
+
+    /**
+     * Takes over the texture of a video that just ended, so the hand-over shows its last frame instead of a black one.
+     * Allocates a texture instead if the donor has none of the same size. Must be called on the render thread.
+     */
+    protected void adoptTexture(VideoRenderer donor) {
+        if (!initialized.get() || texture != null || compressedOutput != null) return;
+
+        if (canAdoptTexture(donor)) {
+            texture = donor.texture;
+            textureIdentifier = donor.textureIdentifier;
+            donor.texture = null;
+            donor.textureIdentifier = null;
+
+            NativeResourceTracker.untrack(NativeResourceTracker.Kind.NATIVE_IMAGE, texture.getPixels());
+            trackImage(texture.getPixels());
+
+            // It still shows the last frame of the donor
+            if (dirtyTiles != null) {
+                dirtyTiles.invalidate();
+            }
+            Constants.LOG.debug("Reusing texture {} of {} for {}", textureIdentifier, donor, this);
+        } else {
+            initializeOutputTexture();
+        }
+    }
+
+    /**
+     * Decodes the first frame ahead of play(), so it can be shown in the very frame playback starts.
+     * Must be called once after the texture is initialized and before play(), which must wait for the future.
+     */
+    protected CompletableFuture<Void> primeFirstFrame(Executor executor) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                if (source.readFrame(bufferA)) {
+                    if (compressedOutput != null) {
+                        compressedOutput.encode(bufferA);
+                    }
+                    nextFrameImage.set(bufferA);
+                    publishedFrames++;
+                    currentDecodeBuffer = bufferB;
+                    primedFrames = 1;
+                    streamFrame = 1;
+                }
+            } catch (Exception e) {
+                Constants.LOG.error("Failed to decode the first frame of {}", this, e);
+            }
+        }, executor);
+    }
+
+    /**
+     * Swaps the reservation of the RGBA texture image for the compressed buffers.
+     * Falls back to RGBA when the GPU has no S3TC support or the blocks do not fit in the budget.
+     */
+    private boolean useCompressedOutput() {
+        if (compressedFormat == null) return false;
+
+        if (!CompressedVideoTexture.isSupported()) {
+            Constants.LOG.warn("S3TC texture compression is not supported, uploading {} as RGBA", videoFilePath);
+            return false;
+        }
+
+        NativeMemoryBudget budget = VideoPlayerController.getMemoryBudget();
+        if (!budget.tryReserve(this, CompressedFrameOutput.nativeBytes(compressedFormat, videoWidth, videoHeight))) {
+            Constants.LOG.warn("Compressed frame buffers do not fit in the native memory budget, uploading {} as RGBA", videoFilePath);
+            return false;
+        }
+
+        budget.release(this, (long) videoWidth * videoHeight * 4L);
+        return true;
+    }
+
     /**
      * Initialize audio player for the video
      */
-    private void initializeAudio(String filePath) {
+    private void initializeAudio(LoadProgressListener progressListener) {
+        if (source == null) return;
+
         try {
-            audioPlayer = new AudioPlayer(filePath);
+            audioPlayer = source.openAudio(progressListener);
+            if (audioPlayer == null) {
+                VideoPlayerController.getMemoryBudget().release(this, audioReservationBytes * 2);
+                return;
+            }
             Constants.LOG.info("Audio player initialized for video");
+
+            // The decoder's copy of the PCM is gone
+            VideoPlayerController.getMemoryBudget().release(this, audioReservationBytes);
         } catch (Exception e) {
             Constants.LOG.error("Failed to initialize audio player", e);
             audioPlayer = null;
+            VideoPlayerController.getMemoryBudget().release(this, audioReservationBytes * 2);
         }
     }
 
+    /**
+     * Starts or resumes playback. Can be called from any thread, it is applied on the next render frame.
+     */
     public void play() {
+        commands.add(Command.PLAY);
+    }
+
+    /**
+     * Pauses playback. Can be called from any thread, it is applied on the next render frame.
+     */
+    public void pause() {
+        commands.add(Command.PAUSE);
+    }
+
+    /**
+     * Stops playback and rewinds. Can be called from any thread, it is applied on the next render frame.
+     */
+    public void stop() {
+        commands.add(Command.STOP);
+    }
+
+    /**
+     * Applies every queued command. Called by the controller on the render thread, once per frame.
+     */
+    protected void processCommands() {
+        RenderSystem.assertOnRenderThread();
+
+        if (closeDeferred) {
+            closeDeferred = false;
+            commands.add(Command.CLOSE);
+        }
+        if (resizeDeferred) {
+            resizeDeferred = false;
+            commands.add(Command.RESIZE);
+        }
+        if (rewindDeferred && joinDecoderThread()) {
+            rewindDeferred = false;
+            rewind();
+        }
+        if (playDeferred) {
+            playDeferred = false;
+            commands.add(Command.PLAY);
+        }
+
+        Command command;
+        while ((command = commands.poll()) != null) {
+            switch (command) {
+                case PLAY -> applyPlay();
+                case PAUSE -> applyPause();
+                case STOP -> applyStop();
+                case END -> applyEnd();
+                case RESTART_AUDIO -> applyRestartAudio();
+                case RATE -> applyRate();
+                case RESIZE -> applyResize();
+                case CLOSE -> applyClose();
+            }
+        }
+
+        updateRendition();
+    }
+
+    private boolean transition(PlaybackState next) {
+        if (!state.canTransitionTo(next)) {
+            Constants.LOG.debug("Ignoring transition {} -> {} for {}", state, next, this);
+            return false;
+        }
+
+        state = next;
+        return true;
+    }
+
+    private void applyPlay() {
         if (!initialized.get()) {
             Constants.LOG.error("Texture not initialized! Call initializeTexture() on render thread first.");
             return;
         }
-        if (playing.get() && decoderThread != null && decoderThread.isAlive()) {
-            return; // already playing
+
+        if (!state.canTransitionTo(PlaybackState.PLAYING)) return;
+        if (!joinDecoderThread()) {
+            // The previous decoder still owns the source, a second one must not start next to it
+            playDeferred = true;
+            return;
+        }
+        if (rewindDeferred) {
+            rewindDeferred = false;
+            rewind();
+        }
+
+        PlaybackState previous = state;
+        transition(PlaybackState.PLAYING);
+
+        if (previous == PlaybackState.ENDED) {
+            rewind();
+        }
+
+        // Waiting for a donor that never ended
+        if (texture == null && compressedOutput == null) {
+            initializeOutputTexture();
         }
 
-        playing.set(true);
+        decoding.set(true);
         baseTimeNanos = System.nanoTime();
-        framesDecoded = 0;
+        framesDecoded = primedFrames; // The primed frame is already on its way to the screen
+        primedFrames = 0;
         needsCatchUp = false;
 
         // Audio
         if (audioPlayer != null) {
-            audioPlayer.play();
+            if (previous == PlaybackState.ENDED) {
+                audioPlayer.stop();
+            }
+            if (!audioMutedByRate) {
+                audioPlayer.play();
+            }
+        }
+
+        startDecoderThread();
+        if (decodeScale != appliedDecodeScale) {
+            commands.add(Command.RESIZE);
         }
 
+        Constants.LOG.info("Video playback started");
+    }
+
+    private void startDecoderThread() {
         decoderThread = new Thread(this::decoderLoop, "Video-Decoder-Thread");
         decoderThread.setDaemon(true);
         decoderThread.start();
+    }
 
-        Constants.LOG.info("Video playback started");
+    private void applyPause() {
+        if (!transition(PlaybackState.PAUSED)) return;
+
+        decoding.set(false);
+
+        // Audio
+        if (audioPlayer != null) {
+            audioPlayer.pause();
+        }
+
+        joinDecoderThread();
     }
 
-    public void pause() {
-        playing.set(false);
+    private void applyStop() {
+        if (!transition(PlaybackState.READY)) return;
+
+        decoding.set(false);
 
         // Audio
         if (audioPlayer != null) {
+            audioPlayer.stop();
+        }
+
+        if (joinDecoderThread()) {
+            rewind();
+        } else {
+            // The decoder still reads the source, rewind it once it is gone
+            rewindDeferred = true;
+        }
+    }
+
+    /**
+     * Posted by the decoder thread when the stream ran out (or failed) and looping is off.
+     */
+    private void applyEnd() {
+        if (!transition(PlaybackState.ENDED)) return;
+
+        decoding.set(false);
+
+        if (audioPlayer != null) {
+            audioPlayer.stop();
+        }
+
+        joinDecoderThread();
+
+        VideoEvents.FINISHED.invoker().invoke(this);
+    }
+
+    /**
+     * Posted by the decoder thread after it rewound the stream to loop.
+     */
+    private void applyRestartAudio() {
+        if (state != PlaybackState.PLAYING || audioPlayer == null) return;
+
+        audioPlayer.stop();
+        if (!audioMutedByRate) {
+            audioPlayer.play();
+        }
+    }
+
+    /**
+     * Follows the playback rate with the audio: it only plays at 1x and is muted at any other rate.
+     * Resampling would change its pitch, and there is no time-stretching.
+     */
+    private void applyRate() {
+        if (audioPlayer == null) return;
+
+        if (playbackRate == 1.0) {
+            boolean wasMuted = audioMutedByRate;
+            audioMutedByRate = false;
+            if (state == PlaybackState.PLAYING) {
+                // Catch up with the video, it kept going while the audio was muted
+                audioPlayer.setOffsetSeconds((float) getPositionSeconds());
+                if (wasMuted) {
+                    audioPlayer.play();
+                }
+            }
+        } else if (!audioMutedByRate) {
+            audioMutedByRate = true;
             audioPlayer.pause();
         }
-
-        joinDecoderThread();
     }
 
-    public void stop() {
-        playing.set(false);
-
-        // Audio
-        if (audioPlayer != null) {
-            audioPlayer.stop();
-            //audioPlayer.cleanup();
-            //audioPlayer = null;
+    /**
+     * Changes the decode resolution to the level of detail picked by {@link #setDecodeScale(int)}.
+     * The decoder is restarted on new buffers, the playback position and the clock are kept.
+     */
+    private void applyResize() {
+        int scale = decodeScale;
+        if (scale == appliedDecodeScale || !initialized.get() || source == null || compressedOutput != null || texture == null) return;
+        if (state != PlaybackState.PLAYING) return; // A paused video keeps its frame, applyPlay() resizes it
+
+        decoding.set(false);
+        if (!joinDecoderThread()) {
+            // The decoder still owns the buffers, try again next frame
+            resizeDeferred = true;
+            return;
+        }
+
+        int width = Math.max(1, fullWidth / scale);
+        int height = Math.max(1, fullHeight / scale);
+        if (source.setOutputSize(width, height)) {
+            // Levels switch back and forth, so the old size goes to the pool. The reservation stays the one made for
+            // the full size, so going back up always fits
+            long pooled = replaceFrameBuffers(width, height);
+            NativeMemoryBudget budget = VideoPlayerController.getMemoryBudget();
+            if (!budget.tryReserve(this, pooled) && (VideoPlayerController.getFramePool().trim() == 0 || !budget.tryReserve(this, pooled))) {
+                Constants.LOG.warn("Native memory budget is full, {} is decoding at {}x{} without a reservation", this, width, height);
+            }
+            Constants.LOG.debug("Decoding {} at {}x{} (1/{})", this, width, height, scale);
+        } else {
+            Constants.LOG.debug("Source of {} can not change its size, keeping {}x{}", this, videoWidth, videoHeight);
+        }
+        appliedDecodeScale = scale;
+        lastResizeNanos = System.nanoTime();
+
+        decoding.set(true);
+        startDecoderThread();
+    }
+
+    /**
+     * Moves the decode buffers and the texture to the pool and takes ones of the new size. The decoder must be stopped.
+     * @return the part of the reservation that went to the pool with the old buffers, the caller decides what to
+     * reserve for the new ones.
+     */
+    private long replaceFrameBuffers(int width, int height) {
+        NativeMemoryBudget budget = VideoPlayerController.getMemoryBudget();
+        FramePool pool = VideoPlayerController.getFramePool();
+        long reserved = budget.getReservedBytes(this);
+
+        nextFrameImage.set(null);
+        bufferA = recycleImage(bufferA);
+        bufferB = recycleImage(bufferB);
+        if (texture != null) {
+            recycleTexture();
+        }
+        long pooled = reserved - budget.getReservedBytes(this);
+
+        bufferA = trackImage(pool.takeImage(width, height));
+        bufferB = trackImage(pool.takeImage(width, height));
+        currentDecodeBuffer = bufferA;
+
+        videoWidth = width;
+        videoHeight = height;
+        initializeOutputTexture();
+
+        if (dirtyTiles != null) {
+            dirtyTiles = new DirtyTileTracker(width, height);
+        }
+        return pooled;
+    }
+
+    /**
+     * Picks the rendition for how the video is shown now, at most every couple of seconds. A cheaper one when the
+     * decoder keeps falling behind, otherwise the cheapest that covers the video on the monitor. The new one is
+     * opened in the background and swapped in by {@link #applyRenditionSwitch(OpenedRendition)} once ready.
+     */
+    private void updateRendition() {
+        if (renditions == null || state != PlaybackState.PLAYING || compressedOutput != null) return;
+
+        if (pendingRendition != null) {
+            if (pendingRendition.isDone()) {
+                OpenedRendition opened = pendingRendition.getNow(null);
+                pendingRendition = null;
+                if (opened != null) {
+                    applyRenditionSwitch(opened);
+                }
+            }
+            return;
+        }
+
+        long now = System.nanoTime();
+        if (now - lastRenditionCheckNanos < RENDITION_CHECK_INTERVAL_NANOS) return;
+        lastRenditionCheckNanos = now;
+
+        int late = lateFrames;
+        lateFrames = 0;
+        RenditionManifest.Rendition target;
+        if (late > RENDITION_CHECK_INTERVAL_NANOS / frameTimeNanos / 4) {
+            // Late on a quarter of the frames, this one is too much for the machine
+            target = renditions.below(rendition);
+            fellBehindNanos = now;
+            if (target != null) {
+                Constants.LOG.info("Decoder of {} is falling behind, switching to {}x{}", this, target.width(), target.height());
+            }
+        } else {
+            int height = displayHeight;
+            if (height <= 0) return; // Not drawn, keep what it has
+
+            target = renditions.select(height, freeFrameBytes() + sourceReservationBytes, FRAME_BUFFER_COUNT);
+            if (target.height() > rendition.height() && now - fellBehindNanos < RENDITION_UPGRADE_DELAY_NANOS) return;
+        }
+        if (target == null || target == rendition) return;
+
+        double frameRate = source.getFrameRate();
+        pendingRendition = CompletableFuture.supplyAsync(() -> openRendition(target, frameRate), VideoPlayerController.getLoaderExecutor());
+    }
+
+    /**
+     * Copies, opens and reserves the rendition. Runs on a loader thread.
+     * @return null if it could not be opened or does not fit, playback goes on with the current one.
+     */
+    private OpenedRendition openRendition(RenditionManifest.Rendition target, double frameRate) {
+        Path file = null;
+        VideoSource opened = null;
+        try {
+            file = copyToTempFile(target.location());
+            opened = VideoSources.open(file);
+            if (Math.abs(opened.getFrameRate() - frameRate) > 0.01) {
+                throw new IOException("Frame rate " + opened.getFrameRate() + " does not match " + frameRate);
+            }
+
+            NativeMemoryBudget budget = VideoPlayerController.getMemoryBudget();
+            long bytes = frameBufferBytes(opened.getWidth(), opened.getHeight()) + opened.getNativeBytes();
+            if (!budget.tryReserve(this, bytes) && (VideoPlayerController.getFramePool().trim() == 0 || !budget.tryReserve(this, bytes))) {
+                throw new NativeMemoryBudget.BudgetExceededException("Rendition does not fit in the native memory budget");
+            }
+            return new OpenedRendition(target, opened, file, bytes);
+        } catch (Exception e) {
+            Constants.LOG.warn("Failed to open rendition {} of {}", target.location(), this, e);
+            if (opened != null) {
+                opened.close();
+            }
+            deleteTempFile(file);
+            return null;
+        }
+    }
+
+    /**
+     * Swaps the source for another rendition. The decoder restarts on buffers of the new size and seeks to where the
+     * previous one was, from the keyframe before it. The clock and the audio keep going.
+     */
+    private void applyRenditionSwitch(OpenedRendition opened) {
+        decoding.set(false);
+        if (!joinDecoderThread()) {
+            // The decoder still owns the buffers, try again next frame
+            pendingRendition = CompletableFuture.completedFuture(opened);
+            return;
         }
 
-        joinDecoderThread();
+        VideoSource previous = source;
+        Path previousFile = tempFile;
+        source = opened.source();
+        tempFile = opened.tempFile();
+        videoFilePath = tempFile.toFile().getAbsolutePath();
+        rendition = opened.rendition();
+
+        fullWidth = source.getWidth();
+        fullHeight = source.getHeight();
+        decodeScale = 1;
+        appliedDecodeScale = 1;
+
+        // The old buffers went to the pool with their part of the reservation, the rest of the old source's goes now
+        long pooled = replaceFrameBuffers(fullWidth, fullHeight);
+        VideoPlayerController.getMemoryBudget().release(this, sourceReservationBytes - pooled);
+        sourceReservationBytes = opened.reservedBytes();
+
+        previous.close();
+        deleteTempFile(previousFile);
+
+        Constants.LOG.info("Switched {} to rendition {} ({}x{})", this, rendition.location(), fullWidth, fullHeight);
+        lastResizeNanos = System.nanoTime();
+        seekOnStart = true;
+        decoding.set(true);
+        startDecoderThread();
+    }
 
+    private void rewind() {
         try {
-            if (grabber != null) {
-                grabber.setVideoTimestamp(0);
+            if (source != null) {
+                source.rewind();
             }
             nextFrameImage.set(null);
+            primedFrames = 0;
+            streamFrame = 0;
         } catch (Exception e) {
-            Constants.LOG.error("Error while stopping video", e);
+            Constants.LOG.error("Error while rewinding video", e);
         }
     }
 
-    private void joinDecoderThread() {
-        if (decoderThread != null && decoderThread.isAlive()) {
+    /**
+     * Waits for the decoder thread to exit. Never called from the decoder thread itself.
+     * @return false if the thread is still alive, its buffers must not be freed yet.
+     */
+    private boolean joinDecoderThread() {
+        if (decoderThread == null) return true;
+
+        if (decoderThread.isAlive()) {
+            // Wakes it up if it waits for the next frame time
+            LockSupport.unpark(decoderThread);
             try {
                 decoderThread.join(1000);
                 if (decoderThread.isAlive()) {
                     Constants.LOG.warn("Decoder thread did not stop in time, interrupting.");
                     decoderThread.interrupt();
+                    return false;
                 }
             } catch (InterruptedException e) {
                 Constants.LOG.error("Interrupted while joining decoder thread", e);
                 Thread.currentThread().interrupt();
+                return false;
             }
-            decoderThread = null;
         }
+
+        decoderThread = null;
+        return true;
     }
 
     private void decoderLoop() {
         Constants.LOG.debug("Decoder thread started.");
 
+        // Frame in the other buffer, the one the next frame is diffed against
+        NativeImage publishedFrame = nextFrameImage.get();
+
+        double appliedRate = playbackRate;
+        source.setDeferredSkips(appliedRate > 1.0);
+        long lastOutputNanos = 0;
+        boolean resync = false;
+        AllocationTracker allocations = AllocationTracker.ENABLED ? new AllocationTracker("Decoder loop of " + this) : null;
+        decoderAllocations = allocations;
+
         try {
-            while (playing.get()) {
-                long targetTimeNanos = baseTimeNanos + (framesDecoded * frameTimeNanos);
+            // Swapped to another rendition: carry on from where the previous one was
+            if (seekOnStart) {
+                seekOnStart = false;
+                long landed = source.seek(streamFrame);
+                if (landed >= 0) {
+                    framesDecoded += (int) (landed - streamFrame);
+                    streamFrame = (int) landed;
+                } else if (source.skipFrames(streamFrame, currentDecodeBuffer) < 0) {
+                    handleVideoEnd(); // Stops the loop below unless it loops
+                }
+                resync = true;
+            }
+
+            while (decoding.get()) {
+                if (allocations != null) allocations.begin();
+
+                // Not seen by anyone (no screen in view, window minimized, covered by a GUI): decode nothing but keep the
+                // clock running, the skip below catches up afterwards. The audio is in OpenAL and keeps playing.
+                if (decodeSuspended || !VideoPlayerController.isOutputVisible()) {
+                    resync = true;
+                    LockSupport.parkNanos(Math.min(frameTimeNanos, SUSPENDED_POLL_NANOS));
+                    continue;
+                }
+
+                // A new rate keeps the current position and only changes the pace from now on
+                double rate = playbackRate;
+                if (rate != appliedRate) {
+                    baseTimeNanos = System.nanoTime() - (long) (framesDecoded * frameTimeNanos / rate);
+                    appliedRate = rate;
+
+                    // Fast-forwarding is silent, the frames shown may lag a little behind to decode far fewer of them
+                    boolean deferred = rate > 1.0;
+                    source.setDeferredSkips(deferred);
+                    if (!deferred) {
+                        source.skipFrames(0, currentDecodeBuffer); // Catch up before the sound comes back
+                    }
+                }
+
+                long targetTimeNanos = baseTimeNanos + (long) (framesDecoded * frameTimeNanos / rate);
+                if (rate > 1.0) {
+                    // Never show frames faster than the source frame rate, the ones in between are skipped below
+                    targetTimeNanos = Math.max(targetTimeNanos, lastOutputNanos + frameTimeNanos);
+                }
+
                 long currentTimeNanos = System.nanoTime();
                 long waitTimeNanos = targetTimeNanos - currentTimeNanos;
 
                 if (waitTimeNanos < -frameTimeNanos * 2) {
                     needsCatchUp = true;
+                    lateFrames++;
                 } else if (waitTimeNanos > 1000000) {
                     LockSupport.parkNanos(waitTimeNanos);
                 }
 
-                //Frame frame = grabber.grab();
-                // Only grab video frames
-                Frame frame = grabber.grabFrame(false, true, true, false);
-                if (frame == null) {
-                    handleVideoEnd();
+                // Skip what should already have been shown, without converting it (or decoding it at all past a keyframe)
+                if (rate > 1.0 || resync) {
+                    boolean resumed = resync;
+                    resync = false;
+                    long dueFrame = (long) ((System.nanoTime() - baseTimeNanos) * rate / frameTimeNanos);
+
+                    // Back from a long suspension: seek to the frame due now rather than working through the backlog
+                    long behind = dueFrame - framesDecoded;
+                    long landed = resumed && behind * frameTimeNanos > SEEK_BACKLOG_NANOS ? source.seek(streamFrame + behind) : -1;
+                    if (landed >= 0) {
+                        framesDecoded += (int) (landed - streamFrame);
+                        streamFrame = (int) landed;
+                    } else if (dueFrame > framesDecoded) {
+                        int skipped = source.skipFrames((int) Math.min(dueFrame - framesDecoded, Integer.MAX_VALUE), currentDecodeBuffer);
+                        if (skipped < 0) {
+                            if (!handleVideoEnd()) break;
+                            continue;
+                        }
+                        framesDecoded += skipped;
+                        streamFrame += skipped;
+                    }
+                }
+
+                // Decode directly into current buffer (no allocation)
+                if (!source.readFrame(currentDecodeBuffer)) {
+                    if (!handleVideoEnd()) break;
                     continue;
                 }
+                lastOutputNanos = System.nanoTime();
 
-                if (frame.image != null) {
-                    // Decode directly into current buffer (no allocation)
-                    convertFrameToNativeImage(frame, currentDecodeBuffer);
+                if (compressedOutput != null) {
+                    compressedOutput.encode(currentDecodeBuffer);
+                }
+                if (dirtyTiles != null) {
+                    dirtyTiles.diff(currentDecodeBuffer, publishedFrame);
+                }
 
-                    // Swap buffers.
-                    NativeImage previousFrame = nextFrameImage.getAndSet(currentDecodeBuffer);
+                // Swap buffers.
+                publishedFrame = currentDecodeBuffer;
+                NativeImage previousFrame = nextFrameImage.getAndSet(currentDecodeBuffer);
+                publishedFrames++;
+                if (dirtyTiles != null) {
+                    dirtyTiles.commit();
+                }
 
-                    // The buffer we just swapped out becomes our next decode target
-                    if (previousFrame != null) {
-                        currentDecodeBuffer = previousFrame;
-                    } else {
-                        // First frame: use the other buffer
-                        currentDecodeBuffer = (currentDecodeBuffer == bufferA) ? bufferB : bufferA;
-                    }
+                // The buffer we just swapped out becomes our next decode target
+                if (previousFrame != null) {
+                    currentDecodeBuffer = previousFrame;
+                } else {
+                    // First frame: use the other buffer
+                    currentDecodeBuffer = (currentDecodeBuffer == bufferA) ? bufferB : bufferA;
+                }
 
-                    framesDecoded++;
+                framesDecoded++;
+                streamFrame++;
 
-                    if (needsCatchUp && waitTimeNanos >= -frameTimeNanos) {
-                        needsCatchUp = false;
+                // Distant screens only show every few frames, the pacing above then waits for the next one shown
+                int step = frameStep;
+                if (step > 1) {
+                    int skipped = source.skipFrames(step - 1, currentDecodeBuffer);
+                    if (skipped < 0) {
+                        if (!handleVideoEnd()) break;
+                        continue;
                     }
+                    framesDecoded += skipped;
+                    streamFrame += skipped;
                 }
+
+                if (needsCatchUp && waitTimeNanos >= -frameTimeNanos) {
+                    needsCatchUp = false;
+                }
+
+                if (allocations != null) allocations.end();
             }
         } catch (Exception e) {
             Constants.LOG.error("Exception in decoder loop", e);
-            playing.set(false);
+            decoding.set(false);
+            commands.add(Command.END);
         }
 
         Constants.LOG.debug("Decoder thread stopped.");
     }
 
-    private void handleVideoEnd() throws FFmpegFrameGrabber.Exception {
+    /**
+     * Runs on the decoder thread. Only posts commands, the render thread does the rest.
+     * @return true if the decoder should keep running.
+     */
+    private boolean handleVideoEnd() throws Exception {
         if (loop) {
-            grabber.setVideoTimestamp(0);
+            source.rewind();
             baseTimeNanos = System.nanoTime();
             framesDecoded = 0;
+            streamFrame = 0;
             needsCatchUp = false;
 
-            if (audioPlayer != null) {
-                audioPlayer.stop();
-                audioPlayer.play();
-            }
-        } else {
-            playing.set(false);
-            if (audioPlayer != null) {
-                audioPlayer.stop();
-            }
-            VideoEvents.FINISHED.invoker().invoke(this);
+            commands.add(Command.RESTART_AUDIO);
+            return true;
         }
+
+        decoding.set(false);
+        commands.add(Command.END);
+        return false;
     }
 
-    private void convertFrameToNativeImage(Frame frame, NativeImage image) {
-        ByteBuffer sourceBuffer = (ByteBuffer) frame.image[0];
+    /**
+     * Called on the render thread to upload the latest decoded frame (if any) to the GPU.
+     */
+    protected void update() {
+        if (state != PlaybackState.PLAYING || !initialized.get()) return;
+
+        // Read before the frame, a newer frame sneaking in only means it gets uploaded twice
+        uploadedFrames = publishedFrames;
+        pendingSinceNanos = 0;
+
+        if (dirtyTiles != null) {
+            uploadDirtyTiles();
+            return;
+        }
+
+        NativeImage imageToUpload = nextFrameImage.get();  // Just read, don't clear
+        if (imageToUpload != null) {
+            try {
+                if (compressedOutput != null) {
+                    compressedOutput.upload(imageToUpload);
+                    return;
+                }
 
-        // Get direct access to NativeImage's internal buffer
-        long imagePointer = image.pixels;
+                uploadFrame(imageToUpload);
+            } catch (Exception e) {
+                Constants.LOG.error("Failed to upload texture frame", e);
+            }
+        }
+    }
 
-        if (imagePointer != 0) {
-            // Direct memory copy
-            int totalBytes = videoWidth * videoHeight * 4;
+    /**
+     * Copies a whole decoded frame into the texture and uploads it. Runs on the render thread.
+     */
+    protected void uploadFrame(NativeImage frame) {
+        NativeImage textureImage = texture.getPixels();
+        if (textureImage != null) {
+            textureImage.copyFrom(frame);
+            texture.upload();
+        }
+    }
 
-            // Ensure buffer is positioned at the start
-            sourceBuffer.position(0);
+    /**
+     * Whether a decoded frame is waiting for {@link #update()}, also refreshes the upload priority.
+     */
+    protected boolean hasPendingUpload(long now) {
+        if (state != PlaybackState.PLAYING || !initialized.get() || publishedFrames == uploadedFrames) {
+            return false;
+        }
 
-            // Use unsafe memory copy or NIO bulk operations
-            MemoryUtil.memCopy(
-                    MemoryUtil.memAddress(sourceBuffer),
-                    imagePointer,
-                    totalBytes
-            );
-        } else {
-            // Fallback
-            bulkConvertFallback(sourceBuffer, image);
+        if (pendingSinceNanos == 0) {
+            pendingSinceNanos = now;
         }
+
+        // Frame times spent waiting, one means on time
+        double overdue = 1.0 + (double) (now - pendingSinceNanos) / Math.max(frameTimeNanos, 1);
+        uploadPriority = overdue * visibility;
+        return true;
     }
 
-    private void bulkConvertFallback(ByteBuffer sourceBuffer, NativeImage image) {
-        sourceBuffer.position(0);
-        int totalPixels = videoWidth * videoHeight;
+    /**
+     * Allocation guard of the running or last decoder loop, null when allocation tracking is off or it never played.
+     * Read it once the loop is joined to get a final count.
+     */
+    protected AllocationTracker getDecoderAllocations() {
+        return decoderAllocations;
+    }
 
-        // Process in batches to reduce method call overheadc
-        for (int i = 0; i < totalPixels; i++) {
-            int r = sourceBuffer.get() & 0xFF;
-            int g = sourceBuffer.get() & 0xFF;
-            int b = sourceBuffer.get() & 0xFF;
-            int a = sourceBuffer.get() & 0xFF;
+    protected double getUploadPriority() {
+        return uploadPriority;
+    }
 
-            int abgrColor = (a << 24) | (b << 16) | (g << 8) | r;
+    protected long getUploadCostNanos() {
+        return uploadCostNanos;
+    }
 
-            int x = i % videoWidth;
-            int y = i / videoWidth;
-            image.setPixelRGBA(x, y, abgrColor);
-        }
+    protected void setUploadCostNanos(long uploadCostNanos) {
+        this.uploadCostNanos = uploadCostNanos;
     }
 
     /**
-     * Called on the render thread to upload the latest decoded frame (if any) to the GPU.
+     * How much of the screen the video covers, from 0 to 1. Ranks uploads when the frame budget is tight,
+     * videos at 0 are not uploaded at all.
      */
-    protected void update() {
-        if (!playing.get() || !initialized.get()) return;
+    public float getVisibility() {
+        return visibility;
+    }
 
-        NativeImage imageToUpload = nextFrameImage.get();  // Just read, don't clear
-        if (imageToUpload != null) {
-            try {
-                NativeImage textureImage = texture.getPixels();
-                if (textureImage != null) {
-                    textureImage.copyFrom(imageToUpload);
-                    texture.upload();
-                }
-            } catch (Exception e) {
-                Constants.LOG.error("Failed to upload texture frame", e);
+    protected void setVisibility(float visibility) {
+        this.visibility = Math.max(0, Math.min(1, visibility));
+    }
+
+    /**
+     * Whether the video is shown on a {@link VideoScreen}, which hands its level of detail to {@link VideoScreenRenderer}.
+     */
+    public boolean isInWorld() {
+        return inWorld;
+    }
+
+    protected void setInWorld() {
+        this.inWorld = true;
+    }
+
+    /**
+     * Stops decoding while nothing shows the video. The clock keeps running, so it resumes where it would have been.
+     */
+    protected void setDecodeSuspended(boolean suspended) {
+        this.decodeSuspended = suspended;
+    }
+
+    public boolean isDecodeSuspended() {
+        return decodeSuspended;
+    }
+
+    /**
+     * Shows one of every {@code step} frames, the others are skipped without being converted.
+     */
+    protected void setFrameStep(int step) {
+        this.frameStep = Math.max(1, Math.min(MAX_FRAME_STEP, step));
+    }
+
+    public int getFrameStep() {
+        return frameStep;
+    }
+
+    /**
+     * Decodes at 1/scale of the full resolution. Render thread only, applied on the next frame and at most once a second.
+     * Ignored for compressed output and sources that can not scale.
+     */
+    protected void setDecodeScale(int scale) {
+        scale = Math.max(1, scale);
+        if (scale == decodeScale || System.nanoTime() - lastResizeNanos < MIN_RESIZE_INTERVAL_NANOS) return;
+
+        decodeScale = scale;
+        commands.add(Command.RESIZE);
+    }
+
+    public int getDecodeScale() {
+        return appliedDecodeScale;
+    }
+
+    /**
+     * Height of the decoded frames without any level of detail downscale.
+     */
+    public int getFullHeight() {
+        return fullHeight;
+    }
+
+    /**
+     * Height the video covers on the monitor, in pixels. Set by the controller every frame, it picks the rendition.
+     */
+    protected void setDisplayHeight(int height) {
+        displayHeight = height;
+    }
+
+    public boolean hasRenditions() {
+        return renditions != null;
+    }
+
+    /**
+     * The encode being played, null if the video has a single one.
+     */
+    public RenditionManifest.Rendition getRendition() {
+        return rendition;
+    }
+
+    /**
+     * Uploads straight from the decode buffer, only the tiles that changed since the last upload.
+     */
+    private void uploadDirtyTiles() {
+        boolean full = dirtyTiles.takeDirtyTiles(uploadTiles); // Before reading the frame, see DirtyTileTracker
+        NativeImage frame = nextFrameImage.get();
+
+        if (frame == null) {
+            if (full) dirtyTiles.invalidate(); // Keep it for the first frame
+            return;
+        }
+        if (!full && uploadTiles.isEmpty()) return;
+
+        try {
+            texture.bind();
+            if (full) {
+                frame.upload(0, 0, 0, false);
+                dirtyTiles.recordUpload((long) videoWidth * videoHeight * 4L);
+            } else {
+                dirtyTiles.uploadTiles(frame, uploadTiles);
             }
+        } catch (Exception e) {
+            Constants.LOG.error("Failed to upload texture tiles", e);
         }
     }
 
@@ -381,7 +1430,11 @@ public class VideoRenderer {
     }
 
     public boolean isPlaying() {
-        return playing.get();
+        return state == PlaybackState.PLAYING;
+    }
+
+    public PlaybackState getState() {
+        return state;
     }
 
     public boolean isInitialized() {
@@ -392,6 +1445,126 @@ public class VideoRenderer {
         this.loop = loop;
     }
 
+    /**
+     * Draws the video in a single rectangle instead of fullscreen. Can be called from any thread.
+     */
+    public synchronized void setPlacement(VideoPlacement placement) {
+        this.placements = List.of(placement);
+    }
+
+    /**
+     * Draws the video in one more rectangle, for example to repeat it across a video wall.
+     */
+    public synchronized void addPlacement(VideoPlacement placement) {
+        List<VideoPlacement> updated = new ArrayList<>(placements);
+        updated.add(placement);
+        this.placements = List.copyOf(updated);
+    }
+
+    /**
+     * Goes back to fullscreen.
+     */
+    public synchronized void clearPlacements() {
+        this.placements = List.of();
+    }
+
+    /**
+     * Treats the video as packed clips, see {@link VideoAtlas}. Resources pick up their atlas on their own.
+     * Null draws it whole again. Can be called from any thread.
+     */
+    public void setAtlas(VideoAtlas atlas) {
+        this.atlas = atlas;
+    }
+
+    public VideoAtlas getAtlas() {
+        return atlas;
+    }
+
+    /**
+     * Draws a region of the atlas stretched over a rectangle, for widgets that lay themselves out.
+     * Every region drawn this way shares the one texture and decoder.
+     * @return false if there is nothing to draw yet or the atlas has no such region.
+     */
+    public boolean drawRegion(GuiGraphics graphics, String name, int x, int y, int width, int height) {
+        VideoAtlas current = atlas;
+        VideoAtlas.Region region = current == null ? null : current.getRegion(name);
+        if (region == null || textureIdentifier == null || videoWidth <= 0 || videoHeight <= 0) return false;
+
+        graphics.blit(textureIdentifier, x, y, width, height,
+                region.u0() * videoWidth, region.v0() * videoHeight,
+                Math.round((region.u1() - region.u0()) * videoWidth), Math.round((region.v1() - region.v0()) * videoHeight),
+                videoWidth, videoHeight);
+        return true;
+    }
+
+    /**
+     * Videos shown on a {@link VideoScreen} are not drawn fullscreen by default, a placement shows them on the screen too.
+     */
+    public List<VideoPlacement> getPlacements() {
+        List<VideoPlacement> current = placements;
+        if (current.isEmpty()) {
+            return inWorld ? List.of() : FULLSCREEN_PLACEMENT;
+        }
+        return current;
+    }
+
+    /**
+     * Playback speed, from {@link #MIN_PLAYBACK_RATE} to {@link #MAX_PLAYBACK_RATE}. Can be called from any thread.
+     * Above 1x, frames that would be shown faster than the source frame rate are skipped before they are converted.
+     * The audio only plays at 1x, it is muted at any other rate.
+     */
+    public void setPlaybackRate(double rate) {
+        if (rate < MIN_PLAYBACK_RATE || rate > MAX_PLAYBACK_RATE) {
+            throw new IllegalArgumentException("Playback rate must be between " + MIN_PLAYBACK_RATE + " and " + MAX_PLAYBACK_RATE + ": " + rate);
+        }
+
+        playbackRate = rate;
+        commands.add(Command.RATE);
+    }
+
+    public double getPlaybackRate() {
+        return playbackRate;
+    }
+
+    /**
+     * @return the position of the decoder in the stream, in seconds.
+     */
+    public double getPositionSeconds() {
+        return streamFrame * frameTime;
+    }
+
+    /**
+     * Uploads frames as BC1 (opaque) or BC3 (with alpha) blocks compressed on the decoder thread, null for plain RGBA.
+     * Cuts upload bandwidth for large videos at the cost of some quality and CPU time.
+     * Only takes effect if set before the texture is initialized.
+     */
+    public void setCompressedOutput(BlockCompressor.Format format) {
+        this.compressedFormat = format;
+    }
+
+    /**
+     * Diffs every frame against the previous one in tiles and uploads only the tiles that changed.
+     * Worth it for mostly static content, diffing turns itself off for a while when most of the frame changes.
+     * Only takes effect if set before the texture is initialized.
+     */
+    public void setDirtyTileUploads(boolean enabled) {
+        this.dirtyTileUploads = enabled;
+    }
+
+    /**
+     * Upload metrics (bytes uploaded and saved), null if dirty tile uploads are off.
+     */
+    public DirtyTileTracker getDirtyTileTracker() {
+        return dirtyTiles;
+    }
+
+    /**
+     * Read-ahead state of a URL video, null for local files.
+     */
+    public StreamingVideoSource.BufferHealth getBufferHealth() {
+        return source instanceof StreamingVideoSource streaming ? streaming.getBufferHealth() : null;
+    }
+
     /**
      * Set the audio volume (0.0 to 1.0)
      */
@@ -408,12 +1581,46 @@ public class VideoRenderer {
         return 0.0f;
     }
 
+    /**
+     * Where the sound comes from, it fades out with the distance to the camera and is silent at {@code maxDistance}.
+     * Only with audio mixing on (see {@link VideoPlayerController#setAudioMixing(boolean)}).
+     */
+    public void setAudioPosition(Vec3 position, float maxDistance) {
+        if (audioPlayer != null) {
+            audioPlayer.setPosition(position.x, position.y, position.z, maxDistance);
+        }
+    }
+
     public boolean hasAudio() {
         return audioPlayer != null;
     }
 
+    /**
+     * Releases everything. Can be called from any thread, it is applied on the next render frame.
+     */
     protected void close() {
-        stop();
+        commands.add(Command.CLOSE);
+    }
+
+    private void applyClose() {
+        if (state == PlaybackState.CLOSED) return;
+
+        decoding.set(false);
+        if (!joinDecoderThread()) {
+            // The decoder still owns the buffers, try again next frame
+            closeDeferred = true;
+            return;
+        }
+
+        transition(PlaybackState.CLOSED);
+        releaseResources();
+    }
+
+    /**
+     * Frees every resource. Only touches GL when the texture was initialized, in that case it must run on the render thread.
+     */
+    private void releaseResources() {
+        nextFrameImage.set(null);
 
         // Audio
         if (audioPlayer != null) {
@@ -421,42 +1628,112 @@ public class VideoRenderer {
             audioPlayer = null;
         }
 
+        // Each step is independent, one failure must not leak the rest
         try {
-            if (grabber != null) {
-                grabber.close();
-            }
-            if (textureIdentifier != null) {
-                Minecraft.getInstance().getTextureManager().release(textureIdentifier);
+            if (source != null) {
+                source.close();
+                source = null;
             }
+        } catch (Exception e) {
+            Constants.LOG.error("Error while closing video source", e);
+        }
+
+        try {
             if (texture != null) {
-                texture.close();
+                recycleTexture();
             }
+        } catch (Exception e) {
+            Constants.LOG.error("Error while closing video texture", e);
+        }
 
-            if (bufferA != null) {
-                bufferA.close();
-                bufferA = null;
-            }
-            if (bufferB != null) {
-                bufferB.close();
-                bufferB = null;
-            }
+        if (compressedOutput != null) {
+            compressedOutput.close();
+            compressedOutput = null;
+        }
 
-            if (tempFile != null) {
-                try {
-                    Files.deleteIfExists(tempFile);
-                    tempFile = null;
-                } catch (Exception e) {
-                    tempFile.toFile().deleteOnExit();
-                    Constants.LOG.warn("Failed to delete temp file, will delete on exit", e);
-                }
-            }
+        bufferA = recycleImage(bufferA);
+        bufferB = recycleImage(bufferB);
+        currentDecodeBuffer = null;
+
+        deleteTempFile(tempFile);
+        tempFile = null;
+
+        // A rendition still opening is dropped once it is open
+        if (pendingRendition != null) {
+            pendingRendition.thenAccept(opened -> {
+                if (opened == null) return;
+                opened.source().close();
+                deleteTempFile(opened.tempFile());
+                VideoPlayerController.getMemoryBudget().release(this, opened.reservedBytes());
+            });
+            pendingRendition = null;
+        }
+
+        VideoPlayerController.getMemoryBudget().releaseAll(this);
+        NativeResourceTracker.reportLeaks(this);
+    }
+
+    private void deleteTempFile(Path file) {
+        if (file == null) return;
+
+        try {
+            Files.deleteIfExists(file);
+            NativeResourceTracker.untrack(NativeResourceTracker.Kind.TEMP_FILE, file);
         } catch (Exception e) {
-            Constants.LOG.error("Error while closing VideoPlayer", e);
+            file.toFile().deleteOnExit();
+            Constants.LOG.warn("Failed to delete temp file, will delete on exit", e);
+        }
+    }
+
+    /**
+     * Hands the image to the {@link FramePool}, the next video of the same size reuses it.
+     */
+    private NativeImage recycleImage(NativeImage image) {
+        if (image != null) {
+            NativeResourceTracker.untrack(NativeResourceTracker.Kind.NATIVE_IMAGE, image);
+            VideoPlayerController.getFramePool().giveImage(this, image);
         }
+        return null;
+    }
+
+    /**
+     * Hands the texture to the {@link FramePool}. Render thread only.
+     */
+    private void recycleTexture() {
+        NativeResourceTracker.untrack(NativeResourceTracker.Kind.NATIVE_IMAGE, texture.getPixels());
+        VideoPlayerController.getFramePool().giveTexture(this, textureIdentifier, texture);
+        texture = null;
+        textureIdentifier = null;
+    }
+
+    /**
+     * Tracks a freshly allocated frame image, see {@link NativeResourceTracker}.
+     */
+    private NativeImage trackImage(NativeImage image) {
+        NativeResourceTracker.track(this, NativeResourceTracker.Kind.NATIVE_IMAGE, image, (long) image.getWidth() * image.getHeight() * 4L);
+        return image;
     }
 
     @Override
     public String toString() {
         return this.videoFilePath;
     }
+
+    private record OpenedRendition(RenditionManifest.Rendition rendition, VideoSource source, Path tempFile, long reservedBytes) {}
+
+    @FunctionalInterface
+    private interface SourceOpener {
+        VideoSource open() throws Exception;
+    }
+
+    private enum Command {
+        PLAY,
+        PAUSE,
+        STOP,
+        END,
+        RESTART_AUDIO,
+        RATE,
+        RESIZE,
+        CLOSE
+    }
 }
\ No newline at end of file
@@ -0,0 +1,163 @@
+package com.chaotic_loom.video_renderer.core;
+
+import net.minecraft.world.phys.AABB;
+import net.minecraft.world.phys.Vec3;
+
+/**
+ * A flat rectangle in the world showing a video, like a cinema screen or a TV. Sizes are in blocks.
+ * <p>
+ * Add it with {@link VideoPlayerController#addScreen(VideoScreen)}. Each video decodes at the level of detail its biggest
+ * screen on the monitor needs, and not at all while none of its screens are in view, see {@link VideoScreenRenderer}.
+ * Can be moved from any thread, the change shows up on the next frame.
+ */
+public class VideoScreen {
+    public static final double DEFAULT_MAX_DISTANCE = 96.0;
+
+    private final VideoRenderer video;
+
+    private volatile Geometry geometry;
+    private volatile double maxDistance = DEFAULT_MAX_DISTANCE;
+
+    // Last world pass, render thread only
+    private boolean visible = false;
+    private float visibleFraction = 0;
+    private float pixelHeight = 0;
+
+    /**
+     * @param center Middle of the screen.
+     * @param yaw Direction the screen faces, in Minecraft degrees (0 faces south, 90 faces west).
+     * @param pitch Tilt, positive faces downwards. Kept within -89 and 89.
+     */
+    public VideoScreen(VideoRenderer video, Vec3 center, float yaw, float pitch, float width, float height) {
+        this.video = video;
+        this.geometry = new Geometry(center.x, center.y, center.z, yaw, pitch, width, height);
+    }
+
+    /**
+     * An upright screen.
+     */
+    public VideoScreen(VideoRenderer video, Vec3 center, float yaw, float width, float height) {
+        this(video, center, yaw, 0, width, height);
+    }
+
+    public VideoRenderer getVideo() {
+        return video;
+    }
+
+    public void setPosition(Vec3 center) {
+        Geometry current = geometry;
+        geometry = new Geometry(center.x, center.y, center.z, current.yaw, current.pitch, current.width, current.height);
+    }
+
+    public void setRotation(float yaw, float pitch) {
+        Geometry current = geometry;
+        geometry = new Geometry(current.x, current.y, current.z, yaw, pitch, current.width, current.height);
+    }
+
+    public void setSize(float width, float height) {
+        Geometry current = geometry;
+        geometry = new Geometry(current.x, current.y, current.z, current.yaw, current.pitch, width, height);
+    }
+
+    /**
+     * Beyond this distance the screen is not drawn and its video stops decoding.
+     */
+    public void setMaxDistance(double maxDistance) {
+        this.maxDistance = maxDistance;
+    }
+
+    public double getMaxDistance() {
+        return maxDistance;
+    }
+
+    protected Geometry getGeometry() {
+        return geometry;
+    }
+
+    /**
+     * Whether the last world pass drew the screen.
+     */
+    public boolean isVisible() {
+        return visible;
+    }
+
+    /**
+     * Part of the monitor the screen covered in the last world pass, from 0 to 1.
+     */
+    public float getVisibleFraction() {
+        return visibleFraction;
+    }
+
+    /**
+     * Height of the screen on the monitor in the last world pass, in pixels.
+     */
+    public float getPixelHeight() {
+        return pixelHeight;
+    }
+
+    protected void setView(boolean visible, float visibleFraction, float pixelHeight) {
+        this.visible = visible;
+        this.visibleFraction = visibleFraction;
+        this.pixelHeight = pixelHeight;
+    }
+
+    /**
+     * Corners and facing of the screen, immutable so a move never shows up half applied.
+     */
+    protected static final class Geometry {
+        final double x, y, z;
+        final float yaw, pitch, width, height;
+
+        // Normal, and the right and up directions as seen from the front
+        final double normalX, normalY, normalZ;
+        final double rightX, rightZ;
+        final double upX, upY, upZ;
+        final AABB bounds;
+
+        Geometry(double x, double y, double z, float yaw, float pitch, float width, float height) {
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.yaw = yaw;
+            this.pitch = Math.max(-89, Math.min(89, pitch));
+            this.width = Math.max(0, width);
+            this.height = Math.max(0, height);
+
+            double yawRadians = Math.toRadians(yaw);
+            double pitchRadians = Math.toRadians(this.pitch);
+            double horizontal = Math.cos(pitchRadians);
+            normalX = -Math.sin(yawRadians) * horizontal;
+            normalY = -Math.sin(pitchRadians);
+            normalZ = Math.cos(yawRadians) * horizontal;
+
+            // right = -normal x up(0, 1, 0), then up = normal x right
+            double rightLength = Math.sqrt(normalZ * normalZ + normalX * normalX);
+            rightX = normalZ / rightLength;
+            rightZ = -normalX / rightLength;
+            upX = normalY * rightZ;
+            upY = normalZ * rightX - normalX * rightZ;
+            upZ = -normalY * rightX;
+
+            double halfX = Math.abs(rightX) * this.width / 2 + Math.abs(upX) * this.height / 2;
+            double halfY = Math.abs(upY) * this.height / 2;
+            double halfZ = Math.abs(rightZ) * this.width / 2 + Math.abs(upZ) * this.height / 2;
+            bounds = new AABB(x - halfX, y - halfY, z - halfZ, x + halfX, y + halfY, z + halfZ);
+        }
+
+        /**
+         * @param u -1 for the left edge, 1 for the right one.
+         * @param v -1 for the bottom edge, 1 for the top one.
+         */
+        double cornerX(int u, int v) {
+            return x + rightX * width / 2 * u + upX * height / 2 * v;
+        }
+
+        double cornerY(int v) {
+            return y + upY * height / 2 * v;
+        }
+
+        double cornerZ(int u, int v) {
+            return z + rightZ * width / 2 * u + upZ * height / 2 * v;
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package com.chaotic_loom.video_renderer.core;
+
+import com.mojang.blaze3d.platform.Window;
+import com.mojang.blaze3d.systems.RenderSystem;
+import com.mojang.blaze3d.vertex.BufferBuilder;
+import com.mojang.blaze3d.vertex.BufferUploader;
+import com.mojang.blaze3d.vertex.DefaultVertexFormat;
+import com.mojang.blaze3d.vertex.PoseStack;
+import com.mojang.blaze3d.vertex.Tesselator;
+import com.mojang.blaze3d.vertex.VertexFormat;
+import net.minecraft.client.Camera;
+import net.minecraft.client.Minecraft;
+import net.minecraft.client.renderer.GameRenderer;
+import net.minecraft.client.renderer.culling.Frustum;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.world.phys.Vec3;
+import org.joml.Matrix4f;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Draws the {@link VideoScreen}s after the level, and picks the level of detail of their videos from how they are seen.
+ * <p>
+ * A screen outside the view frustum, behind its back side or beyond its max distance is not drawn, and a video none of
+ * whose screens are drawn stops decoding until one comes back into view (the clock keeps running, so it catches up).
+ * Visible videos decode at the largest power of two downscale that still has a texel for every pixel of their
+ * biggest screen, and small screens only show every second or fourth frame.
+ * A video shown on several screens is decoded once, screens sharing a video are drawn in a single draw call.
+ * <p>
+ * Render thread only.
+ */
+public class VideoScreenRenderer {
+    // Screens at least this tall on the monitor show every frame, a third of it every second frame, smaller every fourth
+    public static final float FULL_RATE_PIXELS = 160;
+
+    private static final int MAX_DECODE_SCALE = 8;
+    private static final float DOWNSCALE_MARGIN = 1.25f; // Only drop a level with room to spare, so it does not flip back and forth
+    private static final float MIN_VISIBLE_FRACTION = 0.0001f; // Tiny screens still get uploads
+
+    private final List<VideoScreen> screens = new CopyOnWriteArrayList<>();
+
+    // Screens drawn this frame and their textures, in draw order
+    private int drawnCount = 0;
+    private VideoScreen[] drawn = new VideoScreen[16];
+    private ResourceLocation[] textures = new ResourceLocation[16];
+
+    private int drawCalls = 0;
+
+    public void add(VideoScreen screen) {
+        screen.getVideo().setInWorld();
+        screens.add(screen);
+    }
+
+    public void remove(VideoScreen screen) {
+        screens.remove(screen);
+    }
+
+    public List<VideoScreen> getScreens() {
+        return screens;
+    }
+
+    /**
+     * Culls and draws every screen. Called at the end of the level pass, with the camera rotation on the pose stack.
+     */
+    public void render(PoseStack poseStack, Camera camera, Matrix4f projection) {
+        drawCalls = 0;
+        if (screens.isEmpty()) return;
+
+        Vec3 cameraPosition = camera.getPosition();
+        Frustum frustum = new Frustum(poseStack.last().pose(), projection);
+        frustum.prepare(cameraPosition.x, cameraPosition.y, cameraPosition.z);
+
+        // Pixels one block covers at a distance of one block
+        Window window = Minecraft.getInstance().getWindow();
+        float focalPixels = projection.m11() * window.getHeight() / 2f;
+        float monitorArea = Math.max(1, window.getWidth() * window.getHeight());
+
+        drawnCount = 0;
+        for (int i = 0; i < screens.size(); i++) {
+            VideoScreen screen = screens.get(i);
+            VideoRenderer video = screen.getVideo();
+            if (video.getState() == PlaybackState.CLOSED) {
+                screens.remove(i--);
+                continue;
+            }
+
+            VideoScreen.Geometry geometry = screen.getGeometry();
+            double dx = geometry.x - cameraPosition.x;
+            double dy = geometry.y - cameraPosition.y;
+            double dz = geometry.z - cameraPosition.z;
+            double distance = Math.sqrt(dx * dx + dy * dy + dz * dz);
+
+            ResourceLocation texture = video.getTexture();
+            boolean visible = texture != null && video.isInitialized()
+                    && (video.isPlaying() || video.getState() == PlaybackState.PAUSED)
+                    && geometry.width > 0 && geometry.height > 0
+                    && distance <= screen.getMaxDistance()
+                    && dx * geometry.normalX + dy * geometry.normalY + dz * geometry.normalZ < 0 // Seen from the front
+                    && frustum.isVisible(geometry.bounds);
+            if (!visible) {
+                screen.setView(false, 0, 0);
+                continue;
+            }
+
+            // Ignores foreshortening, an oblique screen gets a bit more detail than it needs
+            double clamped = Math.max(distance, 0.1);
+            float pixelHeight = (float) (geometry.height * focalPixels / clamped);
+            float pixelWidth = (float) (geometry.width * focalPixels / clamped);
+            float fraction = Math.max(MIN_VISIBLE_FRACTION, Math.min(1.0f, pixelWidth * pixelHeight / monitorArea));
+            screen.setView(true, fraction, pixelHeight);
+
+            push(screen, texture);
+        }
+
+        draw(poseStack.last().pose(), cameraPosition);
+    }
+
+    /**
+     * Part of the monitor the video's screens covered in the last pass, from 0 to 1.
+     */
+    public float getVisibleFraction(VideoRenderer video) {
+        float fraction = 0;
+        for (int i = 0; i < screens.size(); i++) {
+            VideoScreen screen = screens.get(i);
+            if (screen.getVideo() == video) {
+                fraction += screen.getVisibleFraction();
+            }
+        }
+        return Math.min(1.0f, fraction);
+    }
+
+    /**
+     * Height of the video's biggest screen on the monitor in the last pass, in pixels. 0 if none was drawn.
+     */
+    public float getPixelHeight(VideoRenderer video) {
+        float pixelHeight = 0;
+        for (int i = 0; i < screens.size(); i++) {
+            VideoScreen screen = screens.get(i);
+            if (screen.getVideo() == video && screen.isVisible()) {
+                pixelHeight = Math.max(pixelHeight, screen.getPixelHeight());
+            }
+        }
+        return pixelHeight;
+    }
+
+    /**
+     * Picks the level of detail of a world video from its biggest screen in the last pass.
+     * @param onHud Whether the video is also drawn on the HUD, which needs every frame at full size.
+     */
+    public void applyLevelOfDetail(VideoRenderer video, boolean onHud) {
+        if (onHud) {
+            video.setDecodeSuspended(false);
+            video.setFrameStep(1);
+            video.setDecodeScale(1);
+            return;
+        }
+
+        float pixelHeight = getPixelHeight(video);
+        boolean visible = pixelHeight > 0;
+
+        video.setDecodeSuspended(!visible);
+        if (!visible) return; // Keeps its level, likely the one it needs when it comes back
+
+        video.setFrameStep(pixelHeight >= FULL_RATE_PIXELS ? 1 : pixelHeight >= FULL_RATE_PIXELS / 3 ? 2 : VideoRenderer.MAX_FRAME_STEP);
+
+        // Coarser only with a margin, finer as soon as a texel would cover more than a pixel
+        int fullHeight = video.getFullHeight();
+        int scale = video.getDecodeScale();
+        while (scale < MAX_DECODE_SCALE && fullHeight / (scale * 2f) >= pixelHeight * DOWNSCALE_MARGIN) {
+            scale *= 2;
+        }
+        while (scale > 1 && fullHeight / (float) scale < pixelHeight) {
+            scale /= 2;
+        }
+        video.setDecodeScale(scale);
+    }
+
+    /**
+     * Draw calls issued by the last {@link #render(PoseStack, Camera, Matrix4f)}.
+     */
+    public int getDrawCalls() {
+        return drawCalls;
+    }
+
+    private void push(VideoScreen screen, ResourceLocation texture) {
+        if (drawnCount == drawn.length) {
+            drawn = Arrays.copyOf(drawn, drawnCount * 2);
+            textures = Arrays.copyOf(textures, drawnCount * 2);
+        }
+        drawn[drawnCount] = screen;
+        textures[drawnCount] = texture;
+        drawnCount++;
+    }
+
+    private void draw(Matrix4f matrix, Vec3 camera) {
+        if (drawnCount == 0) return;
+
+        // Video frames are not lit, they glow like a real screen
+        RenderSystem.enableDepthTest();
+        RenderSystem.enableCull();
+        RenderSystem.setShader(GameRenderer::getPositionTexShader);
+
+        for (int p = 0; p < drawnCount; p++) {
+            ResourceLocation texture = textures[p];
+            if (texture == null) continue;
+
+            // Every screen with this texture, relative to the camera so far away screens keep their precision
+            BufferBuilder buffer = Tesselator.getInstance().getBuilder();
+            buffer.begin(VertexFormat.Mode.QUADS, DefaultVertexFormat.POSITION_TEX);
+            for (int q = p; q < drawnCount; q++) {
+                if (!texture.equals(textures[q])) continue;
+
+                VideoScreen.Geometry geometry = drawn[q].getGeometry();
+                vertex(buffer, matrix, geometry, camera, -1, -1, 0, 1);
+                vertex(buffer, matrix, geometry, camera, 1, -1, 1, 1);
+                vertex(buffer, matrix, geometry, camera, 1, 1, 1, 0);
+                vertex(buffer, matrix, geometry, camera, -1, 1, 0, 0);
+                textures[q] = null;
+            }
+
+            RenderSystem.setShaderTexture(0, texture);
+            BufferUploader.drawWithShader(buffer.end());
+            drawCalls++;
+        }
+
+        // Drop the references, closed videos should not stay reachable from here
+        Arrays.fill(drawn, 0, drawnCount, null);
+        drawnCount = 0;
+    }
+
+    private static void vertex(BufferBuilder buffer, Matrix4f matrix, VideoScreen.Geometry geometry, Vec3 camera, int u, int v, float textureU, float textureV) {
+        buffer.vertex(matrix,
+                (float) (geometry.cornerX(u, v) - camera.x),
+                (float) (geometry.cornerY(v) - camera.y),
+                (float) (geometry.cornerZ(u, v) - camera.z)
+        ).uv(textureU, textureV).endVertex();
+    }
+}
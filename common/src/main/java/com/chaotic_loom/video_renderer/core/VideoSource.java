@@ -0,0 +1,89 @@
+package com.chaotic_loom.video_renderer.core;
+
+import com.mojang.blaze3d.platform.NativeImage;
+
+/**
+ * Supplies RGBA frames (and optionally audio) to a VideoRenderer.
+ * Opened on the loader thread, then only used by the decoder thread, or by the render thread while the decoder is stopped.
+ */
+public interface VideoSource extends AutoCloseable {
+    int getWidth();
+
+    int getHeight();
+
+    double getFrameRate();
+
+    /**
+     * @return the length in microseconds, 0 if unknown.
+     */
+    long getLengthInTime();
+
+    /**
+     * Asks the source to scale every frame to the given size, used when memory is tight.
+     * @return false if the source cannot scale, its size did not change.
+     */
+    default boolean setOutputSize(int width, int height) {
+        return false;
+    }
+
+    /**
+     * @return native bytes held by the source itself, for the memory budget.
+     */
+    default long getNativeBytes() {
+        return 0;
+    }
+
+    /**
+     * @return the size of the PCM that {@link #openAudio(LoadProgressListener)} will produce, for the memory budget.
+     */
+    long estimateAudioBytes();
+
+    /**
+     * Prepares the audio of this source. Runs on the loader thread.
+     * @return the audio, or null if the source has none.
+     */
+    AudioPlayer openAudio(LoadProgressListener progressListener) throws Exception;
+
+    /**
+     * Writes the next frame into the image, which is {@link #getWidth()} x {@link #getHeight()}.
+     * @return false at the end of the stream.
+     */
+    boolean readFrame(NativeImage target) throws Exception;
+
+    /**
+     * Advances past frames without producing them, used for fast playback.
+     * Sources should do this cheaper than {@link #readFrame(NativeImage)}, the default simply reads them.
+     * @param scratch An image of the output size that may be overwritten.
+     * @return the frames actually skipped, can be more than asked when jumping to a keyframe. -1 at the end of the stream.
+     */
+    default int skipFrames(int count, NativeImage scratch) throws Exception {
+        for (int i = 0; i < count; i++) {
+            if (!readFrame(scratch)) return i == 0 ? -1 : i;
+        }
+        return count;
+    }
+
+    /**
+     * Lets {@link #skipFrames(int, NativeImage)} owe frames instead of decoding them right away, paid back all at once by
+     * jumping to the next keyframe. The frames shown then lag behind the position by less than a keyframe interval,
+     * which is fine while fast-forwarding without sound. Off by default, once it is turned off the next skip pays what is
+     * still owed (a skip of 0 frames does only that).
+     */
+    default void setDeferredSkips(boolean deferred) {}
+
+    /**
+     * Jumps to a frame without producing the ones before it, used to resume after playback was not visible for a while.
+     * @return the frame the source landed on, -1 if it can not seek (the caller skips frames instead).
+     */
+    default long seek(long frame) throws Exception {
+        return -1;
+    }
+
+    /**
+     * Goes back to the first frame.
+     */
+    void rewind() throws Exception;
+
+    @Override
+    void close();
+}
@@ -0,0 +1,43 @@
+package com.chaotic_loom.video_renderer.core;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
+/**
+ * Opens {@link VideoSource}s for the formats it understands, see {@link VideoSources}.
+ * <p>
+ * Other mods can add their own decoders by listing an implementation in
+ * META-INF/services/com.chaotic_loom.video_renderer.core.VideoSourceProvider, or at runtime with
+ * {@link VideoSources#register(VideoSourceProvider)}.
+ */
+public interface VideoSourceProvider {
+    /** FFmpeg, takes anything nobody else wants. */
+    int PRIORITY_FALLBACK = 0;
+    /** The built-in lightweight decoders. */
+    int PRIORITY_BUILT_IN = 100;
+
+    /**
+     * Only used in logs.
+     */
+    String getName();
+
+    /**
+     * When several providers accept a file, the highest priority is tried first.
+     */
+    default int getPriority() {
+        return PRIORITY_BUILT_IN;
+    }
+
+    /**
+     * Cheap check, must not do any I/O.
+     * @param fileName The file name, for extension checks.
+     * @param header The first {@link VideoSources#HEADER_BYTES} of the file (fewer if the file is shorter), read-only.
+     */
+    boolean accepts(String fileName, ByteBuffer header);
+
+    /**
+     * Opens the file. Runs on the loader thread.
+     * Throwing hands the file over to the next provider that accepts it.
+     */
+    VideoSource open(Path file) throws Exception;
+}
@@ -0,0 +1,110 @@
+package com.chaotic_loom.video_renderer.core;
+
+import com.chaotic_loom.video_renderer.Constants;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Picks the {@link VideoSourceProvider} for a file by its name and first bytes.
+ * <p>
+ * Built in: pre-baked VRF files, GIF and APNG animations, MJPEG inside AVI, and FFmpeg for everything else.
+ * The small formats are decoded in Java, so they start without waiting for the FFmpeg natives.
+ */
+public class VideoSources {
+    public static final int HEADER_BYTES = 4096;
+
+    private static final List<VideoSourceProvider> providers = new CopyOnWriteArrayList<>();
+    private static final Comparator<VideoSourceProvider> byPriority =
+            Comparator.comparingInt(VideoSourceProvider::getPriority).reversed();
+
+    static {
+        providers.add(new FFmpegVideoSource.Provider());
+        providers.add(new VrfVideoSource.Provider());
+        providers.add(new GifVideoSource.Provider());
+        providers.add(new ApngVideoSource.Provider());
+        providers.add(new MjpegVideoSource.Provider());
+
+        try {
+            for (VideoSourceProvider provider : ServiceLoader.load(VideoSourceProvider.class)) {
+                Constants.LOG.info("Loaded video source provider: {}", provider.getName());
+                providers.add(provider);
+            }
+        } catch (ServiceConfigurationError e) {
+            Constants.LOG.error("Failed to load video source providers", e);
+        }
+
+        providers.sort(byPriority);
+    }
+
+    private VideoSources() {}
+
+    public static void register(VideoSourceProvider provider) {
+        providers.add(provider);
+        providers.sort(byPriority);
+    }
+
+    /**
+     * Registered providers, highest priority first.
+     */
+    public static List<VideoSourceProvider> getProviders() {
+        return List.copyOf(providers);
+    }
+
+    /**
+     * Opens the file with the first provider that accepts it and manages to open it.
+     */
+    public static VideoSource open(Path file) throws Exception {
+        String fileName = file.getFileName().toString();
+        ByteBuffer header = readHeader(file);
+
+        Exception failure = null;
+        for (VideoSourceProvider provider : providers) {
+            if (!provider.accepts(fileName, header.duplicate())) continue;
+
+            try {
+                VideoSource source = provider.open(file);
+                Constants.LOG.info("Opened {} with {}", fileName, provider.getName());
+                return source;
+            } catch (Exception e) {
+                Constants.LOG.warn("{} could not open {}, trying the next provider", provider.getName(), fileName, e);
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+
+        throw failure != null ? failure : new IOException("No video source provider accepts " + fileName);
+    }
+
+    private static ByteBuffer readHeader(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate((int) Math.min(HEADER_BYTES, channel.size()));
+            while (header.hasRemaining()) {
+                if (channel.read(header) < 0) break;
+            }
+            return header.flip().asReadOnlyBuffer();
+        }
+    }
+
+    /**
+     * Whether the buffer starts with the given ASCII text.
+     */
+    static boolean startsWith(ByteBuffer header, String magic) {
+        if (header.remaining() < magic.length()) return false;
+        for (int i = 0; i < magic.length(); i++) {
+            if (header.get(header.position() + i) != (byte) magic.charAt(i)) return false;
+        }
+        return true;
+    }
+}
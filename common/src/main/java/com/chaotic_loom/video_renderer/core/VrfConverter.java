@@ -0,0 +1,307 @@
+package com.chaotic_loom.video_renderer.core;
+
+import org.bytedeco.ffmpeg.global.avutil;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.Frame;
+import org.lwjgl.system.MemoryUtil;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Converts any video FFmpeg can read into a {@link VrfFormat} file, using the bundled FFmpeg.
+ * Ship the result next to the original (videos/intro.mp4 -> videos/intro.vrf) and VideoRenderer picks it up.
+ * <p>
+ * Command line: {@code VrfConverter <input> <output.vrf> [width height]}
+ * <p>
+ * Does not touch Minecraft classes, so it can run outside the game (build scripts, CI).
+ */
+public class VrfConverter {
+    private static final int AUDIO_SAMPLE_RATE = 44100;
+    private static final int AUDIO_CHANNELS = 2;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 2 && args.length != 4) {
+            System.err.println("Usage: VrfConverter <input> <output.vrf> [width height]");
+            System.exit(1);
+        }
+
+        int width = args.length == 4 ? Integer.parseInt(args[2]) : 0;
+        int height = args.length == 4 ? Integer.parseInt(args[3]) : 0;
+
+        VrfFormat.Header header = convert(Path.of(args[0]), Path.of(args[1]), width, height);
+        System.out.printf("Wrote %s: %dx%d, %d frames at %.2f FPS, %d bytes of audio%n",
+                args[1], header.width(), header.height(), header.frameCount(), header.frameRate(), header.audioLength());
+    }
+
+    /**
+     * @param width target width, 0 to keep the source size.
+     * @param height target height, 0 to keep the source size.
+     */
+    public static VrfFormat.Header convert(Path input, Path output, int width, int height) throws Exception {
+        FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(input.toFile());
+        try (FileChannel out = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            return encode(grabber, width, height, Long.MAX_VALUE, new FileOutput(out));
+        }
+    }
+
+    /**
+     * Converts a short clip into native memory, used by {@link ClipCache}.
+     * The buffer is reserved in the budget as it grows, the conversion stops as soon as it would not fit.
+     * @param maxLengthMicros Clips longer than this are not converted.
+     * @param maxBytes Clips that take more than this are not converted.
+     * @param owner Owns the reservation in the budget, it stays reserved for the returned buffer's capacity.
+     * @return the whole VRF file (allocated with memAlloc, owned by the caller), or null if the clip is too long or too large.
+     * @throws NativeMemoryBudget.BudgetExceededException if the budget ran out first, nothing stays reserved.
+     */
+    public static ByteBuffer convertToMemory(InputStream input, long maxLengthMicros, long maxBytes, NativeMemoryBudget budget, Object owner) throws Exception {
+        MemoryOutput out = new MemoryOutput(maxBytes, budget, owner);
+        try {
+            if (encode(new FFmpegFrameGrabber(input), 0, 0, maxLengthMicros, out) == null) {
+                out.free();
+                return null;
+            }
+            return out.finish();
+        } catch (OutputFullException e) {
+            out.free();
+            return null;
+        } catch (Exception e) {
+            out.free();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the header, or null if the clip is longer than maxLengthMicros.
+     */
+    private static VrfFormat.Header encode(FFmpegFrameGrabber grabber, int width, int height, long maxLengthMicros, Output out) throws Exception {
+        grabber.setPixelFormat(avutil.AV_PIX_FMT_RGBA);
+        if (width > 0 && height > 0) {
+            grabber.setImageWidth(width);
+            grabber.setImageHeight(height);
+        }
+        grabber.setSampleFormat(avutil.AV_SAMPLE_FMT_S16);
+        grabber.setSampleRate(AUDIO_SAMPLE_RATE);
+        grabber.setAudioChannels(AUDIO_CHANNELS);
+        grabber.start();
+
+        try {
+            if (grabber.getLengthInTime() > maxLengthMicros) return null;
+
+            int frameWidth = grabber.getImageWidth();
+            int frameHeight = grabber.getImageHeight();
+            int rowBytes = frameWidth * 4;
+
+            byte[] raw = new byte[rowBytes * frameHeight];
+            byte[] compressed = new byte[Lz4Block.maxCompressedLength(raw.length)];
+            ByteArrayOutputStream pcm = new ByteArrayOutputStream();
+            List<long[]> index = new ArrayList<>(); // timestamp, offset, length
+
+            out.skipHeader();
+
+            Frame frame;
+            while ((frame = grabber.grabFrame(true, true, true, false)) != null) {
+                // The container did not know its length
+                if (frame.timestamp > maxLengthMicros) return null;
+
+                if (frame.image != null) {
+                    // Rows can be padded, copy them one by one
+                    ByteBuffer pixels = (ByteBuffer) frame.image[0];
+                    for (int y = 0; y < frameHeight; y++) {
+                        pixels.get(y * frame.imageStride, raw, y * rowBytes, rowBytes);
+                    }
+
+                    int length = Lz4Block.compress(raw, raw.length, compressed);
+                    index.add(new long[]{frame.timestamp, out.position(), length});
+                    out.write(ByteBuffer.wrap(compressed, 0, length));
+                }
+
+                if (frame.samples != null) {
+                    ShortBuffer samples = (ShortBuffer) frame.samples[0];
+                    ByteBuffer bytes = ByteBuffer.allocate(samples.remaining() * 2).order(ByteOrder.LITTLE_ENDIAN);
+                    bytes.asShortBuffer().put(samples.duplicate());
+                    pcm.write(bytes.array());
+                }
+
+                // The audio and the index are written at the end, give up now if they will not fit
+                out.checkFits(out.position() + pcm.size() + (long) index.size() * VrfFormat.INDEX_ENTRY_SIZE);
+            }
+
+            // Audio
+            long audioOffset = out.position();
+            out.write(ByteBuffer.wrap(pcm.toByteArray()));
+
+            // Index
+            long indexOffset = out.position();
+            ByteBuffer indexBuffer = ByteBuffer.allocate(index.size() * VrfFormat.INDEX_ENTRY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            for (long[] entry : index) {
+                indexBuffer.putLong(entry[0]);
+                indexBuffer.putLong(entry[1]);
+                indexBuffer.putInt((int) entry[2]);
+            }
+            indexBuffer.flip();
+            out.write(indexBuffer);
+
+            // Header last, now that every offset is known
+            boolean hasAudio = pcm.size() > 0;
+            VrfFormat.Header header = new VrfFormat.Header(
+                    frameWidth, frameHeight, Math.max(grabber.getFrameRate(), 1.0), index.size(),
+                    hasAudio ? AUDIO_CHANNELS : 0, hasAudio ? AUDIO_SAMPLE_RATE : 0,
+                    audioOffset, pcm.size(), indexOffset
+            );
+            ByteBuffer headerBuffer = ByteBuffer.allocate(VrfFormat.HEADER_SIZE);
+            header.write(headerBuffer);
+            headerBuffer.clear();
+            out.writeHeader(headerBuffer);
+
+            return header;
+        } finally {
+            grabber.stop();
+            grabber.release();
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private interface Output {
+        long position() throws IOException;
+
+        void skipHeader() throws IOException;
+
+        void write(ByteBuffer bytes) throws IOException;
+
+        void writeHeader(ByteBuffer header) throws IOException;
+
+        /**
+         * @throws OutputFullException if the output can not grow that far.
+         */
+        default void checkFits(long end) throws IOException {}
+    }
+
+    /**
+     * The clip does not fit in the memory it was given.
+     */
+    private static class OutputFullException extends IOException {
+        private OutputFullException() {
+            super("Clip does not fit in memory");
+        }
+    }
+
+    private record FileOutput(FileChannel channel) implements Output {
+        @Override
+        public long position() throws IOException {
+            return channel.position();
+        }
+
+        @Override
+        public void skipHeader() throws IOException {
+            channel.position(VrfFormat.HEADER_SIZE);
+        }
+
+        @Override
+        public void write(ByteBuffer bytes) throws IOException {
+            writeFully(channel, bytes);
+        }
+
+        @Override
+        public void writeHeader(ByteBuffer header) throws IOException {
+            channel.position(0);
+            writeFully(channel, header);
+        }
+    }
+
+    /**
+     * Grows a native buffer as needed, up to maxBytes. Every byte of capacity is reserved in the budget before
+     * it is allocated.
+     */
+    private static class MemoryOutput implements Output {
+        private final long maxBytes;
+        private final NativeMemoryBudget budget;
+        private final Object owner;
+        private ByteBuffer buffer;
+
+        MemoryOutput(long maxBytes, NativeMemoryBudget budget, Object owner) {
+            this.maxBytes = Math.min(maxBytes, Integer.MAX_VALUE - 8);
+            this.budget = budget;
+            this.owner = owner;
+
+            int capacity = (int) Math.min(1024 * 1024, Math.max(this.maxBytes, VrfFormat.HEADER_SIZE));
+            reserve(capacity);
+            buffer = MemoryUtil.memAlloc(capacity);
+        }
+
+        @Override
+        public long position() {
+            return buffer.position();
+        }
+
+        @Override
+        public void skipHeader() throws IOException {
+            checkFits(VrfFormat.HEADER_SIZE);
+            buffer.position(VrfFormat.HEADER_SIZE);
+        }
+
+        @Override
+        public void write(ByteBuffer bytes) throws IOException {
+            long end = (long) buffer.position() + bytes.remaining();
+            checkFits(end);
+
+            if (end > buffer.capacity()) {
+                int position = buffer.position();
+                int capacity = (int) Math.min(maxBytes, Math.max(buffer.capacity() * 2L, end));
+                reserve(capacity - buffer.capacity());
+                buffer = MemoryUtil.memRealloc(buffer, capacity);
+                buffer.clear().position(position);
+            }
+            buffer.put(bytes);
+        }
+
+        @Override
+        public void writeHeader(ByteBuffer header) {
+            buffer.put(0, header, 0, header.remaining());
+        }
+
+        @Override
+        public void checkFits(long end) throws IOException {
+            if (end > maxBytes) throw new OutputFullException();
+        }
+
+        private void reserve(long bytes) {
+            if (!budget.tryReserve(owner, bytes)) {
+                throw new NativeMemoryBudget.BudgetExceededException("Not enough video memory left to cache the clip");
+            }
+        }
+
+        /**
+         * @return the buffer trimmed to its content, from 0 to its capacity. Only its capacity stays reserved.
+         */
+        ByteBuffer finish() {
+            int trimmed = buffer.capacity() - buffer.position();
+            ByteBuffer result = MemoryUtil.memRealloc(buffer, buffer.position());
+            buffer = null;
+            budget.release(owner, trimmed);
+            return result.clear();
+        }
+
+        void free() {
+            if (buffer != null) {
+                budget.release(owner, buffer.capacity());
+                MemoryUtil.memFree(buffer);
+                buffer = null;
+            }
+        }
+    }
+}
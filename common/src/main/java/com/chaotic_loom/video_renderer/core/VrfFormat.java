@@ -0,0 +1,83 @@
+package com.chaotic_loom.video_renderer.core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Pre-baked fast-start container for short clips, written by {@link VrfConverter}.
+ * Frames are stored at their final size as independent LZ4 blocks of RGBA pixels, audio as raw 16 bit PCM,
+ * so playback needs no FFmpeg and the file can be memory-mapped.
+ * <p>
+ * Layout, little-endian:
+ * <pre>
+ * header (64 bytes)  magic "VRF1", version, width, height, frameRate (double), frameCount,
+ *                    audioChannels, audioSampleRate, reserved, audioOffset, audioLength, indexOffset
+ * frames             frameCount LZ4 blocks
+ * audio              audioLength bytes of interleaved PCM
+ * index              frameCount x (timestamp in microseconds (long), offset (long), compressed length (int))
+ * </pre>
+ */
+public class VrfFormat {
+    public static final String EXTENSION = ".vrf";
+    public static final int MAGIC = 'V' | 'R' << 8 | 'F' << 16 | '1' << 24;
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 64;
+    public static final int INDEX_ENTRY_SIZE = 20;
+
+    public record Header(int width, int height, double frameRate, int frameCount,
+                         int audioChannels, int audioSampleRate, long audioOffset, long audioLength, long indexOffset) {
+
+        public void write(ByteBuffer buffer) {
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC);
+            buffer.putInt(VERSION);
+            buffer.putInt(width);
+            buffer.putInt(height);
+            buffer.putDouble(frameRate);
+            buffer.putInt(frameCount);
+            buffer.putInt(audioChannels);
+            buffer.putInt(audioSampleRate);
+            buffer.putInt(0);
+            buffer.putLong(audioOffset);
+            buffer.putLong(audioLength);
+            buffer.putLong(indexOffset);
+        }
+
+        /**
+         * Reads and validates the header at the start of the buffer.
+         */
+        public static Header read(ByteBuffer buffer) throws IOException {
+            if (buffer.limit() < HEADER_SIZE) throw new IOException("Not a VRF file: too small");
+
+            ByteBuffer in = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            in.position(0);
+            if (in.getInt() != MAGIC) throw new IOException("Not a VRF file: bad magic");
+
+            int version = in.getInt();
+            if (version != VERSION) throw new IOException("Unsupported VRF version: " + version);
+
+            int width = in.getInt();
+            int height = in.getInt();
+            double frameRate = in.getDouble();
+            int frameCount = in.getInt();
+            int audioChannels = in.getInt();
+            int audioSampleRate = in.getInt();
+            in.getInt(); // reserved
+            long audioOffset = in.getLong();
+            long audioLength = in.getLong();
+            long indexOffset = in.getLong();
+
+            Header header = new Header(width, height, frameRate, frameCount, audioChannels, audioSampleRate, audioOffset, audioLength, indexOffset);
+
+            long size = buffer.limit();
+            if (header.width() <= 0 || header.height() <= 0 || header.frameCount() < 0
+                    || header.audioOffset() < 0 || header.audioLength() < 0 || header.audioOffset() + header.audioLength() > size
+                    || header.indexOffset() < HEADER_SIZE || header.indexOffset() + (long) header.frameCount() * INDEX_ENTRY_SIZE > size) {
+                throw new IOException("Corrupt VRF header");
+            }
+
+            return header;
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package com.chaotic_loom.video_renderer.core;
+
+import com.mojang.blaze3d.platform.NativeImage;
+import org.lwjgl.system.MemoryUtil;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Plays a pre-baked {@link VrfFormat} file. Decoding a frame is a single LZ4 decompression straight into the target image.
+ */
+public class VrfVideoSource implements VideoSource {
+    private final ByteBuffer data;
+    private final boolean ownsData; // Allocated with memAlloc, otherwise memory-mapped or shared
+    private Runnable onClose; // Gives shared data back to its owner
+    private final long address;
+    private final VrfFormat.Header header;
+
+    private final long[] timestamps;
+    private final long[] offsets;
+    private final int[] lengths;
+
+    private int nextFrame = 0;
+
+    private VrfVideoSource(ByteBuffer data, boolean ownsData) throws IOException {
+        this.data = data;
+        this.ownsData = ownsData;
+        this.address = MemoryUtil.memAddress(data, 0);
+        this.header = VrfFormat.Header.read(data);
+
+        int frameCount = header.frameCount();
+        timestamps = new long[frameCount];
+        offsets = new long[frameCount];
+        lengths = new int[frameCount];
+
+        ByteBuffer index = data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        index.position((int) header.indexOffset());
+        for (int i = 0; i < frameCount; i++) {
+            timestamps[i] = index.getLong();
+            offsets[i] = index.getLong();
+            lengths[i] = index.getInt();
+
+            if (offsets[i] < VrfFormat.HEADER_SIZE || lengths[i] < 0 || offsets[i] + lengths[i] > data.limit()) {
+                throw new IOException("Corrupt VRF index at frame " + i);
+            }
+        }
+    }
+
+    /**
+     * Memory-maps a file on disk, nothing is copied.
+     */
+    public static VrfVideoSource map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return new VrfVideoSource(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), false);
+        }
+    }
+
+    /**
+     * Plays data owned by someone else, for example a {@link ClipCache} entry. Nothing is copied.
+     * @param onClose Called once when the source is closed, the data must stay valid until then.
+     */
+    public static VrfVideoSource wrap(ByteBuffer data, Runnable onClose) throws IOException {
+        VrfVideoSource source = new VrfVideoSource(data, false);
+        source.onClose = onClose;
+        return source;
+    }
+
+    /**
+     * Reads a whole stream (for example a resource inside a pack) into native memory.
+     */
+    public static VrfVideoSource read(InputStream stream) throws IOException {
+        byte[] bytes = stream.readAllBytes();
+        ByteBuffer data = MemoryUtil.memAlloc(bytes.length);
+        data.put(bytes).flip();
+
+        try {
+            VrfVideoSource source = new VrfVideoSource(data, true);
+            NativeResourceTracker.track(source, NativeResourceTracker.Kind.MEMORY, MemoryUtil.memAddress(data), data.capacity());
+            return source;
+        } catch (IOException e) {
+            MemoryUtil.memFree(data);
+            throw e;
+        }
+    }
+
+    @Override
+    public int getWidth() {
+        return header.width();
+    }
+
+    @Override
+    public int getHeight() {
+        return header.height();
+    }
+
+    @Override
+    public double getFrameRate() {
+        return header.frameRate();
+    }
+
+    @Override
+    public long getLengthInTime() {
+        if (timestamps.length == 0) return 0;
+        return timestamps[timestamps.length - 1] + (long) (1_000_000.0 / Math.max(header.frameRate(), 1.0));
+    }
+
+    public long getFrameTimestamp(int frame) {
+        return timestamps[frame];
+    }
+
+    @Override
+    public long getNativeBytes() {
+        return ownsData ? data.capacity() : 0;
+    }
+
+    @Override
+    public long estimateAudioBytes() {
+        return header.audioLength();
+    }
+
+    @Override
+    public AudioPlayer openAudio(LoadProgressListener progressListener) {
+        if (header.audioLength() == 0 || header.audioChannels() <= 0) return null;
+
+        ByteBuffer pcm = data.duplicate();
+        pcm.position((int) header.audioOffset());
+        pcm.limit((int) (header.audioOffset() + header.audioLength()));
+        return new AudioPlayer(pcm.slice(), header.audioChannels(), header.audioSampleRate());
+    }
+
+    @Override
+    public boolean readFrame(NativeImage target) {
+        if (nextFrame >= lengths.length) return false;
+        if (target.pixels == 0) throw new IllegalStateException("Target image is not allocated");
+
+        int frame = nextFrame++;
+        Lz4Block.decompress(address + offsets[frame], lengths[frame], target.pixels, header.width() * header.height() * 4);
+        return true;
+    }
+
+    /**
+     * Every frame is independent, skipping is free.
+     */
+    @Override
+    public int skipFrames(int count, NativeImage scratch) {
+        if (nextFrame >= lengths.length) return -1;
+
+        int skipped = Math.min(count, lengths.length - nextFrame);
+        nextFrame += skipped;
+        return skipped;
+    }
+
+    @Override
+    public void rewind() {
+        nextFrame = 0;
+    }
+
+    @Override
+    public void close() {
+        if (onClose != null) {
+            Runnable release = onClose;
+            onClose = null;
+            release.run();
+        }
+
+        // Mapped buffers are unmapped by the GC
+        if (ownsData) {
+            NativeResourceTracker.untrack(NativeResourceTracker.Kind.MEMORY, MemoryUtil.memAddress(data, 0));
+            MemoryUtil.memFree(data);
+            NativeResourceTracker.reportLeaks(this);
+        }
+    }
+
+    public static class Provider implements VideoSourceProvider {
+        @Override
+        public String getName() {
+            return "VRF";
+        }
+
+        @Override
+        public boolean accepts(String fileName, ByteBuffer header) {
+            return VideoSources.startsWith(header, "VRF1");
+        }
+
+        @Override
+        public VideoSource open(Path file) throws Exception {
+            return map(file);
+        }
+    }
+}
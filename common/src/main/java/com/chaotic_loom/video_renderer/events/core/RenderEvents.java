@@ -2,7 +2,10 @@ package com.chaotic_loom.video_renderer.events.core;
 
 import com.chaotic_loom.video_renderer.events.Event;
 import com.chaotic_loom.video_renderer.events.EventFactory;
+import com.mojang.blaze3d.vertex.PoseStack;
+import net.minecraft.client.Camera;
 import net.minecraft.client.gui.GuiGraphics;
+import org.joml.Matrix4f;
 
 public class RenderEvents {
     public static final Event<RenderEvent> RENDER =
@@ -14,8 +17,22 @@ public class RenderEvents {
                     }
             );
 
+    public static final Event<RenderLevelEvent> RENDER_LEVEL =
+            EventFactory.createArray(RenderLevelEvent.class,
+                    (listeners) -> (poseStack, camera, projectionMatrix, tickDelta) -> {
+                        for (RenderLevelEvent listener : listeners) {
+                            listener.invoke(poseStack, camera, projectionMatrix, tickDelta);
+                        }
+                    }
+            );
+
     @FunctionalInterface
     public interface RenderEvent {
         void invoke(GuiGraphics drawContext, float tickDelta);
     }
+
+    @FunctionalInterface
+    public interface RenderLevelEvent {
+        void invoke(PoseStack poseStack, Camera camera, Matrix4f projectionMatrix, float tickDelta);
+    }
 }
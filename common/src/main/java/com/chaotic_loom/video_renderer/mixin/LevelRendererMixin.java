@@ -0,0 +1,21 @@
+package com.chaotic_loom.video_renderer.mixin;
+
+import com.chaotic_loom.video_renderer.events.core.RenderEvents;
+import com.mojang.blaze3d.vertex.PoseStack;
+import net.minecraft.client.Camera;
+import net.minecraft.client.renderer.GameRenderer;
+import net.minecraft.client.renderer.LevelRenderer;
+import net.minecraft.client.renderer.LightTexture;
+import org.joml.Matrix4f;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+@Mixin(LevelRenderer.class)
+public class LevelRendererMixin {
+    @Inject(method = "renderLevel", at = @At("TAIL"))
+    private void afterRenderLevel(PoseStack poseStack, float tickDelta, long finishNanoTime, boolean renderBlockOutline, Camera camera, GameRenderer gameRenderer, LightTexture lightTexture, Matrix4f projectionMatrix, CallbackInfo ci) {
+        RenderEvents.RENDER_LEVEL.invoker().invoke(poseStack, camera, projectionMatrix, tickDelta);
+    }
+}
@@ -1,5 +1,7 @@
 package com.chaotic_loom.video_renderer.platform.services;
 
+import java.nio.file.Path;
+
 public interface IPlatformHelper {
 
     /**
@@ -24,6 +26,13 @@ public interface IPlatformHelper {
      */
     boolean isDevelopmentEnvironment();
 
+    /**
+     * Gets the root directory of the running game instance.
+     *
+     * @return The game directory.
+     */
+    Path getGameDirectory();
+
     /**
      * Gets the name of the environment type as a string.
      *
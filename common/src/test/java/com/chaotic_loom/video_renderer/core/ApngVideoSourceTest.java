@@ -0,0 +1,207 @@
+package com.chaotic_loom.video_renderer.core;
+
+import com.mojang.blaze3d.platform.NativeImage;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static com.chaotic_loom.video_renderer.core.TestImages.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Decodes generated PNGs and APNGs and checks the canvas after every frame.
+ */
+class ApngVideoSourceTest {
+    private static final int RED = rgba(255, 0, 0, 255);
+    private static final int GREEN = rgba(0, 255, 0, 255);
+
+    @Test
+    void disposalAndBlendModes() throws Exception {
+        byte[] overlay = filled(4, 4, 0, 0, 255, 128);
+        overlay[3] = 0; // One fully transparent pixel, blending leaves the red below it
+
+        Path file = new Png(8, 8, 6, 8)
+                .frame(0, 0, 8, 8, 200, APNG_NONE, APNG_SOURCE, filled(8, 8, 255, 0, 0, 255))
+                .frame(2, 2, 4, 4, 100, APNG_BACKGROUND, APNG_OVER, overlay)
+                .frame(0, 0, 2, 2, 100, APNG_PREVIOUS, APNG_SOURCE, filled(2, 2, 0, 255, 0, 255))
+                .frame(6, 6, 2, 2, 100, APNG_NONE, APNG_SOURCE, filled(2, 2, 255, 255, 255, 0))
+                .write(Files.createTempFile("clm_test_", ".png"));
+
+        int liveCount = NativeResourceTracker.getLiveCount();
+        ApngVideoSource source = ApngVideoSource.open(file);
+        try (NativeImage image = new NativeImage(8, 8, false)) {
+            assertEquals(10.0, source.getFrameRate(), 0.001, "Ticks of the shortest delay");
+            assertEquals(500_000, source.getLengthInTime(), "2 + 1 + 1 + 1 ticks");
+
+            for (int i = 0; i < 2; i++) {
+                assertTrue(source.readFrame(image));
+                assertEquals(RED, image.getPixelRGBA(3, 3));
+            }
+
+            // Half transparent blue over red
+            assertTrue(source.readFrame(image));
+            assertEquals(RED, image.getPixelRGBA(2, 2));
+            assertEquals(rgba(127, 0, 128, 255), image.getPixelRGBA(3, 3));
+            assertEquals(RED, image.getPixelRGBA(1, 1));
+
+            // The overlay is cleared before the next frame is drawn
+            assertTrue(source.readFrame(image));
+            assertEquals(0, image.getPixelRGBA(3, 3));
+            assertEquals(0, image.getPixelRGBA(5, 5));
+            assertEquals(GREEN, image.getPixelRGBA(0, 0));
+            assertEquals(RED, image.getPixelRGBA(7, 7));
+
+            // The corner goes back to red, and a source blend replaces the pixels even when transparent
+            assertTrue(source.readFrame(image));
+            assertEquals(RED, image.getPixelRGBA(0, 0));
+            assertEquals(RED, image.getPixelRGBA(1, 1));
+            assertEquals(0, image.getPixelRGBA(3, 3));
+            assertEquals(rgba(255, 255, 255, 0), image.getPixelRGBA(7, 7));
+
+            assertFalse(source.readFrame(image));
+
+            source.rewind();
+            assertTrue(source.readFrame(image));
+            assertEquals(RED, image.getPixelRGBA(3, 3));
+        } finally {
+            source.close();
+            Files.deleteIfExists(file);
+        }
+        assertEquals(liveCount, NativeResourceTracker.getLiveCount(), "The canvas is freed");
+    }
+
+    @Test
+    void everyRowFilterDecodes() throws Exception {
+        // A gradient, so the predictors have something to predict. Rows cycle through the five filters
+        int width = 9;
+        int height = 10;
+        byte[] rows = new byte[width * height * 4];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int offset = (y * width + x) * 4;
+                rows[offset] = (byte) (x * 29);
+                rows[offset + 1] = (byte) (y * 23 + x * 3);
+                rows[offset + 2] = (byte) (x * y * 7);
+                rows[offset + 3] = (byte) (255 - y);
+            }
+        }
+
+        Path file = new Png(width, height, 6, 8)
+                .frame(0, 0, width, height, 100, APNG_NONE, APNG_SOURCE, rows)
+                .write(Files.createTempFile("clm_test_", ".png"));
+
+        ApngVideoSource source = ApngVideoSource.open(file);
+        try (NativeImage image = new NativeImage(width, height, false)) {
+            assertTrue(source.readFrame(image));
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    int offset = (y * width + x) * 4;
+                    int expected = rgba(rows[offset] & 0xFF, rows[offset + 1] & 0xFF, rows[offset + 2] & 0xFF, rows[offset + 3] & 0xFF);
+                    assertEquals(expected, image.getPixelRGBA(x, y), "Pixel " + x + "," + y);
+                }
+            }
+        } finally {
+            source.close();
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    void plainPngWithPackedPalette() throws Exception {
+        // 2 bit indices, 7 pixels do not fill the last byte of a row
+        int width = 7;
+        int height = 5;
+        int[] palette = {0x000000, 0xFF0000, 0x00FF00, 0x0000FF};
+        int rowBytes = (width * 2 + 7) / 8;
+        byte[] rows = new byte[rowBytes * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int index = (x + y) % 4;
+                rows[y * rowBytes + x / 4] |= (byte) (index << (6 - (x % 4) * 2));
+            }
+        }
+
+        Path file = new Png(width, height, 3, 2)
+                .palette(palette)
+                .transparency(new byte[]{0, (byte) 255, (byte) 255, (byte) 128})
+                .image(rows)
+                .write(Files.createTempFile("clm_test_", ".png"));
+
+        ApngVideoSource source = ApngVideoSource.open(file);
+        try (NativeImage image = new NativeImage(width, height, false)) {
+            assertEquals(1_000_000, source.getLengthInTime(), "A still image plays for a second");
+
+            assertTrue(source.readFrame(image));
+            int[] expected = {rgba(0, 0, 0, 0), RED, GREEN, rgba(0, 0, 255, 128)};
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    assertEquals(expected[(x + y) % 4], image.getPixelRGBA(x, y), "Pixel " + x + "," + y);
+                }
+            }
+            assertFalse(source.readFrame(image));
+        } finally {
+            source.close();
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    void defaultImageIsNotAFrameOfTheAnimation() throws Exception {
+        Path file = new Png(4, 4, 2, 8)
+                .image(filled(4, 4, 0, 0, 255))
+                .frame(0, 0, 4, 4, 100, APNG_NONE, APNG_SOURCE, filled(4, 4, 255, 0, 0))
+                .frame(0, 0, 4, 4, 100, APNG_NONE, APNG_SOURCE, filled(4, 4, 0, 255, 0))
+                .write(Files.createTempFile("clm_test_", ".png"));
+
+        ApngVideoSource source = ApngVideoSource.open(file);
+        try (NativeImage image = new NativeImage(4, 4, false)) {
+            assertTrue(source.readFrame(image));
+            assertEquals(RED, image.getPixelRGBA(2, 2));
+            assertTrue(source.readFrame(image));
+            assertEquals(GREEN, image.getPixelRGBA(2, 2));
+            assertFalse(source.readFrame(image));
+        } finally {
+            source.close();
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    void interlacedFilesAreLeftToFfmpeg() throws Exception {
+        Path file = new Png(4, 4, 2, 8)
+                .image(filled(4, 4, 255, 0, 0))
+                .write(Files.createTempFile("clm_test_", ".png"));
+        try {
+            byte[] data = Files.readAllBytes(file);
+            data[8 + 8 + 12] = 1; // The interlace method of IHDR
+            Files.write(file, data);
+
+            assertThrows(IOException.class, () -> ApngVideoSource.open(file));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static byte[] filled(int width, int height, int r, int g, int b, int a) {
+        byte[] rows = new byte[width * height * 4];
+        for (int i = 0; i < rows.length; i += 4) {
+            rows[i] = (byte) r;
+            rows[i + 1] = (byte) g;
+            rows[i + 2] = (byte) b;
+            rows[i + 3] = (byte) a;
+        }
+        return rows;
+    }
+
+    private static byte[] filled(int width, int height, int r, int g, int b) {
+        byte[] rows = new byte[width * height * 3];
+        for (int i = 0; i < rows.length; i += 3) {
+            rows[i] = (byte) r;
+            rows[i + 1] = (byte) g;
+            rows[i + 2] = (byte) b;
+        }
+        return rows;
+    }
+}
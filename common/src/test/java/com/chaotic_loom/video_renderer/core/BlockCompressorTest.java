@@ -0,0 +1,302 @@
+package com.chaotic_loom.video_renderer.core;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Compresses generated frames and decodes them back with a reference BC1 / BC3 decoder.
+ */
+class BlockCompressorTest {
+    @Test
+    void solidBlockUsesOneColor() {
+        ByteBuffer rgba = image(4, 4, (x, y) -> pixel(255, 0, 0, 255));
+        ByteBuffer blocks = compress(BlockCompressor.Format.BC1, rgba, 4, 4);
+
+        assertEquals(8, blocks.capacity());
+        assertEquals(0xF800, blocks.getShort(0) & 0xFFFF, "color0 is pure red in 565");
+        assertEquals(0xF800, blocks.getShort(2) & 0xFFFF, "color1 is pure red in 565");
+        assertEquals(0, blocks.getInt(4), "Every pixel picks color0");
+    }
+
+    @Test
+    void solidAlphaIsExact() {
+        ByteBuffer rgba = image(4, 4, (x, y) -> pixel(10, 200, 30, 77));
+        ByteBuffer blocks = compress(BlockCompressor.Format.BC3, rgba, 4, 4);
+
+        assertEquals(16, blocks.capacity());
+        assertEquals(77, blocks.get(0) & 0xFF);
+        assertEquals(77, blocks.get(1) & 0xFF);
+        assertDecodedClose(BlockCompressor.Format.BC3, rgba, 4, 4, blocks, 8, 0);
+    }
+
+    @Test
+    void gradientStaysClose() {
+        int width = 64, height = 64;
+        ByteBuffer rgba = image(width, height, (x, y) -> pixel(x * 4, y * 4, 255 - x * 2, 255));
+
+        assertDecodedClose(BlockCompressor.Format.BC1, rgba, width, height, compress(BlockCompressor.Format.BC1, rgba, width, height), 12, -1);
+        assertDecodedClose(BlockCompressor.Format.BC3, rgba, width, height, compress(BlockCompressor.Format.BC3, rgba, width, height), 12, 0);
+    }
+
+    @Test
+    void alphaGradientStaysClose() {
+        int width = 32, height = 32;
+        ByteBuffer rgba = image(width, height, (x, y) -> pixel(128, 64, 32, x * 8));
+
+        assertDecodedClose(BlockCompressor.Format.BC3, rgba, width, height, compress(BlockCompressor.Format.BC3, rgba, width, height), 8, 4);
+    }
+
+    @Test
+    void edgeBlocksOfOddSizes() {
+        int[][] sizes = {{1, 1}, {3, 2}, {5, 7}, {6, 9}, {13, 4}, {4, 13}};
+        for (int[] size : sizes) {
+            int width = size[0], height = size[1];
+            ByteBuffer rgba = image(width, height, (x, y) -> pixel((x + y) * 12, (x + y) * 12, 90, 255 - x * 10));
+
+            for (BlockCompressor.Format format : BlockCompressor.Format.values()) {
+                // Blocks past the edge must stay inside the exact compressed size
+                ByteBuffer blocks = compress(format, rgba, width, height);
+                assertEquals(((width + 3) / 4) * ((height + 3) / 4) * (format == BlockCompressor.Format.BC1 ? 8 : 16), blocks.capacity());
+                assertDecodedClose(format, rgba, width, height, blocks, 16, format == BlockCompressor.Format.BC3 ? 12 : -1);
+            }
+        }
+    }
+
+    @Test
+    void parallelMatchesSerial() throws Exception {
+        int width = 1920, height = 1080;
+        ByteBuffer rgba = noise(width, height);
+
+        // A pool of its own, the shared one has no threads on machines without spare cores
+        ExecutorService pool = Executors.newFixedThreadPool(3);
+        try {
+            for (BlockCompressor.Format format : BlockCompressor.Format.values()) {
+                ByteBuffer serial = compress(format, rgba, width, height);
+
+                // A few frames in a row through the same compressor, like a video does
+                BlockCompressor parallel = new BlockCompressor(format, pool);
+                ByteBuffer out = ByteBuffer.allocateDirect(format.compressedSize(width, height)).order(ByteOrder.LITTLE_ENDIAN);
+                for (int frame = 0; frame < 5; frame++) {
+                    out.clear();
+                    parallel.compress(rgba, width, height, out);
+                    assertArrayEquals(bytes(serial), bytes(out), format + " frame " + frame);
+                }
+            }
+
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void videosSharingThePoolMatchSerial() throws Exception {
+        int width = 1920, height = 1080;
+        ByteBuffer rgba = noise(width, height);
+        ByteBuffer serial = compress(BlockCompressor.Format.BC1, rgba, width, height);
+
+        ExecutorService pool = Executors.newFixedThreadPool(3);
+        ExecutorService videos = Executors.newFixedThreadPool(3); // Their decoder threads
+        try {
+            Future<?>[] results = new Future<?>[3];
+            for (int i = 0; i < results.length; i++) {
+                results[i] = videos.submit(() -> {
+                    BlockCompressor compressor = new BlockCompressor(BlockCompressor.Format.BC1, pool);
+                    ByteBuffer out = ByteBuffer.allocateDirect(serial.capacity()).order(ByteOrder.LITTLE_ENDIAN);
+                    for (int frame = 0; frame < 10; frame++) {
+                        compressor.compress(rgba, width, height, out);
+                        assertArrayEquals(bytes(serial), bytes(out), "Frame " + frame);
+                    }
+                    return null;
+                });
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } finally {
+            videos.shutdownNow();
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    @Tag("benchmark")
+    void benchmark1080p() {
+        int width = 1920, height = 1080;
+        ByteBuffer rgba = noise(width, height);
+
+        ExecutorService pool = BlockCompressor.newWorkerPool();
+        try {
+            for (BlockCompressor.Format format : BlockCompressor.Format.values()) {
+                ByteBuffer out = ByteBuffer.allocateDirect(format.compressedSize(width, height)).order(ByteOrder.LITTLE_ENDIAN);
+                double serial = millisPerFrame(new BlockCompressor(format, null), rgba, width, height, out);
+                double parallel = millisPerFrame(new BlockCompressor(format, pool), rgba, width, height, out);
+                System.out.printf("%s 1080p: %.2f ms serial, %.2f ms with %d workers%n", format, serial, parallel, BlockCompressor.WORKER_COUNT);
+            }
+        } finally {
+            if (pool != null) pool.shutdownNow();
+        }
+    }
+
+    private static double millisPerFrame(BlockCompressor compressor, ByteBuffer rgba, int width, int height, ByteBuffer out) {
+        for (int i = 0; i < 20; i++) {
+            compressor.compress(rgba, width, height, out);
+        }
+
+        int frames = 50;
+        long start = System.nanoTime();
+        for (int i = 0; i < frames; i++) {
+            compressor.compress(rgba, width, height, out);
+        }
+        return (System.nanoTime() - start) / 1_000_000.0 / frames;
+    }
+
+    private static ByteBuffer compress(BlockCompressor.Format format, ByteBuffer rgba, int width, int height) {
+        ByteBuffer out = ByteBuffer.allocate(format.compressedSize(width, height)).order(ByteOrder.LITTLE_ENDIAN);
+        new BlockCompressor(format, null).compress(rgba, width, height, out);
+        return out;
+    }
+
+    /**
+     * Decodes every block and compares the pixels inside the image with the source.
+     * @param alphaTolerance -1 to skip alpha, BC1 has none.
+     */
+    private static void assertDecodedClose(BlockCompressor.Format format, ByteBuffer rgba, int width, int height, ByteBuffer blocks, int colorTolerance, int alphaTolerance) {
+        int blocksPerRow = (width + 3) / 4;
+        int blockSize = format == BlockCompressor.Format.BC1 ? 8 : 16;
+        int[] decoded = new int[16];
+
+        for (int blockY = 0; blockY < (height + 3) / 4; blockY++) {
+            for (int blockX = 0; blockX < blocksPerRow; blockX++) {
+                int offset = (blockY * blocksPerRow + blockX) * blockSize;
+                decodeColor(blocks, format == BlockCompressor.Format.BC3 ? offset + 8 : offset, decoded);
+                if (format == BlockCompressor.Format.BC3) {
+                    decodeAlpha(blocks, offset, decoded);
+                }
+
+                for (int i = 0; i < 16; i++) {
+                    int x = blockX * 4 + (i & 3);
+                    int y = blockY * 4 + (i >> 2);
+                    if (x >= width || y >= height) continue;
+
+                    int expected = rgba.getInt((y * width + x) * 4);
+                    for (int channel = 0; channel < 3; channel++) {
+                        int difference = Math.abs(channel(expected, channel) - channel(decoded[i], channel));
+                        assertTrue(difference <= colorTolerance, "Channel " + channel + " of " + x + "," + y + " is off by " + difference);
+                    }
+                    if (alphaTolerance >= 0) {
+                        int difference = Math.abs(channel(expected, 3) - channel(decoded[i], 3));
+                        assertTrue(difference <= alphaTolerance, "Alpha of " + x + "," + y + " is off by " + difference);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void decodeColor(ByteBuffer blocks, int offset, int[] out) {
+        int color0 = blocks.getShort(offset) & 0xFFFF;
+        int color1 = blocks.getShort(offset + 2) & 0xFFFF;
+        int indices = blocks.getInt(offset + 4);
+
+        int[] palette = new int[4];
+        palette[0] = expand(color0);
+        palette[1] = expand(color1);
+        if (color0 > color1) {
+            palette[2] = mix(palette[0], palette[1], 2, 1);
+            palette[3] = mix(palette[0], palette[1], 1, 2);
+        } else {
+            palette[2] = mix(palette[0], palette[1], 1, 1);
+            palette[3] = 0;
+        }
+
+        for (int i = 0; i < 16; i++) {
+            out[i] = palette[(indices >>> (i * 2)) & 3] | 0xFF000000;
+        }
+    }
+
+    private static void decodeAlpha(ByteBuffer blocks, int offset, int[] out) {
+        int alpha0 = blocks.get(offset) & 0xFF;
+        int alpha1 = blocks.get(offset + 1) & 0xFF;
+        long indices = 0;
+        for (int i = 0; i < 6; i++) {
+            indices |= (long) (blocks.get(offset + 2 + i) & 0xFF) << (i * 8);
+        }
+
+        int[] palette = new int[8];
+        palette[0] = alpha0;
+        palette[1] = alpha1;
+        if (alpha0 > alpha1) {
+            for (int i = 1; i < 7; i++) {
+                palette[i + 1] = ((7 - i) * alpha0 + i * alpha1) / 7;
+            }
+        } else {
+            for (int i = 1; i < 5; i++) {
+                palette[i + 1] = ((5 - i) * alpha0 + i * alpha1) / 5;
+            }
+            palette[7] = 255;
+        }
+
+        for (int i = 0; i < 16; i++) {
+            int alpha = palette[(int) (indices >>> (i * 3)) & 7];
+            out[i] = (out[i] & 0x00FFFFFF) | alpha << 24;
+        }
+    }
+
+    private static int expand(int color) {
+        int r = (color >> 11) & 31, g = (color >> 5) & 63, b = color & 31;
+        return pixel((r << 3) | (r >> 2), (g << 2) | (g >> 4), (b << 3) | (b >> 2), 255);
+    }
+
+    private static int mix(int a, int b, int weightA, int weightB) {
+        int result = 0;
+        for (int channel = 0; channel < 3; channel++) {
+            int value = (channel(a, channel) * weightA + channel(b, channel) * weightB) / (weightA + weightB);
+            result |= value << (channel * 8);
+        }
+        return result;
+    }
+
+    private static int channel(int pixel, int channel) {
+        return (pixel >>> (channel * 8)) & 0xFF;
+    }
+
+    private static int pixel(int r, int g, int b, int a) {
+        return (r & 0xFF) | (g & 0xFF) << 8 | (b & 0xFF) << 16 | (a & 0xFF) << 24;
+    }
+
+    private static ByteBuffer image(int width, int height, PixelFunction function) {
+        ByteBuffer rgba = ByteBuffer.allocate(width * height * 4).order(ByteOrder.LITTLE_ENDIAN);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                rgba.putInt((y * width + x) * 4, function.at(x, y));
+            }
+        }
+        return rgba;
+    }
+
+    // Smooth areas and hard edges, like a video frame
+    private static ByteBuffer noise(int width, int height) {
+        return image(width, height, (x, y) -> {
+            int hash = (x * 73856093) ^ (y * 19349663);
+            return ((x / 16 + y / 16) & 1) == 0 ? pixel(x, y, x + y, 255) : pixel(hash, hash >> 8, hash >> 16, hash >> 24);
+        });
+    }
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.capacity()];
+        buffer.duplicate().clear().get(bytes);
+        return bytes;
+    }
+
+    @FunctionalInterface
+    private interface PixelFunction {
+        int at(int x, int y);
+    }
+}
@@ -0,0 +1,141 @@
+package com.chaotic_loom.video_renderer.core;
+
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.Frame;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Encodes generated frames headless and reads the file back.
+ */
+class CaptureEncoderTest {
+    private static final int WIDTH = 160;
+    private static final int HEIGHT = 90;
+    private static final int FRAMES = 30;
+    private static final double FRAME_RATE = 30.0;
+
+    @Test
+    void encodesEveryOfferedFrame() throws Exception {
+        Path output = Files.createTempFile("clm_test_", ".mp4");
+        NativeMemoryBudget budget = new NativeMemoryBudget(NativeMemoryBudget.DEFAULT_LIMIT_BYTES);
+        ByteBuffer pixels = ByteBuffer.allocateDirect(WIDTH * HEIGHT * 4);
+
+        try {
+            CaptureEncoder encoder = new CaptureEncoder(output, WIDTH, HEIGHT, FRAME_RATE, 4, budget);
+            assertEquals(4L * WIDTH * HEIGHT * 4, budget.getUsedBytes(), "The queue is reserved");
+            awaitReady(encoder);
+
+            for (int i = 0; i < FRAMES; i++) {
+                fill(pixels, i);
+
+                // A small queue, wait for the encoder instead of dropping frames
+                long timestamp = (long) (i * 1_000_000L / FRAME_RATE);
+                while (!encoder.offer(pixels, timestamp)) {
+                    Thread.sleep(1);
+                }
+            }
+            encoder.close();
+
+            assertEquals(output, encoder.getFinished().get(30, TimeUnit.SECONDS));
+            assertEquals(FRAMES, encoder.getSubmittedFrames());
+            assertEquals(FRAMES, encoder.getEncodedFrames());
+            assertEquals(0, budget.getUsedBytes(), "The queue is given back");
+            assertFalse(encoder.offer(pixels, FRAMES * 1_000_000L), "Frames after the close are dropped");
+
+            assertTrue(Files.size(output) > 0, "Wrote a file");
+            FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(output.toFile());
+            grabber.start();
+            try {
+                assertEquals(WIDTH, grabber.getImageWidth());
+                assertEquals(HEIGHT, grabber.getImageHeight());
+
+                int frames = 0;
+                Frame frame;
+                while ((frame = grabber.grabImage()) != null) {
+                    if (frame.image != null) frames++;
+                }
+                assertEquals(FRAMES, frames, "Frames in the file");
+            } finally {
+                grabber.stop();
+                grabber.release();
+            }
+        } finally {
+            Files.deleteIfExists(output);
+        }
+    }
+
+    @Test
+    void framesHeldAcrossTheCloseAreNotReportedAsLeaks() throws Exception {
+        Path output = Files.createTempFile("clm_test_", ".mp4");
+        NativeMemoryBudget budget = new NativeMemoryBudget(NativeMemoryBudget.DEFAULT_LIMIT_BYTES);
+        int liveCount = NativeResourceTracker.getLiveCount();
+
+        try {
+            CaptureEncoder encoder = new CaptureEncoder(output, WIDTH, HEIGHT, FRAME_RATE, 4, budget);
+            awaitReady(encoder);
+
+            // A producer still filling a frame while the file is finished
+            CaptureEncoder.CapturedFrame held = encoder.acquire();
+            assertNotNull(held);
+            encoder.close();
+            assertEquals(output, encoder.getFinished().get(30, TimeUnit.SECONDS));
+            assertEquals(WIDTH * HEIGHT * 4L, budget.getUsedBytes(), "The held frame keeps its reservation");
+            assertEquals(liveCount + 1, NativeResourceTracker.getLiveCount(), "Only the held frame is alive");
+
+            encoder.submit(held, 0);
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (budget.getUsedBytes() != 0 && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            assertEquals(0, budget.getUsedBytes(), "Given back once the frame came back");
+            assertEquals(liveCount, NativeResourceTracker.getLiveCount(), "The held frame was freed");
+            assertEquals(0, encoder.getEncodedFrames(), "Came back after the file was finished");
+        } finally {
+            Files.deleteIfExists(output);
+        }
+    }
+
+    @Test
+    void failingToOpenTheFileFinishesExceptionally() {
+        Path output = Path.of("run", "missing_directory", "clm_test.mp4");
+        NativeMemoryBudget budget = new NativeMemoryBudget(NativeMemoryBudget.DEFAULT_LIMIT_BYTES);
+
+        // Returns before the file is opened, the failure comes through the future
+        CaptureEncoder encoder = new CaptureEncoder(output, WIDTH, HEIGHT, FRAME_RATE, 4, budget);
+        ExecutionException failure = assertThrows(ExecutionException.class, () -> encoder.getFinished().get(30, TimeUnit.SECONDS));
+        assertNotNull(failure.getCause());
+        assertFalse(encoder.isReady());
+        assertNull(encoder.acquire(), "No frames after a failed start");
+        assertEquals(0, budget.getUsedBytes(), "The queue is given back");
+    }
+
+    private static void awaitReady(CaptureEncoder encoder) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (!encoder.isReady()) {
+            assertFalse(encoder.getFinished().isDone(), "Failed to open the file");
+            assertTrue(System.nanoTime() < deadline, "The file was not opened in time");
+            Thread.sleep(1);
+        }
+    }
+
+    // A gradient that moves every frame
+    private static void fill(ByteBuffer pixels, int frame) {
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int offset = (y * WIDTH + x) * 4;
+                pixels.put(offset, (byte) (x + frame * 4));
+                pixels.put(offset + 1, (byte) (y * 2));
+                pixels.put(offset + 2, (byte) (frame * 8));
+                pixels.put(offset + 3, (byte) 255);
+            }
+        }
+        pixels.clear();
+    }
+}
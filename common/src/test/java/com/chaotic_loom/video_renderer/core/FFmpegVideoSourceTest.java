@@ -0,0 +1,55 @@
+package com.chaotic_loom.video_renderer.core;
+
+import com.mojang.blaze3d.platform.NativeImage;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FFmpegVideoSourceTest {
+    private static final int FRAMES = 600;
+    private static final int KEY_FRAME_INTERVAL = 30;
+
+    @Test
+    void fastForwardDecodesFarFewerFrames() throws Exception {
+        Path clip = TestClips.write(Files.createTempFile("clm_test_", ".mp4"), 64, 48, FRAMES, KEY_FRAME_INTERVAL);
+
+        try (NativeImage image = new NativeImage(64, 48, false)) {
+            long normal;
+            FFmpegVideoSource source = FFmpegVideoSource.open(clip.toString());
+            try {
+                while (source.readFrame(image)) {}
+                normal = source.getDecodedFrames();
+            } finally {
+                source.close();
+            }
+
+            // What the decoder loop does at 4x: show a frame, skip the three after it
+            long position = 0;
+            long fast;
+            source = FFmpegVideoSource.open(clip.toString());
+            try {
+                source.setDeferredSkips(true);
+                while (source.readFrame(image)) {
+                    position++;
+                    int skipped = source.skipFrames(3, image);
+                    if (skipped < 0) break;
+                    position += skipped;
+                }
+                fast = source.getDecodedFrames();
+            } finally {
+                source.close();
+            }
+
+            assertEquals(FRAMES, normal);
+            assertTrue(position >= FRAMES - KEY_FRAME_INTERVAL, "Got to the end, at " + position);
+
+            // A quarter of the time, so decoding every frame would be 4x the normal rate. Aim for under half of that
+            assertTrue(fast * 4 < normal * 2, "Decoded " + fast + " of " + normal + " frames at 4x");
+        } finally {
+            Files.deleteIfExists(clip);
+        }
+    }
+}
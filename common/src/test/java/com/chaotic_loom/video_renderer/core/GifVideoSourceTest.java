@@ -0,0 +1,193 @@
+package com.chaotic_loom.video_renderer.core;
+
+import com.mojang.blaze3d.platform.NativeImage;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import static com.chaotic_loom.video_renderer.core.TestImages.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Decodes generated GIFs and checks the canvas after every frame.
+ */
+class GifVideoSourceTest {
+    private static final int[] PALETTE = {
+            0x000000, 0xFF0000, 0x00FF00, 0x0000FF, 0xFFFF00, 0x00FFFF, 0xFF00FF, 0xFFFFFF,
+            0x800000, 0x008000, 0x000080, 0x808000, 0x008080, 0x800080, 0x808080, 0x404040
+    };
+
+    @Test
+    void disposalModesAndTransparency() throws Exception {
+        byte[] patch = filled(4 * 4, 2);
+        patch[0] = 3; // Transparent, the frame below shows through
+
+        Path file = new Gif(8, 8, PALETTE)
+                .frame(0, 0, 8, 8, filled(8 * 8, 1), 200, GIF_KEEP, -1)
+                .frame(2, 2, 4, 4, patch, 100, GIF_BACKGROUND, 3)
+                .frame(0, 0, 2, 2, filled(2 * 2, 4), 100, GIF_PREVIOUS, -1)
+                .frame(6, 6, 2, 2, filled(2 * 2, 5), 10, GIF_KEEP, -1) // Tiny delays play at 10 fps
+                .write(Files.createTempFile("clm_test_", ".gif"));
+
+        GifVideoSource source = GifVideoSource.open(file);
+        try (NativeImage image = new NativeImage(8, 8, false)) {
+            assertEquals(8, source.getWidth());
+            assertEquals(8, source.getHeight());
+            assertEquals(10.0, source.getFrameRate(), 0.001, "Ticks of the shortest delay");
+            assertEquals(500_000, source.getLengthInTime(), "2 + 1 + 1 + 1 ticks");
+
+            // The first frame covers two ticks
+            for (int i = 0; i < 2; i++) {
+                assertTrue(source.readFrame(image));
+                assertColor(image, 3, 3, 1);
+                assertColor(image, 7, 7, 1);
+            }
+
+            assertTrue(source.readFrame(image));
+            assertColor(image, 2, 2, 1);
+            assertColor(image, 3, 3, 2);
+            assertColor(image, 1, 1, 1);
+
+            // The patch is cleared before the next frame is drawn
+            assertTrue(source.readFrame(image));
+            assertEquals(0, image.getPixelRGBA(2, 2));
+            assertEquals(0, image.getPixelRGBA(5, 5));
+            assertColor(image, 0, 0, 4);
+            assertColor(image, 1, 1, 4);
+            assertColor(image, 7, 7, 1);
+
+            // And the corner goes back to what it was before it
+            assertTrue(source.readFrame(image));
+            assertColor(image, 0, 0, 1);
+            assertColor(image, 1, 1, 1);
+            assertEquals(0, image.getPixelRGBA(3, 3));
+            assertColor(image, 7, 7, 5);
+            assertColor(image, 5, 6, 1);
+
+            assertFalse(source.readFrame(image));
+
+            source.rewind();
+            assertTrue(source.readFrame(image));
+            assertColor(image, 3, 3, 1);
+            assertColor(image, 0, 0, 1);
+        } finally {
+            source.close();
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    void skippingDrawsTheSkippedFrames() throws Exception {
+        Path file = new Gif(8, 8, PALETTE)
+                .frame(0, 0, 8, 8, filled(8 * 8, 1), 200, GIF_KEEP, -1)
+                .frame(0, 0, 4, 8, filled(4 * 8, 2), 100, GIF_KEEP, -1)
+                .frame(4, 0, 4, 8, filled(4 * 8, 3), 100, GIF_KEEP, -1)
+                .write(Files.createTempFile("clm_test_", ".gif"));
+
+        GifVideoSource source = GifVideoSource.open(file);
+        try (NativeImage image = new NativeImage(8, 8, false)) {
+            // Both ticks of the first frame and the second frame, each frame builds on the one before
+            assertEquals(3, source.skipFrames(3, image));
+            assertTrue(source.readFrame(image));
+            assertColor(image, 0, 0, 2);
+            assertColor(image, 7, 0, 3);
+
+            assertFalse(source.readFrame(image));
+            assertEquals(-1, source.skipFrames(1, image), "Nothing left to skip");
+        } finally {
+            source.close();
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    void interlacedFrameWithLocalPalette() throws Exception {
+        int width = 4;
+        int height = 11; // Every pass has rows, the last one is short
+        int[] local = new int[16];
+        byte[] rows = new byte[width * height];
+        for (int y = 0; y < height; y++) {
+            local[y] = 0x101010 * (y + 1);
+            Arrays.fill(rows, y * width, (y + 1) * width, (byte) y);
+        }
+
+        Path file = new Gif(width, height, PALETTE)
+                .frame(0, 0, width, height, rows, 100, GIF_KEEP, -1, local, true)
+                .write(Files.createTempFile("clm_test_", ".gif"));
+
+        GifVideoSource source = GifVideoSource.open(file);
+        try (NativeImage image = new NativeImage(width, height, false)) {
+            assertTrue(source.readFrame(image));
+            for (int y = 0; y < height; y++) {
+                int gray = 0x10 * (y + 1);
+                assertEquals(rgba(gray, gray, gray, 255), image.getPixelRGBA(0, y), "Row " + y);
+                assertEquals(rgba(gray, gray, gray, 255), image.getPixelRGBA(width - 1, y), "Row " + y);
+            }
+        } finally {
+            source.close();
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    void longLzwStreamsFillAndResetTheCodeTable() throws Exception {
+        // Noise barely compresses, so the table fills up and the encoder starts over a few times
+        int width = 160;
+        int height = 120;
+        byte[] indices = new byte[width * height];
+        Random random = new Random(42);
+        for (int i = 0; i < indices.length; i++) {
+            indices[i] = (byte) random.nextInt(PALETTE.length);
+        }
+
+        Path file = new Gif(width, height, PALETTE)
+                .frame(0, 0, width, height, indices, 100, GIF_KEEP, -1)
+                .write(Files.createTempFile("clm_test_", ".gif"));
+
+        GifVideoSource source = GifVideoSource.open(file);
+        try (NativeImage image = new NativeImage(width, height, false)) {
+            assertTrue(source.readFrame(image));
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    int expected = paletteColor(indices[y * width + x]);
+                    if (image.getPixelRGBA(x, y) != expected) {
+                        fail("Pixel " + x + "," + y + " is " + Integer.toHexString(image.getPixelRGBA(x, y))
+                                + ", expected " + Integer.toHexString(expected));
+                    }
+                }
+            }
+        } finally {
+            source.close();
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    void rejectsFilesWithoutFrames() throws Exception {
+        Path file = new Gif(8, 8, PALETTE).write(Files.createTempFile("clm_test_", ".gif"));
+        try {
+            assertThrows(IOException.class, () -> GifVideoSource.open(file));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static byte[] filled(int length, int index) {
+        byte[] indices = new byte[length];
+        Arrays.fill(indices, (byte) index);
+        return indices;
+    }
+
+    private static int paletteColor(int index) {
+        int color = PALETTE[index & 0xFF];
+        return rgba(color >> 16 & 0xFF, color >> 8 & 0xFF, color & 0xFF, 255);
+    }
+
+    private static void assertColor(NativeImage image, int x, int y, int index) {
+        assertEquals(paletteColor(index), image.getPixelRGBA(x, y), "Pixel " + x + "," + y);
+    }
+}
@@ -0,0 +1,53 @@
+package com.chaotic_loom.video_renderer.core;
+
+import com.mojang.blaze3d.platform.NativeImage;
+import net.minecraft.resources.ResourceLocation;
+
+import java.nio.file.Path;
+
+// There is no GL in the tests: a video with everything but the texture, which is a plain image the frames are copied into
+class HeadlessVideo extends VideoRenderer {
+    private static final ResourceLocation TEXTURE = new ResourceLocation("video_renderer", "headless_test");
+
+    private NativeImage textureImage; // Render thread only
+    private int uploads = 0;
+
+    HeadlessVideo(Path file) {
+        super(file.toString());
+    }
+
+    @Override
+    protected void initializeOutputTexture() {
+        if (textureImage == null) {
+            textureImage = new NativeImage(getWidth(), getHeight(), false);
+        }
+    }
+
+    @Override
+    protected void uploadFrame(NativeImage frame) {
+        textureImage.copyFrom(frame);
+        uploads++;
+    }
+
+    @Override
+    public ResourceLocation getTexture() {
+        return TEXTURE;
+    }
+
+    /**
+     * Frames copied into the texture so far.
+     */
+    int getUploads() {
+        return uploads;
+    }
+
+    /**
+     * Frees the texture image, once the video is closed.
+     */
+    void releaseTexture() {
+        if (textureImage != null) {
+            textureImage.close();
+            textureImage = null;
+        }
+    }
+}
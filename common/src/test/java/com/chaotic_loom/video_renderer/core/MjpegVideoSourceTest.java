@@ -0,0 +1,95 @@
+package com.chaotic_loom.video_renderer.core;
+
+import com.mojang.blaze3d.platform.NativeImage;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Decodes generated MJPEG AVIs, one color per frame.
+ */
+class MjpegVideoSourceTest {
+    private static final int WIDTH = 16;
+    private static final int HEIGHT = 16;
+    private static final int[] COLORS = {0xFF0000, 0x00FF00, -1, 0x0000FF}; // The third frame was dropped
+
+    // JPEG is lossy, even for flat colors
+    private static final int TOLERANCE = 8;
+
+    @Test
+    void decodesEveryFrame() throws Exception {
+        Path file = TestImages.mjpeg(Files.createTempFile("clm_test_", ".avi"), WIDTH, HEIGHT, 25, COLORS, false, false);
+
+        MjpegVideoSource source = MjpegVideoSource.open(file);
+        try (NativeImage image = new NativeImage(WIDTH, HEIGHT, false)) {
+            assertEquals(WIDTH, source.getWidth());
+            assertEquals(HEIGHT, source.getHeight());
+            assertEquals(25.0, source.getFrameRate(), 0.001);
+            assertEquals(160_000, source.getLengthInTime(), "4 frames at 25 fps");
+
+            assertTrue(source.readFrame(image));
+            assertColor(image, 0xFF0000);
+            assertTrue(source.readFrame(image));
+            assertColor(image, 0x00FF00);
+            assertTrue(source.readFrame(image));
+            assertColor(image, 0x00FF00); // The dropped frame shows the one before it again
+            assertTrue(source.readFrame(image));
+            assertColor(image, 0x0000FF);
+            assertFalse(source.readFrame(image));
+
+            source.rewind();
+            assertEquals(3, source.skipFrames(3, image));
+            assertTrue(source.readFrame(image));
+            assertColor(image, 0x0000FF);
+            assertEquals(-1, source.skipFrames(1, image), "Nothing left to skip");
+        } finally {
+            source.close();
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    void framesWithoutHuffmanTablesGetTheStandardOnes() throws Exception {
+        Path file = TestImages.mjpeg(Files.createTempFile("clm_test_", ".avi"), WIDTH, HEIGHT, 30, COLORS, true, false);
+
+        int liveCount = NativeResourceTracker.getLiveCount();
+        MjpegVideoSource source = MjpegVideoSource.open(file);
+        try (NativeImage image = new NativeImage(WIDTH, HEIGHT, false)) {
+            assertTrue(source.readFrame(image));
+            assertColor(image, 0xFF0000);
+            assertTrue(source.getNativeBytes() > 0, "Decoded from a patched copy");
+
+            assertTrue(source.readFrame(image));
+            assertColor(image, 0x00FF00);
+        } finally {
+            source.close();
+            Files.deleteIfExists(file);
+        }
+        assertEquals(liveCount, NativeResourceTracker.getLiveCount(), "The patched copy is freed");
+    }
+
+    @Test
+    void filesWithAudioAreLeftToFfmpeg() throws Exception {
+        Path file = TestImages.mjpeg(Files.createTempFile("clm_test_", ".avi"), WIDTH, HEIGHT, 25, COLORS, false, true);
+        try {
+            assertThrows(IOException.class, () -> MjpegVideoSource.open(file));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static void assertColor(NativeImage image, int rgb) {
+        int pixel = image.getPixelRGBA(WIDTH / 2, HEIGHT / 2);
+        int[] expected = {rgb >> 16 & 0xFF, rgb >> 8 & 0xFF, rgb & 0xFF};
+        int[] actual = {pixel & 0xFF, pixel >> 8 & 0xFF, pixel >> 16 & 0xFF};
+        for (int i = 0; i < 3; i++) {
+            assertTrue(Math.abs(expected[i] - actual[i]) <= TOLERANCE,
+                    "Expected " + Integer.toHexString(rgb) + ", got ABGR " + Integer.toHexString(pixel));
+        }
+        assertEquals(0xFF, pixel >>> 24, "Opaque");
+    }
+}
@@ -0,0 +1,174 @@
+package com.chaotic_loom.video_renderer.core;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.time.Duration;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Streams from a local HTTP server through a small read-ahead window, seeking the way FFmpeg does through JavaCV:
+ * reset to the mark at the start, then skip.
+ */
+class ReadAheadBufferTest {
+    private static final int SIZE = 4 * 1024 * 1024;
+    private static final long WINDOW = 256 * 1024;
+    private static final Duration TIMEOUT = Duration.ofSeconds(20);
+    private static final byte[] DATA = new byte[SIZE];
+
+    static {
+        for (int i = 0; i < SIZE; i++) {
+            DATA[i] = (byte) (i * 31 + (i >>> 11));
+        }
+    }
+
+    private HttpServer server;
+    private ReadAheadBuffer buffer;
+    private Thread downloadThread;
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        if (buffer != null) buffer.close();
+        if (downloadThread != null) {
+            downloadThread.interrupt();
+            downloadThread.join(5000);
+        }
+        if (server != null) server.stop(0);
+    }
+
+    @Test
+    void seekPastWindowRestartsWithRange() {
+        InputStream stream = start(true, true);
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            stream.mark(Integer.MAX_VALUE);
+            assertRead(stream, 0, 4096);
+
+            // An index at the end, far past the window
+            stream.reset();
+            assertEquals(SIZE - 64 * 1024, stream.skip(SIZE - 64 * 1024));
+            assertRead(stream, SIZE - 64 * 1024, 64 * 1024);
+            assertEquals(-1, stream.read());
+
+            // Back to the middle, also past what was downloaded from the start
+            stream.reset();
+            stream.skip(SIZE / 2);
+            assertRead(stream, SIZE / 2, 128 * 1024);
+        });
+        assertTrue(buffer.getDownloadedBytes() < SIZE, "Only the wanted parts are downloaded");
+    }
+
+    @Test
+    void seekPastWindowWithoutRangesDownloadsThrough() {
+        InputStream stream = start(false, true);
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            stream.mark(Integer.MAX_VALUE);
+            stream.skip(SIZE - 1024);
+            assertRead(stream, SIZE - 1024, 1024);
+
+            stream.reset();
+            assertRead(stream, 0, 64 * 1024);
+        });
+    }
+
+    @Test
+    void seekEndProbeFindsSize() {
+        InputStream stream = start(true, true);
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            stream.mark(Integer.MAX_VALUE);
+            assertRead(stream, 0, 100);
+
+            // What JavaCV does for SEEK_END and AVSEEK_SIZE, skipping from the current position must not overflow
+            assertEquals(SIZE - 100, stream.skip(Long.MAX_VALUE));
+            assertEquals(0, stream.skip(Long.MAX_VALUE));
+
+            stream.reset();
+            long size = 0;
+            long skipped;
+            while ((skipped = stream.skip(Long.MAX_VALUE)) != 0) {
+                size += skipped;
+            }
+            assertEquals(SIZE, size);
+        });
+    }
+
+    @Test
+    void seekEndProbeFailsWhileSizeIsUnknown() {
+        InputStream stream = start(false, false);
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            stream.mark(Integer.MAX_VALUE);
+            assertRead(stream, 0, 1024);
+            assertThrows(IOException.class, () -> stream.skip(Long.MAX_VALUE));
+
+            // Still readable afterwards
+            stream.reset();
+            assertRead(stream, 0, 1024);
+        });
+    }
+
+    @Test
+    void twoReadersShareTheDownload() {
+        InputStream video = start(true, true);
+        InputStream audio = buffer.openStream();
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            for (int offset = 0; offset < SIZE; offset += 256 * 1024) {
+                assertRead(video, offset, 256 * 1024);
+                assertRead(audio, offset, 256 * 1024);
+            }
+            assertEquals(-1, video.read());
+        });
+    }
+
+    private InputStream start(boolean acceptRanges, boolean sendLength) {
+        try {
+            server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            server.createContext("/video.mp4", exchange -> serve(exchange, acceptRanges, sendLength));
+            server.start();
+
+            buffer = new ReadAheadBuffer(WINDOW);
+            StreamDownloader downloader = new StreamDownloader(buffer);
+            URI uri = URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/video.mp4");
+            downloadThread = new Thread(() -> downloader.run(uri), "Test-Download-Thread");
+            downloadThread.setDaemon(true);
+            downloadThread.start();
+            return buffer.openStream();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void serve(HttpExchange exchange, boolean acceptRanges, boolean sendLength) throws IOException {
+        int offset = 0;
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        if (acceptRanges) {
+            exchange.getResponseHeaders().add("Accept-Ranges", "bytes");
+            if (range != null && range.startsWith("bytes=")) {
+                offset = Integer.parseInt(range.substring(6, range.indexOf('-')));
+                exchange.getResponseHeaders().add("Content-Range", "bytes " + offset + "-" + (SIZE - 1) + "/" + SIZE);
+            }
+        }
+
+        int status = acceptRanges && range != null ? 206 : 200;
+        exchange.sendResponseHeaders(status, sendLength ? SIZE - offset : 0);
+        try (OutputStream body = exchange.getResponseBody()) {
+            for (int i = offset; i < SIZE; i += 16 * 1024) {
+                body.write(DATA, i, Math.min(16 * 1024, SIZE - i));
+            }
+        } catch (IOException e) {
+            // The client dropped the connection to restart elsewhere
+        }
+    }
+
+    private static void assertRead(InputStream stream, int offset, int length) throws IOException {
+        byte[] read = stream.readNBytes(length);
+        assertArrayEquals(Arrays.copyOfRange(DATA, offset, offset + length), read, "Bytes at " + offset);
+    }
+}
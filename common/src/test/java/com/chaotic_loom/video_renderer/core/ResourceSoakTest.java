@@ -0,0 +1,229 @@
+package com.chaotic_loom.video_renderer.core;
+
+import com.mojang.blaze3d.platform.NativeImage;
+import com.sun.management.UnixOperatingSystemMXBean;
+import org.bytedeco.javacpp.Pointer;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.chaotic_loom.video_renderer.core.TestImages.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Opens, plays and closes videos over and over, every native resource and budget reservation must be given back.
+ * Plays by decoding on the test thread, there is no GL for the texture uploads.
+ */
+class ResourceSoakTest {
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+    private static final int CYCLES = 50;
+
+    // Soak: every decoder in turn, played through the controller the way the game does it
+    private static final int SOAK_WARMUP_CYCLES = 1000; // Fills the frame pool, loads the classes and the natives, lets the JIT and malloc settle
+    private static final int SOAK_CYCLES = 3000;
+    private static final int SOAK_WIDTH = 160;
+    private static final int SOAK_HEIGHT = 120;
+    private static final long PLAY_TIMEOUT_NANOS = 10_000_000_000L;
+    private static final int GUI_WIDTH = 640;
+    private static final int GUI_HEIGHT = 360;
+
+    // Room for what the JVM and the allocator do on their own, leaking anything per playback goes far past it
+    private static final long MAX_FD_GROWTH = 16;
+    private static final int MAX_THREAD_GROWTH = 8;
+    private static final long MAX_BUFFER_GROWTH = 4L << 20;
+    private static final long MAX_RSS_GROWTH = 64L << 20;
+
+    @Test
+    void openPlayCloseLeaksNothing() throws Exception {
+        TestRenderThread.claim();
+        assertTrue(NativeResourceTracker.ENABLED, "The tests run as a development environment");
+
+        Path clip = TestClips.write(Files.createTempFile("clm_test_", ".mp4"), WIDTH, HEIGHT, 90, 30);
+        Path vrf = Files.createTempFile("clm_test_", VrfFormat.EXTENSION);
+        ClipCache cache = new ClipCache(ClipCache.DEFAULT_MAX_BYTES, ClipCache.DEFAULT_MAX_CLIP_SECONDS);
+        NativeMemoryBudget budget = VideoPlayerController.getMemoryBudget();
+
+        try (NativeImage image = new NativeImage(WIDTH, HEIGHT, false)) {
+            VrfConverter.convert(clip, vrf, 0, 0);
+
+            int liveCount = NativeResourceTracker.getLiveCount();
+            long liveBytes = NativeResourceTracker.getLiveBytes();
+            long usedBytes = budget.getUsedBytes();
+
+            for (int cycle = 0; cycle < CYCLES; cycle++) {
+                // FFmpeg, played through with a seek back to the start halfway
+                FFmpegVideoSource ffmpeg = FFmpegVideoSource.open(clip.toString());
+                try {
+                    for (int i = 0; i < 45 && ffmpeg.readFrame(image); i++) {}
+                    ffmpeg.rewind();
+                    ffmpeg.skipFrames(20, image);
+                    while (ffmpeg.readFrame(image)) {}
+                } finally {
+                    ffmpeg.close();
+                }
+
+                // A VRF read into memory the way pre-baked resources are
+                try (InputStream stream = Files.newInputStream(vrf)) {
+                    VrfVideoSource source = VrfVideoSource.read(stream);
+                    try {
+                        while (source.readFrame(image)) {}
+                    } finally {
+                        source.close();
+                    }
+                }
+
+                // The clip cache, converted on the first cycle and evicted every few cycles
+                VrfVideoSource cached = cache.open(clip.toString(), () -> Files.newInputStream(clip));
+                assertNotNull(cached, "Clip fits in the cache");
+                try {
+                    while (cached.readFrame(image)) {}
+                } finally {
+                    cached.close();
+                }
+                if (cycle % 5 == 4) {
+                    cache.clear();
+                }
+
+                // A whole video, opened and closed the way the controller does it
+                VideoRenderer video = new VideoRenderer(clip.toString());
+                assertTrue(budget.getUsedBytes() > usedBytes + cache.getUsedBytes(), "The video reserved its buffers");
+                video.close();
+                video.processCommands();
+
+                assertEquals(usedBytes + cache.getUsedBytes(), budget.getUsedBytes(), "Budget in use after cycle " + cycle);
+                assertEquals(liveCount + cache.getEntryCount(), NativeResourceTracker.getLiveCount(), "Live native resources after cycle " + cycle);
+            }
+
+            cache.clear();
+            assertEquals(usedBytes, budget.getUsedBytes(), "Budget in use at the end");
+            assertEquals(liveCount, NativeResourceTracker.getLiveCount(), "Live native resources at the end");
+            assertEquals(liveBytes, NativeResourceTracker.getLiveBytes(), "Live native bytes at the end");
+        } finally {
+            cache.clear();
+            Files.deleteIfExists(clip);
+            Files.deleteIfExists(vrf);
+        }
+    }
+
+    /**
+     * Thousands of load, initialize, play and close cycles, checked against what the process holds rather than the
+     * library's own bookkeeping: a leak nobody tracked still shows up as file descriptors, threads or memory.
+     */
+    @Test
+    @Tag("soak")
+    void thousandsOfPlaybacksLeaveTheProcessFlat() throws Exception {
+        assumeTrue(ManagementFactory.getOperatingSystemMXBean() instanceof UnixOperatingSystemMXBean, "Counts file descriptors");
+        TestRenderThread.claim();
+
+        int[] palette = {0x000000, 0xFF0000, 0x00FF00, 0x0000FF};
+        int pixels = SOAK_WIDTH * SOAK_HEIGHT;
+        List<Path> files = new ArrayList<>();
+        try {
+            files.add(TestClips.write(Files.createTempFile("clm_test_", ".mp4"), SOAK_WIDTH, SOAK_HEIGHT, 30, 10));
+            files.add(TestClips.writeVrf(Files.createTempFile("clm_test_", VrfFormat.EXTENSION), SOAK_WIDTH, SOAK_HEIGHT, 30, 30));
+            files.add(new Gif(SOAK_WIDTH, SOAK_HEIGHT, palette)
+                    .frame(0, 0, SOAK_WIDTH, SOAK_HEIGHT, new byte[pixels], 100, GIF_KEEP, -1)
+                    .frame(8, 8, 16, 16, new byte[16 * 16], 100, GIF_PREVIOUS, -1)
+                    .write(Files.createTempFile("clm_test_", ".gif")));
+            files.add(new Png(SOAK_WIDTH, SOAK_HEIGHT, 6, 8)
+                    .frame(0, 0, SOAK_WIDTH, SOAK_HEIGHT, 100, APNG_NONE, APNG_SOURCE, new byte[pixels * 4])
+                    .frame(8, 8, 16, 16, 100, APNG_PREVIOUS, APNG_OVER, new byte[16 * 16 * 4])
+                    .write(Files.createTempFile("clm_test_", ".png")));
+            files.add(mjpeg(Files.createTempFile("clm_test_", ".avi"), SOAK_WIDTH, SOAK_HEIGHT, 25, new int[]{0xFF0000, 0x00FF00}, false, false));
+
+            for (int cycle = 0; cycle < SOAK_WARMUP_CYCLES; cycle++) {
+                playOnce(files.get(cycle % files.size()));
+            }
+
+            NativeMemoryBudget budget = VideoPlayerController.getMemoryBudget();
+            long usedBytes = budget.getUsedBytes();
+            int liveCount = NativeResourceTracker.getLiveCount();
+            long liveBytes = NativeResourceTracker.getLiveBytes();
+            ProcessCounters before = ProcessCounters.read();
+
+            long start = System.nanoTime();
+            for (int cycle = 0; cycle < SOAK_CYCLES; cycle++) {
+                playOnce(files.get(cycle % files.size()));
+            }
+            long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+            ProcessCounters after = ProcessCounters.read();
+            System.out.printf("%d playbacks in %d ms, before %s, after %s%n", SOAK_CYCLES, elapsedMillis, before, after);
+
+            assertEquals(usedBytes, budget.getUsedBytes(), "Budget in use");
+            assertEquals(liveCount, NativeResourceTracker.getLiveCount(), "Live native resources");
+            assertEquals(liveBytes, NativeResourceTracker.getLiveBytes(), "Live native bytes");
+
+            assertTrue(after.fileDescriptors() - before.fileDescriptors() <= MAX_FD_GROWTH, "Open file descriptors, " + before + " -> " + after);
+            assertTrue(after.threads() - before.threads() <= MAX_THREAD_GROWTH, "Live threads, " + before + " -> " + after);
+            assertTrue(after.directBytes() - before.directBytes() <= MAX_BUFFER_GROWTH, "Direct buffers, " + before + " -> " + after);
+            assertTrue(after.mappedBytes() - before.mappedBytes() <= MAX_BUFFER_GROWTH, "Mapped buffers, " + before + " -> " + after);
+            assertTrue(after.residentBytes() - before.residentBytes() <= MAX_RSS_GROWTH, "Resident memory, " + before + " -> " + after);
+        } finally {
+            for (Path file : files) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    /**
+     * Registers the video with the controller, renders until its first frame is uploaded, then closes it.
+     */
+    private static void playOnce(Path file) {
+        HeadlessVideo video = new HeadlessVideo(file);
+        VideoPlayerController.register(video);
+        try {
+            // The first frame initializes and starts it, the ones after it upload what the decoder thread published
+            long deadline = System.nanoTime() + PLAY_TIMEOUT_NANOS;
+            while (video.getUploads() == 0) {
+                renderFrame();
+                if (video.getState() == PlaybackState.CLOSED) fail("Failed to play " + file);
+                if (System.nanoTime() > deadline) fail("Nothing uploaded from " + file);
+                LockSupport.parkNanos(100_000L);
+            }
+        } finally {
+            video.close();
+            renderFrame();
+            video.releaseTexture();
+        }
+        assertEquals(PlaybackState.CLOSED, video.getState(), "Closed " + file);
+    }
+
+    private static void renderFrame() {
+        VideoPlayerController.setOutputVisible(true);
+        VideoPlayerController.prepareFrame(GUI_WIDTH, GUI_HEIGHT, GUI_HEIGHT);
+    }
+
+    private record ProcessCounters(long fileDescriptors, int threads, long directBytes, long mappedBytes, long residentBytes) {
+        static ProcessCounters read() throws InterruptedException {
+            // Buffers and JavaCPP pointers nobody references are only freed after a GC
+            for (int i = 0; i < 3; i++) {
+                System.gc();
+                Thread.sleep(100);
+            }
+
+            long direct = 0;
+            long mapped = 0;
+            for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+                if (pool.getName().equals("direct")) direct = pool.getMemoryUsed();
+                if (pool.getName().equals("mapped")) mapped = pool.getMemoryUsed();
+            }
+
+            return new ProcessCounters(
+                    ((UnixOperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean()).getOpenFileDescriptorCount(),
+                    ManagementFactory.getThreadMXBean().getThreadCount(),
+                    direct, mapped, Pointer.physicalBytes()
+            );
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.chaotic_loom.video_renderer.core;
+
+import com.chaotic_loom.video_renderer.events.core.RenderEvents;
+import com.mojang.blaze3d.platform.NativeImage;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The per-frame paths should not allocate at all once warmed up, measured with the thread allocation counters of
+ * {@link AllocationTracker}.
+ */
+class SteadyStateAllocationTest {
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+    private static final int MEASURED_FRAMES = 600;
+
+    // Playback: the warmup and the measured frames take a few seconds, the clip must not end (or loop) meanwhile
+    private static final double PLAYBACK_FPS = 240;
+    private static final int PLAYBACK_FRAMES = 2400;
+    private static final long RENDER_INTERVAL_NANOS = 2_000_000L; // A game running at a few hundred fps
+    private static final long TIMEOUT_NANOS = 60_000_000_000L;
+    private static final int GUI_WIDTH = 640;
+    private static final int GUI_HEIGHT = 360;
+
+    // Listeners can not be removed, this one only does something while a test drives the render pass
+    private static volatile boolean rendering = false;
+
+    static {
+        RenderEvents.RENDER.register((drawContext, tickDelta) -> {
+            if (!rendering) return;
+
+            // What the controller does every frame once past the window checks, there is no GL for the draw
+            VideoPlayerController.setOutputVisible(true);
+            VideoPlayerController.prepareFrame(GUI_WIDTH, GUI_HEIGHT, GUI_HEIGHT);
+        });
+    }
+
+    @Test
+    void vrfSourceDoesNotAllocate() throws Exception {
+        Path vrf = TestClips.writeVrf(Files.createTempFile("clm_test_", VrfFormat.EXTENSION), WIDTH, HEIGHT, 60, 30);
+        try (NativeImage image = new NativeImage(WIDTH, HEIGHT, false)) {
+            VrfVideoSource source = VrfVideoSource.map(vrf);
+            try {
+                AllocationTracker allocations = new AllocationTracker("VRF decode");
+                for (int i = 0; i < AllocationTracker.WARMUP_FRAMES + MEASURED_FRAMES; i++) {
+                    allocations.begin();
+                    readLooping(source, image);
+                    allocations.end();
+                }
+                assertNoSteadyAllocations(allocations);
+            } finally {
+                source.close();
+            }
+        } finally {
+            Files.deleteIfExists(vrf);
+        }
+    }
+
+    @Test
+    void animatedImageSourceDoesNotAllocate() throws Exception {
+        AnimatedImageSource source = new AnimatedImageSource(WIDTH, HEIGHT, new int[]{20, 40, 20, 60, 30}) {
+            @Override
+            protected void decodeFrame(int index) {
+                // Every other frame is restored afterwards, so the saved area is used too
+                beginFrame(index * 8, index * 4, WIDTH / 2, HEIGHT / 2, index % 2 == 0 ? Disposal.PREVIOUS : Disposal.BACKGROUND);
+                for (int y = index * 4; y < index * 4 + HEIGHT / 2; y++) {
+                    for (int x = index * 8; x < Math.min(index * 8 + WIDTH / 2, WIDTH); x++) {
+                        canvas.putInt((y * WIDTH + x) * 4, 0xFF000000 | index * 0x203040);
+                    }
+                }
+            }
+        };
+
+        try (NativeImage image = new NativeImage(WIDTH, HEIGHT, false)) {
+            AllocationTracker allocations = new AllocationTracker("Animated image decode");
+            for (int i = 0; i < AllocationTracker.WARMUP_FRAMES + MEASURED_FRAMES; i++) {
+                allocations.begin();
+                readLooping(source, image);
+                allocations.end();
+            }
+            assertNoSteadyAllocations(allocations);
+        } finally {
+            source.close();
+        }
+    }
+
+    /**
+     * Real videos on their decoder threads, started, laid out and uploaded by the controller from the render event.
+     */
+    @Test
+    void playbackDoesNotAllocate() throws Exception {
+        TestRenderThread.claim();
+
+        Path vrf = TestClips.writeVrf(Files.createTempFile("clm_test_", VrfFormat.EXTENSION), WIDTH, HEIGHT, PLAYBACK_FRAMES, PLAYBACK_FPS);
+        List<HeadlessVideo> videos = new ArrayList<>();
+        AllocationTracker renderAllocations = new AllocationTracker("Render event");
+        rendering = true;
+        try {
+            // Different sizes, so the upload order changes from frame to frame and they get sorted
+            for (int i = 0; i < 4; i++) {
+                HeadlessVideo video = new HeadlessVideo(vrf);
+                video.setPlacement(VideoPlacement.at(0.2f * i, 0.1f * i, 0.2f + 0.1f * i, 0.2f + 0.1f * i));
+                VideoPlayerController.register(video);
+                videos.add(video);
+            }
+
+            // Past the warmup and the measured frames on every decoder thread too
+            double measuredSeconds = (AllocationTracker.WARMUP_FRAMES + MEASURED_FRAMES + 1) / PLAYBACK_FPS;
+            long deadline = System.nanoTime() + TIMEOUT_NANOS;
+            int frames = 0;
+            while (frames < AllocationTracker.WARMUP_FRAMES + MEASURED_FRAMES || minPositionSeconds(videos) < measuredSeconds) {
+                renderAllocations.begin();
+                RenderEvents.RENDER.invoker().invoke(null, 0.0f);
+                renderAllocations.end();
+                frames++;
+
+                assertTrue(System.nanoTime() < deadline, "Played " + minPositionSeconds(videos) + "s in " + frames + " frames");
+                LockSupport.parkNanos(RENDER_INTERVAL_NANOS);
+            }
+
+            for (HeadlessVideo video : videos) {
+                assertTrue(video.isPlaying(), "Still playing, the end of the clip was not measured");
+                assertTrue(video.getUploads() > AllocationTracker.WARMUP_FRAMES, "Uploaded " + video.getUploads() + " frames");
+            }
+        } finally {
+            for (HeadlessVideo video : videos) {
+                video.close();
+            }
+
+            // Applies the close, which joins the decoder threads
+            RenderEvents.RENDER.invoker().invoke(null, 0.0f);
+            rendering = false;
+
+            for (HeadlessVideo video : videos) {
+                video.releaseTexture();
+            }
+            Files.deleteIfExists(vrf);
+        }
+
+        assertNoSteadyAllocations(renderAllocations);
+        for (HeadlessVideo video : videos) {
+            assertEquals(PlaybackState.CLOSED, video.getState());
+            assertFalse(VideoPlayerController.getActiveVideos().contains(video), "Removed once closed");
+            assertNoSteadyAllocations(video.getDecoderAllocations());
+        }
+    }
+
+    private static double minPositionSeconds(List<HeadlessVideo> videos) {
+        double position = Double.MAX_VALUE;
+        for (HeadlessVideo video : videos) {
+            position = Math.min(position, video.getPositionSeconds());
+        }
+        return position;
+    }
+
+    private static void readLooping(VideoSource source, NativeImage image) throws Exception {
+        if (!source.readFrame(image)) {
+            source.rewind();
+            assertTrue(source.readFrame(image));
+        }
+    }
+
+    private static void assertNoSteadyAllocations(AllocationTracker allocations) {
+        assertNotNull(allocations, "Allocation tracking is on in tests");
+        assertEquals(0, allocations.getAllocatedBytes(), "Allocated in " + allocations.getAllocatingFrames() + " frames after the warmup");
+    }
+}
@@ -0,0 +1,97 @@
+package com.chaotic_loom.video_renderer.core;
+
+import org.bytedeco.ffmpeg.global.avcodec;
+import org.bytedeco.ffmpeg.global.avutil;
+import org.bytedeco.javacv.FFmpegFrameRecorder;
+import org.bytedeco.javacv.Frame;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Small generated videos, so the tests do not need any assets
+final class TestClips {
+    private TestClips() {}
+
+    /**
+     * An MPEG-4 clip at 30 fps with a keyframe every {@code keyFrameInterval} frames, each frame a different gradient.
+     */
+    static Path write(Path file, int width, int height, int frames, int keyFrameInterval) throws Exception {
+        NativeLibraries.awaitReady();
+
+        FFmpegFrameRecorder recorder = new FFmpegFrameRecorder(file.toFile(), width, height);
+        recorder.setVideoCodec(avcodec.AV_CODEC_ID_MPEG4);
+        recorder.setPixelFormat(avutil.AV_PIX_FMT_YUV420P);
+        recorder.setFrameRate(30);
+        recorder.setGopSize(keyFrameInterval);
+        recorder.start();
+
+        try {
+            Frame frame = new Frame(width, height, Frame.DEPTH_UBYTE, 3);
+            ByteBuffer pixels = (ByteBuffer) frame.image[0];
+            for (int i = 0; i < frames; i++) {
+                for (int y = 0; y < height; y++) {
+                    for (int x = 0; x < width; x++) {
+                        int offset = y * frame.imageStride + x * 3;
+                        pixels.put(offset, (byte) (x * 4 + i));
+                        pixels.put(offset + 1, (byte) (y * 4 + i * 2));
+                        pixels.put(offset + 2, (byte) (i * 3));
+                    }
+                }
+                recorder.record(frame);
+            }
+        } finally {
+            recorder.stop();
+            recorder.release();
+        }
+        return file;
+    }
+
+    /**
+     * A VRF clip without audio, each frame a different gradient. Written directly, so it needs no FFmpeg.
+     */
+    static Path writeVrf(Path file, int width, int height, int frames, double frameRate) throws IOException {
+        byte[] raw = new byte[width * height * 4];
+        byte[] compressed = new byte[Lz4Block.maxCompressedLength(raw.length)];
+        ByteBuffer index = ByteBuffer.allocate(frames * VrfFormat.INDEX_ENTRY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.position(VrfFormat.HEADER_SIZE);
+            for (int i = 0; i < frames; i++) {
+                for (int y = 0; y < height; y++) {
+                    for (int x = 0; x < width; x++) {
+                        int offset = (y * width + x) * 4;
+                        raw[offset] = (byte) (x * 4 + i);
+                        raw[offset + 1] = (byte) (y * 4 + i * 2);
+                        raw[offset + 2] = (byte) (i * 3);
+                        raw[offset + 3] = (byte) 0xFF;
+                    }
+                }
+
+                int length = Lz4Block.compress(raw, raw.length, compressed);
+                index.putLong((long) (i * 1_000_000 / frameRate));
+                index.putLong(channel.position());
+                index.putInt(length);
+                writeFully(channel, ByteBuffer.wrap(compressed, 0, length));
+            }
+
+            long indexOffset = channel.position();
+            writeFully(channel, index.flip());
+
+            ByteBuffer header = ByteBuffer.allocate(VrfFormat.HEADER_SIZE);
+            new VrfFormat.Header(width, height, frameRate, frames, 0, 0, indexOffset, 0, indexOffset).write(header);
+            channel.position(0);
+            writeFully(channel, header.flip());
+        }
+        return file;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,456 @@
+package com.chaotic_loom.video_renderer.core;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+// Small generated GIF, APNG and MJPEG files, written byte by byte so every flag the decoders look at is under control
+final class TestImages {
+    static final int GIF_KEEP = 1;
+    static final int GIF_BACKGROUND = 2;
+    static final int GIF_PREVIOUS = 3;
+
+    static final int APNG_NONE = 0;
+    static final int APNG_BACKGROUND = 1;
+    static final int APNG_PREVIOUS = 2;
+    static final int APNG_SOURCE = 0;
+    static final int APNG_OVER = 1;
+
+    private TestImages() {}
+
+    /**
+     * A pixel the way the canvas and {@link com.mojang.blaze3d.platform.NativeImage} hold it, ABGR.
+     */
+    static int rgba(int r, int g, int b, int a) {
+        return a << 24 | b << 16 | g << 8 | r;
+    }
+
+    /**
+     * A GIF89a with a global palette, frames are LZW compressed the way real encoders do it.
+     */
+    static final class Gif {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        private final int paletteBits;
+
+        /**
+         * @param palette 0xRRGGBB colors, a power of two of them.
+         */
+        Gif(int width, int height, int[] palette) {
+            paletteBits = paletteBits(palette);
+            ascii(out, "GIF89a");
+            u16(out, width);
+            u16(out, height);
+            out.write(0x80 | 0x70 | (paletteBits - 1));
+            out.write(0); // Background index
+            out.write(0); // Aspect ratio
+            writePalette(palette);
+        }
+
+        Gif frame(int x, int y, int width, int height, byte[] indices, int delayMillis, int disposal, int transparentIndex) {
+            return frame(x, y, width, height, indices, delayMillis, disposal, transparentIndex, null, false);
+        }
+
+        /**
+         * @param indices Palette indices, top row first. Interlaced frames are reordered here.
+         * @param localPalette Replaces the global one for this frame, null for none.
+         */
+        Gif frame(int x, int y, int width, int height, byte[] indices, int delayMillis, int disposal, int transparentIndex,
+                  int[] localPalette, boolean interlaced) {
+            // Graphic control extension
+            out.write(0x21);
+            out.write(0xF9);
+            out.write(4);
+            out.write(disposal << 2 | (transparentIndex >= 0 ? 1 : 0));
+            u16(out, delayMillis / 10);
+            out.write(Math.max(transparentIndex, 0));
+            out.write(0);
+
+            out.write(0x2C);
+            u16(out, x);
+            u16(out, y);
+            u16(out, width);
+            u16(out, height);
+            out.write((localPalette != null ? 0x80 | (paletteBits(localPalette) - 1) : 0) | (interlaced ? 0x40 : 0));
+            if (localPalette != null) {
+                writePalette(localPalette);
+            }
+
+            byte[] stored = interlaced ? interlace(indices, width, height) : indices;
+            int minCodeSize = Math.max(2, localPalette != null ? paletteBits(localPalette) : paletteBits);
+            out.write(minCodeSize);
+            byte[] lzw = lzw(stored, minCodeSize);
+            for (int pos = 0; pos < lzw.length; pos += 255) {
+                int length = Math.min(255, lzw.length - pos);
+                out.write(length);
+                out.write(lzw, pos, length);
+            }
+            out.write(0);
+            return this;
+        }
+
+        Path write(Path file) throws IOException {
+            out.write(0x3B);
+            return Files.write(file, out.toByteArray());
+        }
+
+        private void writePalette(int[] palette) {
+            for (int color : palette) {
+                out.write(color >> 16 & 0xFF);
+                out.write(color >> 8 & 0xFF);
+                out.write(color & 0xFF);
+            }
+        }
+
+        private static int paletteBits(int[] palette) {
+            return Math.max(1, Integer.numberOfTrailingZeros(palette.length));
+        }
+
+        // Rows 0, 8, 16.. then 4, 12.. then 2, 6.. then 1, 3..
+        private static byte[] interlace(byte[] indices, int width, int height) {
+            byte[] stored = new byte[indices.length];
+            int row = 0;
+            int[][] passes = {{0, 8}, {4, 8}, {2, 4}, {1, 2}};
+            for (int[] pass : passes) {
+                for (int y = pass[0]; y < height; y += pass[1]) {
+                    System.arraycopy(indices, y * width, stored, row++ * width, width);
+                }
+            }
+            return stored;
+        }
+
+        private static byte[] lzw(byte[] indices, int minCodeSize) {
+            BitWriter bits = new BitWriter();
+            int clear = 1 << minCodeSize;
+            int codeSize = minCodeSize + 1;
+            int next = clear + 2;
+            Map<Integer, Integer> table = new HashMap<>();
+
+            bits.write(clear, codeSize);
+            int prefix = indices[0] & 0xFF;
+            for (int i = 1; i < indices.length; i++) {
+                int suffix = indices[i] & 0xFF;
+                Integer code = table.get(prefix << 8 | suffix);
+                if (code != null) {
+                    prefix = code;
+                    continue;
+                }
+
+                bits.write(prefix, codeSize);
+                if (next < 4096) {
+                    table.put(prefix << 8 | suffix, next++);
+                    // The decoder adds its entry one code later, so it grows right before the code after this one
+                    if (next > 1 << codeSize) codeSize++;
+                } else {
+                    // Full table, start over
+                    bits.write(clear, codeSize);
+                    table.clear();
+                    next = clear + 2;
+                    codeSize = minCodeSize + 1;
+                }
+                prefix = suffix;
+            }
+            bits.write(prefix, codeSize);
+            bits.write(clear + 1, codeSize);
+            return bits.toByteArray();
+        }
+    }
+
+    /**
+     * A PNG, animated once it has a {@link #frame}. Rows are filtered with every filter type in turn.
+     */
+    static final class Png {
+        private final ByteArrayOutputStream chunks = new ByteArrayOutputStream();
+        private final int width;
+        private final int height;
+        private final int colorType;
+        private final int bitDepth;
+        private int frames = 0;
+        private int sequence = 0;
+        private boolean hasDefaultImage = false;
+
+        Png(int width, int height, int colorType, int bitDepth) {
+            this.width = width;
+            this.height = height;
+            this.colorType = colorType;
+            this.bitDepth = bitDepth;
+        }
+
+        Png palette(int[] palette) {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            for (int color : palette) {
+                body.write(color >> 16 & 0xFF);
+                body.write(color >> 8 & 0xFF);
+                body.write(color & 0xFF);
+            }
+            chunk(chunks, "PLTE", body.toByteArray());
+            return this;
+        }
+
+        Png transparency(byte[] alphas) {
+            chunk(chunks, "tRNS", alphas);
+            return this;
+        }
+
+        /**
+         * An IDAT image with no fcTL before it, the whole picture of a plain PNG.
+         * @param rows Unfiltered rows of the full size, no filter bytes.
+         */
+        Png image(byte[] rows) {
+            hasDefaultImage = true;
+            data("IDAT", rows, width, height);
+            return this;
+        }
+
+        /**
+         * @param rows Unfiltered rows of the frame size, no filter bytes.
+         */
+        Png frame(int x, int y, int frameWidth, int frameHeight, int delayMillis, int dispose, int blend, byte[] rows) {
+            ByteBuffer control = ByteBuffer.allocate(26);
+            control.putInt(sequence++).putInt(frameWidth).putInt(frameHeight).putInt(x).putInt(y);
+            control.putShort((short) delayMillis).putShort((short) 1000);
+            control.put((byte) dispose).put((byte) blend);
+            chunk(chunks, "fcTL", control.array());
+
+            // The first frame is the default image, unless there is one already
+            data(frames == 0 && !hasDefaultImage ? "IDAT" : "fdAT", rows, frameWidth, frameHeight);
+            frames++;
+            return this;
+        }
+
+        Path write(Path file) throws IOException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            out.write(new byte[]{(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'});
+
+            ByteBuffer header = ByteBuffer.allocate(13);
+            header.putInt(width).putInt(height).put((byte) bitDepth).put((byte) colorType);
+            header.put((byte) 0).put((byte) 0).put((byte) 0); // Compression, filter, interlace
+            chunk(out, "IHDR", header.array());
+
+            if (frames > 0) {
+                chunk(out, "acTL", ByteBuffer.allocate(8).putInt(frames).putInt(0).array());
+            }
+            chunks.writeTo(out);
+            chunk(out, "IEND", new byte[0]);
+            return Files.write(file, out.toByteArray());
+        }
+
+        private void data(String type, byte[] rows, int dataWidth, int dataHeight) {
+            int bitsPerPixel = bitDepth * switch (colorType) {
+                case 2 -> 3;
+                case 4 -> 2;
+                case 6 -> 4;
+                default -> 1;
+            };
+            int rowBytes = (dataWidth * bitsPerPixel + 7) / 8;
+            int stride = Math.max(1, bitsPerPixel / 8);
+
+            byte[] filtered = new byte[dataHeight * (rowBytes + 1)];
+            byte[] previous = new byte[rowBytes];
+            for (int row = 0; row < dataHeight; row++) {
+                byte[] current = new byte[rowBytes];
+                System.arraycopy(rows, row * rowBytes, current, 0, rowBytes);
+
+                int filter = row % 5;
+                int target = row * (rowBytes + 1);
+                filtered[target] = (byte) filter;
+                for (int i = 0; i < rowBytes; i++) {
+                    int a = i >= stride ? current[i - stride] & 0xFF : 0;
+                    int b = previous[i] & 0xFF;
+                    int c = i >= stride ? previous[i - stride] & 0xFF : 0;
+                    int predicted = switch (filter) {
+                        case 1 -> a;
+                        case 2 -> b;
+                        case 3 -> (a + b) >>> 1;
+                        case 4 -> paeth(a, b, c);
+                        default -> 0;
+                    };
+                    filtered[target + 1 + i] = (byte) (current[i] - predicted);
+                }
+                previous = current;
+            }
+
+            Deflater deflater = new Deflater();
+            deflater.setInput(filtered);
+            deflater.finish();
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            byte[] buffer = new byte[256];
+            while (!deflater.finished()) {
+                compressed.write(buffer, 0, deflater.deflate(buffer));
+            }
+            deflater.end();
+
+            // Small chunks, so frames span several of them
+            byte[] bytes = compressed.toByteArray();
+            for (int pos = 0; pos < bytes.length; pos += 32) {
+                int length = Math.min(32, bytes.length - pos);
+                ByteBuffer body = ByteBuffer.allocate(length + (type.equals("fdAT") ? 4 : 0));
+                if (type.equals("fdAT")) body.putInt(sequence++);
+                body.put(bytes, pos, length);
+                chunk(chunks, type, body.array());
+            }
+        }
+
+        private static int paeth(int a, int b, int c) {
+            int p = a + b - c;
+            int pa = Math.abs(p - a), pb = Math.abs(p - b), pc = Math.abs(p - c);
+            return pa <= pb && pa <= pc ? a : pb <= pc ? b : c;
+        }
+
+        private static void chunk(ByteArrayOutputStream out, String type, byte[] body) {
+            ByteBuffer length = ByteBuffer.allocate(4).putInt(body.length);
+            out.write(length.array(), 0, 4);
+            ascii(out, type);
+            out.write(body, 0, body.length);
+
+            CRC32 crc = new CRC32();
+            crc.update(type.getBytes());
+            crc.update(body);
+            out.write(ByteBuffer.allocate(4).putInt((int) crc.getValue()).array(), 0, 4);
+        }
+    }
+
+    /**
+     * An AVI with one MJPEG stream, each frame a single color.
+     * @param colors 0xRRGGBB per frame, -1 for a dropped frame (an empty chunk).
+     * @param stripHuffmanTables Leaves the tables out of the frames, like the AVI1 encoders do.
+     * @param withAudio Adds an audio stream header, there are no audio chunks.
+     */
+    static Path mjpeg(Path file, int width, int height, int frameRate, int[] colors, boolean stripHuffmanTables, boolean withAudio) throws IOException {
+        ByteArrayOutputStream movi = new ByteArrayOutputStream();
+        ascii(movi, "movi");
+        for (int color : colors) {
+            byte[] jpeg = color < 0 ? new byte[0] : jpeg(width, height, color, stripHuffmanTables);
+            riffChunk(movi, "00dc", jpeg);
+        }
+
+        ByteBuffer avih = le(56);
+        avih.putInt(1_000_000 / frameRate).putInt(0).putInt(0).putInt(0x10).putInt(colors.length).putInt(0);
+        avih.putInt(withAudio ? 2 : 1).putInt(0).putInt(width).putInt(height);
+
+        ByteBuffer strh = le(56);
+        strh.put(fourCC("vids")).put(fourCC("MJPG")).putInt(0).putInt(0).putInt(0);
+        strh.putInt(1).putInt(frameRate).putInt(0).putInt(colors.length); // Scale, rate, start, length
+
+        ByteBuffer strf = le(40);
+        strf.putInt(40).putInt(width).putInt(height).putShort((short) 1).putShort((short) 24).put(fourCC("MJPG"));
+        strf.putInt(width * height * 3);
+
+        ByteArrayOutputStream videoStream = new ByteArrayOutputStream();
+        ascii(videoStream, "strl");
+        riffChunk(videoStream, "strh", strh.array());
+        riffChunk(videoStream, "strf", strf.array());
+
+        ByteArrayOutputStream hdrl = new ByteArrayOutputStream();
+        ascii(hdrl, "hdrl");
+        riffChunk(hdrl, "avih", avih.array());
+        riffChunk(hdrl, "LIST", videoStream.toByteArray());
+        if (withAudio) {
+            ByteBuffer audioHeader = le(56);
+            audioHeader.put(fourCC("auds")).putInt(0).putInt(0).putInt(0).putInt(0).putInt(1).putInt(44100);
+
+            ByteArrayOutputStream audioStream = new ByteArrayOutputStream();
+            ascii(audioStream, "strl");
+            riffChunk(audioStream, "strh", audioHeader.array());
+            riffChunk(audioStream, "strf", le(18).putShort((short) 1).putShort((short) 2).putInt(44100).array());
+            riffChunk(hdrl, "LIST", audioStream.toByteArray());
+        }
+
+        ByteArrayOutputStream avi = new ByteArrayOutputStream();
+        ascii(avi, "AVI ");
+        riffChunk(avi, "LIST", hdrl.toByteArray());
+        riffChunk(avi, "LIST", movi.toByteArray());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        riffChunk(out, "RIFF", avi.toByteArray());
+        return Files.write(file, out.toByteArray());
+    }
+
+    private static byte[] jpeg(int width, int height, int color, boolean stripHuffmanTables) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, color);
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (!ImageIO.write(image, "jpg", out)) throw new IOException("No JPEG writer");
+
+        byte[] jpeg = out.toByteArray();
+        if (!stripHuffmanTables) return jpeg;
+
+        // The writer uses the standard tables, the decoder puts the same ones back
+        ByteArrayOutputStream stripped = new ByteArrayOutputStream();
+        stripped.write(jpeg, 0, 2); // SOI
+        int pos = 2;
+        while (pos + 4 <= jpeg.length && (jpeg[pos + 1] & 0xFF) != 0xDA) {
+            int length = 2 + ((jpeg[pos + 2] & 0xFF) << 8 | (jpeg[pos + 3] & 0xFF));
+            if ((jpeg[pos + 1] & 0xFF) != 0xC4) {
+                stripped.write(jpeg, pos, length);
+            }
+            pos += length;
+        }
+        stripped.write(jpeg, pos, jpeg.length - pos);
+        return stripped.toByteArray();
+    }
+
+    private static void riffChunk(ByteArrayOutputStream out, String id, byte[] body) {
+        ascii(out, id);
+        out.write(le(4).putInt(body.length).array(), 0, 4);
+        out.write(body, 0, body.length);
+        if ((body.length & 1) != 0) out.write(0);
+    }
+
+    private static ByteBuffer le(int size) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static byte[] fourCC(String name) {
+        return name.getBytes();
+    }
+
+    private static void ascii(ByteArrayOutputStream out, String text) {
+        for (int i = 0; i < text.length(); i++) {
+            out.write(text.charAt(i));
+        }
+    }
+
+    private static void u16(ByteArrayOutputStream out, int value) {
+        out.write(value & 0xFF);
+        out.write(value >> 8 & 0xFF);
+    }
+
+    // LSB first, the GIF way
+    private static final class BitWriter {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        private int buffer = 0;
+        private int count = 0;
+
+        void write(int code, int size) {
+            buffer |= code << count;
+            count += size;
+            while (count >= 8) {
+                out.write(buffer & 0xFF);
+                buffer >>>= 8;
+                count -= 8;
+            }
+        }
+
+        byte[] toByteArray() {
+            if (count > 0) {
+                out.write(buffer & 0xFF);
+                buffer = 0;
+                count = 0;
+            }
+            return out.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.chaotic_loom.video_renderer.core;
+
+import com.mojang.blaze3d.systems.RenderSystem;
+
+// There is no game in the tests, the thread running them stands in for the render thread
+final class TestRenderThread {
+    private TestRenderThread() {}
+
+    /**
+     * Makes the current thread the render thread, so {@link VideoRenderer#processCommands()} can run on it.
+     * Only one thread can ever be claimed, keep the calls out of preemptive timeouts.
+     */
+    static synchronized void claim() {
+        if (!RenderSystem.isOnRenderThread()) {
+            RenderSystem.initRenderThread();
+        }
+    }
+}
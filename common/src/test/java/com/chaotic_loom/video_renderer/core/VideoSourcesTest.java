@@ -0,0 +1,94 @@
+package com.chaotic_loom.video_renderer.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static com.chaotic_loom.video_renderer.core.TestImages.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Provider selection goes by the first bytes of the file, not its name.
+ */
+class VideoSourcesTest {
+    private static final int[] PALETTE = {0x000000, 0xFF0000, 0x00FF00, 0x0000FF};
+
+    @Test
+    void picksTheDecoderFromTheHeader() throws Exception {
+        // Misleading extensions on purpose
+        Path gif = new Gif(4, 4, PALETTE)
+                .frame(0, 0, 4, 4, new byte[16], 100, GIF_KEEP, -1)
+                .write(Files.createTempFile("clm_test_", ".png"));
+        Path png = new Png(4, 4, 2, 8)
+                .image(new byte[4 * 4 * 3])
+                .write(Files.createTempFile("clm_test_", ".gif"));
+        Path avi = mjpeg(Files.createTempFile("clm_test_", ".bin"), 16, 16, 25, new int[]{0xFF0000}, false, false);
+
+        try {
+            assertOpensAs(GifVideoSource.class, gif);
+            assertOpensAs(ApngVideoSource.class, png);
+            assertOpensAs(MjpegVideoSource.class, avi);
+        } finally {
+            Files.deleteIfExists(gif);
+            Files.deleteIfExists(png);
+            Files.deleteIfExists(avi);
+        }
+    }
+
+    @Test
+    void providersAreSortedByPriority() {
+        List<VideoSourceProvider> providers = VideoSources.getProviders();
+        for (int i = 1; i < providers.size(); i++) {
+            assertTrue(providers.get(i - 1).getPriority() >= providers.get(i).getPriority(), "Sorted at " + i);
+        }
+        assertInstanceOf(FFmpegVideoSource.Provider.class, providers.get(providers.size() - 1), "FFmpeg is the fallback");
+    }
+
+    @Test
+    void failingProviderHandsTheFileToTheNextOne() throws Exception {
+        // Only takes this test's files, the provider list is shared
+        VideoSources.register(new VideoSourceProvider() {
+            @Override
+            public String getName() {
+                return "Failing test provider";
+            }
+
+            @Override
+            public int getPriority() {
+                return PRIORITY_BUILT_IN + 1;
+            }
+
+            @Override
+            public boolean accepts(String fileName, ByteBuffer header) {
+                return fileName.endsWith(".clmfail");
+            }
+
+            @Override
+            public VideoSource open(Path file) throws Exception {
+                throw new IOException("Refusing " + file);
+            }
+        });
+
+        Path gif = new Gif(4, 4, PALETTE)
+                .frame(0, 0, 4, 4, new byte[16], 100, GIF_KEEP, -1)
+                .write(Files.createTempFile("clm_test_", ".clmfail"));
+        try {
+            assertOpensAs(GifVideoSource.class, gif);
+        } finally {
+            Files.deleteIfExists(gif);
+        }
+    }
+
+    private static void assertOpensAs(Class<? extends VideoSource> type, Path file) throws Exception {
+        VideoSource source = VideoSources.open(file);
+        try {
+            assertInstanceOf(type, source, file.getFileName().toString());
+        } finally {
+            source.close();
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.chaotic_loom.video_renderer.platform;
+
+import com.chaotic_loom.video_renderer.platform.services.IPlatformHelper;
+
+import java.nio.file.Path;
+
+// Runs the common code without a loader. Counts as development, so the native resource tracker is on
+public class TestPlatformHelper implements IPlatformHelper {
+
+    @Override
+    public String getPlatformName() {
+        return "Test";
+    }
+
+    @Override
+    public boolean isModLoaded(String modId) {
+        return false;
+    }
+
+    @Override
+    public boolean isDevelopmentEnvironment() {
+        return true;
+    }
+
+    @Override
+    public Path getGameDirectory() {
+        return Path.of("run");
+    }
+}